@@ -33,6 +33,18 @@ android {
     buildFeatures {
         viewBinding = true
     }
+    testOptions {
+        unitTests {
+            // Layouts are inflated by the Robolectric scale tests
+            isIncludeAndroidResources = true
+            all {
+                it.maxHeapSize = "2g"
+                it.systemProperty("perf.tolerance", project.findProperty("perf.tolerance") ?: "0.25")
+                it.systemProperty("perf.record", project.findProperty("perf.record") ?: "false")
+                it.systemProperty("perf.output", layout.buildDirectory.dir("perf").get().asFile.path)
+            }
+        }
+    }
 }
 
 dependencies {
@@ -45,7 +57,10 @@ dependencies {
     implementation(libs.firebase.bom)
     implementation(libs.firebase.messaging)
     implementation(libs.firebase.firestore)
+    implementation(libs.work.runtime)
     testImplementation(libs.junit)
+    testImplementation(libs.robolectric)
+    testImplementation(libs.androidx.test.core)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 }
\ No newline at end of file
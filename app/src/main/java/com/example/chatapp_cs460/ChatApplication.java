@@ -0,0 +1,31 @@
+/**
+ * Application class that prepares the process-wide state before the first page is shown.
+ */
+package com.example.chatapp_cs460;
+
+import android.app.Application;
+
+import com.example.chatapp_cs460.firebase.FirestoreAccounting;
+import com.example.chatapp_cs460.firebase.UserDirectory;
+import com.example.chatapp_cs460.utilities.LinkPreviewCache;
+import com.example.chatapp_cs460.utilities.MainThreadWatchdog;
+import com.example.chatapp_cs460.utilities.SyncPolicy;
+
+public class ChatApplication extends Application {
+    /**
+     * An overridden method that starts loading the prebuilt user directory in the background,
+     * so the users page can render from it without a server round trip. The sync policy starts
+     * watching the network before any page reads from the database. Debug builds watch the main
+     * thread from the start. Link previews are kept on disk across restarts. Database reads and
+     * writes are counted against the page on screen from the first page on.
+     */
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        MainThreadWatchdog.getInstance().start(this);
+        FirestoreAccounting.getInstance().start(this);
+        SyncPolicy.getInstance().start(this);
+        LinkPreviewCache.getInstance().start(this);
+        UserDirectory.getInstance().load(this, null);
+    }
+}
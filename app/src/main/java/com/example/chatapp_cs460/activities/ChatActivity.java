@@ -3,44 +3,116 @@
  */
 package com.example.chatapp_cs460.activities;
 
+import android.app.DatePickerDialog;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
+import android.net.Uri;
 import android.os.Bundle;
-import android.util.Base64;
 import android.view.View;
+import android.widget.EditText;
+import android.widget.Toast;
 
+import androidx.activity.result.ActivityResultLauncher;
+import androidx.activity.result.contract.ActivityResultContracts;
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.work.WorkInfo;
+import androidx.work.WorkManager;
+
+import com.example.chatapp_cs460.R;
 import com.example.chatapp_cs460.adapters.ChatAdapter;
+import com.example.chatapp_cs460.adapters.DayHeaderDecoration;
+import com.example.chatapp_cs460.crypto.MessageCipher;
+import com.example.chatapp_cs460.crypto.MessageDecryptor;
+import com.example.chatapp_cs460.crypto.SessionKeyStore;
+import com.example.chatapp_cs460.crypto.SessionKeys;
 import com.example.chatapp_cs460.databinding.ActivityChatBinding;
+import com.example.chatapp_cs460.firebase.ClearedConversations;
+import com.example.chatapp_cs460.firebase.FirestoreAccounting;
+import com.example.chatapp_cs460.firebase.MessageArchive;
+import com.example.chatapp_cs460.firebase.MessageHub;
+import com.example.chatapp_cs460.firebase.MessageReactions;
+import com.example.chatapp_cs460.firebase.MessageWindowLoader;
+import com.example.chatapp_cs460.firebase.UserDirectory;
+import com.example.chatapp_cs460.listeners.AvatarListener;
+import com.example.chatapp_cs460.listeners.MessageListener;
+import com.example.chatapp_cs460.listeners.MessageStreamListener;
 import com.example.chatapp_cs460.models.ChatMessage;
 import com.example.chatapp_cs460.models.User;
+import com.example.chatapp_cs460.utilities.AvatarCache;
 import com.example.chatapp_cs460.utilities.Constants;
+import com.example.chatapp_cs460.utilities.MessageBackupFile;
+import com.example.chatapp_cs460.utilities.MessageNotifications;
+import com.example.chatapp_cs460.utilities.MessageTextCache;
+import com.example.chatapp_cs460.utilities.MessageUpdateCoalescer;
 import com.example.chatapp_cs460.utilities.PreferenceManager;
+import com.example.chatapp_cs460.utilities.SyncPolicy;
+import com.example.chatapp_cs460.workers.MessageBackupWorker;
+import com.google.firebase.firestore.Blob;
 import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
 import com.google.firebase.firestore.QuerySnapshot;
 
+import java.io.File;
+import java.security.GeneralSecurityException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+
+public class ChatActivity extends AppCompatActivity implements MessageListener {
+    /**
+     * Preference file of the saved scroll anchors, one per conversation.
+     */
+    private static final String SCROLL_PREFERENCE_NAME = "chatAppScrollPreference";
 
-public class ChatActivity extends AppCompatActivity {
     /**
      * ChatActivity relevant fields of binding, user, messages, preferences, and database.
      */
     private ActivityChatBinding binding;
 
     private User receiverUser;
+    private String conversationId;
+    private final Set<String> loadedMessageIds = new HashSet<>();
 
     private List<ChatMessage> chatMessages;
     private ChatAdapter chatAdapter;
+    private MessageUpdateCoalescer updateCoalescer;
+    private SessionKeys sessionKeys;
     private PreferenceManager preferenceManager;
     private FirebaseFirestore database;
+    private final SimpleDateFormat timeFormat = new SimpleDateFormat("hh:mm a", Locale.getDefault());
+
+    /**
+     * Window of the conversation that is loaded, the live listener that takes over at its newest
+     * end and the saved scroll anchors. The generation drops loads of a window that was replaced.
+     * Messages up to the time the user cleared the conversation are not shown.
+     */
+    private MessageWindowLoader messageWindowLoader;
+    private Date clearedBefore;
+    private ListenerRegistration groupRegistration;
+    private SharedPreferences scrollAnchors;
+    private Date pendingAnchor;
+    private boolean isLive = false;
+    private boolean isLoadingWindow = false;
+    private int windowGeneration = 0;
 
     /**
      * Method that creates the elements and processes in the Chat Activity.
@@ -53,17 +125,36 @@ public class ChatActivity extends AppCompatActivity {
         binding = ActivityChatBinding.inflate(getLayoutInflater());
         // View setup
         setContentView(binding.getRoot());
-        // Receiver data fetch
-        loadReceiverDetails();
         // Setting up listeners
         setListeners();
         // Initialising components
         init();
-        // Fetching messages from the database
-        ListenMessage();
+        // Receiver data fetch, messages are fetched once the receiver is known
+        loadReceiverDetails();
 
     }
 
+    /**
+     * Method that saves the scroll anchor of the conversation when the page is left.
+     */
+    @Override
+    protected void onPause() {
+        super.onPause();
+        saveScrollAnchor();
+    }
+
+    /**
+     * Method that drops messages still waiting for the next frame when the page is closed.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (updateCoalescer != null) {
+            updateCoalescer.cancel();
+        }
+        detachLive();
+    }
+
     /**
      * Method that initialises the activity fields
      */
@@ -71,59 +162,662 @@ public class ChatActivity extends AppCompatActivity {
         // Connecting fields
         preferenceManager = new PreferenceManager(getApplicationContext());
         chatMessages = new ArrayList<>();
-        chatAdapter = new ChatAdapter(
-                getBitmapFromEncodedString(receiverUser.image),
-                chatMessages,
-                preferenceManager.getString(Constants.KEY_USER_ID)
-        );
+        scrollAnchors = getSharedPreferences(SCROLL_PREFERENCE_NAME, Context.MODE_PRIVATE);
+        // Connecting database instance
+        database = FirebaseFirestore.getInstance();
+    }
 
+    /**
+     * Method that connects the adapter and starts fetching messages once the other side of the
+     * conversation is known.
+     */
+    private void startConversation() {
+        if (isGroupConversation()) {
+            // Group conversations resolve the profile image of every sender from the shared cache
+            chatAdapter = new ChatAdapter(
+                    null,
+                    chatMessages,
+                    preferenceManager.getString(Constants.KEY_USER_ID),
+                    AvatarCache.getInstance()
+            );
+        } else {
+            // The avatar is usually decoded already by the users page, else its placeholder shows
+            AvatarCache avatarCache = AvatarCache.getInstance();
+            Bitmap avatar = avatarCache.get(receiverUser.id);
+            chatAdapter = new ChatAdapter(
+                    avatar != null ? avatar : avatarCache.getPlaceholder(receiverUser.imagePlaceholder),
+                    chatMessages,
+                    preferenceManager.getString(Constants.KEY_USER_ID)
+            );
+            if (avatar == null) {
+                AvatarListener onAvatarLoaded = (userId, bitmap) -> {
+                    if (bitmap != null) {
+                        chatAdapter.setReceiverProfileImage(bitmap);
+                    }
+                };
+                if (receiverUser.image != null) {
+                    avatarCache.loadEncoded(receiverUser.id, receiverUser.image, onAvatarLoaded);
+                } else {
+                    avatarCache.load(receiverUser.id, onAvatarLoaded);
+                }
+            }
+        }
+
+        // Own messages can be edited and deleted with a long press
+        chatAdapter.setMessageListener(this);
         // Connecting adapter to RecyclerView
         binding.chatRecyclerView.setAdapter(chatAdapter);
-        // Connecting database instance
-        database = FirebaseFirestore.getInstance();
+        // Drawing a date header above the first message of every day
+        binding.chatRecyclerView.addItemDecoration(new DayHeaderDecoration(this, chatMessages));
+        // Applying received messages at most once per frame
+        updateCoalescer = new MessageUpdateCoalescer(chatMessages, chatAdapter, binding.chatRecyclerView,
+                this::onMessagesApplied);
+        // Growing the window when the user scrolls to either end of it
+        binding.chatRecyclerView.addOnScrollListener(windowScrollListener);
+        if (isGroupConversation()) {
+            // Fetching messages from the database
+            ListenMessage();
+            return;
+        }
+        // Resolving the session key first, so encrypted messages can be decrypted as they arrive
+        SessionKeyStore.getInstance()
+                .getSessionKeys(getApplicationContext(), database, preferenceManager.getString(Constants.KEY_USER_ID),
+                        receiverUser)
+                .addOnCompleteListener(this, task -> {
+                    sessionKeys = task.isSuccessful() ? task.getResult() : null;
+                    // Fetching messages from the database
+                    ListenMessage();
+                });
     }
 
     /**
      * Send message to the database.
      */
     private void sendMessages() {
+        // A sent message belongs at the newest end, so an older window is left first
+        if (!isLive && messageWindowLoader != null) {
+            loadWindow(null);
+        }
+        if (isGroupConversation()) {
+            sendGroupMessage();
+            return;
+        }
+        // The receiver may still be loading
+        if (receiverUser == null) {
+            return;
+        }
         HashMap<String, Object> message = new HashMap<>();
+        String conversationKey = getConversationKey();
+        String text = binding.inputMessage.getText().toString();
 
         // Adding pair values
         message.put(Constants.KEY_SENDER_ID, preferenceManager.getString(Constants.KEY_USER_ID));
         message.put(Constants.KEY_RECEIVER_ID, receiverUser.id);
-        message.put(Constants.KEY_MESSAGE, binding.inputMessage.getText().toString());
+        message.put(Constants.KEY_CONVERSATION_KEY, conversationKey);
         message.put(Constants.KEY_TIMESTAMP, new Date());
+        // Only the ciphertext is stored when the receiver published a key
+        byte[] ciphertext = encryptMessage(text, conversationKey);
+        if (ciphertext != null) {
+            message.put(Constants.KEY_CIPHERTEXT, Blob.fromBytes(ciphertext));
+        } else {
+            message.put(Constants.KEY_MESSAGE, text);
+        }
 
         // Adding into database
-        database.collection(Constants.KEY_COLLECTION_CHAT).add(message);
+        FirestoreAccounting.getInstance().write(database.collection(Constants.KEY_COLLECTION_CHAT).add(message),
+                1, "messages.send");
         // Resetting input field
         binding.inputMessage.setText(null);
     }
 
     /**
-     * Method that listens and fetches messages from the database.
+     * Method that encrypts a message text with the session key of the conversation.
+     * @param text String type message text.
+     * @param conversationKey String type key of the conversation.
+     * @return Returns the ciphertext, or null if the message is sent in plaintext.
+     */
+    private byte[] encryptMessage(String text, String conversationKey) {
+        if (!Constants.MESSAGE_ENCRYPTION_ENABLED || sessionKeys == null) {
+            return null;
+        }
+        try {
+            return MessageCipher.encrypt(sessionKeys.getCurrentKey(), sessionKeys.getCurrentKeyId(),
+                    conversationKey, text);
+        } catch (GeneralSecurityException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Send message to the messages sub collection of the group conversation. Besides the message,
+     * only the conversation document is updated, so the write cost does not grow with the members.
+     */
+    private void sendGroupMessage() {
+        String senderId = preferenceManager.getString(Constants.KEY_USER_ID);
+        String text = binding.inputMessage.getText().toString();
+        Date timestamp = new Date();
+        DocumentReference conversationReference = database
+                .collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                .document(conversationId);
+
+        HashMap<String, Object> message = new HashMap<>();
+        message.put(Constants.KEY_SENDER_ID, senderId);
+        message.put(Constants.KEY_MESSAGE, text);
+        message.put(Constants.KEY_TIMESTAMP, timestamp);
+
+        // Adding into the conversation
+        FirestoreAccounting.getInstance().write(
+                conversationReference.collection(Constants.KEY_COLLECTION_MESSAGES).add(message),
+                1, "conversation.send");
+
+        // Updating the conversation preview
+        HashMap<String, Object> conversation = new HashMap<>();
+        conversation.put(Constants.KEY_LAST_MESSAGE, text);
+        conversation.put(Constants.KEY_LAST_SENDER_ID, senderId);
+        conversation.put(Constants.KEY_TIMESTAMP, timestamp);
+        FirestoreAccounting.getInstance().write(conversationReference.update(conversation),
+                1, "conversation.preview");
+
+        // Resetting input field
+        binding.inputMessage.setText(null);
+    }
+
+    /**
+     * Method that listens and fetches messages from the database. Only a window of the history is
+     * read, around the saved scroll anchor or at the newest messages, and the window shrinks on
+     * slow or metered links. The time the user cleared the conversation is read first.
      */
     private void ListenMessage() {
-        // Fetching where sender is the main user
-        database.collection(Constants.KEY_COLLECTION_CHAT)
-                .whereEqualTo(Constants.KEY_SENDER_ID,
-                    preferenceManager.getString(Constants.KEY_USER_ID))
-                .whereEqualTo(Constants.KEY_RECEIVER_ID, receiverUser.id)
-                .addSnapshotListener(eventListener);
+        SyncPolicy syncPolicy = SyncPolicy.getInstance();
+        int messageWindowSize = syncPolicy.getHistoryWindowSize(MessageWindowLoader.MESSAGE_WINDOW_SIZE);
+        int archiveWindowSize = syncPolicy.getHistoryWindowSize(MessageWindowLoader.ARCHIVE_WINDOW_SIZE);
+        ClearedConversations.getClearedBefore(database, preferenceManager.getString(Constants.KEY_USER_ID),
+                getScrollAnchorKey()).addOnCompleteListener(this, task -> {
+            clearedBefore = task.getResult();
+            messageWindowLoader = new MessageWindowLoader(database, conversationId,
+                    isGroupConversation() ? null : getConversationKey(), messageWindowSize, archiveWindowSize);
+            messageWindowLoader.setClearedBefore(clearedBefore);
+            loadWindow(getSavedScrollAnchor());
+        });
+    }
 
-        // Fetching where the sender is the opposite user
-        database.collection(Constants.KEY_COLLECTION_CHAT)
-                .whereEqualTo(Constants.KEY_SENDER_ID,
-                        receiverUser.id)
-                .whereEqualTo(Constants.KEY_RECEIVER_ID,
-                        preferenceManager.getString(Constants.KEY_USER_ID))
-                .addSnapshotListener(eventListener);
+    /**
+     * Method that replaces the shown messages with the window around a point in time. Live updates
+     * are attached once the window reaches the newest messages.
+     * @param anchor Date to open the conversation at, null for the newest messages.
+     */
+    private void loadWindow(Date anchor) {
+        detachLive();
+        int generation = ++windowGeneration;
+        loadedMessageIds.clear();
+        updateCoalescer.clear();
+        pendingAnchor = anchor;
+        isLoadingWindow = true;
+        binding.progressBar.setVisibility(View.VISIBLE);
+        messageWindowLoader.loadAround(anchor).addOnCompleteListener(this, task -> {
+            if (generation != windowGeneration) {
+                return;
+            }
+            isLoadingWindow = false;
+            binding.progressBar.setVisibility(View.GONE);
+            if (!task.isSuccessful()) {
+                showToast("Unable to load messages");
+                return;
+            }
+            deliverWindow(task.getResult());
+            if (!messageWindowLoader.hasNewer()) {
+                attachLive();
+            }
+        });
+    }
 
+    /**
+     * Method that extends the window with the messages before the oldest shown message.
+     * The coalescer prepends them without moving the message on screen.
+     */
+    private void loadOlderWindow() {
+        int generation = windowGeneration;
+        isLoadingWindow = true;
+        messageWindowLoader.loadOlder().addOnCompleteListener(this, task -> {
+            if (generation != windowGeneration) {
+                return;
+            }
+            isLoadingWindow = false;
+            if (task.isSuccessful()) {
+                deliverWindow(task.getResult());
+            }
+        });
     }
 
     /**
-     * EventLister from the database where chat messages are dynamically refereshed.
+     * Method that extends the window with the messages after the newest shown message, attaching
+     * live updates once the newest messages are reached.
+     */
+    private void loadNewerWindow() {
+        int generation = windowGeneration;
+        isLoadingWindow = true;
+        messageWindowLoader.loadNewer().addOnCompleteListener(this, task -> {
+            if (generation != windowGeneration) {
+                return;
+            }
+            isLoadingWindow = false;
+            if (!task.isSuccessful()) {
+                return;
+            }
+            deliverWindow(task.getResult());
+            if (!messageWindowLoader.hasNewer()) {
+                attachLive();
+            }
+        });
+    }
+
+    /**
+     * Scroll listener that loads the next window when the user reaches an end of the loaded one.
+     */
+    private final RecyclerView.OnScrollListener windowScrollListener = new RecyclerView.OnScrollListener() {
+        @Override
+        public void onScrolled(RecyclerView recyclerView, int dx, int dy) {
+            if (messageWindowLoader == null || isLoadingWindow || chatMessages.isEmpty()) {
+                return;
+            }
+            if (!recyclerView.canScrollVertically(-1) && messageWindowLoader.hasOlder()) {
+                loadOlderWindow();
+            } else if (!recyclerView.canScrollVertically(1) && messageWindowLoader.hasNewer()) {
+                loadNewerWindow();
+            }
+        }
+    };
+
+    /**
+     * Method that hands the messages of a window to the list, skipping messages already shown.
+     * @param windowMessages List of messages read by the window loader.
+     */
+    private void deliverWindow(List<ChatMessage> windowMessages) {
+        List<ChatMessage> newMessages = new ArrayList<>();
+        for (ChatMessage chatMessage : windowMessages) {
+            if (chatMessage.dateObject != null && loadedMessageIds.add(chatMessage.id)) {
+                chatMessage.dateTime = getReadableDateTime(chatMessage.dateObject);
+                newMessages.add(chatMessage);
+            }
+        }
+        deliverMessages(newMessages);
+    }
+
+    /**
+     * Method that starts live updates after the newest loaded message. Groups listen to their
+     * messages after the window, one-to-one chats subscribe to the recent tail of the MessageHub.
+     */
+    private void attachLive() {
+        if (isLive) {
+            return;
+        }
+        isLive = true;
+        updateCoalescer.setFollowingNewest(true);
+        if (isGroupConversation()) {
+            Query query = database.collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                    .document(conversationId)
+                    .collection(Constants.KEY_COLLECTION_MESSAGES)
+                    .orderBy(Constants.KEY_TIMESTAMP);
+            // The exact document, so messages sent at the same time as the newest one are kept
+            DocumentSnapshot newestLoaded = messageWindowLoader.getNewestLoaded();
+            if (newestLoaded != null) {
+                query = query.startAfter(newestLoaded);
+            } else if (clearedBefore != null) {
+                query = query.startAfter(clearedBefore);
+            }
+            groupRegistration = query.addSnapshotListener(FirestoreAccounting.getInstance()
+                    .listen("conversation.live", eventListener));
+            return;
+        }
+        // The recent tail comes from the app-wide inbound listeners instead of queries of its own
+        MessageHub messageHub = MessageHub.getInstance();
+        messageHub.start(getApplicationContext(), database, preferenceManager.getString(Constants.KEY_USER_ID));
+        messageHub.subscribe(receiverUser.id, streamListener);
+    }
+
+    /**
+     * Method that stops live updates, used when an older window is opened or the page is closed.
+     */
+    private void detachLive() {
+        if (!isLive) {
+            return;
+        }
+        isLive = false;
+        updateCoalescer.setFollowingNewest(false);
+        if (groupRegistration != null) {
+            groupRegistration.remove();
+            groupRegistration = null;
+        }
+        if (!isGroupConversation()) {
+            MessageHub.getInstance().unsubscribe(receiverUser.id, streamListener);
+        }
+    }
+
+    /**
+     * Method called after every applied batch. It shows the list and, after a window was opened at
+     * a point in time, scrolls to the first message at or after it.
+     */
+    private void onMessagesApplied() {
+        binding.chatRecyclerView.setVisibility(View.VISIBLE);
+        if (pendingAnchor == null || chatMessages.isEmpty()) {
+            return;
+        }
+        // Binary search, the list is ordered by time
+        int low = 0;
+        int high = chatMessages.size() - 1;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (chatMessages.get(middle).dateObject.before(pendingAnchor)) {
+                low = middle + 1;
+            } else {
+                high = middle;
+            }
+        }
+        pendingAnchor = null;
+        ((LinearLayoutManager) binding.chatRecyclerView.getLayoutManager()).scrollToPositionWithOffset(low, 0);
+    }
+
+    /**
+     * Method that saves the time of the first visible message, so the conversation reopens there.
+     * A user following the newest messages has the anchor cleared instead.
+     */
+    private void saveScrollAnchor() {
+        String anchorKey = getScrollAnchorKey();
+        if (anchorKey == null || chatMessages.isEmpty()) {
+            return;
+        }
+        if (isLive && !binding.chatRecyclerView.canScrollVertically(1)) {
+            scrollAnchors.edit().remove(anchorKey).apply();
+            return;
+        }
+        int position = ((LinearLayoutManager) binding.chatRecyclerView.getLayoutManager())
+                .findFirstVisibleItemPosition();
+        if (position != RecyclerView.NO_POSITION && position < chatMessages.size()) {
+            scrollAnchors.edit().putLong(anchorKey, chatMessages.get(position).dateObject.getTime()).apply();
+        }
+    }
+
+    /**
+     * Method that returns the saved scroll anchor of the conversation.
+     * @return Returns the Date of the anchor or null to open at the newest messages.
+     */
+    private Date getSavedScrollAnchor() {
+        String anchorKey = getScrollAnchorKey();
+        if (anchorKey == null || !scrollAnchors.contains(anchorKey)) {
+            return null;
+        }
+        return new Date(scrollAnchors.getLong(anchorKey, 0));
+    }
+
+    /**
+     * Method that returns the key of the conversation in the saved scroll anchors.
+     * @return Returns the key, or null while the conversation is not known yet.
+     */
+    private String getScrollAnchorKey() {
+        if (isGroupConversation()) {
+            return conversationId;
+        }
+        return receiverUser != null ? getConversationKey() : null;
+    }
+
+    /**
+     * Method that shows a date picker and opens the conversation at the start of the chosen day.
+     */
+    private void showJumpToDateDialog() {
+        if (messageWindowLoader == null) {
+            return;
+        }
+        Calendar today = Calendar.getInstance();
+        DatePickerDialog dialog = new DatePickerDialog(this, (view, year, month, dayOfMonth) -> {
+            Calendar day = Calendar.getInstance();
+            day.clear();
+            day.set(year, month, dayOfMonth);
+            loadWindow(day.getTime());
+        }, today.get(Calendar.YEAR), today.get(Calendar.MONTH), today.get(Calendar.DAY_OF_MONTH));
+        dialog.getDatePicker().setMaxDate(today.getTimeInMillis());
+        dialog.show();
+    }
+
+    /**
+     * Method that offers to export the conversation, as JSON Lines or in the compact binary
+     * format, or to restore a backup.
+     */
+    private void showBackupDialog() {
+        if (messageWindowLoader == null) {
+            return;
+        }
+        CharSequence[] actions = {getString(R.string.export_conversation),
+                getString(R.string.export_conversation_compact), getString(R.string.restore_backup),
+                getString(R.string.clear_conversation)};
+        new AlertDialog.Builder(this)
+                .setItems(actions, (dialog, which) -> {
+                    if (which == 0) {
+                        exportConversation(MessageBackupFile.Format.JSON_LINES);
+                    } else if (which == 1) {
+                        exportConversation(MessageBackupFile.Format.BINARY);
+                    } else if (which == 2) {
+                        pickBackup.launch(new String[]{"*/*"});
+                    } else {
+                        confirmClearConversation();
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Method that asks before clearing the conversation.
+     */
+    private void confirmClearConversation() {
+        new AlertDialog.Builder(this)
+                .setMessage(R.string.clear_conversation_confirm)
+                .setPositiveButton(R.string.clear, (dialog, which) -> clearConversation())
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Method that clears the conversation for the signed in user only. The messages are shared
+     * with the other members, so they are hidden up to now instead of deleted, and the newest
+     * window is reloaded without them. The write is sent once the database can be reached.
+     */
+    private void clearConversation() {
+        Date now = new Date();
+        ClearedConversations.clear(database, preferenceManager.getString(Constants.KEY_USER_ID),
+                getScrollAnchorKey(), now).addOnFailureListener(this, e -> showToast("Unable to clear conversation"));
+        clearedBefore = now;
+        messageWindowLoader.setClearedBefore(now);
+        scrollAnchors.edit().remove(getScrollAnchorKey()).apply();
+        loadWindow(null);
+        showToast("Conversation cleared");
+    }
+
+    /**
+     * Method that exports the conversation in the background into the backups folder of the app.
+     * @param format Format of the backup file.
+     */
+    private void exportConversation(MessageBackupFile.Format format) {
+        File directory = getExternalFilesDir("backups");
+        if (directory == null) {
+            showToast("Unable to export messages");
+            return;
+        }
+        String scope = isGroupConversation() ? MessageBackupFile.SCOPE_GROUP : MessageBackupFile.SCOPE_CHAT;
+        String id = isGroupConversation() ? conversationId : receiverUser.id;
+        File file = new File(directory, scope + "_" + id + "_" + System.currentTimeMillis() + format.getExtension());
+        observeBackup(MessageBackupWorker.export(getApplicationContext(), scope, id, Uri.fromFile(file), format),
+                false, "Exported to " + file.getName(), "Unable to export messages");
+    }
+
+    /**
+     * Picker of the backup file to restore, read in the background once chosen.
+     */
+    private final ActivityResultLauncher<String[]> pickBackup = registerForActivityResult(
+            new ActivityResultContracts.OpenDocument(),
+            uri -> {
+                if (uri == null) {
+                    return;
+                }
+                // Keeping access to the file, so a restore retried later can still read it
+                getContentResolver().takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+                observeBackup(MessageBackupWorker.restore(getApplicationContext(), uri), true,
+                        "Messages restored", "Unable to restore messages");
+            }
+    );
+
+    /**
+     * Method that shows the outcome of a backup work while the page is open. A finished restore
+     * reloads the newest window, since the history in it changed.
+     * @param workId UUID of the work.
+     * @param reloadsHistory Whether the newest window is reloaded when the work succeeds.
+     * @param success String type message shown when the work succeeds.
+     * @param failure String type message shown when the work fails.
+     */
+    private void observeBackup(UUID workId, boolean reloadsHistory, String success, String failure) {
+        showToast("Working on messages in the background");
+        WorkManager.getInstance(getApplicationContext()).getWorkInfoByIdLiveData(workId).observe(this, workInfo -> {
+            if (workInfo == null || !workInfo.getState().isFinished()) {
+                return;
+            }
+            if (workInfo.getState() == WorkInfo.State.SUCCEEDED) {
+                showToast(success);
+                if (reloadsHistory) {
+                    loadWindow(null);
+                }
+            } else {
+                showToast(failure);
+            }
+        });
+    }
+
+    /**
+     * Stream listener of the chat with the receiver, fed by the MessageHub.
+     */
+    private final MessageStreamListener streamListener = new MessageStreamListener() {
+        @Override
+        public void onMessagesReceived(List<ChatMessage> streamMessages) {
+            List<ChatMessage> newMessages = new ArrayList<>();
+            for (ChatMessage chatMessage : streamMessages) {
+                if (!isCleared(chatMessage) && loadedMessageIds.add(chatMessage.id)) {
+                    chatMessage.dateTime = getReadableDateTime(chatMessage.dateObject);
+                    newMessages.add(chatMessage);
+                }
+            }
+            // Decrypting and measuring texts in the background, buffering until the next frame
+            deliverMessages(newMessages);
+            binding.progressBar.setVisibility(View.GONE);
+        }
+
+        @Override
+        public void onMessageChanged(ChatMessage chatMessage) {
+            chatMessage.dateTime = getReadableDateTime(chatMessage.dateObject);
+            deliverChangedMessage(chatMessage);
+        }
+
+        @Override
+        public void onMessageRemoved(String messageId) {
+            removeMessage(messageId);
+        }
+    };
+
+    /**
+     * Method that hands received messages to the list. Encrypted messages are decrypted on the
+     * worker pool first and arrive in batches, plaintext messages are applied directly.
+     * @param receivedMessages List of received messages.
+     */
+    private void deliverMessages(List<ChatMessage> receivedMessages) {
+        List<ChatMessage> plainMessages = new ArrayList<>();
+        List<ChatMessage> encryptedMessages = new ArrayList<>();
+        for (ChatMessage chatMessage : receivedMessages) {
+            if (chatMessage.ciphertext != null) {
+                encryptedMessages.add(chatMessage);
+            } else {
+                plainMessages.add(chatMessage);
+            }
+        }
+        applyMessages(plainMessages);
+        if (!encryptedMessages.isEmpty()) {
+            MessageDecryptor.getInstance().decrypt(encryptedMessages, sessionKeys, getConversationKey(),
+                    this::applyMessages);
+        }
+    }
+
+    /**
+     * Method that measures the texts of ready messages in the background and buffers them until
+     * the next frame.
+     * @param readyMessages List of messages with their text set.
+     */
+    private void applyMessages(List<ChatMessage> readyMessages) {
+        if (readyMessages.isEmpty() || isDestroyed()) {
+            return;
+        }
+        MessageTextCache.getInstance().precompute(readyMessages);
+        updateCoalescer.submit(readyMessages);
+    }
+
+    /**
+     * Method that replaces an edited message in the list. Its cached texts are dropped, and an
+     * encrypted message is decrypted again in the background first. A change of the reactions
+     * alone keeps the text and rebinds only the reaction counts.
+     * @param chatMessage ChatMessage with the new text.
+     */
+    private void deliverChangedMessage(ChatMessage chatMessage) {
+        if (!loadedMessageIds.contains(chatMessage.id)) {
+            return;
+        }
+        ChatMessage currentMessage = updateCoalescer.get(chatMessage.id);
+        if (currentMessage != null && MessageReactions.isReactionChange(currentMessage, chatMessage)) {
+            chatMessage.message = currentMessage.message;
+            updateCoalescer.update(chatMessage, ChatAdapter.PAYLOAD_REACTIONS);
+            return;
+        }
+        MessageTextCache.getInstance().invalidate(chatMessage.id);
+        if (chatMessage.ciphertext == null) {
+            applyChangedMessage(chatMessage);
+            return;
+        }
+        MessageDecryptor messageDecryptor = MessageDecryptor.getInstance();
+        messageDecryptor.invalidate(chatMessage.id);
+        messageDecryptor.decrypt(Collections.singletonList(chatMessage), sessionKeys, getConversationKey(),
+                decryptedMessages -> applyChangedMessage(decryptedMessages.get(0)));
+    }
+
+    /**
+     * Method that measures the new text of an edited message and rebinds only its position.
+     * @param chatMessage ChatMessage with the new text set.
+     */
+    private void applyChangedMessage(ChatMessage chatMessage) {
+        if (isDestroyed()) {
+            return;
+        }
+        MessageTextCache.getInstance().precompute(Collections.singletonList(chatMessage));
+        updateCoalescer.update(chatMessage);
+    }
+
+    /**
+     * Method that tells whether a message is hidden because the user cleared the conversation.
+     * @param chatMessage ChatMessage class object.
+     * @return Returns true if the message was sent up to the time the conversation was cleared.
+     */
+    private boolean isCleared(ChatMessage chatMessage) {
+        return clearedBefore != null && chatMessage.dateObject != null
+                && !chatMessage.dateObject.after(clearedBefore);
+    }
+
+    /**
+     * Method that removes a deleted message from the list, notifying only its position.
+     * @param messageId String type ID of the deleted message.
+     */
+    private void removeMessage(String messageId) {
+        if (loadedMessageIds.remove(messageId)) {
+            MessageTextCache.getInstance().invalidate(messageId);
+            updateCoalescer.remove(messageId);
+        }
+    }
+
+    /**
+     * EventLister from the database where group messages are dynamically refereshed.
+     * New messages are buffered and applied at most once per frame, edits and deletes update
+     * only the position of their message.
      */
     private final EventListener<QuerySnapshot> eventListener = ((value, error) -> {
         if (error != null) {
@@ -131,65 +825,255 @@ public class ChatActivity extends AppCompatActivity {
         }
         // If value exists
         if (value != null) {
-            int count = chatMessages.size();
+            List<ChatMessage> newMessages = new ArrayList<>();
             // For every document change
             for (DocumentChange documentChange:value.getDocumentChanges()) {
-                // If changed message type is added
-                if (documentChange.getType() == DocumentChange.Type.ADDED) {
-                    // Create new chatMessage
-                    ChatMessage chatMessage = new ChatMessage();
-                    chatMessage.senderId = documentChange.getDocument().getString(Constants.KEY_SENDER_ID);
-                    chatMessage.receiverId = documentChange.getDocument().getString(Constants.KEY_RECEIVER_ID);
-                    chatMessage.message = documentChange.getDocument().getString(Constants.KEY_MESSAGE);
-                    chatMessage.dateTime = getReadableDateTime(
-                            documentChange.getDocument().getDate(Constants.KEY_TIMESTAMP));
-
-                    chatMessage.dateObject = documentChange.getDocument().getDate(Constants.KEY_TIMESTAMP);
-                    // Add to chatMessages
-                    chatMessages.add(chatMessage);
+                DocumentSnapshot document = documentChange.getDocument();
+                // Deleted messages are removed whether they are flagged or gone
+                if (documentChange.getType() == DocumentChange.Type.REMOVED
+                        || Boolean.TRUE.equals(document.getBoolean(Constants.KEY_DELETED))) {
+                    removeMessage(document.getId());
+                    continue;
+                }
+                // Create new chatMessage
+                ChatMessage chatMessage = new ChatMessage();
+                chatMessage.id = document.getId();
+                chatMessage.senderId = document.getString(Constants.KEY_SENDER_ID);
+                chatMessage.receiverId = conversationId;
+                chatMessage.message = document.getString(Constants.KEY_MESSAGE);
+                chatMessage.edited = Boolean.TRUE.equals(document.getBoolean(Constants.KEY_EDITED));
+                MessageReactions.read(chatMessage, document.get(Constants.KEY_REACTIONS),
+                        document.get(Constants.KEY_REACTED_BY));
+                chatMessage.dateObject = document.getDate(Constants.KEY_TIMESTAMP);
+                chatMessage.dateTime = getReadableDateTime(chatMessage.dateObject);
+                // If changed message type is modified, replace it in place
+                if (documentChange.getType() == DocumentChange.Type.MODIFIED) {
+                    deliverChangedMessage(chatMessage);
+                } else if (!isCleared(chatMessage) && loadedMessageIds.add(chatMessage.id)) {
+                    // Add to the batch of new messages
+                    newMessages.add(chatMessage);
                 }
             }
-            // Sorting the chat messages
-            Collections.sort(chatMessages, (obj1, obj2) -> obj1.dateObject.compareTo(obj2.dateObject));
-            // If count is 0
-            if (count == 0) {
-                // Notify change
-                chatAdapter.notifyDataSetChanged();
-            } else {
-                // Else, notify updated changes
-                chatAdapter.notifyItemRangeChanged(chatMessages.size(), chatMessages.size());
-
-                // Scroll to add new message
-                binding.chatRecyclerView.smoothScrollToPosition(chatMessages.size() - 1);
-            }
-            // Make RecyclerView visible
-            binding.chatRecyclerView.setVisibility(View.VISIBLE);
+            // Decrypting and measuring texts in the background, buffering until the next frame
+            deliverMessages(newMessages);
         }
         // Remove Progress Bar from page
         binding.progressBar.setVisibility(View.GONE);
     });
 
     /**
-     * Method that decodes the profileImage String from the database.
-     * @param encodedImage String type encoded profile image.
-     * @return Returns a Bitmap profile image for easy process.
+     * Method to load receiver details of the chat conversation. Only the ID of the receiver is
+     * passed to the page, the details are resolved from the process-wide user directory and
+     * fetched from the database if they are missing.
      */
-    private Bitmap getBitmapFromEncodedString(String encodedImage) {
-        // Turning into byte array.
-        byte[] bytes = Base64.decode(encodedImage, Base64.DEFAULT);
-        // Returning Bitmap
-        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    private void loadReceiverDetails() {
+        // Group conversations are opened by ID
+        conversationId = getIntent().getStringExtra(Constants.KEY_CONVERSATION_ID);
+        if (isGroupConversation()) {
+            binding.textName.setText(getIntent().getStringExtra(Constants.KEY_CONVERSATION_NAME));
+            startConversation();
+            return;
+        }
+        // Resolving the opposite user
+        String receiverId = getIntent().getStringExtra(Constants.KEY_RECEIVER_ID);
+        UserDirectory userDirectory = UserDirectory.getInstance();
+        User cachedUser = userDirectory.getUser(receiverId);
+        if (cachedUser != null) {
+            onReceiverLoaded(cachedUser);
+            return;
+        }
+        userDirectory.fetchUser(database, receiverId)
+                .addOnSuccessListener(this, this::onReceiverLoaded)
+                .addOnFailureListener(this, e -> {
+                    Toast.makeText(getApplicationContext(), "Unable to load user", Toast.LENGTH_SHORT).show();
+                    finish();
+                });
     }
 
     /**
-     * Method to load receiver details of the chat conversation.
+     * Method that shows the receiver and starts the conversation.
+     * @param user User class object of the receiver.
      */
-    private void loadReceiverDetails() {
-        // Fetching opposite user from the database
-        receiverUser = (User) getIntent().getSerializableExtra(Constants.KEY_USER);
+    private void onReceiverLoaded(User user) {
+        receiverUser = user;
+        // The messages of the notification are shown on the page
+        MessageNotifications.cancel(getApplicationContext(), receiverUser.id);
         // Setting opposite user name
         binding.textName.setText(receiverUser.name);
+        startConversation();
+    }
 
+    /**
+     * Method that returns the key of the chat with the receiver.
+     * @return Returns the conversation key shared by both users.
+     */
+    private String getConversationKey() {
+        return MessageArchive.getConversationKey(preferenceManager.getString(Constants.KEY_USER_ID), receiverUser.id);
+    }
+
+    /**
+     * Action listener that offers to react to a message, and to edit or delete the user's own
+     * messages.
+     * @param chatMessage ChatMessage class object that was long pressed.
+     */
+    @Override
+    public void onMessageLongClicked(ChatMessage chatMessage) {
+        if (!chatMessage.senderId.equals(preferenceManager.getString(Constants.KEY_USER_ID))) {
+            showReactionDialog(chatMessage);
+            return;
+        }
+        CharSequence[] actions = {getString(R.string.react),
+                getString(R.string.edit_message), getString(R.string.delete_message)};
+        new AlertDialog.Builder(this)
+                .setItems(actions, (dialog, which) -> {
+                    if (which == 0) {
+                        showReactionDialog(chatMessage);
+                    } else if (which == 1) {
+                        showEditMessageDialog(chatMessage);
+                    } else {
+                        deleteMessage(chatMessage);
+                    }
+                })
+                .show();
+    }
+
+    /**
+     * Method that shows the emojis a message can be reacted with.
+     * @param chatMessage ChatMessage class object to react to.
+     */
+    private void showReactionDialog(ChatMessage chatMessage) {
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.react)
+                .setItems(MessageReactions.EMOJIS, (dialog, which) ->
+                        reactToMessage(chatMessage, MessageReactions.EMOJIS[which]))
+                .show();
+    }
+
+    /**
+     * Method that writes a reaction as counter increments on the message. The listeners deliver it
+     * back as a modified document, group messages older than the live listener are updated once
+     * the write succeeds.
+     * @param chatMessage ChatMessage class object to react to.
+     * @param emoji String type emoji of the reaction.
+     */
+    private void reactToMessage(ChatMessage chatMessage, String emoji) {
+        String userId = preferenceManager.getString(Constants.KEY_USER_ID);
+        MessageReactions.react(getMessageReference(chatMessage), chatMessage, userId, emoji)
+                .addOnSuccessListener(this, unused -> {
+                    if (isGroupConversation()) {
+                        deliverChangedMessage(MessageReactions.withReaction(chatMessage, userId, emoji));
+                    }
+                })
+                .addOnFailureListener(e -> showToast("Unable to react to message"));
+    }
+
+    /**
+     * Method that shows a dialog to change the text of a message.
+     * @param chatMessage ChatMessage class object to be edited.
+     */
+    private void showEditMessageDialog(ChatMessage chatMessage) {
+        EditText inputMessage = new EditText(this);
+        inputMessage.setText(chatMessage.message);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.edit_message)
+                .setView(inputMessage)
+                .setPositiveButton(R.string.save, (dialog, which) ->
+                        editMessage(chatMessage, inputMessage.getText().toString()))
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * Method that writes the new text of a message. The listeners deliver the change back as a
+     * modified document, which replaces the message in place. Group messages older than the live
+     * listener are replaced once the write succeeds.
+     * @param chatMessage ChatMessage class object to be edited.
+     * @param text String type new message text.
+     */
+    private void editMessage(ChatMessage chatMessage, String text) {
+        if (text.trim().isEmpty() || text.equals(chatMessage.message)) {
+            return;
+        }
+        HashMap<String, Object> updates = new HashMap<>();
+        updates.put(Constants.KEY_EDITED, true);
+        byte[] ciphertext = isGroupConversation() ? null : encryptMessage(text, getConversationKey());
+        if (ciphertext != null) {
+            updates.put(Constants.KEY_CIPHERTEXT, Blob.fromBytes(ciphertext));
+            updates.put(Constants.KEY_MESSAGE, FieldValue.delete());
+        } else {
+            updates.put(Constants.KEY_MESSAGE, text);
+            updates.put(Constants.KEY_CIPHERTEXT, FieldValue.delete());
+        }
+        FirestoreAccounting.getInstance().write(getMessageReference(chatMessage).update(updates), 1, "messages.edit")
+                .addOnSuccessListener(this, unused -> {
+                    // The group listener only covers messages after the window it was opened at
+                    if (isGroupConversation()) {
+                        ChatMessage editedMessage = new ChatMessage();
+                        editedMessage.id = chatMessage.id;
+                        editedMessage.senderId = chatMessage.senderId;
+                        editedMessage.receiverId = chatMessage.receiverId;
+                        editedMessage.message = text;
+                        editedMessage.edited = true;
+                        editedMessage.dateObject = chatMessage.dateObject;
+                        editedMessage.dateTime = chatMessage.dateTime;
+                        editedMessage.reactions = chatMessage.reactions;
+                        editedMessage.reactedBy = chatMessage.reactedBy;
+                        deliverChangedMessage(editedMessage);
+                    }
+                })
+                .addOnFailureListener(e -> showToast("Unable to edit message"));
+    }
+
+    /**
+     * Method that deletes a message. One-to-one messages are flagged deleted and their text is
+     * cleared, since documents that disappear from the chat collection may just have been archived.
+     * @param chatMessage ChatMessage class object to be deleted.
+     */
+    private void deleteMessage(ChatMessage chatMessage) {
+        if (isGroupConversation()) {
+            FirestoreAccounting.getInstance().write(getMessageReference(chatMessage).delete(), 1, "messages.delete")
+                    .addOnSuccessListener(this, unused -> removeMessage(chatMessage.id))
+                    .addOnFailureListener(e -> showToast("Unable to delete message"));
+            return;
+        }
+        HashMap<String, Object> updates = new HashMap<>();
+        updates.put(Constants.KEY_DELETED, true);
+        updates.put(Constants.KEY_MESSAGE, FieldValue.delete());
+        updates.put(Constants.KEY_CIPHERTEXT, FieldValue.delete());
+        FirestoreAccounting.getInstance().write(getMessageReference(chatMessage).update(updates), 1, "messages.delete")
+                .addOnFailureListener(e -> showToast("Unable to delete message"));
+    }
+
+    /**
+     * Method that returns the document of a message. Archived messages have no document of their
+     * own any more, so editing them fails.
+     * @param chatMessage ChatMessage class object.
+     * @return Returns the DocumentReference of the message.
+     */
+    private DocumentReference getMessageReference(ChatMessage chatMessage) {
+        if (isGroupConversation()) {
+            return database.collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                    .document(conversationId)
+                    .collection(Constants.KEY_COLLECTION_MESSAGES)
+                    .document(chatMessage.id);
+        }
+        return database.collection(Constants.KEY_COLLECTION_CHAT).document(chatMessage.id);
+    }
+
+    /**
+     * Helper method that displays toast messages on the page.
+     * @param message A String message to display on the page.
+     */
+    private void showToast(String message) {
+        Toast.makeText(getApplicationContext(), message, Toast.LENGTH_SHORT).show();
+    }
+
+    /**
+     * Method that checks whether the page shows a group conversation.
+     * @return Returns true for a group conversation, false for a chat with a single user.
+     */
+    private boolean isGroupConversation() {
+        return conversationId != null;
     }
 
     /**
@@ -200,16 +1084,20 @@ public class ChatActivity extends AppCompatActivity {
         binding.imageBack.setOnClickListener(v -> onBackPressed());
         // Send icon press
         binding.layoutSend.setOnClickListener(v -> sendMessages());
+        // Calendar icon press
+        binding.imageJumpToDate.setOnClickListener(v -> showJumpToDateDialog());
+        // Info icon press
+        binding.imageInfo.setOnClickListener(v -> showBackupDialog());
     }
 
     /**
-     * Method that turns a Data object into a String date format.
+     * Method that turns a Data object into the time shown under a bubble. The day is shown by the
+     * header above the first message of the day.
      *  @param date Data class type object.
-     * @return Returns a formatted date in String type.
+     * @return Returns a formatted time in String type.
      */
     private String getReadableDateTime(Date date) {
         // Turning Date object into formatted String
-        return new SimpleDateFormat("MMM dd, yyyy - hh:mm a",
-                Locale.getDefault()).format(date);
+        return timeFormat.format(date);
     }
 }
\ No newline at end of file
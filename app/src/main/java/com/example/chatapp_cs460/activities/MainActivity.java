@@ -4,32 +4,68 @@
  */
 package com.example.chatapp_cs460.activities;
 
+import android.Manifest;
 import android.content.Intent;
+import android.content.pm.PackageManager;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
+import android.net.Uri;
+import android.os.Build;
 import android.os.Bundle;
 import android.util.Base64;
+import android.view.View;
 import android.widget.Toast;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.core.content.ContextCompat;
 
+import com.example.chatapp_cs460.R;
+import com.example.chatapp_cs460.adapters.ConversationsAdapter;
+import com.example.chatapp_cs460.crypto.CredentialStore;
+import com.example.chatapp_cs460.crypto.MessageDecryptor;
+import com.example.chatapp_cs460.crypto.SessionKeyStore;
 import com.example.chatapp_cs460.databinding.ActivityMainBinding;
+import com.example.chatapp_cs460.firebase.FirestoreAccounting;
+import com.example.chatapp_cs460.firebase.MessageHub;
+import com.example.chatapp_cs460.listeners.ConversationListener;
+import com.example.chatapp_cs460.models.Conversation;
+import com.example.chatapp_cs460.utilities.AvatarCache;
 import com.example.chatapp_cs460.utilities.Constants;
+import com.example.chatapp_cs460.utilities.MessageBackupFile;
 import com.example.chatapp_cs460.utilities.PreferenceManager;
+import com.example.chatapp_cs460.utilities.SyncPolicy;
+import com.example.chatapp_cs460.workers.BulkDeleteWorker;
+import com.example.chatapp_cs460.workers.ConversationPrefetchWorker;
+import com.example.chatapp_cs460.workers.MessageBackupWorker;
+import com.example.chatapp_cs460.workers.MessageCompactionWorker;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
 import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.QuerySnapshot;
 import com.google.firebase.messaging.FirebaseMessaging;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 
-public class MainActivity extends AppCompatActivity {
+public class MainActivity extends AppCompatActivity implements ConversationListener {
 
     /**
      * Main Activity fields.
      */
     private ActivityMainBinding binding;
     private PreferenceManager preferenceManager;
+    private List<Conversation> conversations;
+    private ConversationsAdapter conversationsAdapter;
+    private ListenerRegistration conversationsRegistration;
 
 
     /**
@@ -44,19 +80,168 @@ public class MainActivity extends AppCompatActivity {
         preferenceManager = new PreferenceManager(getApplicationContext());
         loadUserDetails();
         setListeners();
+        listenConversations();
+        // Starting the app-wide listeners that feed every chat and the unread badges
+        MessageHub.getInstance().start(getApplicationContext(), FirebaseFirestore.getInstance(),
+                preferenceManager.getString(Constants.KEY_USER_ID));
+        // Scheduling the archiving of older messages
+        if (Constants.MESSAGE_ARCHIVE_ENABLED) {
+            MessageCompactionWorker.schedule(getApplicationContext());
+        }
+        // Scheduling the cache warm up of the most active conversations
+        ConversationPrefetchWorker.schedule(getApplicationContext());
+        // Publishing the public key other users encrypt their messages to this user with
+        if (Constants.MESSAGE_ENCRYPTION_ENABLED) {
+            SessionKeyStore.getInstance().publishPublicKey(getApplicationContext(),
+                    FirebaseFirestore.getInstance(), preferenceManager.getString(Constants.KEY_USER_ID));
+        }
+    }
+
+    /**
+     * An overridden method that detaches the conversations listener when the page is closed.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (conversationsRegistration != null) {
+            conversationsRegistration.remove();
+        }
+    }
+
+    /**
+     * Method that listens to the group conversations of the main user. Membership is indexed on the
+     * conversation document, so a single listener covers every group, whatever its size.
+     */
+    private void listenConversations() {
+        conversations = new ArrayList<>();
+        conversationsAdapter = new ConversationsAdapter(conversations, this);
+        binding.conversationsRecyclerView.setAdapter(conversationsAdapter);
+        conversationsRegistration = FirebaseFirestore.getInstance()
+                .collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                .whereArrayContains(Constants.KEY_MEMBERS, preferenceManager.getString(Constants.KEY_USER_ID))
+                .addSnapshotListener(FirestoreAccounting.getInstance()
+                        .listen("conversations.member", conversationsListener));
+    }
+
+    /**
+     * EventListener that keeps the conversation list in sync with the database.
+     */
+    private final EventListener<QuerySnapshot> conversationsListener = ((value, error) -> {
+        if (error != null || value == null) {
+            return;
+        }
+        for (DocumentChange documentChange : value.getDocumentChanges()) {
+            DocumentSnapshot document = documentChange.getDocument();
+            // Removing the outdated entry of a changed or removed conversation
+            for (int i = 0; i < conversations.size(); i++) {
+                if (conversations.get(i).id.equals(document.getId())) {
+                    conversations.remove(i);
+                    break;
+                }
+            }
+            if (documentChange.getType() != DocumentChange.Type.REMOVED) {
+                conversations.add(toConversation(document));
+            }
+        }
+        // Most recently active conversations first
+        Collections.sort(conversations, (obj1, obj2) -> obj2.dateObject.compareTo(obj1.dateObject));
+        conversationsAdapter.notifyDataSetChanged();
+        binding.conversationsRecyclerView.setVisibility(
+                conversations.isEmpty() ? View.GONE : View.VISIBLE);
+    });
+
+    /**
+     * Helper method that turns a conversation document into a Conversation object.
+     * @param document DocumentSnapshot of the conversation.
+     * @return Returns the Conversation object.
+     */
+    @SuppressWarnings("unchecked")
+    private Conversation toConversation(DocumentSnapshot document) {
+        Conversation conversation = new Conversation();
+        conversation.id = document.getId();
+        conversation.name = document.getString(Constants.KEY_CONVERSATION_NAME);
+        conversation.members = (List<String>) document.get(Constants.KEY_MEMBERS);
+        conversation.lastMessage = document.getString(Constants.KEY_LAST_MESSAGE);
+        conversation.lastSenderId = document.getString(Constants.KEY_LAST_SENDER_ID);
+        conversation.dateObject = document.getDate(Constants.KEY_TIMESTAMP);
+        if (conversation.dateObject == null) {
+            conversation.dateObject = new Date(0);
+        }
+        return conversation;
+    }
+
+    /**
+     * Action listener that opens the clicked group conversation.
+     * @param conversation Conversation class object.
+     */
+    @Override
+    public void onConversationClicked(Conversation conversation) {
+        Intent intent = new Intent(getApplicationContext(), ChatActivity.class);
+        intent.putExtra(Constants.KEY_CONVERSATION_ID, conversation.id);
+        intent.putExtra(Constants.KEY_CONVERSATION_NAME, conversation.name);
+        startActivity(intent);
     }
 
     /**
      * Setting up listeners for clicking.
      */
     private void setListeners() {
-        // Sign out icon listener
+        // Sign out icon listener, a long press deletes the account
         binding.imagesSignOut.setOnClickListener(v -> signOut());
+        binding.imagesSignOut.setOnLongClickListener(v -> {
+            confirmDeleteAccount();
+            return true;
+        });
+        // Data saver icon listener
+        binding.imageDataSaver.setOnClickListener(v -> toggleDataSaver());
+        showDataSaver();
+        // Profile image long press exports every chat of the account
+        binding.imageProfile.setOnLongClickListener(v -> {
+            exportAccount();
+            return true;
+        });
         // Create new chat icon listener
         binding.fabNewChat.setOnClickListener(v ->
                 startActivity(new Intent(getApplicationContext(), UserActivity.class)));
     }
 
+    /**
+     * Method that exports every one-to-one chat of the user in the background into the backups
+     * folder of the app. Group conversations are exported from their own page.
+     */
+    private void exportAccount() {
+        File directory = getExternalFilesDir("backups");
+        if (directory == null) {
+            showToast("Unable to export messages");
+            return;
+        }
+        String userId = preferenceManager.getString(Constants.KEY_USER_ID);
+        MessageBackupFile.Format format = MessageBackupFile.Format.BINARY;
+        File file = new File(directory, MessageBackupFile.SCOPE_ACCOUNT + "_" + userId + "_"
+                + System.currentTimeMillis() + format.getExtension());
+        MessageBackupWorker.export(getApplicationContext(), MessageBackupFile.SCOPE_ACCOUNT, userId,
+                Uri.fromFile(file), format);
+        showToast(getString(R.string.export_account) + ": " + file.getName());
+    }
+
+    /**
+     * Method that turns the data saver on or off. With data saver on, history and the user
+     * directory are read in small pages, avatars only from the cache, and nothing is prefetched.
+     */
+    private void toggleDataSaver() {
+        SyncPolicy syncPolicy = SyncPolicy.getInstance();
+        syncPolicy.setDataSaverEnabled(!syncPolicy.isDataSaverEnabled());
+        showDataSaver();
+        showToast(getString(syncPolicy.isDataSaverEnabled() ? R.string.data_saver_on : R.string.data_saver_off));
+    }
+
+    /**
+     * Helper method that dims the data saver icon while data saver is off.
+     */
+    private void showDataSaver() {
+        binding.imageDataSaver.setAlpha(SyncPolicy.getInstance().isDataSaverEnabled() ? 1f : 0.5f);
+    }
+
     /**
      * Method to load main user details in the page.
      */
@@ -81,10 +266,16 @@ public class MainActivity extends AppCompatActivity {
     }
 
     /**
-     * Helper method that gets the activity token from the database.
+     * Helper method that gets the activity token from the database. From Android 13 message
+     * notifications also need the permission of the user.
      */
     private void getToken() {
         FirebaseMessaging.getInstance().getToken().addOnSuccessListener(this::updateToken);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.TIRAMISU
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.POST_NOTIFICATIONS)
+                != PackageManager.PERMISSION_GRANTED) {
+            requestPermissions(new String[]{Manifest.permission.POST_NOTIFICATIONS}, 0);
+        }
     }
 
     /**
@@ -96,12 +287,38 @@ public class MainActivity extends AppCompatActivity {
         // Users collection main user ID document
         DocumentReference documentReference = database.collection(Constants.KEY_COLLECTION_USERS)
                 .document(preferenceManager.getString(Constants.KEY_USER_ID));
-        // Updating token in the database
-        documentReference.update(Constants.KEY_FCM_TOKEN, token).addOnSuccessListener(unused ->
-                showToast("Token updated successfully"))
+        // Updating token in the database, directory copies pick it up through the updatedAt field
+        FirestoreAccounting.getInstance().write(documentReference.update(Constants.KEY_FCM_TOKEN, token,
+                        Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp()), 1, "users.token")
+                .addOnSuccessListener(unused -> showToast("Token updated successfully"))
                 .addOnFailureListener(e -> showToast("Unable to update Token"));
     }
 
+    /**
+     * Method that asks before deleting the account. The account is deleted in the background,
+     * continuing after the app is closed, while this device forgets the user right away.
+     */
+    private void confirmDeleteAccount() {
+        new AlertDialog.Builder(this)
+                .setMessage(R.string.delete_account_confirm)
+                .setPositiveButton(R.string.delete, (dialog, which) -> {
+                    String userId = preferenceManager.getString(Constants.KEY_USER_ID);
+                    BulkDeleteWorker.deleteAccount(getApplicationContext(), userId);
+                    // Forgetting the keys, the stored sign in and the cached messages of the user
+                    CredentialStore.getInstance().forgetUser(getApplicationContext(), userId);
+                    SessionKeyStore.getInstance().forget(getApplicationContext(), userId);
+                    AvatarCache.getInstance().remove(userId);
+                    preferenceManager.clear();
+                    MessageDecryptor.getInstance().clear();
+                    MessageHub.getInstance().stop();
+                    showToast("Deleting account in the background");
+                    startActivity(new Intent(getApplicationContext(), SignInActivity.class));
+                    finish();
+                })
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
     /**
      * Method that signs out the user from the application.
      */
@@ -114,10 +331,13 @@ public class MainActivity extends AppCompatActivity {
         HashMap<String, Object> updates = new HashMap<>();
         // Deleting token from database
         updates.put(Constants.KEY_FCM_TOKEN, FieldValue.delete());
+        updates.put(Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp());
         // Clearing preferences and starting new sign in activity
-        documentReference.update(updates)
+        FirestoreAccounting.getInstance().write(documentReference.update(updates), 1, "users.signOut")
                 .addOnSuccessListener(unused -> {
                     preferenceManager.clear();
+                    MessageDecryptor.getInstance().clear();
+                    MessageHub.getInstance().stop();
                     startActivity(new Intent(getApplicationContext(), SignInActivity.class));
                     finish();
                 }).addOnFailureListener(e -> showToast("Unable to sign out"));
@@ -18,9 +18,12 @@ import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
 import com.example.chatapp_cs460.R;
+import com.example.chatapp_cs460.crypto.CredentialStore;
 import com.example.chatapp_cs460.databinding.ActivitySignInBinding;
+import com.example.chatapp_cs460.firebase.FirestoreAccounting;
 import com.example.chatapp_cs460.utilities.Constants;
 import com.example.chatapp_cs460.utilities.PreferenceManager;
+import com.example.chatapp_cs460.workers.CredentialRevalidationWorker;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 
@@ -61,7 +64,6 @@ public class SignInActivity extends AppCompatActivity {
         binding.buttonSignIn.setOnClickListener(v -> {
             if (isValidSignInDetails()) {
                 SignIn();
-                showToast("Sign In Successful");
             }
         });
     }
@@ -75,35 +77,53 @@ public class SignInActivity extends AppCompatActivity {
     }
 
     /**
-     * A method that controls the sign in process with the database.
-     * Compares user input with data in the database.
+     * A method that controls the sign in process.
+     * A device that signed in with the email before checks the password against its stored
+     * verifier and opens the app without waiting on the database, which confirms the account in
+     * the background. Otherwise the user is looked up in the database by email.
      */
     private void SignIn() {
         // Displaying loading bar while the credentials are validated
         loading(true);
+        String email = binding.inputEmail.getText().toString();
+        String password = binding.inputPassword.getText().toString();
+
+        CredentialStore.getInstance().signIn(getApplicationContext(), email, password)
+                .addOnCompleteListener(task -> {
+                    CredentialStore.Account account = task.isSuccessful() ? task.getResult() : null;
+                    if (account != null && account.userId != null) {
+                        CredentialRevalidationWorker.enqueue(getApplicationContext(), email, account.userId);
+                        onSignedIn(account);
+                    } else {
+                        signInWithDatabase(email, password);
+                    }
+                });
+    }
+
+    /**
+     * A helper method that signs in with the database. The user is looked up by email alone, a
+     * single field index, and the password is compared with the document found. A successful
+     * sign in leaves a verifier on the device for the next one.
+     * @param email String type email typed by the user.
+     * @param password String type password typed by the user.
+     */
+    private void signInWithDatabase(String email, String password) {
         FirebaseFirestore database = FirebaseFirestore.getInstance();
 
-        database.collection(Constants.KEY_COLLECTION_USERS)
-                // Comparing inputs with the database
-                .whereEqualTo(Constants.KEY_EMAIL, binding.inputEmail.getText().toString())
-                .whereEqualTo(Constants.KEY_PASSWORD, binding.inputPassword.getText().toString())
-                .get()
-                // If validation is completed, get the result of tasks and set preferences
+        FirestoreAccounting.getInstance().get(database.collection(Constants.KEY_COLLECTION_USERS)
+                        .whereEqualTo(Constants.KEY_EMAIL, email)
+                        .limit(1), "users.signIn")
+                // If validation is completed, compare the password of the user found
                 .addOnCompleteListener(task -> {
-                    if (task.isSuccessful() && task.getResult() != null && task.getResult().getDocuments().size() > 0) {
+                    if (task.isSuccessful() && task.getResult() != null && task.getResult().getDocuments().size() > 0
+                            && password.equals(task.getResult().getDocuments().get(0).getString(Constants.KEY_PASSWORD))) {
                         // Getting document snapshot of task result
                         DocumentSnapshot documentSnapshot = task.getResult().getDocuments().get(0);
-
-                        // Setting preferences
-                        preferenceManager.putBoolean(Constants.KEY_IS_SIGNED_IN, true);
-                        preferenceManager.putString(Constants.KEY_USER_ID, documentSnapshot.getId());
-                        preferenceManager.putString(Constants.KEY_NAME, documentSnapshot.getString(Constants.KEY_NAME));
-                        preferenceManager.putString(Constants.KEY_IMAGE, documentSnapshot.getString(Constants.KEY_IMAGE));
-
-                        // Changing pages with an Intent
-                        Intent intent = new Intent(getApplicationContext(), MainActivity.class);
-                        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
-                        startActivity(intent);
+                        CredentialStore.Account account = new CredentialStore.Account(documentSnapshot.getId(),
+                                documentSnapshot.getString(Constants.KEY_NAME),
+                                documentSnapshot.getString(Constants.KEY_IMAGE));
+                        CredentialStore.getInstance().remember(getApplicationContext(), email, password, account);
+                        onSignedIn(account);
                     } else {
                         // Makes the progress bar disappear and shows error Toast message
                         loading(false);
@@ -112,6 +132,24 @@ public class SignInActivity extends AppCompatActivity {
                 });
     }
 
+    /**
+     * A helper method that sets the preferences of the signed in user and opens the main page.
+     * @param account Account of the signed in user.
+     */
+    private void onSignedIn(CredentialStore.Account account) {
+        // Setting preferences
+        preferenceManager.putBoolean(Constants.KEY_IS_SIGNED_IN, true);
+        preferenceManager.putString(Constants.KEY_USER_ID, account.userId);
+        preferenceManager.putString(Constants.KEY_NAME, account.name);
+        preferenceManager.putString(Constants.KEY_IMAGE, account.image);
+        showToast("Sign In Successful");
+
+        // Changing pages with an Intent
+        Intent intent = new Intent(getApplicationContext(), MainActivity.class);
+        intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
+        startActivity(intent);
+    }
+
     /**
      * A helper function that controls the Sign in button and ProgressBar visibility depending
      * on the loading state.
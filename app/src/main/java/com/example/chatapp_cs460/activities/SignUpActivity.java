@@ -25,9 +25,13 @@ import androidx.core.view.ViewCompat;
 import androidx.core.view.WindowInsetsCompat;
 
 import com.example.chatapp_cs460.R;
+import com.example.chatapp_cs460.crypto.CredentialStore;
 import com.example.chatapp_cs460.databinding.ActivitySignUpBinding;
+import com.example.chatapp_cs460.firebase.FirestoreAccounting;
+import com.example.chatapp_cs460.utilities.AvatarPlaceholder;
 import com.example.chatapp_cs460.utilities.Constants;
 import com.example.chatapp_cs460.utilities.PreferenceManager;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
 
 import java.io.ByteArrayInputStream;
@@ -45,6 +49,7 @@ public class SignUpActivity extends AppCompatActivity {
     private PreferenceManager preferenceManager;
 
     private String encodeImage;
+    private String encodedPlaceholder;
 
     /**
      * An overridden method that initializes the objects and connects values to the fields.
@@ -101,7 +106,7 @@ public class SignUpActivity extends AppCompatActivity {
         loading(true);
         // Post to Firebase
         FirebaseFirestore database = FirebaseFirestore.getInstance();
-        HashMap<String, String> user = new HashMap<>();
+        HashMap<String, Object> user = new HashMap<>();
 
         // Putting user info
         user.put(Constants.KEY_NAME, binding.inputName.getText().toString());
@@ -109,16 +114,23 @@ public class SignUpActivity extends AppCompatActivity {
         user.put(Constants.KEY_PASSWORD, binding.inputPassword.getText().toString());
 
         user.put(Constants.KEY_IMAGE, encodeImage);
+        user.put(Constants.KEY_IMAGE_PLACEHOLDER, encodedPlaceholder);
+        user.put(Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp());
 
-        database.collection(Constants.KEY_COLLECTION_USERS)
-                .add(user)
+        FirestoreAccounting.getInstance()
+                .write(database.collection(Constants.KEY_COLLECTION_USERS).add(user), 1, "users.signUp")
                 // Database write successful
                 .addOnSuccessListener(documentReference -> {
                     loading(false);
 
                     preferenceManager.putBoolean(Constants.KEY_IS_SIGNED_IN, true);
+                    preferenceManager.putString(Constants.KEY_USER_ID, documentReference.getId());
                     preferenceManager.putString(Constants.KEY_NAME, binding.inputName.getText().toString());
                     preferenceManager.putString(Constants.KEY_IMAGE, encodeImage);
+                    CredentialStore.getInstance().remember(getApplicationContext(),
+                            binding.inputEmail.getText().toString(), binding.inputPassword.getText().toString(),
+                            new CredentialStore.Account(documentReference.getId(),
+                                    binding.inputName.getText().toString(), encodeImage));
 
                     Intent intent = new Intent(getApplicationContext(), MainActivity.class);
                     intent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TASK);
@@ -136,6 +148,7 @@ public class SignUpActivity extends AppCompatActivity {
 
     /**
      * A helper function that turns a Bitmap image into byte array stream to store in the database.
+     * The placeholder lists show while the image decodes is made from the same preview.
      * @param bitmap A Bitmap class image.
      * @return Returns a String that is derived from an image.
      */
@@ -146,6 +159,7 @@ public class SignUpActivity extends AppCompatActivity {
 
         // Turning into bitmap
         Bitmap previewBitmap = Bitmap.createScaledBitmap(bitmap, previewWidth, previewHeight, false);
+        encodedPlaceholder = AvatarPlaceholder.encode(previewBitmap);
 
         ByteArrayOutputStream byteArrayOutputStream = new ByteArrayOutputStream();
 
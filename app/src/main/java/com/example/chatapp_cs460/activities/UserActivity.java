@@ -7,28 +7,44 @@ package com.example.chatapp_cs460.activities;
 import android.content.Intent;
 import android.os.Bundle;
 import android.view.View;
+import android.widget.EditText;
+import android.widget.Toast;
 
+import androidx.appcompat.app.AlertDialog;
 import androidx.appcompat.app.AppCompatActivity;
 
+import com.example.chatapp_cs460.R;
 import com.example.chatapp_cs460.adapters.UsersAdapter;
 import com.example.chatapp_cs460.databinding.ActivityUserBinding;
+import com.example.chatapp_cs460.firebase.FirestoreAccounting;
+import com.example.chatapp_cs460.firebase.MessageHub;
+import com.example.chatapp_cs460.firebase.UserDirectory;
+import com.example.chatapp_cs460.listeners.UnreadCountListener;
 import com.example.chatapp_cs460.listeners.UserListener;
 import com.example.chatapp_cs460.models.User;
 import com.example.chatapp_cs460.utilities.Constants;
 import com.example.chatapp_cs460.utilities.PreferenceManager;
+import com.example.chatapp_cs460.utilities.SyncPolicy;
 import com.google.firebase.firestore.FirebaseFirestore;
-import com.google.firebase.firestore.QueryDocumentSnapshot;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
-public class UserActivity extends AppCompatActivity implements UserListener {
+public class UserActivity extends AppCompatActivity implements UserListener, UnreadCountListener {
 
     /**
      * Binding and preferenceManager fields.
      */
     private ActivityUserBinding binding;
     private PreferenceManager preferenceManager;
+    private UsersAdapter usersAdapter;
+    private final List<User> users = new ArrayList<>();
+    private boolean isSelectingMembers = false;
+    private Map<String, Integer> unreadCounts = Collections.emptyMap();
 
     /**
      * Action listener method that creates the elements in the activity and sets up the processes.
@@ -45,6 +61,29 @@ public class UserActivity extends AppCompatActivity implements UserListener {
         // Setting listener and fetching users from the database
         setListeners();
         getUsers();
+        // Unread badges come from the app-wide inbound listeners
+        MessageHub.getInstance().addUnreadCountListener(this);
+    }
+
+    /**
+     * Action listener method that stops updating the unread badges when the page is closed.
+     */
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        MessageHub.getInstance().removeUnreadCountListener(this);
+    }
+
+    /**
+     * Action listener that updates the unread message badges of the users.
+     * @param unreadCounts Number of unread messages by user ID.
+     */
+    @Override
+    public void onUnreadCountsChanged(Map<String, Integer> unreadCounts) {
+        this.unreadCounts = unreadCounts;
+        if (usersAdapter != null) {
+            usersAdapter.setUnreadCounts(unreadCounts);
+        }
     }
 
     /**
@@ -52,49 +91,72 @@ public class UserActivity extends AppCompatActivity implements UserListener {
      */
     private void setListeners() {
         binding.imageBack.setOnClickListener(v -> onBackPressed());
+        binding.fabCreateGroup.setOnClickListener(v -> showCreateGroupDialog());
     }
 
     /**
-     * A method that fetches user data from the database to display in the page.
+     * A method that fetches user data to display in the page. The prebuilt directory is shown
+     * first, then only the users changed since its newest update are fetched from the database.
      */
     private void getUsers() {
         loading(true);
-        FirebaseFirestore database = FirebaseFirestore.getInstance();
-        // Fetching information from the database
-        database.collection(Constants.KEY_COLLECTION_USERS).get()
-                .addOnCompleteListener(task -> {
+        UserDirectory.getInstance().load(this, () -> {
+            showUsers();
+            fetchUserChanges();
+        });
+    }
+
+    /**
+     * A method that fetches the users changed since the directory was last updated. On slow or
+     * metered links the changes come in pages, each shown as it arrives.
+     */
+    private void fetchUserChanges() {
+        UserDirectory userDirectory = UserDirectory.getInstance();
+        int pageSize = SyncPolicy.getInstance().getDirectoryPageSize();
+        FirestoreAccounting.getInstance()
+                .get(userDirectory.getChangesQuery(FirebaseFirestore.getInstance(), pageSize), "users.changes")
+                .addOnCompleteListener(this, task -> {
                     loading(false);
-                    String currentUserId = preferenceManager.getString(Constants.KEY_USER_ID);
                     if (task.isSuccessful() && task.getResult() != null) {
-                        // Creating users list
-                        List<User> users = new ArrayList<>();
-                        for (QueryDocumentSnapshot queryDocumentSnapshot : task.getResult()) {
-                            if (currentUserId.equals(queryDocumentSnapshot.getId())) {
-                                continue;
-                            }
-                            // Creating individual user and connecting the info
-                            User user = new User();
-                            user.name = queryDocumentSnapshot.getString(Constants.KEY_NAME);
-                            user.email = queryDocumentSnapshot.getString(Constants.KEY_EMAIL);
-                            user.image = queryDocumentSnapshot.getString(Constants.KEY_IMAGE);
-                            user.token = queryDocumentSnapshot.getString(Constants.KEY_FCM_TOKEN);
-                            user.id = queryDocumentSnapshot.getId();
-                            users.add(user);
+                        userDirectory.merge(task.getResult());
+                        if (!task.getResult().isEmpty()) {
+                            showUsers();
                         }
-                        // Connecting the adapter to the Recyclerview with the list of users
-                        if (users.size() > 0) {
-                            UsersAdapter usersAdapter = new UsersAdapter(users, this);
-                            binding.usersRecyclerView.setAdapter(usersAdapter);
-                            binding.usersRecyclerView.setVisibility(View.VISIBLE);
-                        } else {
-                            showErrorMessage();
+                        // A full page means more changes are waiting
+                        if (pageSize > 0 && task.getResult().size() >= pageSize) {
+                            fetchUserChanges();
+                            return;
                         }
-                    } else {
+                    }
+                    if (users.isEmpty()) {
                         showErrorMessage();
                     }
                 });
     }
 
+    /**
+     * A method that shows the users of the directory in the RecyclerView.
+     */
+    private void showUsers() {
+        users.clear();
+        users.addAll(UserDirectory.getInstance()
+                .getUsers(preferenceManager.getString(Constants.KEY_USER_ID)));
+        if (users.isEmpty()) {
+            return;
+        }
+        loading(false);
+        // Connecting the adapter to the Recyclerview with the list of users
+        if (usersAdapter == null) {
+            usersAdapter = new UsersAdapter(users, this);
+            usersAdapter.setUnreadCounts(unreadCounts);
+            binding.usersRecyclerView.setAdapter(usersAdapter);
+        } else {
+            usersAdapter.notifyDataSetChanged();
+        }
+        binding.usersRecyclerView.setVisibility(View.VISIBLE);
+        binding.textErrorMessage.setVisibility(View.GONE);
+    }
+
     /**
      * A helper function that sets the error message to TextView
      */
@@ -122,9 +184,79 @@ public class UserActivity extends AppCompatActivity implements UserListener {
      */
     @Override
     public void onUserClicked(User user) {
+        // While picking group members, clicking toggles the selection
+        if (isSelectingMembers) {
+            onUserLongClicked(user);
+            return;
+        }
         Intent intent = new Intent(getApplicationContext(), ChatActivity.class);
-        intent.putExtra(Constants.KEY_USER, user);
+        // Only the ID crosses to the chat page, the details come from the user directory
+        intent.putExtra(Constants.KEY_RECEIVER_ID, user.id);
         startActivity(intent);
         finish();
     }
-}
\ No newline at end of file
+
+    /**
+     * An action listener method that toggles a user as a member of a new group conversation.
+     * @param user User class object.
+     */
+    @Override
+    public void onUserLongClicked(User user) {
+        int selectedCount = usersAdapter.toggleSelection(user).size();
+        isSelectingMembers = selectedCount > 0;
+        binding.fabCreateGroup.setVisibility(selectedCount > 1 ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * A method that asks for the group name before creating the group conversation.
+     */
+    private void showCreateGroupDialog() {
+        EditText inputGroupName = new EditText(this);
+        inputGroupName.setHint(R.string.group_name);
+        new AlertDialog.Builder(this)
+                .setTitle(R.string.create_group)
+                .setView(inputGroupName)
+                .setPositiveButton(R.string.create_group, (dialog, which) ->
+                        createGroup(inputGroupName.getText().toString().trim()))
+                .setNegativeButton(android.R.string.cancel, null)
+                .show();
+    }
+
+    /**
+     * A method that creates a group conversation with the selected users and opens it.
+     * Members are stored in a single list on the conversation document, which is what the
+     * conversation queries of every member are indexed on.
+     * @param groupName String type name of the group, member names are used when empty.
+     */
+    private void createGroup(String groupName) {
+        String currentUserId = preferenceManager.getString(Constants.KEY_USER_ID);
+        List<String> members = new ArrayList<>();
+        members.add(currentUserId);
+        StringBuilder memberNames = new StringBuilder(preferenceManager.getString(Constants.KEY_NAME));
+        for (User user : usersAdapter.getSelectedUsers()) {
+            members.add(user.id);
+            memberNames.append(", ").append(user.name);
+        }
+        String name = groupName.isEmpty() ? memberNames.toString() : groupName;
+
+        HashMap<String, Object> conversation = new HashMap<>();
+        conversation.put(Constants.KEY_CONVERSATION_NAME, name);
+        conversation.put(Constants.KEY_MEMBERS, members);
+        conversation.put(Constants.KEY_CREATED_BY, currentUserId);
+        conversation.put(Constants.KEY_LAST_MESSAGE, "");
+        conversation.put(Constants.KEY_TIMESTAMP, new Date());
+
+        FirestoreAccounting.getInstance()
+                .write(FirebaseFirestore.getInstance().collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                        .add(conversation), 1, "conversation.create")
+                .addOnSuccessListener(documentReference -> {
+                    Intent intent = new Intent(getApplicationContext(), ChatActivity.class);
+                    intent.putExtra(Constants.KEY_CONVERSATION_ID, documentReference.getId());
+                    intent.putExtra(Constants.KEY_CONVERSATION_NAME, name);
+                    startActivity(intent);
+                    finish();
+                })
+                .addOnFailureListener(e -> Toast.makeText(getApplicationContext(),
+                        "Unable to create group", Toast.LENGTH_SHORT).show());
+    }
+}
@@ -4,18 +4,42 @@
  */
 package com.example.chatapp_cs460.adapters;
 
+import android.content.ActivityNotFoundException;
+import android.content.Intent;
 import android.graphics.Bitmap;
+import android.net.Uri;
+import android.text.method.LinkMovementMethod;
 import android.view.LayoutInflater;
+import android.view.View;
 import android.view.ViewGroup;
+import android.widget.LinearLayout;
+import android.widget.TextView;
 
 import androidx.annotation.NonNull;
+import androidx.appcompat.widget.AppCompatTextView;
+import androidx.core.text.PrecomputedTextCompat;
+import androidx.core.widget.TextViewCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.example.chatapp_cs460.R;
 import com.example.chatapp_cs460.databinding.ItemContainerReceivedMessageBinding;
 import com.example.chatapp_cs460.databinding.ItemContainerSentMessageBinding;
+import com.example.chatapp_cs460.firebase.MessageReactions;
+import com.example.chatapp_cs460.firebase.UserDirectory;
+import com.example.chatapp_cs460.listeners.MessageListener;
 import com.example.chatapp_cs460.models.ChatMessage;
+import com.example.chatapp_cs460.models.LinkPreview;
+import com.example.chatapp_cs460.models.User;
+import com.example.chatapp_cs460.utilities.AvatarCache;
+import com.example.chatapp_cs460.utilities.LinkPreviewCache;
+import com.example.chatapp_cs460.utilities.MessageGrouping;
+import com.example.chatapp_cs460.utilities.MessageTextCache;
 
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>{
 
@@ -25,10 +49,41 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>{
     private Bitmap receiverProfileImage;
     private final List<ChatMessage> chatMessages;
     private final String sendId;
+    private final AvatarCache avatarCache;
+    private final Set<String> requestedAvatars = new HashSet<>();
+    private final Set<String> requestedPreviews = new HashSet<>();
+    private MessageListener messageListener;
+
+    /**
+     * Messages of the bound bubbles by their ViewHolder, so a loaded preview or profile image
+     * rebinds only the bubbles showing it. Bubbles bound later pick it up when they are bound.
+     */
+    private final Map<RecyclerView.ViewHolder, ChatMessage> boundMessages = new HashMap<>();
 
     public static final int VIEW_TYPE_SENT = 1;
     public static final int VIEW_TYPE_RECEIVED = 2;
 
+    /**
+     * Payload of a change that only touched the reactions of a message.
+     */
+    public static final String PAYLOAD_REACTIONS = "reactions";
+
+    /**
+     * Payload of a change that only delivered the preview of the link in a message.
+     */
+    public static final String PAYLOAD_LINK_PREVIEW = "linkPreview";
+
+    /**
+     * Payload of a change that only delivered the profile image of the sender of a message.
+     */
+    public static final String PAYLOAD_PROFILE_IMAGE = "profileImage";
+
+    /**
+     * Space above a bubble, and above a bubble that continues the run of its sender.
+     */
+    private static final int MESSAGE_MARGIN_DP = 8;
+    private static final int RUN_MARGIN_DP = 2;
+
     /**
      * Constructor for the ChatAdapter.
      * @param receiverProfileImage Bitmap profile image.
@@ -37,9 +92,120 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>{
      */
 
     public ChatAdapter(Bitmap receiverProfileImage, List<ChatMessage> chatMessages, String sendId) {
+        this(receiverProfileImage, chatMessages, sendId, null);
+    }
+
+    /**
+     * Constructor for the ChatAdapter that resolves a profile image per sender from a shared cache,
+     * used by group conversations with many senders.
+     * @param receiverProfileImage Bitmap profile image shown until the sender image is loaded.
+     * @param chatMessages List of chat messaages.
+     * @param sendId String type of sender ID.
+     * @param avatarCache Shared AvatarCache to resolve sender profile images from.
+     */
+    public ChatAdapter(Bitmap receiverProfileImage, List<ChatMessage> chatMessages, String sendId,
+                       AvatarCache avatarCache) {
         this.receiverProfileImage = receiverProfileImage;
         this.chatMessages = chatMessages;
         this.sendId = sendId;
+        this.avatarCache = avatarCache;
+    }
+
+    /**
+     * Method that replaces the profile image shown next to received messages.
+     * @param receiverProfileImage Bitmap profile image.
+     */
+    public void setReceiverProfileImage(Bitmap receiverProfileImage) {
+        this.receiverProfileImage = receiverProfileImage;
+        for (RecyclerView.ViewHolder holder : boundMessages.keySet()) {
+            if (holder instanceof ReceierMessageViewHolder) {
+                notifyBound(holder, PAYLOAD_PROFILE_IMAGE);
+            }
+        }
+    }
+
+    /**
+     * Method that sets the listener for long presses on messages, used to react to them and to edit
+     * and delete sent messages.
+     * @param messageListener MessageListener to be called, may be null.
+     */
+    public void setMessageListener(MessageListener messageListener) {
+        this.messageListener = messageListener;
+    }
+
+    /**
+     * Helper method that formats the date of a message, marking edited messages.
+     * @param textDateTime Date TextView of a bubble.
+     * @param chatMessage ChatMessage to be bound.
+     */
+    static void bindDateTime(TextView textDateTime, ChatMessage chatMessage) {
+        textDateTime.setText(chatMessage.edited
+                ? textDateTime.getContext().getString(R.string.edited_date_time, chatMessage.dateTime)
+                : chatMessage.dateTime);
+    }
+
+    /**
+     * Helper method that lays out a bubble by its place in its sender run. Bubbles that continue
+     * a run sit closer to the one before, and only the last bubble of a run shows its time and
+     * profile image, unless the message was edited.
+     * @param root Root view of a bubble.
+     * @param textDateTime Date TextView of the bubble.
+     * @param imageProfile Profile image of a received bubble, null for sent bubbles.
+     * @param chatMessage ChatMessage to be bound, grouped by the MessageGrouping.
+     */
+    static void bindGrouping(View root, TextView textDateTime, View imageProfile, ChatMessage chatMessage) {
+        float density = root.getResources().getDisplayMetrics().density;
+        int marginTop = Math.round((chatMessage.continuesRun ? RUN_MARGIN_DP : MESSAGE_MARGIN_DP) * density);
+        ViewGroup.MarginLayoutParams layoutParams = (ViewGroup.MarginLayoutParams) root.getLayoutParams();
+        if (layoutParams != null && layoutParams.topMargin != marginTop) {
+            layoutParams.topMargin = marginTop;
+            root.setLayoutParams(layoutParams);
+        }
+        textDateTime.setVisibility(chatMessage.endsRun || chatMessage.edited ? View.VISIBLE : View.GONE);
+        if (imageProfile != null) {
+            imageProfile.setVisibility(chatMessage.endsRun ? View.VISIBLE : View.INVISIBLE);
+        }
+    }
+
+    /**
+     * Helper method that shows the reaction counts of a message under its bubble.
+     * @param textReactions Reactions TextView of a bubble.
+     * @param chatMessage ChatMessage to be bound.
+     */
+    static void bindReactions(TextView textReactions, ChatMessage chatMessage) {
+        String reactions = MessageReactions.format(chatMessage);
+        textReactions.setText(reactions);
+        textReactions.setVisibility(reactions != null ? View.VISIBLE : View.GONE);
+    }
+
+    /**
+     * Helper method that shows the preview of the link in a message under its bubble, opening the
+     * link when pressed.
+     * @param layoutLinkPreview Preview layout of a bubble.
+     * @param textTitle Title TextView of the preview.
+     * @param textDescription Description TextView of the preview.
+     * @param textSite Site TextView of the preview.
+     * @param linkPreview LinkPreview to be bound, null or empty to hide the preview.
+     */
+    static void bindLinkPreview(LinearLayout layoutLinkPreview, TextView textTitle, TextView textDescription,
+                                TextView textSite, LinkPreview linkPreview) {
+        if (linkPreview == null || linkPreview.isEmpty()) {
+            layoutLinkPreview.setVisibility(View.GONE);
+            layoutLinkPreview.setOnClickListener(null);
+            return;
+        }
+        textTitle.setText(linkPreview.title);
+        textDescription.setText(linkPreview.description);
+        textDescription.setVisibility(linkPreview.description != null ? View.VISIBLE : View.GONE);
+        textSite.setText(linkPreview.siteName);
+        layoutLinkPreview.setVisibility(View.VISIBLE);
+        layoutLinkPreview.setOnClickListener(v -> {
+            try {
+                v.getContext().startActivity(new Intent(Intent.ACTION_VIEW, Uri.parse(linkPreview.url)));
+            } catch (ActivityNotFoundException e) {
+                // No browser to open the link in
+            }
+        });
     }
 
     /**
@@ -54,12 +220,44 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>{
     public RecyclerView.ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
         // If type is sent, inflate sending layout
         if (viewType == VIEW_TYPE_SENT) {
-            return new SentMessageViewHolder(ItemContainerSentMessageBinding
-                    .inflate(LayoutInflater.from(parent.getContext()), parent, false));
+            ItemContainerSentMessageBinding sentBinding = ItemContainerSentMessageBinding
+                    .inflate(LayoutInflater.from(parent.getContext()), parent, false);
+            provideTextMetrics(sentBinding.textMessage);
+            return new SentMessageViewHolder(sentBinding);
         } else {
             // Else when type is received, inflate receiving message layout
-            return new ReceierMessageViewHolder(ItemContainerReceivedMessageBinding
-                    .inflate(LayoutInflater.from(parent.getContext()), parent, false));
+            ItemContainerReceivedMessageBinding receivedBinding = ItemContainerReceivedMessageBinding
+                    .inflate(LayoutInflater.from(parent.getContext()), parent, false);
+            provideTextMetrics(receivedBinding.textMessage);
+            return new ReceierMessageViewHolder(receivedBinding);
+        }
+    }
+
+    /**
+     * Method that hands the text metrics of an inflated bubble to the shared text cache, so
+     * messages can be measured in the background before they are bound.
+     * @param textMessage Message TextView of an inflated bubble.
+     */
+    private static void provideTextMetrics(AppCompatTextView textMessage) {
+        textMessage.setMovementMethod(LinkMovementMethod.getInstance());
+        MessageTextCache.getInstance().setParams(TextViewCompat.getTextMetricsParams(textMessage));
+    }
+
+    /**
+     * Helper method that applies the measured text of a message. Texts measured ahead of time are
+     * applied directly. Others are set unmeasured, since waiting for a measurement at layout would
+     * queue the visible bubble behind every message still being measured in the background.
+     * @param textMessage Message TextView of a bubble.
+     * @param chatMessage ChatMessage to be bound.
+     */
+    static void bindMessageText(AppCompatTextView textMessage, ChatMessage chatMessage) {
+        MessageTextCache textCache = MessageTextCache.getInstance();
+        PrecomputedTextCompat.Params params = TextViewCompat.getTextMetricsParams(textMessage);
+        PrecomputedTextCompat measuredText = textCache.get(chatMessage, params);
+        if (measuredText != null) {
+            TextViewCompat.setPrecomputedText(textMessage, measuredText);
+        } else {
+            textMessage.setText(MessageTextCache.createText(chatMessage));
         }
     }
 
@@ -72,13 +270,203 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>{
     @Override
     public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position) {
         // If sent type, connect data
+        ChatMessage chatMessage = chatMessages.get(position);
+        boundMessages.put(holder, chatMessage);
         if (getItemViewType(position) == VIEW_TYPE_SENT) {
             ((SentMessageViewHolder) holder)
-                    .setData(chatMessages.get(position));
+                    .setData(chatMessage, getLinkPreview(chatMessage), messageListener);
         } else {
             // Else when received type, connect messages and profile image
-            ((ReceierMessageViewHolder) holder)
-                    .setData(chatMessages.get(position), receiverProfileImage);
+            ((ReceierMessageViewHolder) holder).setData(chatMessage, getSenderProfileImage(chatMessage.senderId),
+                    getLinkPreview(chatMessage), messageListener);
+        }
+    }
+
+    /**
+     * Method that binds a change to the ViewHolders. Changes that only touched the reactions
+     * rebind the reaction counts, a delivered link preview or profile image only binds the preview
+     * or image, and a regrouped message only lays out its bubble again, leaving the text, date and
+     * image as they are.
+     * @param holder   The ViewHolder which should be updated.
+     * @param position The position of the item within the adapter's data set.
+     * @param payloads Payloads of the changes since the last bind, empty for a full bind.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull RecyclerView.ViewHolder holder, int position,
+                                 @NonNull List<Object> payloads) {
+        if (payloads.isEmpty() || !isPartial(payloads)) {
+            onBindViewHolder(holder, position);
+            return;
+        }
+        ChatMessage chatMessage = chatMessages.get(position);
+        boundMessages.put(holder, chatMessage);
+        boolean hasReactions = payloads.contains(PAYLOAD_REACTIONS);
+        boolean hasLinkPreview = payloads.contains(PAYLOAD_LINK_PREVIEW);
+        boolean hasGrouping = payloads.contains(MessageGrouping.PAYLOAD_GROUPING);
+        if (holder instanceof SentMessageViewHolder) {
+            SentMessageViewHolder sentHolder = (SentMessageViewHolder) holder;
+            if (hasGrouping) {
+                sentHolder.setGrouping(chatMessage);
+            }
+            if (hasReactions) {
+                sentHolder.setReactions(chatMessage, messageListener);
+            }
+            if (hasLinkPreview) {
+                sentHolder.setLinkPreview(getLinkPreview(chatMessage));
+            }
+        } else {
+            ReceierMessageViewHolder receivedHolder = (ReceierMessageViewHolder) holder;
+            if (hasGrouping) {
+                receivedHolder.setGrouping(chatMessage);
+            }
+            if (hasReactions) {
+                receivedHolder.setReactions(chatMessage, messageListener);
+            }
+            if (hasLinkPreview) {
+                receivedHolder.setLinkPreview(getLinkPreview(chatMessage));
+            }
+            if (payloads.contains(PAYLOAD_PROFILE_IMAGE)) {
+                receivedHolder.setProfileImage(getSenderProfileImage(chatMessage.senderId));
+            }
+        }
+    }
+
+    /**
+     * Method that forgets the message of a bubble that is no longer bound.
+     * @param holder The ViewHolder that is recycled.
+     */
+    @Override
+    public void onViewRecycled(@NonNull RecyclerView.ViewHolder holder) {
+        super.onViewRecycled(holder);
+        boundMessages.remove(holder);
+    }
+
+    /**
+     * Helper method that rebinds part of a bound bubble at its current position.
+     * @param holder The bound ViewHolder.
+     * @param payload Payload of the change.
+     */
+    private void notifyBound(RecyclerView.ViewHolder holder, Object payload) {
+        int position = holder.getAdapterPosition();
+        if (position != RecyclerView.NO_POSITION) {
+            notifyItemChanged(position, payload);
+        }
+    }
+
+    /**
+     * Helper method that checks whether all pending changes of an item only touched its reactions,
+     * its link preview, its profile image or its grouping.
+     * @param payloads Payloads of the changes since the last bind.
+     * @return Returns true if every payload is PAYLOAD_REACTIONS, PAYLOAD_LINK_PREVIEW,
+     * PAYLOAD_PROFILE_IMAGE or MessageGrouping.PAYLOAD_GROUPING.
+     */
+    private static boolean isPartial(List<Object> payloads) {
+        for (Object payload : payloads) {
+            if (!PAYLOAD_REACTIONS.equals(payload) && !PAYLOAD_LINK_PREVIEW.equals(payload)
+                    && !PAYLOAD_PROFILE_IMAGE.equals(payload)
+                    && !MessageGrouping.PAYLOAD_GROUPING.equals(payload)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Method that picks the preview to show under a message. A preview that is not in memory yet
+     * is requested once and the messages with the link are rebound when it arrives.
+     * @param chatMessage ChatMessage to be bound.
+     * @return Returns the LinkPreview if cached, else null.
+     */
+    private LinkPreview getLinkPreview(ChatMessage chatMessage) {
+        String url = getLinkUrl(chatMessage);
+        if (url == null) {
+            return null;
+        }
+        LinkPreviewCache linkPreviewCache = LinkPreviewCache.getInstance();
+        LinkPreview linkPreview = linkPreviewCache.get(url);
+        if (linkPreview == null && requestedPreviews.add(url)) {
+            linkPreviewCache.load(url, this::onLinkPreviewLoaded);
+        }
+        return linkPreview;
+    }
+
+    /**
+     * Helper method that returns the link of a message, looked for only on its first bind. Edited
+     * messages are bound as new ChatMessage objects, so the link is looked for again.
+     * @param chatMessage ChatMessage to be bound.
+     * @return Returns the first URL of the message, null if it has none.
+     */
+    private static String getLinkUrl(ChatMessage chatMessage) {
+        if (chatMessage.linkUrl == null) {
+            String url = LinkPreviewCache.findUrl(chatMessage.message);
+            chatMessage.linkUrl = url != null ? url : "";
+        }
+        return chatMessage.linkUrl.isEmpty() ? null : chatMessage.linkUrl;
+    }
+
+    /**
+     * Action listener that rebinds the bound messages with a link whose preview has been loaded.
+     * @param url String type URL of the link.
+     * @param linkPreview LinkPreview of the link, null if it could not be loaded right now.
+     */
+    private void onLinkPreviewLoaded(String url, LinkPreview linkPreview) {
+        if (linkPreview == null) {
+            // Requesting again the next time the link is bound
+            requestedPreviews.remove(url);
+            return;
+        }
+        if (linkPreview.isEmpty()) {
+            return;
+        }
+        for (Map.Entry<RecyclerView.ViewHolder, ChatMessage> entry : boundMessages.entrySet()) {
+            if (url.equals(entry.getValue().linkUrl)) {
+                notifyBound(entry.getKey(), PAYLOAD_LINK_PREVIEW);
+            }
+        }
+    }
+
+    /**
+     * Method that picks the profile image to show next to a received message. With a shared cache,
+     * a missing sender image is requested once and the sender's messages are rebound when it arrives.
+     * Until then the placeholder of the sender is shown.
+     * @param senderId String type ID of the message sender.
+     * @return Returns the sender Bitmap if cached, else its placeholder or the receiver profile image.
+     */
+    private Bitmap getSenderProfileImage(String senderId) {
+        if (avatarCache == null) {
+            return receiverProfileImage;
+        }
+        Bitmap senderImage = avatarCache.get(senderId);
+        if (senderImage != null) {
+            return senderImage;
+        }
+        // Requesting each missing sender only once
+        User sender = UserDirectory.getInstance().getUser(senderId);
+        if (requestedAvatars.add(senderId)) {
+            if (sender != null && sender.image != null) {
+                avatarCache.loadEncoded(senderId, sender.image, this::onSenderAvatarLoaded);
+            } else {
+                avatarCache.load(senderId, this::onSenderAvatarLoaded);
+            }
+        }
+        Bitmap placeholder = sender != null ? avatarCache.getPlaceholder(sender.imagePlaceholder) : null;
+        return placeholder != null ? placeholder : receiverProfileImage;
+    }
+
+    /**
+     * Action listener that rebinds the profile image of the bound messages of a sender whose
+     * profile image has been loaded.
+     * @param userId String type ID of the sender.
+     * @param bitmap Decoded Bitmap profile image.
+     */
+    private void onSenderAvatarLoaded(String userId, Bitmap bitmap) {
+        if (bitmap == null) {
+            return;
+        }
+        for (Map.Entry<RecyclerView.ViewHolder, ChatMessage> entry : boundMessages.entrySet()) {
+            if (userId.equals(entry.getValue().senderId)) {
+                notifyBound(entry.getKey(), PAYLOAD_PROFILE_IMAGE);
+            }
         }
     }
 
@@ -129,10 +517,46 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>{
         /**
          * Method to set data to the bound layouts.
          * @param chatMessage ChatMessage object class variable.
+         * @param linkPreview LinkPreview of the link in the message, may be null.
+         * @param messageListener MessageListener for long presses, may be null.
+         */
+        void setData(ChatMessage chatMessage, LinkPreview linkPreview, MessageListener messageListener) {
+            bindMessageText(binding.textMessage, chatMessage);
+            bindDateTime(binding.textDateTime, chatMessage);
+            setGrouping(chatMessage);
+            setLinkPreview(linkPreview);
+            setReactions(chatMessage, messageListener);
+        }
+
+        /**
+         * Method to lay out the bubble by its place in the run of sent messages.
+         * @param chatMessage ChatMessage object class variable.
+         */
+        void setGrouping(ChatMessage chatMessage) {
+            bindGrouping(binding.getRoot(), binding.textDateTime, null, chatMessage);
+        }
+
+        /**
+         * Method to set the preview of the link in the message.
+         * @param linkPreview LinkPreview of the link, may be null.
+         */
+        void setLinkPreview(LinkPreview linkPreview) {
+            bindLinkPreview(binding.layoutLinkPreview, binding.textLinkTitle, binding.textLinkDescription,
+                    binding.textLinkSite, linkPreview);
+        }
+
+        /**
+         * Method to set the reactions of the message, the long press acts on the bound version.
+         * @param chatMessage ChatMessage object class variable.
+         * @param messageListener MessageListener for long presses, may be null.
          */
-        void setData(ChatMessage chatMessage) {
-            binding.textMessage.setText(chatMessage.message);
-            binding.textDateTime.setText(chatMessage.dateTime);
+        void setReactions(ChatMessage chatMessage, MessageListener messageListener) {
+            bindReactions(binding.textReactions, chatMessage);
+            // Long press to react, edit or delete
+            binding.textMessage.setOnLongClickListener(messageListener == null ? null : v -> {
+                messageListener.onMessageLongClicked(chatMessage);
+                return true;
+            });
         }
     }
 
@@ -159,15 +583,58 @@ public class ChatAdapter extends RecyclerView.Adapter<RecyclerView.ViewHolder>{
          * Helper method for received message to set the message data.
          * @param chatMessage ChatMessage class object containing message details.
          * @param receiverProfileImage Bitmap profile image.
+         * @param linkPreview LinkPreview of the link in the message, may be null.
+         * @param messageListener MessageListener for long presses, may be null.
          */
-        void setData(ChatMessage chatMessage, Bitmap receiverProfileImage) {
+        void setData(ChatMessage chatMessage, Bitmap receiverProfileImage, LinkPreview linkPreview,
+                     MessageListener messageListener) {
             // Connect data through binder
-            binding.textMessage.setText(chatMessage.message);
-            binding.textDateTime.setText(chatMessage.dateTime);
-            // Bind profile image
-            if (receiverProfileImage != null) {
-                binding.imageProfile.setImageBitmap(receiverProfileImage);
-            }
+            bindMessageText(binding.textMessage, chatMessage);
+            bindDateTime(binding.textDateTime, chatMessage);
+            setProfileImage(receiverProfileImage);
+            setGrouping(chatMessage);
+            setLinkPreview(linkPreview);
+            setReactions(chatMessage, messageListener);
+        }
+
+        /**
+         * Helper method for received message to set the profile image of the sender.
+         * @param receiverProfileImage Bitmap profile image.
+         */
+        void setProfileImage(Bitmap receiverProfileImage) {
+            binding.imageProfile.setImageBitmap(receiverProfileImage);
+        }
+
+        /**
+         * Helper method for received message to lay out the bubble by its place in the run of
+         * the sender.
+         * @param chatMessage ChatMessage class object containing message details.
+         */
+        void setGrouping(ChatMessage chatMessage) {
+            bindGrouping(binding.getRoot(), binding.textDateTime, binding.imageProfile, chatMessage);
+        }
+
+        /**
+         * Helper method for received message to set the preview of the link in the message.
+         * @param linkPreview LinkPreview of the link, may be null.
+         */
+        void setLinkPreview(LinkPreview linkPreview) {
+            bindLinkPreview(binding.layoutLinkPreview, binding.textLinkTitle, binding.textLinkDescription,
+                    binding.textLinkSite, linkPreview);
+        }
+
+        /**
+         * Helper method for received message to set the reactions of the message.
+         * @param chatMessage ChatMessage class object containing message details.
+         * @param messageListener MessageListener for long presses, may be null.
+         */
+        void setReactions(ChatMessage chatMessage, MessageListener messageListener) {
+            bindReactions(binding.textReactions, chatMessage);
+            // Long press to react
+            binding.textMessage.setOnLongClickListener(messageListener == null ? null : v -> {
+                messageListener.onMessageLongClicked(chatMessage);
+                return true;
+            });
         }
     }
 }
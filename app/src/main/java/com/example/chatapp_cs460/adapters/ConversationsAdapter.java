@@ -0,0 +1,98 @@
+/**
+ * An adapter class that lists the group conversations of the user in a RecyclerView.
+ */
+package com.example.chatapp_cs460.adapters;
+
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.chatapp_cs460.databinding.ItemContainerConversationBinding;
+import com.example.chatapp_cs460.listeners.ConversationListener;
+import com.example.chatapp_cs460.models.Conversation;
+
+import java.util.List;
+
+public class ConversationsAdapter extends RecyclerView.Adapter<ConversationsAdapter.ConversationViewHolder> {
+    /**
+     * ConversationsAdapter fields that contain the list of conversations and the listener.
+     */
+    private final List<Conversation> conversations;
+    private final ConversationListener conversationListener;
+
+    /**
+     * Constructor for the ConversationsAdapter class.
+     * @param conversations List of conversations.
+     * @param conversationListener Listener interface that contains the action listener function.
+     */
+    public ConversationsAdapter(List<Conversation> conversations, ConversationListener conversationListener) {
+        this.conversations = conversations;
+        this.conversationListener = conversationListener;
+    }
+
+    /**
+     * Method that creates the ViewHolder with an inflated layout.
+     * @param parent The ViewGroup into which the new View will be added after it is bound to
+     *               an adapter position.
+     * @param viewType The view type of the new View.
+     * @return Returns a ConversationViewHolder that has an inflated layout.
+     */
+    @NonNull
+    @Override
+    public ConversationViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        return new ConversationViewHolder(ItemContainerConversationBinding
+                .inflate(LayoutInflater.from(parent.getContext()), parent, false));
+    }
+
+    /**
+     * Method that binds a conversation to the ViewHolder.
+     * @param holder The ViewHolder which should be updated to represent the contents of the
+     *        item at the given position in the data set.
+     * @param position The position of the item within the adapter's data set.
+     */
+    @Override
+    public void onBindViewHolder(@NonNull ConversationViewHolder holder, int position) {
+        holder.setData(conversations.get(position));
+    }
+
+    /**
+     * RecyclerView's Adaptors size method.
+     * @return Returns the conversations list size.
+     */
+    @Override
+    public int getItemCount() {
+        return conversations.size();
+    }
+
+    /**
+     * A sub ViewHolder class that holds conversation information and layout.
+     */
+    class ConversationViewHolder extends RecyclerView.ViewHolder {
+        /**
+         * Field of binding.
+         */
+        private final ItemContainerConversationBinding binding;
+
+        /**
+         * Constructor for the Holder.
+         * @param itemContainerConversationBinding Conversation layout binding.
+         */
+        ConversationViewHolder(ItemContainerConversationBinding itemContainerConversationBinding) {
+            super(itemContainerConversationBinding.getRoot());
+            binding = itemContainerConversationBinding;
+        }
+
+        /**
+         * A method that sets the conversation data in the bound layout.
+         * @param conversation Conversation class individual object.
+         */
+        void setData(Conversation conversation) {
+            binding.textName.setText(conversation.name);
+            binding.textLastMessage.setText(conversation.lastMessage);
+            binding.getRoot().setOnClickListener(v ->
+                    conversationListener.onConversationClicked(conversation));
+        }
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * An ItemDecoration that draws a date header above the first message of every day in the chat
+ * list. Which messages start a day is kept on the messages by the MessageGrouping as they are
+ * inserted, so the decoration only reads a flag per visible bubble and formats each day once.
+ */
+package com.example.chatapp_cs460.adapters;
+
+import android.content.Context;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.text.TextPaint;
+import android.util.LongSparseArray;
+import android.util.TypedValue;
+import android.view.View;
+
+import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.chatapp_cs460.R;
+import com.example.chatapp_cs460.models.ChatMessage;
+import com.example.chatapp_cs460.utilities.MessageGrouping;
+
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.List;
+import java.util.Locale;
+
+public class DayHeaderDecoration extends RecyclerView.ItemDecoration {
+    /**
+     * Messages of the list, the header paint and height, and the formatted headers by day.
+     */
+    private final List<ChatMessage> chatMessages;
+    private final TextPaint paint = new TextPaint(Paint.ANTI_ALIAS_FLAG);
+    private final int headerHeight;
+    private final DateFormat dayFormat = new SimpleDateFormat("MMM dd, yyyy", Locale.getDefault());
+    private final LongSparseArray<String> headers = new LongSparseArray<>();
+
+    /**
+     * Constructor for the DayHeaderDecoration.
+     * @param context Context class object.
+     * @param chatMessages List of messages shown by the chat list, grouped by the MessageGrouping.
+     */
+    public DayHeaderDecoration(Context context, List<ChatMessage> chatMessages) {
+        this.chatMessages = chatMessages;
+        paint.setColor(ContextCompat.getColor(context, R.color.secondary_text));
+        paint.setTextAlign(Paint.Align.CENTER);
+        paint.setTextSize(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_SP, 12,
+                context.getResources().getDisplayMetrics()));
+        headerHeight = Math.round(TypedValue.applyDimension(TypedValue.COMPLEX_UNIT_DIP, 32,
+                context.getResources().getDisplayMetrics()));
+    }
+
+    /**
+     * Method that makes room for a header above the first message of a day.
+     * @param outRect Rect to receive the output.
+     * @param view    The child view to decorate.
+     * @param parent  RecyclerView this ItemDecoration is decorating.
+     * @param state   The current state of RecyclerView.
+     */
+    @Override
+    public void getItemOffsets(@NonNull Rect outRect, @NonNull View view, @NonNull RecyclerView parent,
+                               @NonNull RecyclerView.State state) {
+        outRect.set(0, getDayStart(parent, view) != null ? headerHeight : 0, 0, 0);
+    }
+
+    /**
+     * Method that draws the headers of the visible messages that start a day.
+     * @param canvas Canvas to draw into.
+     * @param parent RecyclerView this ItemDecoration is drawing into.
+     * @param state  The current state of RecyclerView.
+     */
+    @Override
+    public void onDraw(@NonNull Canvas canvas, @NonNull RecyclerView parent, @NonNull RecyclerView.State state) {
+        RecyclerView.LayoutManager layoutManager = parent.getLayoutManager();
+        if (layoutManager == null) {
+            return;
+        }
+        float centerX = parent.getWidth() / 2f;
+        float textOffset = (paint.descent() + paint.ascent()) / 2f;
+        for (int i = 0; i < parent.getChildCount(); i++) {
+            View child = parent.getChildAt(i);
+            ChatMessage chatMessage = getDayStart(parent, child);
+            if (chatMessage == null) {
+                continue;
+            }
+            float top = layoutManager.getDecoratedTop(child) + child.getTranslationY();
+            canvas.drawText(getHeader(chatMessage), centerX, top + headerHeight / 2f - textOffset, paint);
+        }
+    }
+
+    /**
+     * Helper method that returns the message of a child when it starts a day.
+     * @param parent RecyclerView of the child.
+     * @param child View of a bubble.
+     * @return Returns the ChatMessage, or null if the child does not start a day.
+     */
+    private ChatMessage getDayStart(RecyclerView parent, View child) {
+        int position = parent.getChildAdapterPosition(child);
+        if (position == RecyclerView.NO_POSITION || position >= chatMessages.size()) {
+            return null;
+        }
+        ChatMessage chatMessage = chatMessages.get(position);
+        return chatMessage.startsDay && chatMessage.dateObject != null ? chatMessage : null;
+    }
+
+    /**
+     * Helper method that formats the header of the day of a message, once per day.
+     * @param chatMessage ChatMessage that starts a day.
+     * @return Returns the formatted date.
+     */
+    private String getHeader(ChatMessage chatMessage) {
+        long day = MessageGrouping.getDay(chatMessage);
+        String header = headers.get(day);
+        if (header == null) {
+            header = dayFormat.format(chatMessage.dateObject);
+            headers.put(day, header);
+        }
+        return header;
+    }
+}
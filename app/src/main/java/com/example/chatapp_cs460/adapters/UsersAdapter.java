@@ -5,19 +5,28 @@
 package com.example.chatapp_cs460.adapters;
 
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
-import android.util.Base64;
+import android.graphics.Color;
 import android.view.LayoutInflater;
+import android.view.View;
 import android.view.ViewGroup;
 
 import androidx.annotation.NonNull;
+import androidx.core.content.ContextCompat;
 import androidx.recyclerview.widget.RecyclerView;
 
+import com.example.chatapp_cs460.R;
 import com.example.chatapp_cs460.databinding.ItemContainerUserBinding;
 import com.example.chatapp_cs460.listeners.UserListener;
 import com.example.chatapp_cs460.models.User;
+import com.example.chatapp_cs460.utilities.AvatarCache;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
 
 public class UsersAdapter extends RecyclerView.Adapter<UsersAdapter.UserViewHolder> {
     /**
@@ -25,6 +34,8 @@ public class UsersAdapter extends RecyclerView.Adapter<UsersAdapter.UserViewHold
      */
     private final List<User> users;
     private final UserListener userListener;
+    private final Set<String> selectedUserIds = new HashSet<>();
+    private Map<String, Integer> unreadCounts = Collections.emptyMap();
 
     /**
      * Constructor for the UsersAdapter class.
@@ -75,6 +86,51 @@ public class UsersAdapter extends RecyclerView.Adapter<UsersAdapter.UserViewHold
         return users.size();
     }
 
+    /**
+     * A method that toggles the selection of a user, used when picking group members.
+     * @param user User class object to be toggled.
+     * @return Returns the IDs of all currently selected users.
+     */
+    public Set<String> toggleSelection(User user) {
+        if (!selectedUserIds.remove(user.id)) {
+            selectedUserIds.add(user.id);
+        }
+        notifyItemChanged(users.indexOf(user));
+        return selectedUserIds;
+    }
+
+    /**
+     * A method that updates the unread message badges, rebinding only the users whose count changed.
+     * @param unreadCounts Number of unread messages by user ID.
+     */
+    public void setUnreadCounts(Map<String, Integer> unreadCounts) {
+        Set<String> changedUserIds = new HashSet<>(this.unreadCounts.keySet());
+        changedUserIds.addAll(unreadCounts.keySet());
+        Map<String, Integer> previousCounts = this.unreadCounts;
+        this.unreadCounts = unreadCounts;
+        for (int i = 0; i < users.size() && !changedUserIds.isEmpty(); i++) {
+            String userId = users.get(i).id;
+            if (changedUserIds.remove(userId)
+                    && !Objects.equals(previousCounts.get(userId), unreadCounts.get(userId))) {
+                notifyItemChanged(i);
+            }
+        }
+    }
+
+    /**
+     * A method that returns the currently selected users.
+     * @return Returns the selected User objects.
+     */
+    public List<User> getSelectedUsers() {
+        List<User> selectedUsers = new ArrayList<>();
+        for (User user : users) {
+            if (selectedUserIds.contains(user.id)) {
+                selectedUsers.add(user);
+            }
+        }
+        return selectedUsers;
+    }
+
     /**
      *  A sub UserViewHolder class that holds User information and layout.
      */
@@ -84,6 +140,11 @@ public class UsersAdapter extends RecyclerView.Adapter<UsersAdapter.UserViewHold
          */
         ItemContainerUserBinding binding;
 
+        /**
+         * ID of the bound user, so a decoded avatar is only applied to the row still showing it.
+         */
+        private String boundUserId;
+
         /**
          * Constructor for the Holder
          * @param itemContainerUserBinding User layout binding.
@@ -101,25 +162,41 @@ public class UsersAdapter extends RecyclerView.Adapter<UsersAdapter.UserViewHold
             // Connecting user data
             binding.textName.setText(user.name);
             binding.textEmail.setText(user.email);
-            binding.imageProfile.setImageBitmap(getUserImage(user.image));
-
-            // Setting action listener
+            // Unread message badge
+            Integer unreadCount = unreadCounts.get(user.id);
+            if (unreadCount != null && unreadCount > 0) {
+                binding.textUnreadCount.setText(unreadCount > 99 ? "99+" : String.valueOf(unreadCount));
+                binding.textUnreadCount.setVisibility(View.VISIBLE);
+            } else {
+                binding.textUnreadCount.setVisibility(View.GONE);
+            }
+            // Decoded once per process and reused by the chat page, the placeholder shows meanwhile
+            boundUserId = user.id;
+            AvatarCache avatarCache = AvatarCache.getInstance();
+            Bitmap avatar = avatarCache.get(user.id);
+            if (avatar != null) {
+                binding.imageProfile.setImageBitmap(avatar);
+            } else {
+                binding.imageProfile.setImageBitmap(avatarCache.getPlaceholder(user.imagePlaceholder));
+                avatarCache.loadEncoded(user.id, user.image, (userId, bitmap) -> {
+                    if (bitmap != null && userId.equals(boundUserId)) {
+                        binding.imageProfile.setImageBitmap(bitmap);
+                    }
+                });
+            }
+            // Highlighting users selected as group members
+            binding.getRoot().setBackgroundColor(selectedUserIds.contains(user.id)
+                    ? ContextCompat.getColor(binding.getRoot().getContext(), R.color.input_background)
+                    : Color.TRANSPARENT);
+
+            // Setting action listeners
             binding.getRoot().setOnClickListener(v -> {
                 userListener.onUserClicked(user);
             });
+            binding.getRoot().setOnLongClickListener(v -> {
+                userListener.onUserLongClicked(user);
+                return true;
+            });
         }
     }
-
-    /**
-     * A method that decodes the user profile image.
-     * @param encodedImage String of image information.
-     * @return Returns a Bitmap of user profile image.
-     */
-    private Bitmap getUserImage(String encodedImage) {
-        // Turning into byte array
-        byte[] bytes = Base64.decode(encodedImage, Base64.DEFAULT);
-
-        // Producing Bitmap
-        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
-    }
 }
@@ -0,0 +1,307 @@
+/**
+ * A device-local store of the sign in verifiers of the users who signed in on this device. The
+ * password itself is never stored: a verifier is a random salt and a slow PBKDF2 hash of the
+ * password, which is enough to check a password typed again later but costly to brute force if
+ * the file leaks. Signing in again on a known device is checked against the verifier without a
+ * network round trip, and the server confirms the account in the background.
+ */
+package com.example.chatapp_cs460.crypto;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+
+public class CredentialStore {
+    /**
+     * Preference file of the verifiers. Kept apart from the app preferences, which are cleared on
+     * sign out, so the device stays known after signing out.
+     */
+    private static final String PREFERENCE_NAME = "chatAppCredentialPreference";
+    private static final String KEY_VERIFIER_PREFIX = "verifier_";
+    private static final String KEY_USER_ID_PREFIX = "userId_";
+    private static final String KEY_NAME_PREFIX = "name_";
+    private static final String KEY_IMAGE_PREFIX = "image_";
+
+    /**
+     * Hash of the verifiers. HMAC-SHA1 is the PBKDF2 variant every supported Android version has,
+     * the iterations make it slow, and are stored with each verifier so they can be raised.
+     */
+    private static final String ALGORITHM = "PBKDF2WithHmacSHA1";
+    static final int ITERATIONS = 50000;
+    private static final int SALT_BYTES = 16;
+    private static final int HASH_BITS = 256;
+
+    /**
+     * Single shared instance.
+     */
+    private static CredentialStore instance;
+
+    /**
+     * Thread the hashing runs on, and the source of the salts.
+     */
+    private final ExecutorService hashExecutor = Executors.newSingleThreadExecutor();
+    private final SecureRandom random = new SecureRandom();
+
+    /**
+     * Account details stored with a verifier, enough to open the app without the server.
+     */
+    public static class Account {
+        public final String userId, name, image;
+
+        /**
+         * Constructor for the Account.
+         * @param userId String type ID of the user.
+         * @param name String type name of the user.
+         * @param image Base64 String profile image of the user.
+         */
+        public Account(String userId, String name, String image) {
+            this.userId = userId;
+            this.name = name;
+            this.image = image;
+        }
+    }
+
+    /**
+     * Private constructor, use getInstance().
+     */
+    private CredentialStore() {
+    }
+
+    /**
+     * Method that returns the shared store, creating it on first use.
+     * @return Returns the CredentialStore instance.
+     */
+    public static synchronized CredentialStore getInstance() {
+        if (instance == null) {
+            instance = new CredentialStore();
+        }
+        return instance;
+    }
+
+    /**
+     * Method that checks a password against the verifier stored for an email, in the background.
+     * @param context Context class object.
+     * @param email String type email typed by the user.
+     * @param password String type password typed by the user.
+     * @return Returns a Task with the stored Account, null if the device does not know the email
+     * or the password does not match.
+     */
+    public Task<Account> signIn(Context context, String email, String password) {
+        SharedPreferences preferences = getPreferences(context);
+        String key = normalize(email);
+        return Tasks.call(hashExecutor, () -> {
+            String verifier = preferences.getString(KEY_VERIFIER_PREFIX + key, null);
+            if (verifier == null || !matches(verifier, password)) {
+                return null;
+            }
+            return new Account(preferences.getString(KEY_USER_ID_PREFIX + key, null),
+                    preferences.getString(KEY_NAME_PREFIX + key, null),
+                    preferences.getString(KEY_IMAGE_PREFIX + key, null));
+        });
+    }
+
+    /**
+     * Method that stores a new verifier and the account details after the server accepted a
+     * password, in the background.
+     * @param context Context class object.
+     * @param email String type email of the user.
+     * @param password String type password accepted by the server.
+     * @param account Account details of the user.
+     */
+    public void remember(Context context, String email, String password, Account account) {
+        SharedPreferences preferences = getPreferences(context);
+        String key = normalize(email);
+        hashExecutor.execute(() -> {
+            byte[] salt = new byte[SALT_BYTES];
+            random.nextBytes(salt);
+            try {
+                String verifier = createVerifier(password, salt, ITERATIONS);
+                preferences.edit()
+                        .putString(KEY_VERIFIER_PREFIX + key, verifier)
+                        .putString(KEY_USER_ID_PREFIX + key, account.userId)
+                        .putString(KEY_NAME_PREFIX + key, account.name)
+                        .putString(KEY_IMAGE_PREFIX + key, account.image)
+                        .apply();
+            } catch (GeneralSecurityException e) {
+                // Without a verifier the next sign in simply asks the server
+            }
+        });
+    }
+
+    /**
+     * Method that checks whether a password still matches the stored verifier of an email, used
+     * when revalidating against the password on the server. Blocks while hashing, so it must be
+     * called off the main thread.
+     * @param context Context class object.
+     * @param email String type email of the user.
+     * @param password String type password to check.
+     * @return Returns true if a verifier is stored and matches.
+     */
+    public boolean matches(Context context, String email, String password) {
+        String verifier = getPreferences(context).getString(KEY_VERIFIER_PREFIX + normalize(email), null);
+        return verifier != null && password != null && matches(verifier, password);
+    }
+
+    /**
+     * Method that refreshes the stored account details of an email, keeping its verifier.
+     * @param context Context class object.
+     * @param email String type email of the user.
+     * @param name String type name of the user.
+     * @param image Base64 String profile image of the user.
+     */
+    public void updateAccount(Context context, String email, String name, String image) {
+        String key = normalize(email);
+        getPreferences(context).edit()
+                .putString(KEY_NAME_PREFIX + key, name)
+                .putString(KEY_IMAGE_PREFIX + key, image)
+                .apply();
+    }
+
+    /**
+     * Method that drops the verifier and account details of an email, so its next sign in asks
+     * the server.
+     * @param context Context class object.
+     * @param email String type email of the user.
+     */
+    public void forget(Context context, String email) {
+        String key = normalize(email);
+        getPreferences(context).edit()
+                .remove(KEY_VERIFIER_PREFIX + key)
+                .remove(KEY_USER_ID_PREFIX + key)
+                .remove(KEY_NAME_PREFIX + key)
+                .remove(KEY_IMAGE_PREFIX + key)
+                .apply();
+    }
+
+    /**
+     * Method that drops the verifiers of an account, whatever email they were stored under, used
+     * when the account is deleted.
+     * @param context Context class object.
+     * @param userId String type ID of the account.
+     */
+    public void forgetUser(Context context, String userId) {
+        SharedPreferences preferences = getPreferences(context);
+        for (Map.Entry<String, ?> entry : preferences.getAll().entrySet()) {
+            if (entry.getKey().startsWith(KEY_USER_ID_PREFIX) && userId.equals(entry.getValue())) {
+                forget(context, entry.getKey().substring(KEY_USER_ID_PREFIX.length()));
+            }
+        }
+    }
+
+    /**
+     * Method that hashes a password into a verifier.
+     * @param password String type password.
+     * @param salt Random salt bytes.
+     * @param iterations Number of PBKDF2 iterations.
+     * @return Returns the verifier as iterations$salt$hash, salt and hash in hex.
+     * @throws GeneralSecurityException If the hash is not available.
+     */
+    static String createVerifier(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+        return iterations + "$" + toHex(salt) + "$" + toHex(hash(password, salt, iterations));
+    }
+
+    /**
+     * Method that checks a password against a verifier in constant time.
+     * @param verifier String type verifier made by createVerifier().
+     * @param password String type password to check.
+     * @return Returns true if the password matches, false if not or the verifier is malformed.
+     */
+    static boolean matches(String verifier, String password) {
+        String[] parts = verifier.split("\\$");
+        if (parts.length != 3) {
+            return false;
+        }
+        try {
+            byte[] expected = fromHex(parts[2]);
+            byte[] actual = hash(password, fromHex(parts[1]), Integer.parseInt(parts[0]));
+            return MessageDigest.isEqual(expected, actual);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Helper method that runs PBKDF2 over a password.
+     * @param password String type password.
+     * @param salt Salt bytes.
+     * @param iterations Number of iterations.
+     * @return Returns the hash bytes.
+     */
+    private static byte[] hash(String password, byte[] salt, int iterations) throws GeneralSecurityException {
+        if (iterations <= 0 || salt.length == 0) {
+            throw new IllegalArgumentException("Invalid verifier");
+        }
+        PBEKeySpec spec = new PBEKeySpec(password.toCharArray(), salt, iterations, HASH_BITS);
+        try {
+            return SecretKeyFactory.getInstance(ALGORITHM).generateSecret(spec).getEncoded();
+        } finally {
+            spec.clearPassword();
+        }
+    }
+
+    /**
+     * Helper method that turns bytes into hex.
+     * @param bytes Bytes to be encoded.
+     * @return Returns the lower case hex String.
+     */
+    private static String toHex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Helper method that turns hex into bytes.
+     * @param hex String type hex.
+     * @return Returns the bytes.
+     * @throws IllegalArgumentException If the String is not hex.
+     */
+    private static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Odd hex length");
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(i * 2), 16);
+            int low = Character.digit(hex.charAt(i * 2 + 1), 16);
+            if (high < 0 || low < 0) {
+                throw new IllegalArgumentException("Invalid hex");
+            }
+            bytes[i] = (byte) ((high << 4) | low);
+        }
+        return bytes;
+    }
+
+    /**
+     * Helper method that turns an email into the key its verifier is stored under.
+     * @param email String type email.
+     * @return Returns the trimmed lower case email.
+     */
+    private static String normalize(String email) {
+        return email.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Helper method that opens the preference file of the verifiers.
+     * @param context Context class object.
+     * @return Returns the SharedPreferences.
+     */
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,184 @@
+/**
+ * A class that encrypts and decrypts message texts with AES-GCM. Every message gets a fresh random
+ * nonce, and the conversation key is authenticated with it, so a ciphertext copied into another
+ * conversation fails to decrypt. The payload starts with the IDs of the public keys the session key
+ * was agreed from, so messages stay readable after either user published a new key pair. Plain
+ * Java, so it can be benchmarked on the development machine.
+ */
+package com.example.chatapp_cs460.crypto;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+public class MessageCipher {
+    /**
+     * Cipher transformation, nonce length, authentication tag length and session key length.
+     */
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final int NONCE_BYTES = 12;
+    private static final int TAG_BITS = 128;
+    private static final int KEY_BYTES = 32;
+
+    /**
+     * Length of the ID of one public key, and the marker and length of the key ID header. Payloads
+     * written before key IDs start with the nonce right away.
+     */
+    public static final int PUBLIC_KEY_ID_BYTES = 8;
+    private static final byte[] HEADER_MARKER = {'k', 'i', 'd', '1'};
+    private static final int HEADER_BYTES = HEADER_MARKER.length + 2 * PUBLIC_KEY_ID_BYTES;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    /**
+     * Private constructor, the class only holds static helpers.
+     */
+    private MessageCipher() {
+    }
+
+    /**
+     * Method that derives the session key of a conversation from an ECDH shared secret (HKDF-SHA256).
+     * @param sharedSecret Shared secret agreed by the two users.
+     * @param conversationKey String type key of the conversation, binds the key to it.
+     * @return Returns the session key bytes.
+     * @throws GeneralSecurityException If HMAC-SHA256 is not available.
+     */
+    public static byte[] deriveSessionKey(byte[] sharedSecret, String conversationKey)
+            throws GeneralSecurityException {
+        // Extract
+        Mac mac = Mac.getInstance("HmacSHA256");
+        mac.init(new SecretKeySpec(new byte[32], "HmacSHA256"));
+        byte[] pseudoRandomKey = mac.doFinal(sharedSecret);
+        // Expand, a single block covers the key length
+        mac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));
+        mac.update(conversationKey.getBytes(StandardCharsets.UTF_8));
+        mac.update((byte) 1);
+        return Arrays.copyOf(mac.doFinal(), KEY_BYTES);
+    }
+
+    /**
+     * Method that returns the ID of a public key, the start of its SHA-256 hash.
+     * @param encodedPublicKey Encoded public key.
+     * @return Returns the public key ID bytes.
+     * @throws GeneralSecurityException If SHA-256 is not available.
+     */
+    public static byte[] getPublicKeyId(byte[] encodedPublicKey) throws GeneralSecurityException {
+        return Arrays.copyOf(MessageDigest.getInstance("SHA-256").digest(encodedPublicKey), PUBLIC_KEY_ID_BYTES);
+    }
+
+    /**
+     * Method that encrypts a message text.
+     * @param sessionKey Session key of the conversation.
+     * @param keyId IDs of the sender's and the receiver's public keys the session key was agreed
+     * from, PUBLIC_KEY_ID_BYTES each.
+     * @param conversationKey String type key of the conversation.
+     * @param plaintext String type message text.
+     * @return Returns the key ID header and nonce followed by the ciphertext and tag.
+     * @throws GeneralSecurityException If the text can not be encrypted.
+     */
+    public static byte[] encrypt(byte[] sessionKey, byte[] keyId, String conversationKey, String plaintext)
+            throws GeneralSecurityException {
+        if (keyId.length != 2 * PUBLIC_KEY_ID_BYTES) {
+            throw new GeneralSecurityException("Invalid key ID");
+        }
+        byte[] nonce = new byte[NONCE_BYTES];
+        RANDOM.nextBytes(nonce);
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(sessionKey, "AES"),
+                new GCMParameterSpec(TAG_BITS, nonce));
+        cipher.updateAAD(conversationKey.getBytes(StandardCharsets.UTF_8));
+        cipher.updateAAD(keyId);
+        byte[] ciphertext = cipher.doFinal(plaintext.getBytes(StandardCharsets.UTF_8));
+
+        byte[] payload = new byte[HEADER_BYTES + NONCE_BYTES + ciphertext.length];
+        System.arraycopy(HEADER_MARKER, 0, payload, 0, HEADER_MARKER.length);
+        System.arraycopy(keyId, 0, payload, HEADER_MARKER.length, keyId.length);
+        System.arraycopy(nonce, 0, payload, HEADER_BYTES, NONCE_BYTES);
+        System.arraycopy(ciphertext, 0, payload, HEADER_BYTES + NONCE_BYTES, ciphertext.length);
+        return payload;
+    }
+
+    /**
+     * Method that returns the key ID a payload was encrypted under.
+     * @param payload Payload as produced by encrypt.
+     * @return Returns the key ID bytes, null for payloads written before key IDs.
+     */
+    public static byte[] getKeyId(byte[] payload) {
+        if (!hasHeader(payload)) {
+            return null;
+        }
+        return Arrays.copyOfRange(payload, HEADER_MARKER.length, HEADER_BYTES);
+    }
+
+    /**
+     * Method that decrypts a message text.
+     * @param sessionKey Session key of the conversation.
+     * @param conversationKey String type key of the conversation.
+     * @param payload Payload as produced by encrypt, or a nonce followed by the ciphertext and tag
+     * for messages written before key IDs.
+     * @return Returns the String type message text.
+     * @throws GeneralSecurityException If the payload was altered or belongs to another key.
+     */
+    public static String decrypt(byte[] sessionKey, String conversationKey, byte[] payload)
+            throws GeneralSecurityException {
+        if (hasHeader(payload)) {
+            try {
+                return decrypt(sessionKey, conversationKey, payload, HEADER_BYTES);
+            } catch (GeneralSecurityException e) {
+                // The random nonce of an older payload can start like a header
+            }
+        }
+        return decrypt(sessionKey, conversationKey, payload, 0);
+    }
+
+    /**
+     * Helper method that decrypts a payload whose nonce starts at an offset. The header before the
+     * nonce is authenticated.
+     * @param sessionKey Session key of the conversation.
+     * @param conversationKey String type key of the conversation.
+     * @param payload Payload to decrypt.
+     * @param nonceOffset Index of the nonce in the payload.
+     * @return Returns the String type message text.
+     * @throws GeneralSecurityException If the payload was altered or belongs to another key.
+     */
+    private static String decrypt(byte[] sessionKey, String conversationKey, byte[] payload, int nonceOffset)
+            throws GeneralSecurityException {
+        if (payload.length < nonceOffset + NONCE_BYTES) {
+            throw new GeneralSecurityException("Payload too short");
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, new SecretKeySpec(sessionKey, "AES"),
+                new GCMParameterSpec(TAG_BITS, payload, nonceOffset, NONCE_BYTES));
+        cipher.updateAAD(conversationKey.getBytes(StandardCharsets.UTF_8));
+        if (nonceOffset > 0) {
+            cipher.updateAAD(payload, HEADER_MARKER.length, nonceOffset - HEADER_MARKER.length);
+        }
+        int start = nonceOffset + NONCE_BYTES;
+        byte[] plaintext = cipher.doFinal(payload, start, payload.length - start);
+        return new String(plaintext, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Helper method that checks whether a payload starts with the key ID header.
+     * @param payload Payload to check.
+     * @return Returns true if the header marker is present.
+     */
+    private static boolean hasHeader(byte[] payload) {
+        if (payload.length < HEADER_BYTES + NONCE_BYTES) {
+            return false;
+        }
+        for (int i = 0; i < HEADER_MARKER.length; i++) {
+            if (payload[i] != HEADER_MARKER[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
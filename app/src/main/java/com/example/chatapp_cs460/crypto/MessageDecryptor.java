@@ -0,0 +1,191 @@
+/**
+ * A class that decrypts received messages on a pool of worker threads. A history is split into
+ * batches that are decrypted in parallel and delivered one by one as they finish, newest first, so
+ * the visible end of a chat appears before the rest of the history is done. Decrypted texts are
+ * kept in a bounded cache, so reopening a chat or scrolling back never decrypts a message twice.
+ */
+package com.example.chatapp_cs460.crypto;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.example.chatapp_cs460.listeners.DecryptionListener;
+import com.example.chatapp_cs460.models.ChatMessage;
+
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MessageDecryptor {
+    /**
+     * Messages decrypted per task and the number of decrypted texts kept.
+     */
+    public static final int BATCH_SIZE = 64;
+    private static final int MAX_CACHED_TEXTS = 20000;
+
+    /**
+     * Text shown for messages that can not be decrypted, for example ones sent to a key pair this
+     * device does not hold.
+     */
+    public static final String UNDECRYPTABLE_TEXT = "Unable to decrypt message";
+
+    /**
+     * Single shared instance, delivering on the main thread.
+     */
+    private static MessageDecryptor instance;
+
+    /**
+     * Worker pool, the executor results are delivered on and the decrypted texts by message ID.
+     */
+    private final ExecutorService workerPool;
+    private final Executor deliveryExecutor;
+    private final Map<String, String> plaintexts = new LinkedHashMap<String, String>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED_TEXTS;
+        }
+    };
+
+    /**
+     * Constructor for the MessageDecryptor.
+     * @param threads Number of worker threads.
+     * @param deliveryExecutor Executor the listener is called on.
+     */
+    public MessageDecryptor(int threads, Executor deliveryExecutor) {
+        this.workerPool = Executors.newFixedThreadPool(threads);
+        this.deliveryExecutor = deliveryExecutor;
+    }
+
+    /**
+     * Method that returns the shared decryptor, creating it on first use.
+     * @return Returns the MessageDecryptor instance.
+     */
+    public static synchronized MessageDecryptor getInstance() {
+        if (instance == null) {
+            Handler mainHandler = new Handler(Looper.getMainLooper());
+            int threads = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+            instance = new MessageDecryptor(threads, mainHandler::post);
+        }
+        return instance;
+    }
+
+    /**
+     * Method that decrypts the messages of a conversation. Messages decrypted before are delivered
+     * right away from the cache, the others in batches as the workers finish them.
+     * Messages that fail to decrypt get UNDECRYPTABLE_TEXT.
+     * @param chatMessages List of encrypted messages, ordered oldest first.
+     * @param sessionKeys SessionKeys of the conversation, null if they are unknown.
+     * @param conversationKey String type key of the conversation.
+     * @param listener DecryptionListener called once per batch.
+     */
+    public void decrypt(List<ChatMessage> chatMessages, SessionKeys sessionKeys, String conversationKey,
+                        DecryptionListener listener) {
+        List<ChatMessage> cached = new ArrayList<>();
+        List<ChatMessage> pending = new ArrayList<>();
+        synchronized (plaintexts) {
+            for (ChatMessage chatMessage : chatMessages) {
+                String plaintext = chatMessage.id == null ? null : plaintexts.get(chatMessage.id);
+                if (plaintext != null) {
+                    chatMessage.message = plaintext;
+                    cached.add(chatMessage);
+                } else {
+                    pending.add(chatMessage);
+                }
+            }
+        }
+        if (!cached.isEmpty()) {
+            deliveryExecutor.execute(() -> listener.onMessagesDecrypted(cached));
+        }
+
+        // Newest batches first, they are closest to the visible end of the chat
+        for (int end = pending.size(); end > 0; end -= BATCH_SIZE) {
+            List<ChatMessage> batch = new ArrayList<>(pending.subList(Math.max(0, end - BATCH_SIZE), end));
+            workerPool.execute(() -> {
+                decryptBatch(batch, sessionKeys, conversationKey);
+                deliveryExecutor.execute(() -> listener.onMessagesDecrypted(batch));
+            });
+        }
+    }
+
+    /**
+     * Helper method that decrypts a batch on the calling worker and caches the texts.
+     * @param batch List of encrypted messages.
+     * @param sessionKeys SessionKeys of the conversation, may be null.
+     * @param conversationKey String type key of the conversation.
+     */
+    private void decryptBatch(List<ChatMessage> batch, SessionKeys sessionKeys, String conversationKey) {
+        Map<String, String> decrypted = new LinkedHashMap<>();
+        for (ChatMessage chatMessage : batch) {
+            try {
+                if (sessionKeys == null || chatMessage.ciphertext == null) {
+                    throw new GeneralSecurityException("No session key");
+                }
+                chatMessage.message = decrypt(sessionKeys, conversationKey, chatMessage.ciphertext);
+                if (chatMessage.id != null) {
+                    decrypted.put(chatMessage.id, chatMessage.message);
+                }
+            } catch (GeneralSecurityException e) {
+                chatMessage.message = UNDECRYPTABLE_TEXT;
+            }
+        }
+        synchronized (plaintexts) {
+            plaintexts.putAll(decrypted);
+        }
+    }
+
+    /**
+     * Helper method that decrypts a payload with the session keys it may belong to.
+     * @param sessionKeys SessionKeys of the conversation.
+     * @param conversationKey String type key of the conversation.
+     * @param payload Encrypted message payload.
+     * @return Returns the String type message text.
+     * @throws GeneralSecurityException If none of the keys decrypts the payload.
+     */
+    private static String decrypt(SessionKeys sessionKeys, String conversationKey, byte[] payload)
+            throws GeneralSecurityException {
+        GeneralSecurityException failure = new GeneralSecurityException("No matching session key");
+        for (byte[] sessionKey : sessionKeys.getCandidates(payload)) {
+            try {
+                return MessageCipher.decrypt(sessionKey, conversationKey, payload);
+            } catch (GeneralSecurityException e) {
+                failure = e;
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * Method that returns the decrypted text of a message, if it is cached.
+     * @param messageId String type ID of the message.
+     * @return Returns the plaintext or null.
+     */
+    public String getCachedText(String messageId) {
+        synchronized (plaintexts) {
+            return plaintexts.get(messageId);
+        }
+    }
+
+    /**
+     * Method that drops the decrypted text of a message whose text was edited.
+     * @param messageId String type ID of the message.
+     */
+    public void invalidate(String messageId) {
+        synchronized (plaintexts) {
+            plaintexts.remove(messageId);
+        }
+    }
+
+    /**
+     * Method that drops all decrypted texts, used when the user signs out.
+     */
+    public void clear() {
+        synchronized (plaintexts) {
+            plaintexts.clear();
+        }
+    }
+}
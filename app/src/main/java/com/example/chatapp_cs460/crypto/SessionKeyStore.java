@@ -0,0 +1,290 @@
+/**
+ * A process-wide store of the encryption keys of the signed in user. Every user owns an EC key pair
+ * whose public half is published on the user document. The session key of a conversation is derived
+ * by both users from an ECDH agreement of their key pairs, so it never leaves the devices.
+ * Publishing a new key pair, after a reinstall or on another device, keeps the earlier public keys
+ * on the user document by their key ID, so the other users can still read the messages agreed from
+ * them. Derived session keys are cached, and all key work happens off the main thread.
+ */
+package com.example.chatapp_cs460.crypto;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Base64;
+
+import com.example.chatapp_cs460.firebase.FirestoreAccounting;
+import com.example.chatapp_cs460.firebase.MessageArchive;
+import com.example.chatapp_cs460.models.User;
+import com.example.chatapp_cs460.utilities.Constants;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Source;
+
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.spec.ECGenParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.crypto.KeyAgreement;
+
+public class SessionKeyStore {
+    /**
+     * Preference file of the key pairs. Kept apart from the app preferences, which are cleared on
+     * sign out, so the history stays readable after signing back in, and left out of cloud backups
+     * by the backup rules. The published marker holds the ID of the key published with its history.
+     */
+    private static final String PREFERENCE_NAME = "chatAppKeysPreference";
+    private static final String KEY_PRIVATE_PREFIX = "private_";
+    private static final String KEY_PUBLIC_PREFIX = "public_";
+    private static final String KEY_PUBLISHED_PREFIX = "publishedKeyId_";
+
+    /**
+     * Single shared instance.
+     */
+    private static SessionKeyStore instance;
+
+    /**
+     * Derived session keys by conversation key and public key of the other user, and the key thread.
+     */
+    private final Map<String, SessionKeys> sessionKeys = new HashMap<>();
+    private final ExecutorService keyExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Private constructor, use getInstance().
+     */
+    private SessionKeyStore() {
+    }
+
+    /**
+     * Method that returns the shared store, creating it on first use.
+     * @return Returns the SessionKeyStore instance.
+     */
+    public static synchronized SessionKeyStore getInstance() {
+        if (instance == null) {
+            instance = new SessionKeyStore();
+        }
+        return instance;
+    }
+
+    /**
+     * Method that creates the key pair of the user if needed and publishes its public half on the
+     * user document, unless this device already did. A different key published before is kept in
+     * the key history, which the public key is also added to.
+     * @param context Context class object.
+     * @param database FirebaseFirestore instance.
+     * @param userId String type ID of the signed in user.
+     */
+    public void publishPublicKey(Context context, FirebaseFirestore database, String userId) {
+        SharedPreferences preferences = getPreferences(context);
+        DocumentReference reference = database.collection(Constants.KEY_COLLECTION_USERS).document(userId);
+        // A failure leaves the key unpublished, messages to the user are sent in plaintext until then
+        Tasks.call(keyExecutor, () -> {
+            String publicKey = getKeyPair(preferences, userId).publicKey;
+            String keyId = getPublicKeyId(publicKey);
+            return keyId.equals(preferences.getString(KEY_PUBLISHED_PREFIX + userId, null)) ? null : publicKey;
+        }).continueWithTask(task -> {
+            String publicKey = task.getResult();
+            if (publicKey == null) {
+                return Tasks.forResult(null);
+            }
+            return FirestoreAccounting.getInstance().get(reference, Source.SERVER, "users.publicKey")
+                    .continueWithTask(keyExecutor, read -> {
+                        Map<String, Object> updates = new HashMap<>();
+                        String publishedKey = read.getResult().getString(Constants.KEY_PUBLIC_KEY);
+                        if (publishedKey != null && !publishedKey.equals(publicKey)) {
+                            updates.put(Constants.KEY_PUBLIC_KEYS + "." + getPublicKeyId(publishedKey), publishedKey);
+                        }
+                        String keyId = getPublicKeyId(publicKey);
+                        updates.put(Constants.KEY_PUBLIC_KEYS + "." + keyId, publicKey);
+                        updates.put(Constants.KEY_PUBLIC_KEY, publicKey);
+                        // Directory copies pick the key up through the updatedAt field
+                        updates.put(Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp());
+                        return FirestoreAccounting.getInstance().write(reference.update(updates), 1, "users.publicKey")
+                                .addOnSuccessListener(unused -> preferences.edit()
+                                        .putString(KEY_PUBLISHED_PREFIX + userId, keyId)
+                                        .apply());
+                    });
+        });
+    }
+
+    /**
+     * Method that returns the session keys of the conversation with another user: the current one
+     * and the ones agreed from the earlier public keys of the other user.
+     * @param context Context class object.
+     * @param database FirebaseFirestore instance.
+     * @param userId String type ID of the signed in user.
+     * @param receiver User class object of the other user.
+     * @return Returns a Task with the SessionKeys, null if the other user has not published a key.
+     */
+    public Task<SessionKeys> getSessionKeys(Context context, FirebaseFirestore database, String userId,
+                                            User receiver) {
+        SharedPreferences preferences = getPreferences(context);
+        String conversationKey = MessageArchive.getConversationKey(userId, receiver.id);
+        String receiverPublicKey = receiver.publicKey;
+        if (receiverPublicKey == null) {
+            return Tasks.forResult(null);
+        }
+        String cacheKey = conversationKey + "/" + receiverPublicKey;
+        return Tasks.call(keyExecutor, () -> sessionKeys.get(cacheKey)).continueWithTask(cached -> {
+            if (cached.getResult() != null) {
+                return Tasks.forResult(cached.getResult());
+            }
+            return FirestoreAccounting.getInstance().get(database.collection(Constants.KEY_COLLECTION_USERS)
+                            .document(receiver.id), Source.DEFAULT, "users.publicKeys")
+                    .continueWith(keyExecutor, read -> {
+                        StoredKeyPair keyPair = getKeyPair(preferences, userId);
+                        byte[] ownKeyId = MessageCipher.getPublicKeyId(decode(keyPair.publicKey));
+                        SessionKeys keys = new SessionKeys(
+                                deriveSessionKey(keyPair, receiverPublicKey, conversationKey), ownKeyId,
+                                MessageCipher.getPublicKeyId(decode(receiverPublicKey)));
+                        // Without the history only messages of the current keys decrypt
+                        Map<String, Object> history = read.isSuccessful()
+                                ? getPublicKeys(read.getResult()) : new HashMap<>();
+                        for (Object earlierKey : history.values()) {
+                            if (earlierKey instanceof String && !receiverPublicKey.equals(earlierKey)) {
+                                try {
+                                    keys.put(deriveSessionKey(keyPair, (String) earlierKey, conversationKey),
+                                            ownKeyId, MessageCipher.getPublicKeyId(decode((String) earlierKey)));
+                                } catch (GeneralSecurityException | IllegalArgumentException e) {
+                                    // An invalid earlier key only leaves its messages unreadable
+                                }
+                            }
+                        }
+                        sessionKeys.put(cacheKey, keys);
+                        return keys;
+                    });
+        });
+    }
+
+    /**
+     * Method that drops the key pair of a user and the session keys derived on this device, used
+     * when the account is deleted.
+     * @param context Context class object.
+     * @param userId String type ID of the user.
+     */
+    public void forget(Context context, String userId) {
+        SharedPreferences preferences = getPreferences(context);
+        keyExecutor.execute(() -> {
+            sessionKeys.clear();
+            preferences.edit()
+                    .remove(KEY_PRIVATE_PREFIX + userId)
+                    .remove(KEY_PUBLIC_PREFIX + userId)
+                    .remove(KEY_PUBLISHED_PREFIX + userId)
+                    .apply();
+        });
+    }
+
+    /**
+     * Helper method that agrees on a shared secret with the other user and derives the session key.
+     * @param keyPair Stored key pair of the signed in user.
+     * @param receiverPublicKey Base64 String public key of the other user.
+     * @param conversationKey String type key of the conversation.
+     * @return Returns the session key bytes.
+     * @throws GeneralSecurityException If a key is invalid.
+     */
+    private static byte[] deriveSessionKey(StoredKeyPair keyPair, String receiverPublicKey,
+                                           String conversationKey) throws GeneralSecurityException {
+        KeyFactory keyFactory = KeyFactory.getInstance("EC");
+        PrivateKey privateKey = keyFactory.generatePrivate(new PKCS8EncodedKeySpec(decode(keyPair.privateKey)));
+        PublicKey publicKey = keyFactory.generatePublic(new X509EncodedKeySpec(decode(receiverPublicKey)));
+        KeyAgreement agreement = KeyAgreement.getInstance("ECDH");
+        agreement.init(privateKey);
+        agreement.doPhase(publicKey, true);
+        return MessageCipher.deriveSessionKey(agreement.generateSecret(), conversationKey);
+    }
+
+    /**
+     * Helper method that reads the key pair of a user, generating and storing it on first use.
+     * Only called on the key thread.
+     * @param preferences SharedPreferences holding the key pairs.
+     * @param userId String type ID of the user.
+     * @return Returns the Base64 encoded key pair.
+     * @throws GeneralSecurityException If no key pair can be generated.
+     */
+    private static StoredKeyPair getKeyPair(SharedPreferences preferences, String userId)
+            throws GeneralSecurityException {
+        String privateKey = preferences.getString(KEY_PRIVATE_PREFIX + userId, null);
+        String publicKey = preferences.getString(KEY_PUBLIC_PREFIX + userId, null);
+        if (privateKey == null || publicKey == null) {
+            KeyPairGenerator generator = KeyPairGenerator.getInstance("EC");
+            generator.initialize(new ECGenParameterSpec("secp256r1"));
+            KeyPair keyPair = generator.generateKeyPair();
+            privateKey = Base64.encodeToString(keyPair.getPrivate().getEncoded(), Base64.NO_WRAP);
+            publicKey = Base64.encodeToString(keyPair.getPublic().getEncoded(), Base64.NO_WRAP);
+            preferences.edit()
+                    .putString(KEY_PRIVATE_PREFIX + userId, privateKey)
+                    .putString(KEY_PUBLIC_PREFIX + userId, publicKey)
+                    .commit();
+        }
+        return new StoredKeyPair(privateKey, publicKey);
+    }
+
+    /**
+     * Helper method that reads the public key history of a user document.
+     * @param document DocumentSnapshot of the user.
+     * @return Returns the Base64 public keys by key ID, empty if there is none.
+     */
+    @SuppressWarnings("unchecked")
+    private static Map<String, Object> getPublicKeys(DocumentSnapshot document) {
+        Object publicKeys = document.get(Constants.KEY_PUBLIC_KEYS);
+        return publicKeys instanceof Map ? (Map<String, Object>) publicKeys : new HashMap<>();
+    }
+
+    /**
+     * Helper method that returns the key ID of a public key, as used in the key history.
+     * @param publicKey Base64 String public key.
+     * @return Returns the hex String key ID.
+     * @throws GeneralSecurityException If SHA-256 is not available.
+     */
+    private static String getPublicKeyId(String publicKey) throws GeneralSecurityException {
+        StringBuilder hex = new StringBuilder();
+        for (byte value : MessageCipher.getPublicKeyId(decode(publicKey))) {
+            hex.append(String.format("%02x", value));
+        }
+        return hex.toString();
+    }
+
+    /**
+     * Helper method that decodes a Base64 stored key.
+     * @param key Base64 String key.
+     * @return Returns the encoded key bytes.
+     */
+    private static byte[] decode(String key) {
+        return Base64.decode(key, Base64.NO_WRAP);
+    }
+
+    /**
+     * Helper method that opens the preference file of the key pairs.
+     * @param context Context class object.
+     * @return Returns the SharedPreferences.
+     */
+    private static SharedPreferences getPreferences(Context context) {
+        return context.getApplicationContext().getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Base64 encoded halves of a stored key pair.
+     */
+    private static class StoredKeyPair {
+        private final String privateKey;
+        private final String publicKey;
+
+        private StoredKeyPair(String privateKey, String publicKey) {
+            this.privateKey = privateKey;
+            this.publicKey = publicKey;
+        }
+    }
+}
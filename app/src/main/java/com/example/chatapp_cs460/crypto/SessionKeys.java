@@ -0,0 +1,100 @@
+/**
+ * The session keys of one conversation. New messages are encrypted with the current key, agreed
+ * from the newest public keys of both users. Keys agreed from earlier public keys of the other user
+ * are kept by their key ID, so messages sent before that user published a new key pair still
+ * decrypt. Plain Java, so it can be tested on the development machine.
+ */
+package com.example.chatapp_cs460.crypto;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class SessionKeys {
+    /**
+     * Current session key and its key ID, and every known session key by key ID.
+     */
+    private final byte[] currentKey;
+    private final byte[] currentKeyId;
+    private final Map<String, byte[]> keysById = new LinkedHashMap<>();
+
+    /**
+     * Constructor for the SessionKeys.
+     * @param currentKey Session key agreed from the newest public keys.
+     * @param ownPublicKeyId ID of the public key of the signed in user.
+     * @param otherPublicKeyId ID of the newest public key of the other user.
+     */
+    public SessionKeys(byte[] currentKey, byte[] ownPublicKeyId, byte[] otherPublicKeyId) {
+        this.currentKey = currentKey;
+        this.currentKeyId = concat(ownPublicKeyId, otherPublicKeyId);
+        put(currentKey, ownPublicKeyId, otherPublicKeyId);
+    }
+
+    /**
+     * Method that adds a session key agreed from an earlier public key of the other user.
+     * @param sessionKey Session key bytes.
+     * @param ownPublicKeyId ID of the public key of the signed in user.
+     * @param otherPublicKeyId ID of the earlier public key of the other user.
+     */
+    public void put(byte[] sessionKey, byte[] ownPublicKeyId, byte[] otherPublicKeyId) {
+        // Sent messages name the sender's key first, received ones the other user's
+        keysById.put(Arrays.toString(concat(ownPublicKeyId, otherPublicKeyId)), sessionKey);
+        keysById.put(Arrays.toString(concat(otherPublicKeyId, ownPublicKeyId)), sessionKey);
+    }
+
+    /**
+     * Method that returns the session key new messages are encrypted with.
+     * @return Returns the current session key bytes.
+     */
+    public byte[] getCurrentKey() {
+        return currentKey;
+    }
+
+    /**
+     * Method that returns the key ID new messages are sent with, the sender's key ID first.
+     * @return Returns the current key ID bytes.
+     */
+    public byte[] getCurrentKeyId() {
+        return currentKeyId;
+    }
+
+    /**
+     * Method that returns the session keys to try on a payload. A payload with a key ID gets its
+     * own key, one written before key IDs every known key, the current one first.
+     * @param payload Encrypted message payload.
+     * @return Returns the candidate session keys.
+     */
+    public List<byte[]> getCandidates(byte[] payload) {
+        byte[] keyId = MessageCipher.getKeyId(payload);
+        List<byte[]> candidates = new ArrayList<>();
+        if (keyId != null) {
+            byte[] sessionKey = keysById.get(Arrays.toString(keyId));
+            if (sessionKey != null) {
+                candidates.add(sessionKey);
+                return candidates;
+            }
+        }
+        // Also covers an older payload whose random nonce starts like a key ID header
+        candidates.add(currentKey);
+        for (byte[] sessionKey : keysById.values()) {
+            if (!candidates.contains(sessionKey)) {
+                candidates.add(sessionKey);
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * Helper method that joins two public key IDs.
+     * @param first ID of the first public key.
+     * @param second ID of the second public key.
+     * @return Returns the joined key ID.
+     */
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] keyId = Arrays.copyOf(first, first.length + second.length);
+        System.arraycopy(second, 0, keyId, first.length, second.length);
+        return keyId;
+    }
+}
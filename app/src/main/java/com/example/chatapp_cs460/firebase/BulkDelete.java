@@ -0,0 +1,256 @@
+/**
+ * A class that deletes accounts. Matching documents are read in pages of 500, and every page is
+ * deleted as one write batch. Up to four batches are committed in parallel while the next pages are
+ * read, instead of one delete per document. Deletes can be repeated, so an interrupted run starts
+ * its unfinished step over and finds only the documents still left.
+ */
+package com.example.chatapp_cs460.firebase;
+
+import com.example.chatapp_cs460.listeners.BulkDeleteListener;
+import com.example.chatapp_cs460.models.ChatMessage;
+import com.example.chatapp_cs460.utilities.Constants;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+public class BulkDelete {
+    /**
+     * Documents read per page and written per batch, the limit of a Firestore write batch.
+     */
+    static final int BATCH_SIZE = 500;
+
+    /**
+     * Most batches committing at the same time.
+     */
+    static final int MAX_PARALLEL_BATCHES = 4;
+
+    /**
+     * Private constructor, the class only holds static helpers.
+     */
+    private BulkDelete() {
+    }
+
+    /**
+     * Method that deletes an account, starting at a step an earlier run did not finish. The user
+     * document is turned into a tombstone first, so the account is gone for everyone right away,
+     * then the account leaves its groups and its one-to-one messages and archive buckets are deleted.
+     * Blocks, must not be called on the main thread.
+     * @param database FirebaseFirestore instance.
+     * @param userId String type ID of the account.
+     * @param firstStep Index of the first step to run, 0 for a new deletion.
+     * @param deleted Number of documents an earlier run already deleted, counted on from there.
+     * @param listener BulkDeleteListener told after every batch and step, may be null.
+     * @return Returns the total number of deleted or updated documents.
+     * @throws ExecutionException If a database operation fails.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public static int deleteAccount(FirebaseFirestore database, String userId, int firstStep, int deleted,
+                                    BulkDeleteListener listener)
+            throws ExecutionException, InterruptedException {
+        int[] total = {deleted};
+        if (firstStep <= 0) {
+            Tasks.await(FirestoreAccounting.getInstance().write(database
+                    .collection(Constants.KEY_COLLECTION_USERS)
+                    .document(userId)
+                    .set(getTombstone(), SetOptions.merge()), 1, "delete.tombstone"));
+            total[0]++;
+            finishStep(1, listener);
+        }
+        if (firstStep <= 1) {
+            leaveConversations(database, userId, total, listener);
+            finishStep(2, listener);
+        }
+        if (firstStep <= 2) {
+            deleteAll(database.collection(Constants.KEY_COLLECTION_CHAT)
+                    .whereEqualTo(Constants.KEY_SENDER_ID, userId), false, total, listener);
+            finishStep(3, listener);
+        }
+        if (firstStep <= 3) {
+            deleteAll(database.collection(Constants.KEY_COLLECTION_CHAT)
+                    .whereEqualTo(Constants.KEY_RECEIVER_ID, userId), false, total, listener);
+            finishStep(4, listener);
+        }
+        if (firstStep <= 4) {
+            deleteAll(database.collection(Constants.KEY_COLLECTION_CHAT_ARCHIVE)
+                    .whereArrayContains(Constants.KEY_PARTICIPANTS, userId), true, total, listener);
+            finishStep(5, listener);
+        }
+        return total[0];
+    }
+
+    /**
+     * Helper method that pages through the documents of a query and deletes them in batches.
+     * @param query Query of the documents to delete.
+     * @param isArchive Whether the documents are archive buckets, whose messages are reported.
+     * @param total Running count of deleted documents.
+     * @param listener BulkDeleteListener told after every batch, may be null.
+     */
+    private static void deleteAll(Query query, boolean isArchive, int[] total, BulkDeleteListener listener)
+            throws ExecutionException, InterruptedException {
+        Deque<PendingBatch> pendingBatches = new ArrayDeque<>();
+        DocumentSnapshot last = null;
+        while (true) {
+            // Paging by cursor, so the next page is read while the batches before it commit
+            Query page = last != null ? query.startAfter(last) : query;
+            QuerySnapshot snapshot = Tasks.await(FirestoreAccounting.getInstance()
+                    .get(page.limit(BATCH_SIZE), "delete.page"));
+            if (!snapshot.isEmpty()) {
+                WriteBatch batch = query.getFirestore().batch();
+                List<String> messageIds = new ArrayList<>();
+                for (DocumentSnapshot document : snapshot.getDocuments()) {
+                    batch.delete(document.getReference());
+                    if (isArchive) {
+                        for (ChatMessage chatMessage : MessageArchive.getMessages(document)) {
+                            messageIds.add(chatMessage.id);
+                        }
+                    } else {
+                        messageIds.add(document.getId());
+                    }
+                }
+                Task<Void> commit = FirestoreAccounting.getInstance()
+                        .write(batch.commit(), snapshot.size(), "delete.page");
+                submit(pendingBatches, new PendingBatch(commit, messageIds, snapshot.size()), total, listener);
+            }
+            if (snapshot.size() < BATCH_SIZE) {
+                break;
+            }
+            last = snapshot.getDocuments().get(snapshot.size() - 1);
+        }
+        while (!pendingBatches.isEmpty()) {
+            awaitOldest(pendingBatches, total, listener);
+        }
+    }
+
+    /**
+     * Helper method that removes the user from the member list of every group, in batches.
+     * @param database FirebaseFirestore instance.
+     * @param userId String type ID of the user.
+     * @param total Running count of updated documents.
+     * @param listener BulkDeleteListener told after every batch, may be null.
+     */
+    private static void leaveConversations(FirebaseFirestore database, String userId, int[] total,
+                                           BulkDeleteListener listener)
+            throws ExecutionException, InterruptedException {
+        Query query = database.collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                .whereArrayContains(Constants.KEY_MEMBERS, userId);
+        Deque<PendingBatch> pendingBatches = new ArrayDeque<>();
+        DocumentSnapshot last = null;
+        while (true) {
+            Query page = last != null ? query.startAfter(last) : query;
+            QuerySnapshot snapshot = Tasks.await(FirestoreAccounting.getInstance()
+                    .get(page.limit(BATCH_SIZE), "delete.members"));
+            if (!snapshot.isEmpty()) {
+                WriteBatch batch = database.batch();
+                for (DocumentSnapshot document : snapshot.getDocuments()) {
+                    batch.update(document.getReference(), Constants.KEY_MEMBERS, FieldValue.arrayRemove(userId));
+                }
+                Task<Void> commit = FirestoreAccounting.getInstance()
+                        .write(batch.commit(), snapshot.size(), "delete.members");
+                submit(pendingBatches, new PendingBatch(commit, Collections.<String>emptyList(),
+                        snapshot.size()), total, listener);
+            }
+            if (snapshot.size() < BATCH_SIZE) {
+                break;
+            }
+            last = snapshot.getDocuments().get(snapshot.size() - 1);
+        }
+        while (!pendingBatches.isEmpty()) {
+            awaitOldest(pendingBatches, total, listener);
+        }
+    }
+
+    /**
+     * Helper method that adds a committing batch, first waiting for the oldest one while the most
+     * batches are already committing.
+     * @param pendingBatches Batches committing, oldest first.
+     * @param pendingBatch PendingBatch to be added.
+     * @param total Running count of deleted documents.
+     * @param listener BulkDeleteListener told after every batch, may be null.
+     */
+    private static void submit(Deque<PendingBatch> pendingBatches, PendingBatch pendingBatch, int[] total,
+                               BulkDeleteListener listener)
+            throws ExecutionException, InterruptedException {
+        while (pendingBatches.size() >= MAX_PARALLEL_BATCHES) {
+            awaitOldest(pendingBatches, total, listener);
+        }
+        pendingBatches.addLast(pendingBatch);
+    }
+
+    /**
+     * Helper method that waits for the oldest committing batch and reports it, so progress is
+     * reported in the order the batches were read.
+     * @param pendingBatches Batches committing, oldest first.
+     * @param total Running count of deleted documents.
+     * @param listener BulkDeleteListener told after the batch, may be null.
+     */
+    private static void awaitOldest(Deque<PendingBatch> pendingBatches, int[] total, BulkDeleteListener listener)
+            throws ExecutionException, InterruptedException {
+        PendingBatch pendingBatch = pendingBatches.removeFirst();
+        Tasks.await(pendingBatch.commit);
+        total[0] += pendingBatch.documents;
+        if (listener != null) {
+            listener.onBatchDeleted(pendingBatch.messageIds, total[0]);
+        }
+    }
+
+    /**
+     * Helper method that reports a finished step.
+     * @param nextStep Index of the next step.
+     * @param listener BulkDeleteListener to be told, may be null.
+     */
+    private static void finishStep(int nextStep, BulkDeleteListener listener) {
+        if (listener != null) {
+            listener.onStepFinished(nextStep);
+        }
+    }
+
+    /**
+     * Helper method that returns the update turning a user document into a tombstone. The profile
+     * and credentials are removed, and the updatedAt field lets user directories drop the user.
+     * @return Returns the fields to update.
+     */
+    private static Map<String, Object> getTombstone() {
+        Map<String, Object> tombstone = new HashMap<>();
+        tombstone.put(Constants.KEY_DELETED, true);
+        tombstone.put(Constants.KEY_UPDATED_AT, FieldValue.serverTimestamp());
+        tombstone.put(Constants.KEY_NAME, FieldValue.delete());
+        tombstone.put(Constants.KEY_EMAIL, FieldValue.delete());
+        tombstone.put(Constants.KEY_PASSWORD, FieldValue.delete());
+        tombstone.put(Constants.KEY_IMAGE, FieldValue.delete());
+        tombstone.put(Constants.KEY_IMAGE_PLACEHOLDER, FieldValue.delete());
+        tombstone.put(Constants.KEY_FCM_TOKEN, FieldValue.delete());
+        tombstone.put(Constants.KEY_PUBLIC_KEY, FieldValue.delete());
+        tombstone.put(Constants.KEY_PUBLIC_KEYS, FieldValue.delete());
+        return tombstone;
+    }
+
+    /**
+     * A committing write batch with the messages it deletes.
+     */
+    private static class PendingBatch {
+        private final Task<Void> commit;
+        private final List<String> messageIds;
+        private final int documents;
+
+        private PendingBatch(Task<Void> commit, List<String> messageIds, int documents) {
+            this.commit = commit;
+            this.messageIds = messageIds;
+            this.documents = documents;
+        }
+    }
+}
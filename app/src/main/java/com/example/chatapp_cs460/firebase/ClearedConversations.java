@@ -0,0 +1,67 @@
+/**
+ * A class that clears conversations for one user only. Messages of a conversation are shared by its
+ * members, so clearing stores the time it was cleared under the user's own document instead of
+ * deleting them. Everything sent up to that time is hidden from that user, and the other members
+ * keep their history.
+ */
+package com.example.chatapp_cs460.firebase;
+
+import com.example.chatapp_cs460.utilities.Constants;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Source;
+
+import java.util.Collections;
+import java.util.Date;
+
+public class ClearedConversations {
+    /**
+     * Private constructor, the class only holds static helpers.
+     */
+    private ClearedConversations() {
+    }
+
+    /**
+     * Method that hides the messages of a conversation up to a point in time from a user.
+     * @param database FirebaseFirestore instance.
+     * @param userId String type ID of the signed in user.
+     * @param id String type key of a one-to-one chat or ID of a group conversation.
+     * @param clearedBefore Date up to which messages are hidden.
+     * @return Returns the Task of the write.
+     */
+    public static Task<Void> clear(FirebaseFirestore database, String userId, String id, Date clearedBefore) {
+        return FirestoreAccounting.getInstance().write(getReference(database, userId, id)
+                .set(Collections.singletonMap(Constants.KEY_CLEARED_BEFORE, clearedBefore), SetOptions.merge()),
+                1, "conversation.clear");
+    }
+
+    /**
+     * Method that reads the time a user last cleared a conversation.
+     * @param database FirebaseFirestore instance.
+     * @param userId String type ID of the signed in user.
+     * @param id String type key of a one-to-one chat or ID of a group conversation.
+     * @return Returns a Task with the Date, null if it was never cleared or could not be read.
+     */
+    public static Task<Date> getClearedBefore(FirebaseFirestore database, String userId, String id) {
+        return FirestoreAccounting.getInstance()
+                .get(getReference(database, userId, id), Source.DEFAULT, "conversation.cleared")
+                .continueWith(task -> task.isSuccessful()
+                        ? task.getResult().getDate(Constants.KEY_CLEARED_BEFORE) : null);
+    }
+
+    /**
+     * Helper method that returns the document of a cleared conversation of a user.
+     * @param database FirebaseFirestore instance.
+     * @param userId String type ID of the signed in user.
+     * @param id String type key of a one-to-one chat or ID of a group conversation.
+     * @return Returns the DocumentReference.
+     */
+    private static DocumentReference getReference(FirebaseFirestore database, String userId, String id) {
+        return database.collection(Constants.KEY_COLLECTION_USERS)
+                .document(userId)
+                .collection(Constants.KEY_COLLECTION_CLEARED)
+                .document(id);
+    }
+}
@@ -0,0 +1,457 @@
+/**
+ * A process-wide account of the Firestore traffic of the app. Reads, listeners and writes go
+ * through it, and every delivered document is counted with an estimate of its size against the
+ * screen on top, the named query and the session. Documents served from the local cache are
+ * counted apart from documents read from the server, which are the ones that are billed. Reads
+ * made off the main thread, by workers and background loads, are counted against the background
+ * screen. Tests can read the usage of a screen or query and fail when it grows past a budget.
+ */
+package com.example.chatapp_cs460.firebase;
+
+import android.app.Activity;
+import android.app.Application;
+import android.content.pm.ApplicationInfo;
+import android.os.Bundle;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.GeoPoint;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+
+public class FirestoreAccounting {
+    /**
+     * Screen of the reads made off the main thread and before the first page is shown.
+     */
+    public static final String SCREEN_BACKGROUND = "background";
+
+    /**
+     * Estimated bytes of a document besides its fields, about the size of its name and metadata.
+     */
+    static final int DOCUMENT_OVERHEAD_BYTES = 32;
+
+    /**
+     * Single shared instance.
+     */
+    private static FirestoreAccounting instance;
+
+    /**
+     * Runs the counting on the thread that completes a task, before any caller waiting on it.
+     */
+    private static final Executor DIRECT_EXECUTOR = Runnable::run;
+
+    /**
+     * Usage of the traffic counted against a screen, a query or the session.
+     */
+    public static class Usage {
+        public int serverReads, cacheReads, writes, operations;
+        public long serverBytes, cacheBytes;
+
+        /**
+         * Helper method that adds the usage of one operation.
+         */
+        private void add(int reads, long bytes, boolean fromCache, int writes) {
+            if (fromCache) {
+                cacheReads += reads;
+                cacheBytes += bytes;
+            } else {
+                serverReads += reads;
+                serverBytes += bytes;
+            }
+            this.writes += writes;
+            operations++;
+        }
+
+        /**
+         * Helper method that copies the usage, so callers get a stable snapshot.
+         * @return Returns the copy.
+         */
+        private Usage copy() {
+            Usage copy = new Usage();
+            copy.serverReads = serverReads;
+            copy.cacheReads = cacheReads;
+            copy.writes = writes;
+            copy.operations = operations;
+            copy.serverBytes = serverBytes;
+            copy.cacheBytes = cacheBytes;
+            return copy;
+        }
+
+        /**
+         * Method that formats the usage as tab separated values.
+         * @return Returns the line.
+         */
+        @Override
+        public String toString() {
+            return "serverReads=" + serverReads + "\tserverKb=" + serverBytes / 1024
+                    + "\tcacheReads=" + cacheReads + "\tcacheKb=" + cacheBytes / 1024
+                    + "\twrites=" + writes + "\toperations=" + operations;
+        }
+    }
+
+    /**
+     * Screen on top and the usage by screen, by screen and query, and of the session, guarded by
+     * the accounting.
+     */
+    private String screen = SCREEN_BACKGROUND;
+    private final Map<String, Usage> screens = new LinkedHashMap<>();
+    private final Map<String, Map<String, Usage>> queries = new LinkedHashMap<>();
+    private Usage session = new Usage();
+
+    /**
+     * Constructor for the FirestoreAccounting, used directly by tests.
+     */
+    FirestoreAccounting() {
+    }
+
+    /**
+     * Method that returns the shared accounting, creating it on first use.
+     * @return Returns the FirestoreAccounting instance.
+     */
+    public static synchronized FirestoreAccounting getInstance() {
+        if (instance == null) {
+            instance = new FirestoreAccounting();
+        }
+        return instance;
+    }
+
+    /**
+     * Method that follows the screen on top, named after its activity. Debuggable builds log the
+     * usage of a screen when it is left.
+     * @param application Application class object.
+     */
+    public void start(Application application) {
+        boolean isDebuggable = (application.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0;
+        application.registerActivityLifecycleCallbacks(new Application.ActivityLifecycleCallbacks() {
+            @Override
+            public void onActivityResumed(Activity activity) {
+                setScreen(activity.getClass().getSimpleName());
+            }
+
+            @Override
+            public void onActivityPaused(Activity activity) {
+                if (isDebuggable) {
+                    String name = activity.getClass().getSimpleName();
+                    Log.d("FirestoreAccounting", name + "\t" + getScreenUsage(name));
+                }
+            }
+
+            @Override
+            public void onActivityCreated(Activity activity, Bundle savedInstanceState) {
+            }
+
+            @Override
+            public void onActivityStarted(Activity activity) {
+            }
+
+            @Override
+            public void onActivityStopped(Activity activity) {
+            }
+
+            @Override
+            public void onActivitySaveInstanceState(Activity activity, Bundle outState) {
+            }
+
+            @Override
+            public void onActivityDestroyed(Activity activity) {
+            }
+        });
+    }
+
+    /**
+     * Method that sets the screen the reads of the main thread are counted against.
+     * @param screen String type name of the screen.
+     */
+    public synchronized void setScreen(String screen) {
+        this.screen = screen;
+    }
+
+    /**
+     * Method that runs a query and counts the documents it returns.
+     * @param query Query to be run.
+     * @param queryName String type name of the query in the report.
+     * @return Returns the Task of the query.
+     */
+    public Task<QuerySnapshot> get(Query query, String queryName) {
+        return get(query, Source.DEFAULT, queryName);
+    }
+
+    /**
+     * Method that runs a query from a source and counts the documents it returns.
+     * @param query Query to be run.
+     * @param source Source to read from.
+     * @param queryName String type name of the query in the report.
+     * @return Returns the Task of the query.
+     */
+    public Task<QuerySnapshot> get(Query query, Source source, String queryName) {
+        String callerScreen = getCallerScreen();
+        return query.get(source).addOnSuccessListener(DIRECT_EXECUTOR, snapshot -> {
+            long bytes = 0;
+            for (DocumentSnapshot document : snapshot.getDocuments()) {
+                bytes += estimateBytes(document);
+            }
+            // A query that finds nothing is still billed one read
+            record(callerScreen, queryName, Math.max(1, snapshot.size()), bytes,
+                    snapshot.getMetadata().isFromCache(), 0);
+        });
+    }
+
+    /**
+     * Method that reads a document and counts it.
+     * @param reference DocumentReference to be read.
+     * @param source Source to read from.
+     * @param queryName String type name of the read in the report.
+     * @return Returns the Task of the read.
+     */
+    public Task<DocumentSnapshot> get(DocumentReference reference, Source source, String queryName) {
+        String callerScreen = getCallerScreen();
+        return reference.get(source).addOnSuccessListener(DIRECT_EXECUTOR, document ->
+                record(callerScreen, queryName, 1, estimateBytes(document),
+                        document.getMetadata().isFromCache(), 0));
+    }
+
+    /**
+     * Method that wraps a snapshot listener, counting the added and modified documents of every
+     * snapshot it receives. Removed documents are not billed and are not counted. Echoes of local
+     * writes are counted as cache reads.
+     * @param queryName String type name of the listener in the report.
+     * @param listener EventListener to be wrapped.
+     * @return Returns the counting EventListener.
+     */
+    public EventListener<QuerySnapshot> listen(String queryName, EventListener<QuerySnapshot> listener) {
+        return (value, error) -> {
+            if (value != null) {
+                int documents = 0;
+                long bytes = 0;
+                for (DocumentChange documentChange : value.getDocumentChanges()) {
+                    if (documentChange.getType() != DocumentChange.Type.REMOVED) {
+                        documents++;
+                        bytes += estimateBytes(documentChange.getDocument());
+                    }
+                }
+                if (documents > 0) {
+                    record(getCallerScreen(), queryName, documents, bytes,
+                            value.getMetadata().isFromCache() || value.getMetadata().hasPendingWrites(), 0);
+                }
+            }
+            listener.onEvent(value, error);
+        };
+    }
+
+    /**
+     * Method that counts the writes of a write, batch or transaction once it succeeds.
+     * @param task Task of the write.
+     * @param writes Number of documents written.
+     * @param queryName String type name of the write in the report.
+     * @return Returns the same Task.
+     */
+    public <T> Task<T> write(Task<T> task, int writes, String queryName) {
+        String callerScreen = getCallerScreen();
+        return task.addOnSuccessListener(DIRECT_EXECUTOR, result ->
+                record(callerScreen, queryName, 0, 0, false, writes));
+    }
+
+    /**
+     * Method that counts one operation against a screen, its query and the session.
+     * @param screen String type name of the screen.
+     * @param queryName String type name of the query.
+     * @param reads Number of documents read.
+     * @param bytes Estimated bytes of the documents read.
+     * @param fromCache Whether the documents came from the local cache.
+     * @param writes Number of documents written.
+     */
+    synchronized void record(String screen, String queryName, int reads, long bytes, boolean fromCache, int writes) {
+        getUsage(screens, screen).add(reads, bytes, fromCache, writes);
+        Map<String, Usage> screenQueries = queries.get(screen);
+        if (screenQueries == null) {
+            screenQueries = new LinkedHashMap<>();
+            queries.put(screen, screenQueries);
+        }
+        getUsage(screenQueries, queryName).add(reads, bytes, fromCache, writes);
+        session.add(reads, bytes, fromCache, writes);
+    }
+
+    /**
+     * Method that returns the usage of the session.
+     * @return Returns a copy of the Usage.
+     */
+    public synchronized Usage getSessionUsage() {
+        return session.copy();
+    }
+
+    /**
+     * Method that returns the usage of a screen.
+     * @param screen String type name of the screen.
+     * @return Returns a copy of the Usage, empty if the screen made no reads or writes.
+     */
+    public synchronized Usage getScreenUsage(String screen) {
+        Usage usage = screens.get(screen);
+        return usage != null ? usage.copy() : new Usage();
+    }
+
+    /**
+     * Method that returns the usage of a query, summed over the screens that ran it.
+     * @param queryName String type name of the query.
+     * @return Returns a new Usage, empty if the query never ran.
+     */
+    public synchronized Usage getQueryUsage(String queryName) {
+        Usage total = new Usage();
+        for (Map<String, Usage> screenQueries : queries.values()) {
+            Usage usage = screenQueries.get(queryName);
+            if (usage != null) {
+                total.serverReads += usage.serverReads;
+                total.cacheReads += usage.cacheReads;
+                total.writes += usage.writes;
+                total.operations += usage.operations;
+                total.serverBytes += usage.serverBytes;
+                total.cacheBytes += usage.cacheBytes;
+            }
+        }
+        return total;
+    }
+
+    /**
+     * Method that returns the usage of a query run on one screen.
+     * @param screen String type name of the screen.
+     * @param queryName String type name of the query.
+     * @return Returns a copy of the Usage, empty if the screen never ran the query.
+     */
+    public synchronized Usage getQueryUsage(String screen, String queryName) {
+        Map<String, Usage> screenQueries = queries.get(screen);
+        Usage usage = screenQueries != null ? screenQueries.get(queryName) : null;
+        return usage != null ? usage.copy() : new Usage();
+    }
+
+    /**
+     * Method that drops all usage, used between test cases and to start a new session.
+     */
+    public synchronized void reset() {
+        screens.clear();
+        queries.clear();
+        session = new Usage();
+    }
+
+    /**
+     * Method that writes the report: the session, then every screen followed by its queries, the
+     * queries with the most server reads first.
+     * @param writer Writer of the report, left open.
+     * @throws IOException If the report can not be written.
+     */
+    public void writeTo(Writer writer) throws IOException {
+        StringBuilder report = new StringBuilder();
+        synchronized (this) {
+            report.append("session\t").append(session).append('\n');
+            for (Map.Entry<String, Usage> screenUsage : screens.entrySet()) {
+                report.append(screenUsage.getKey()).append('\t').append(screenUsage.getValue()).append('\n');
+                List<Map.Entry<String, Usage>> screenQueries =
+                        new ArrayList<>(queries.get(screenUsage.getKey()).entrySet());
+                Collections.sort(screenQueries,
+                        (obj1, obj2) -> Integer.compare(obj2.getValue().serverReads, obj1.getValue().serverReads));
+                for (Map.Entry<String, Usage> queryUsage : screenQueries) {
+                    report.append('\t').append(queryUsage.getKey()).append('\t')
+                            .append(queryUsage.getValue()).append('\n');
+                }
+            }
+        }
+        writer.write(report.toString());
+        writer.flush();
+    }
+
+    /**
+     * Helper method that returns the screen a call is counted against.
+     * @return Returns the screen on top for the main thread, else SCREEN_BACKGROUND.
+     */
+    private String getCallerScreen() {
+        if (Looper.myLooper() != Looper.getMainLooper()) {
+            return SCREEN_BACKGROUND;
+        }
+        synchronized (this) {
+            return screen;
+        }
+    }
+
+    /**
+     * Helper method that returns the usage under a key, adding it when missing.
+     * @param usages Map of the usage by key.
+     * @param key String type key.
+     * @return Returns the Usage.
+     */
+    private static Usage getUsage(Map<String, Usage> usages, String key) {
+        Usage usage = usages.get(key);
+        if (usage == null) {
+            usage = new Usage();
+            usages.put(key, usage);
+        }
+        return usage;
+    }
+
+    /**
+     * Helper method that estimates the stored size of a document from its ID and fields.
+     * @param document DocumentSnapshot to be measured.
+     * @return Returns the estimated bytes, 0 for a missing document.
+     */
+    private static long estimateBytes(DocumentSnapshot document) {
+        Map<String, Object> data = document.getData();
+        if (data == null) {
+            return 0;
+        }
+        return DOCUMENT_OVERHEAD_BYTES + estimateBytes(document.getId()) + estimateBytes(data);
+    }
+
+    /**
+     * Method that estimates the stored size of a field value, following the Firestore storage
+     * size rules: strings by their UTF-8 length plus one, numbers, dates and references by fixed
+     * sizes, and maps and arrays by the sum of their entries.
+     * @param value Field value.
+     * @return Returns the estimated bytes.
+     */
+    static long estimateBytes(Object value) {
+        if (value == null || value instanceof Boolean) {
+            return 1;
+        } else if (value instanceof String) {
+            return ((String) value).getBytes(StandardCharsets.UTF_8).length + 1;
+        } else if (value instanceof Number || value instanceof Date || value instanceof Timestamp) {
+            return 8;
+        } else if (value instanceof GeoPoint) {
+            return 16;
+        } else if (value instanceof Blob) {
+            return ((Blob) value).toBytes().length;
+        } else if (value instanceof byte[]) {
+            return ((byte[]) value).length;
+        } else if (value instanceof DocumentReference) {
+            return ((DocumentReference) value).getPath().length() + 1;
+        } else if (value instanceof Map) {
+            long bytes = 0;
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) value).entrySet()) {
+                bytes += estimateBytes(String.valueOf(entry.getKey())) + estimateBytes(entry.getValue());
+            }
+            return bytes;
+        } else if (value instanceof List) {
+            long bytes = 0;
+            for (Object item : (List<?>) value) {
+                bytes += estimateBytes(item);
+            }
+            return bytes;
+        }
+        return 8;
+    }
+}
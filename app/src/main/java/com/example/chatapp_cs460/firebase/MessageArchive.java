@@ -0,0 +1,394 @@
+/**
+ * A class that stores older chat messages in time bucketed archive documents.
+ * Every archive document holds the messages of one conversation for one day, so reading the
+ * history of a conversation costs one document read per active day instead of one per message.
+ * A busy day is split into parts of a bounded size, so no bucket reaches the document size limit.
+ * Only the recent tail of a conversation stays as individual documents in the chat collection.
+ */
+package com.example.chatapp_cs460.firebase;
+
+import com.example.chatapp_cs460.models.ChatMessage;
+import com.example.chatapp_cs460.utilities.Constants;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.Timestamp;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldValue;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TimeZone;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class MessageArchive {
+    /**
+     * Messages compacted per write batch. Each message costs a delete and, at worst, a bucket
+     * update, which keeps a batch under the 500 operation limit.
+     */
+    private static final int COMPACTION_BATCH_SIZE = 240;
+
+    /**
+     * Most messages and estimated bytes of an archive bucket part, well under the 1 MiB document
+     * limit so clients appending to the same part at once can not push it over.
+     */
+    static final int MAX_BUCKET_MESSAGES = 1000;
+    static final long MAX_BUCKET_BYTES = 512 * 1024;
+
+    /**
+     * Age after which one-to-one messages are kept in archive buckets instead of the chat collection.
+     */
+    public static final long RECENT_TAIL_MILLIS = TimeUnit.DAYS.toMillis(2);
+
+    /**
+     * Private constructor, the class only holds static helpers.
+     */
+    private MessageArchive() {
+    }
+
+    /**
+     * Method that returns the key shared by both users of a conversation.
+     * @param firstUserId String type ID of one user.
+     * @param secondUserId String type ID of the other user.
+     * @return Returns the same key whichever user is passed first.
+     */
+    public static String getConversationKey(String firstUserId, String secondUserId) {
+        return firstUserId.compareTo(secondUserId) < 0
+                ? firstUserId + "_" + secondUserId
+                : secondUserId + "_" + firstUserId;
+    }
+
+    /**
+     * Method that returns the start of the UTC day a date falls in.
+     * @param date Date class object.
+     * @return Returns the bucket start Date.
+     */
+    static Date getBucketStart(Date date) {
+        Calendar calendar = Calendar.getInstance(TimeZone.getTimeZone("UTC"));
+        calendar.setTime(date);
+        calendar.set(Calendar.HOUR_OF_DAY, 0);
+        calendar.set(Calendar.MINUTE, 0);
+        calendar.set(Calendar.SECOND, 0);
+        calendar.set(Calendar.MILLISECOND, 0);
+        return calendar.getTime();
+    }
+
+    /**
+     * Method that returns the document ID of the first archive bucket part of a message's day.
+     * @param conversationKey String type key of the conversation.
+     * @param date Date of the message.
+     * @return Returns the bucket document ID.
+     */
+    static String getBucketId(String conversationKey, Date date) {
+        SimpleDateFormat format = new SimpleDateFormat("yyyyMMdd", Locale.US);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        return conversationKey + "_" + format.format(date);
+    }
+
+    /**
+     * Method that returns the document ID of a part of a day bucket. The first part keeps the ID
+     * of the day, later parts add their number.
+     * @param dayBucketId String type ID of the day bucket.
+     * @param part Number of the part, from 0.
+     * @return Returns the bucket part document ID.
+     */
+    static String getBucketPartId(String dayBucketId, int part) {
+        return part == 0 ? dayBucketId : dayBucketId + "_" + part;
+    }
+
+    /**
+     * Method that turns an archive bucket document into chat messages.
+     * @param bucket DocumentSnapshot of the archive bucket.
+     * @return Returns the list of archived messages, dateTime is left for the caller to format.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<ChatMessage> getMessages(DocumentSnapshot bucket) {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        List<Map<String, Object>> entries = (List<Map<String, Object>>) bucket.get(Constants.KEY_MESSAGES);
+        if (entries == null) {
+            return chatMessages;
+        }
+        for (Map<String, Object> entry : entries) {
+            ChatMessage chatMessage = new ChatMessage();
+            chatMessage.id = (String) entry.get(Constants.KEY_MESSAGE_ID);
+            chatMessage.senderId = (String) entry.get(Constants.KEY_SENDER_ID);
+            chatMessage.receiverId = (String) entry.get(Constants.KEY_RECEIVER_ID);
+            chatMessage.message = (String) entry.get(Constants.KEY_MESSAGE);
+            Object ciphertext = entry.get(Constants.KEY_CIPHERTEXT);
+            chatMessage.ciphertext = ciphertext instanceof Blob ? ((Blob) ciphertext).toBytes() : null;
+            chatMessage.edited = Boolean.TRUE.equals(entry.get(Constants.KEY_EDITED));
+            MessageReactions.read(chatMessage, entry.get(Constants.KEY_REACTIONS),
+                    entry.get(Constants.KEY_REACTED_BY));
+            Object timestamp = entry.get(Constants.KEY_TIMESTAMP);
+            chatMessage.dateObject = timestamp instanceof Timestamp
+                    ? ((Timestamp) timestamp).toDate()
+                    : (Date) timestamp;
+            chatMessages.add(chatMessage);
+        }
+        return chatMessages;
+    }
+
+    /**
+     * Method that builds the archive entry of a message. Compaction and restores build entries the
+     * same way, so appending an entry that is already archived leaves the bucket unchanged.
+     * @param messageId String type ID of the message document.
+     * @param senderId String type ID of the sender.
+     * @param receiverId String type ID of the receiver.
+     * @param message String type text of the message, null if it is encrypted.
+     * @param ciphertext Blob of the encrypted message, may be null.
+     * @param timestamp Date the message was sent.
+     * @param edited Whether the message was edited.
+     * @param reactions Value of the reactions field, may be null.
+     * @param reactedBy Value of the reactedBy field, may be null.
+     * @return Returns the entry map.
+     */
+    static Map<String, Object> toEntry(String messageId, String senderId, String receiverId, String message,
+                                       Blob ciphertext, Date timestamp, boolean edited,
+                                       Object reactions, Object reactedBy) {
+        Map<String, Object> entry = new HashMap<>();
+        entry.put(Constants.KEY_MESSAGE_ID, messageId);
+        entry.put(Constants.KEY_SENDER_ID, senderId);
+        entry.put(Constants.KEY_RECEIVER_ID, receiverId);
+        entry.put(Constants.KEY_MESSAGE, message);
+        if (ciphertext != null) {
+            entry.put(Constants.KEY_CIPHERTEXT, ciphertext);
+        }
+        entry.put(Constants.KEY_TIMESTAMP, timestamp);
+        if (edited) {
+            entry.put(Constants.KEY_EDITED, true);
+        }
+        // Reactions are kept for display, archived messages can not be reacted to any more
+        if (reactions != null) {
+            entry.put(Constants.KEY_REACTIONS, reactions);
+            entry.put(Constants.KEY_REACTED_BY, reactedBy);
+        }
+        return entry;
+    }
+
+    /**
+     * Method that returns the fields every archive bucket of a conversation day carries. The
+     * participants let every bucket of a user be found without knowing the other users.
+     * @param senderId String type ID of one user of the conversation.
+     * @param receiverId String type ID of the other user.
+     * @param timestamp Date of a message in the bucket.
+     * @return Returns the bucket fields, without the messages.
+     */
+    static Map<String, Object> getBucketFields(String senderId, String receiverId, Date timestamp) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(Constants.KEY_CONVERSATION_KEY, getConversationKey(senderId, receiverId));
+        fields.put(Constants.KEY_PARTICIPANTS, Arrays.asList(senderId, receiverId));
+        fields.put(Constants.KEY_BUCKET_START, getBucketStart(timestamp));
+        return fields;
+    }
+
+    /**
+     * A class that assigns archive entries to bucket parts and adds the bucket writes to a batch.
+     * Entries go to the newest part of their conversation day, which is read once per writer, and
+     * a part that would grow past MAX_BUCKET_MESSAGES or MAX_BUCKET_BYTES rolls over to the next.
+     * Parts start a millisecond apart after the start of the day, so they keep their order.
+     */
+    static class BucketWriter {
+        private final FirebaseFirestore database;
+        private final Map<String, BucketPart> newestParts = new HashMap<>();
+        private final Map<String, BucketPart> pendingParts = new LinkedHashMap<>();
+
+        /**
+         * Constructor for the BucketWriter.
+         * @param database FirebaseFirestore instance.
+         */
+        BucketWriter(FirebaseFirestore database) {
+            this.database = database;
+        }
+
+        /**
+         * Method that adds an entry to the newest part of its day, rolling over to a new part
+         * when that one is full. Blocks on the first entry of a day.
+         * @param senderId String type ID of the sender.
+         * @param receiverId String type ID of the receiver.
+         * @param timestamp Date the message was sent.
+         * @param entry Map of the archive entry.
+         * @return Returns true if the entry opened a bucket write of its own in the pending batch.
+         * @throws ExecutionException If the newest part can not be read.
+         * @throws InterruptedException If the thread is interrupted while waiting.
+         */
+        boolean add(String senderId, String receiverId, Date timestamp, Map<String, Object> entry)
+                throws ExecutionException, InterruptedException {
+            String conversationKey = getConversationKey(senderId, receiverId);
+            String dayBucketId = getBucketId(conversationKey, timestamp);
+            BucketPart part = newestParts.get(dayBucketId);
+            if (part == null) {
+                part = readNewestPart(conversationKey, dayBucketId, senderId, receiverId, getBucketStart(timestamp));
+                newestParts.put(dayBucketId, part);
+            }
+            long bytes = FirestoreAccounting.estimateBytes(entry);
+            if (part.messageCount > 0 && (part.messageCount >= MAX_BUCKET_MESSAGES
+                    || part.byteCount + bytes > MAX_BUCKET_BYTES)) {
+                part = new BucketPart(dayBucketId, part.number + 1, senderId, receiverId, part.dayStart);
+                newestParts.put(dayBucketId, part);
+            }
+            part.messageCount++;
+            part.byteCount += bytes;
+            part.entries.add(entry);
+            if (pendingParts.containsKey(part.id)) {
+                return false;
+            }
+            pendingParts.put(part.id, part);
+            return true;
+        }
+
+        /**
+         * Method that adds the appends of the pending entries to a batch.
+         * @param batch WriteBatch to add the bucket writes to.
+         * @return Returns the number of bucket documents written.
+         */
+        int writeTo(WriteBatch batch) {
+            for (BucketPart part : pendingParts.values()) {
+                Map<String, Object> fields = getBucketFields(part.senderId, part.receiverId, part.dayStart);
+                fields.put(Constants.KEY_BUCKET_START, new Date(part.dayStart.getTime() + part.number));
+                fields.put(Constants.KEY_MESSAGES, FieldValue.arrayUnion(part.entries.toArray()));
+                batch.set(database.collection(Constants.KEY_COLLECTION_CHAT_ARCHIVE).document(part.id),
+                        fields, SetOptions.merge());
+                part.entries.clear();
+            }
+            int written = pendingParts.size();
+            pendingParts.clear();
+            return written;
+        }
+
+        /**
+         * Helper method that reads the newest part of a conversation day and measures it.
+         * Needs the composite index on conversationKey and bucketStart.
+         * @param conversationKey String type key of the conversation.
+         * @param dayBucketId String type ID of the day bucket.
+         * @param senderId String type ID of one user of the conversation.
+         * @param receiverId String type ID of the other user.
+         * @param dayStart Date of the start of the day.
+         * @return Returns the newest BucketPart, an empty first part if the day has none.
+         */
+        private BucketPart readNewestPart(String conversationKey, String dayBucketId, String senderId,
+                                          String receiverId, Date dayStart)
+                throws ExecutionException, InterruptedException {
+            QuerySnapshot snapshot = Tasks.await(FirestoreAccounting.getInstance().get(
+                    database.collection(Constants.KEY_COLLECTION_CHAT_ARCHIVE)
+                            .whereEqualTo(Constants.KEY_CONVERSATION_KEY, conversationKey)
+                            .whereGreaterThanOrEqualTo(Constants.KEY_BUCKET_START, dayStart)
+                            .whereLessThan(Constants.KEY_BUCKET_START,
+                                    new Date(dayStart.getTime() + TimeUnit.DAYS.toMillis(1)))
+                            .orderBy(Constants.KEY_BUCKET_START)
+                            .limitToLast(1), "archive.newestPart"));
+            if (snapshot.isEmpty()) {
+                return new BucketPart(dayBucketId, 0, senderId, receiverId, dayStart);
+            }
+            DocumentSnapshot newest = snapshot.getDocuments().get(0);
+            Date start = newest.getDate(Constants.KEY_BUCKET_START);
+            int number = start != null ? (int) (start.getTime() - dayStart.getTime()) : 0;
+            BucketPart part = new BucketPart(dayBucketId, number, senderId, receiverId, dayStart);
+            Object entries = newest.get(Constants.KEY_MESSAGES);
+            if (entries instanceof List) {
+                part.messageCount = ((List<?>) entries).size();
+                part.byteCount = FirestoreAccounting.estimateBytes(entries);
+            }
+            return part;
+        }
+    }
+
+    /**
+     * A part of a day bucket, with its known size and the entries waiting to be appended.
+     */
+    private static class BucketPart {
+        final String id;
+        final int number;
+        final String senderId;
+        final String receiverId;
+        final Date dayStart;
+        int messageCount;
+        long byteCount;
+        final List<Map<String, Object>> entries = new ArrayList<>();
+
+        BucketPart(String dayBucketId, int number, String senderId, String receiverId, Date dayStart) {
+            this.id = getBucketPartId(dayBucketId, number);
+            this.number = number;
+            this.senderId = senderId;
+            this.receiverId = receiverId;
+            this.dayStart = dayStart;
+        }
+    }
+
+    /**
+     * Method that moves the messages a user sent before the cutoff into archive buckets.
+     * Every batch appends to the buckets and deletes the originals atomically, and appending the
+     * same entry twice has no effect, so an interrupted run can simply be repeated. Needs the
+     * composite index on senderId and timestamp.
+     * Blocks, must not be called on the main thread.
+     * @param database FirebaseFirestore instance.
+     * @param senderId String type ID of the user whose sent messages are compacted.
+     * @param cutoff Messages older than this Date are compacted.
+     * @return Returns the number of messages that were archived.
+     * @throws ExecutionException If a database operation fails.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    public static int compact(FirebaseFirestore database, String senderId, Date cutoff)
+            throws ExecutionException, InterruptedException {
+        int archived = 0;
+        BucketWriter bucketWriter = new BucketWriter(database);
+        while (true) {
+            QuerySnapshot snapshot = Tasks.await(FirestoreAccounting.getInstance().get(
+                    database.collection(Constants.KEY_COLLECTION_CHAT)
+                            .whereEqualTo(Constants.KEY_SENDER_ID, senderId)
+                            .whereLessThan(Constants.KEY_TIMESTAMP, cutoff)
+                            .limit(COMPACTION_BATCH_SIZE), "archive.compaction"));
+            if (snapshot.isEmpty()) {
+                return archived;
+            }
+
+            WriteBatch batch = database.batch();
+            int batchArchived = 0;
+            for (DocumentSnapshot document : snapshot.getDocuments()) {
+                String receiverId = document.getString(Constants.KEY_RECEIVER_ID);
+                Date timestamp = document.getDate(Constants.KEY_TIMESTAMP);
+                if (receiverId == null || timestamp == null) {
+                    continue;
+                }
+                // Deleted messages are dropped instead of archived
+                if (Boolean.TRUE.equals(document.getBoolean(Constants.KEY_DELETED))) {
+                    batch.delete(document.getReference());
+                    batchArchived++;
+                    continue;
+                }
+                Map<String, Object> entry = toEntry(document.getId(), senderId, receiverId,
+                        document.getString(Constants.KEY_MESSAGE), document.getBlob(Constants.KEY_CIPHERTEXT),
+                        timestamp, Boolean.TRUE.equals(document.getBoolean(Constants.KEY_EDITED)),
+                        document.get(Constants.KEY_REACTIONS), document.get(Constants.KEY_REACTED_BY));
+
+                bucketWriter.add(senderId, receiverId, timestamp, entry);
+                batch.delete(document.getReference());
+                batchArchived++;
+            }
+            if (batchArchived == 0) {
+                return archived;
+            }
+
+            // Appending the entries to their buckets in the same batch as the deletes
+            int bucketWrites = bucketWriter.writeTo(batch);
+            Tasks.await(FirestoreAccounting.getInstance().write(batch.commit(),
+                    batchArchived + bucketWrites, "archive.compaction"));
+            archived += batchArchived;
+
+            if (snapshot.size() < COMPACTION_BATCH_SIZE) {
+                return archived;
+            }
+        }
+    }
+}
@@ -0,0 +1,290 @@
+/**
+ * A class that exports conversations into backup files and restores them. Exports read the
+ * history in pages and hand every message straight to the backup writer, so no more than one page
+ * is held in memory whatever the size of the history. Restores write the messages back under their
+ * original IDs in batches of at most 500 writes, so repeating a batch has no effect and an
+ * interrupted restore resumes after its last committed batch.
+ */
+package com.example.chatapp_cs460.firebase;
+
+import com.example.chatapp_cs460.listeners.BackupProgressListener;
+import com.example.chatapp_cs460.models.ChatMessage;
+import com.example.chatapp_cs460.utilities.Constants;
+import com.example.chatapp_cs460.utilities.MessageBackupFile;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+
+public class MessageBackup {
+    /**
+     * Message documents and archive buckets, up to a day of messages each, read per export page.
+     */
+    static final int MESSAGE_PAGE_SIZE = 500;
+    static final int BUCKET_PAGE_SIZE = 20;
+
+    /**
+     * Most writes of a restore batch, the limit of a Firestore write batch.
+     */
+    static final int RESTORE_BATCH_SIZE = 500;
+
+    /**
+     * Private constructor, the class only holds static helpers.
+     */
+    private MessageBackup() {
+    }
+
+    /**
+     * Method that exports every message in the scope of a backup header. A chat covers the archived
+     * and recent messages with one user, an account every one-to-one message of the user and a
+     * group the messages of one group conversation.
+     * Blocks, must not be called on the main thread.
+     * @param database FirebaseFirestore instance.
+     * @param userId String type ID of the signed in user.
+     * @param writer BackupWriter opened with the header of the export.
+     * @param header Header of the export, its ID is the other user, the user or the group.
+     * @param listener BackupProgressListener told after every page, may be null.
+     * @return Returns the number of exported messages.
+     * @throws ExecutionException If a database operation fails.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     * @throws IOException If the backup can not be written.
+     */
+    public static int export(FirebaseFirestore database, String userId, MessageBackupFile.BackupWriter writer,
+                             MessageBackupFile.Header header, BackupProgressListener listener)
+            throws ExecutionException, InterruptedException, IOException {
+        int[] exported = {0};
+        if (MessageBackupFile.SCOPE_GROUP.equals(header.scope)) {
+            Query messages = database.collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                    .document(header.id)
+                    .collection(Constants.KEY_COLLECTION_MESSAGES)
+                    .orderBy(Constants.KEY_TIMESTAMP);
+            exportMessages(messages, header.id, writer, exported, listener);
+        } else if (MessageBackupFile.SCOPE_ACCOUNT.equals(header.scope)) {
+            // Needs the composite index on participants and bucketStart
+            exportBuckets(database.collection(Constants.KEY_COLLECTION_CHAT_ARCHIVE)
+                    .whereArrayContains(Constants.KEY_PARTICIPANTS, userId)
+                    .orderBy(Constants.KEY_BUCKET_START), writer, exported, listener);
+            exportMessages(database.collection(Constants.KEY_COLLECTION_CHAT)
+                    .whereEqualTo(Constants.KEY_SENDER_ID, userId)
+                    .orderBy(Constants.KEY_TIMESTAMP), null, writer, exported, listener);
+            exportMessages(database.collection(Constants.KEY_COLLECTION_CHAT)
+                    .whereEqualTo(Constants.KEY_RECEIVER_ID, userId)
+                    .orderBy(Constants.KEY_TIMESTAMP), null, writer, exported, listener);
+        } else {
+            String conversationKey = MessageArchive.getConversationKey(userId, header.id);
+            exportBuckets(database.collection(Constants.KEY_COLLECTION_CHAT_ARCHIVE)
+                    .whereEqualTo(Constants.KEY_CONVERSATION_KEY, conversationKey)
+                    .orderBy(Constants.KEY_BUCKET_START), writer, exported, listener);
+            // Needs the composite index on conversationKey and timestamp, older messages get the key
+            // from the ConversationKeyBackfill tool
+            exportMessages(database.collection(Constants.KEY_COLLECTION_CHAT)
+                    .whereEqualTo(Constants.KEY_CONVERSATION_KEY, conversationKey)
+                    .orderBy(Constants.KEY_TIMESTAMP), null, writer, exported, listener);
+        }
+        return exported[0];
+    }
+
+    /**
+     * Helper method that pages through message documents and writes them to the backup.
+     * Deleted messages are left out.
+     * @param query Query of the messages ordered by time.
+     * @param conversationId String type ID of a group conversation, null for the chat collection.
+     * @param writer BackupWriter of the export.
+     * @param exported Running count of exported messages.
+     * @param listener BackupProgressListener told after every page, may be null.
+     */
+    private static void exportMessages(Query query, String conversationId, MessageBackupFile.BackupWriter writer,
+                                       int[] exported, BackupProgressListener listener)
+            throws ExecutionException, InterruptedException, IOException {
+        DocumentSnapshot last = null;
+        while (true) {
+            Query page = last != null ? query.startAfter(last) : query;
+            QuerySnapshot snapshot = Tasks.await(FirestoreAccounting.getInstance()
+                    .get(page.limit(MESSAGE_PAGE_SIZE), "backup.messages"));
+            for (DocumentSnapshot document : snapshot.getDocuments()) {
+                if (Boolean.TRUE.equals(document.getBoolean(Constants.KEY_DELETED))
+                        || document.getDate(Constants.KEY_TIMESTAMP) == null) {
+                    continue;
+                }
+                writer.write(toChatMessage(document, conversationId));
+                exported[0]++;
+            }
+            if (listener != null) {
+                listener.onBackupProgress(exported[0]);
+            }
+            if (snapshot.size() < MESSAGE_PAGE_SIZE) {
+                return;
+            }
+            last = snapshot.getDocuments().get(snapshot.size() - 1);
+        }
+    }
+
+    /**
+     * Helper method that pages through archive buckets and writes their messages to the backup.
+     * @param query Query of the buckets ordered by their start.
+     * @param writer BackupWriter of the export.
+     * @param exported Running count of exported messages.
+     * @param listener BackupProgressListener told after every page, may be null.
+     */
+    private static void exportBuckets(Query query, MessageBackupFile.BackupWriter writer,
+                                      int[] exported, BackupProgressListener listener)
+            throws ExecutionException, InterruptedException, IOException {
+        DocumentSnapshot last = null;
+        while (true) {
+            Query page = last != null ? query.startAfter(last) : query;
+            QuerySnapshot snapshot = Tasks.await(FirestoreAccounting.getInstance()
+                    .get(page.limit(BUCKET_PAGE_SIZE), "backup.buckets"));
+            for (DocumentSnapshot bucket : snapshot.getDocuments()) {
+                for (ChatMessage chatMessage : MessageArchive.getMessages(bucket)) {
+                    writer.write(chatMessage);
+                    exported[0]++;
+                }
+            }
+            if (listener != null) {
+                listener.onBackupProgress(exported[0]);
+            }
+            if (snapshot.size() < BUCKET_PAGE_SIZE) {
+                return;
+            }
+            last = snapshot.getDocuments().get(snapshot.size() - 1);
+        }
+    }
+
+    /**
+     * Method that restores the messages of a backup. Group messages are written back to their
+     * conversation, one-to-one messages to the chat collection while they are recent and to their
+     * archive bucket once they are older than the recent tail, the way compaction would have left
+     * them. Every message is written under its original ID, so messages that still exist are not
+     * duplicated.
+     * Blocks, must not be called on the main thread.
+     * @param database FirebaseFirestore instance.
+     * @param reader BackupReader of the backup, positioned at the first message.
+     * @param skip Number of messages committed by an earlier, interrupted restore of the same backup.
+     * @param listener BackupProgressListener told the total committed after every batch, may be null.
+     * @return Returns the total number of committed messages, including the skipped ones.
+     * @throws ExecutionException If a database operation fails.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     * @throws IOException If the backup can not be read.
+     */
+    public static int restore(FirebaseFirestore database, MessageBackupFile.BackupReader reader, int skip,
+                              BackupProgressListener listener)
+            throws ExecutionException, InterruptedException, IOException {
+        MessageBackupFile.Header header = reader.getHeader();
+        boolean isGroup = MessageBackupFile.SCOPE_GROUP.equals(header.scope);
+        int committed = 0;
+        // Reading past the messages an earlier run already committed
+        while (committed < skip && reader.next() != null) {
+            committed++;
+        }
+        Date cutoff = new Date(System.currentTimeMillis() - MessageArchive.RECENT_TAIL_MILLIS);
+        MessageArchive.BucketWriter bucketWriter = new MessageArchive.BucketWriter(database);
+        while (true) {
+            WriteBatch batch = database.batch();
+            int batchMessages = 0;
+            int batchWrites = 0;
+            ChatMessage chatMessage = null;
+            // Every message is one write, archived messages of the same bucket share theirs
+            while (batchWrites < RESTORE_BATCH_SIZE && (chatMessage = reader.next()) != null) {
+                batchMessages++;
+                if (chatMessage.id == null || chatMessage.senderId == null || chatMessage.dateObject == null) {
+                    continue;
+                }
+                if (isGroup) {
+                    batch.set(database.collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                            .document(header.id)
+                            .collection(Constants.KEY_COLLECTION_MESSAGES)
+                            .document(chatMessage.id), toDocument(chatMessage, null));
+                    batchWrites++;
+                } else if (chatMessage.receiverId == null) {
+                    continue;
+                } else if (chatMessage.dateObject.before(cutoff)) {
+                    if (bucketWriter.add(chatMessage.senderId, chatMessage.receiverId, chatMessage.dateObject,
+                            MessageArchive.toEntry(chatMessage.id, chatMessage.senderId, chatMessage.receiverId,
+                                    chatMessage.message,
+                                    chatMessage.ciphertext != null ? Blob.fromBytes(chatMessage.ciphertext) : null,
+                                    chatMessage.dateObject, chatMessage.edited,
+                                    chatMessage.reactions, chatMessage.reactedBy))) {
+                        batchWrites++;
+                    }
+                } else {
+                    batch.set(database.collection(Constants.KEY_COLLECTION_CHAT).document(chatMessage.id),
+                            toDocument(chatMessage, MessageArchive.getConversationKey(
+                                    chatMessage.senderId, chatMessage.receiverId)));
+                    batchWrites++;
+                }
+            }
+            bucketWriter.writeTo(batch);
+            if (batchWrites > 0) {
+                Tasks.await(FirestoreAccounting.getInstance().write(batch.commit(), batchWrites, "backup.restore"));
+            }
+            committed += batchMessages;
+            if (listener != null && batchMessages > 0) {
+                listener.onBackupProgress(committed);
+            }
+            if (chatMessage == null) {
+                return committed;
+            }
+        }
+    }
+
+    /**
+     * Helper method that turns a message document into a chat message.
+     * @param document DocumentSnapshot of the message.
+     * @param conversationId String type ID of a group conversation, null for the chat collection.
+     * @return Returns the ChatMessage.
+     */
+    private static ChatMessage toChatMessage(DocumentSnapshot document, String conversationId) {
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = document.getId();
+        chatMessage.senderId = document.getString(Constants.KEY_SENDER_ID);
+        chatMessage.receiverId = conversationId != null
+                ? conversationId : document.getString(Constants.KEY_RECEIVER_ID);
+        chatMessage.message = document.getString(Constants.KEY_MESSAGE);
+        Blob ciphertext = document.getBlob(Constants.KEY_CIPHERTEXT);
+        chatMessage.ciphertext = ciphertext != null ? ciphertext.toBytes() : null;
+        chatMessage.edited = Boolean.TRUE.equals(document.getBoolean(Constants.KEY_EDITED));
+        chatMessage.dateObject = document.getDate(Constants.KEY_TIMESTAMP);
+        MessageReactions.read(chatMessage, document.get(Constants.KEY_REACTIONS),
+                document.get(Constants.KEY_REACTED_BY));
+        return chatMessage;
+    }
+
+    /**
+     * Helper method that turns a restored message into the fields of its document.
+     * @param chatMessage ChatMessage read from the backup.
+     * @param conversationKey String type key of a one-to-one chat, null for a group message.
+     * @return Returns the document fields.
+     */
+    private static Map<String, Object> toDocument(ChatMessage chatMessage, String conversationKey) {
+        Map<String, Object> document = new HashMap<>();
+        document.put(Constants.KEY_SENDER_ID, chatMessage.senderId);
+        if (conversationKey != null) {
+            document.put(Constants.KEY_RECEIVER_ID, chatMessage.receiverId);
+            document.put(Constants.KEY_CONVERSATION_KEY, conversationKey);
+        }
+        if (chatMessage.message != null) {
+            document.put(Constants.KEY_MESSAGE, chatMessage.message);
+        }
+        if (chatMessage.ciphertext != null) {
+            document.put(Constants.KEY_CIPHERTEXT, Blob.fromBytes(chatMessage.ciphertext));
+        }
+        document.put(Constants.KEY_TIMESTAMP, chatMessage.dateObject);
+        if (chatMessage.edited) {
+            document.put(Constants.KEY_EDITED, true);
+        }
+        if (chatMessage.reactions != null) {
+            document.put(Constants.KEY_REACTIONS, chatMessage.reactions);
+            document.put(Constants.KEY_REACTED_BY, chatMessage.reactedBy);
+        }
+        return document;
+    }
+}
@@ -0,0 +1,471 @@
+/**
+ * A process-wide hub of the one-to-one messages of the signed in user. Two snapshot listeners, one
+ * on the messages the user received and one on the messages the user sent, feed every chat, and
+ * their documents are sorted into an in-memory stream per conversation partner. Chat pages subscribe
+ * to a stream instead of starting queries, so the number of listeners stays constant however many
+ * chats are opened, and unread counts for the badges fall out of the same documents.
+ * The listeners only cover the recent tail that compaction leaves in the chat collection, so a cold
+ * start reads days of messages instead of the whole history, and a subscriber is replayed only the
+ * newest messages of its stream. Edits arrive as modified documents and deletes as documents
+ * flagged deleted or removed from the collection. Removed documents old enough to have been moved
+ * to the archive by compaction only leave the stream, they stay on screen.
+ */
+package com.example.chatapp_cs460.firebase;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.chatapp_cs460.listeners.MessageStreamListener;
+import com.example.chatapp_cs460.listeners.UnreadCountListener;
+import com.example.chatapp_cs460.models.ChatMessage;
+import com.example.chatapp_cs460.utilities.Constants;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+public class MessageHub {
+    /**
+     * Preference file of the read markers and the key of the time unread counting started.
+     */
+    private static final String PREFERENCE_NAME = "chatAppReadPreference";
+    private static final String KEY_READ_SINCE = "readSince";
+
+    /**
+     * Newest messages of a stream replayed to a new subscriber, older ones come from its window.
+     */
+    static final int REPLAY_SIZE = 50;
+
+    /**
+     * First and longest delay before listeners that failed are attached again.
+     */
+    private static final long RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    /**
+     * Single shared instance.
+     */
+    private static MessageHub instance;
+
+    /**
+     * Signed in user, the two inbound listeners, the time they listen from, the streams and
+     * subscribers by conversation partner and the unread counts. Only touched on the main thread,
+     * where snapshots are delivered.
+     */
+    private String userId;
+    private SharedPreferences readMarkers;
+    private FirebaseFirestore database;
+    private Date listenSince;
+    private ListenerRegistration receivedRegistration;
+    private ListenerRegistration sentRegistration;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private long retryDelayMillis = RETRY_DELAY_MILLIS;
+    private boolean isRetryPending = false;
+    private final Map<String, Map<String, ChatMessage>> streams = new HashMap<>();
+    private final Map<String, List<MessageStreamListener>> subscribers = new HashMap<>();
+    private final Map<String, Integer> unreadCounts = new LinkedHashMap<>();
+    private final List<UnreadCountListener> unreadCountListeners = new ArrayList<>();
+
+    /**
+     * Private constructor, use getInstance().
+     */
+    private MessageHub() {
+    }
+
+    /**
+     * Method that returns the shared hub, creating it on first use.
+     * @return Returns the MessageHub instance.
+     */
+    public static synchronized MessageHub getInstance() {
+        if (instance == null) {
+            instance = new MessageHub();
+        }
+        return instance;
+    }
+
+    /**
+     * Method that starts the inbound listeners of the signed in user. Calling it again for the same
+     * user has no effect, so every entry page can call it.
+     * @param context Context class object.
+     * @param database FirebaseFirestore instance.
+     * @param userId String type ID of the signed in user.
+     */
+    public void start(Context context, FirebaseFirestore database, String userId) {
+        if (userId == null || userId.equals(this.userId)) {
+            return;
+        }
+        stop();
+        this.userId = userId;
+        readMarkers = context.getApplicationContext().getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
+        if (!readMarkers.contains(KEY_READ_SINCE)) {
+            // Messages from before the badges existed are not counted as unread
+            readMarkers.edit().putLong(KEY_READ_SINCE, System.currentTimeMillis()).apply();
+        }
+        this.database = database;
+        // Older messages are archived by compaction and read through the history windows
+        listenSince = new Date(System.currentTimeMillis() - MessageArchive.RECENT_TAIL_MILLIS);
+        retryDelayMillis = RETRY_DELAY_MILLIS;
+        attachListeners();
+    }
+
+    /**
+     * Helper method that attaches the listeners on the received and the sent messages of the user.
+     */
+    private void attachListeners() {
+        receivedRegistration = listen(Constants.KEY_RECEIVER_ID, "chat.received");
+        sentRegistration = listen(Constants.KEY_SENDER_ID, "chat.sent");
+    }
+
+    /**
+     * Helper method that listens to the recent messages of the user on one side of a chat.
+     * Needs the composite index on the user field and timestamp.
+     * @param userField String type field holding the user, the sender or the receiver ID.
+     * @param queryName String type name of the listener in the Firestore accounting.
+     * @return Returns the ListenerRegistration.
+     */
+    private ListenerRegistration listen(String userField, String queryName) {
+        return database.collection(Constants.KEY_COLLECTION_CHAT)
+                .whereEqualTo(userField, userId)
+                .whereGreaterThanOrEqualTo(Constants.KEY_TIMESTAMP, listenSince)
+                .addSnapshotListener(FirestoreAccounting.getInstance().listen(queryName, (value, error) -> {
+                    if (error != null) {
+                        onListenerError(error);
+                        return;
+                    }
+                    retryDelayMillis = RETRY_DELAY_MILLIS;
+                    onSnapshot(value);
+                }));
+    }
+
+    /**
+     * Helper method that logs a failed listener and attaches both listeners again after a delay
+     * that doubles with every failure in a row. Failed listeners receive nothing more.
+     * @param error FirebaseFirestoreException of the listener.
+     */
+    private void onListenerError(FirebaseFirestoreException error) {
+        Log.w("MessageHub", "Inbound listener failed", error);
+        if (isRetryPending || userId == null) {
+            return;
+        }
+        removeListeners();
+        isRetryPending = true;
+        mainHandler.postDelayed(retryRunnable, retryDelayMillis);
+        retryDelayMillis = Math.min(retryDelayMillis * 2, MAX_RETRY_DELAY_MILLIS);
+    }
+
+    /**
+     * Task that attaches the listeners again after a failure. The streams are kept, so the
+     * documents the new listeners deliver again are applied as changes.
+     */
+    private final Runnable retryRunnable = () -> {
+        isRetryPending = false;
+        if (userId != null) {
+            attachListeners();
+        }
+    };
+
+    /**
+     * Helper method that removes the inbound listeners.
+     */
+    private void removeListeners() {
+        if (receivedRegistration != null) {
+            receivedRegistration.remove();
+            receivedRegistration = null;
+        }
+        if (sentRegistration != null) {
+            sentRegistration.remove();
+            sentRegistration = null;
+        }
+    }
+
+    /**
+     * Method that stops the listeners and drops the streams, used when the user signs out.
+     */
+    public void stop() {
+        removeListeners();
+        mainHandler.removeCallbacks(retryRunnable);
+        isRetryPending = false;
+        userId = null;
+        database = null;
+        streams.clear();
+        unreadCounts.clear();
+        notifyUnreadCounts();
+    }
+
+    /**
+     * Helper method that sorts the changed documents of a snapshot into the streams of their
+     * conversations and delivers them to the subscribers.
+     * @param value QuerySnapshot of one of the inbound listeners.
+     */
+    private void onSnapshot(QuerySnapshot value) {
+        if (value == null || userId == null) {
+            return;
+        }
+        Map<String, List<ChatMessage>> addedByPartner = new LinkedHashMap<>();
+        boolean isUnreadChanged = false;
+        for (DocumentChange documentChange : value.getDocumentChanges()) {
+            ChatMessage chatMessage = toChatMessage(documentChange.getDocument());
+            if (chatMessage.senderId == null || chatMessage.receiverId == null || chatMessage.dateObject == null) {
+                continue;
+            }
+            String partnerId = userId.equals(chatMessage.senderId) ? chatMessage.receiverId : chatMessage.senderId;
+            if (documentChange.getType() == DocumentChange.Type.REMOVED) {
+                isUnreadChanged |= onRemoved(partnerId, chatMessage);
+                continue;
+            }
+            boolean isDeleted = Boolean.TRUE.equals(documentChange.getDocument().getBoolean(Constants.KEY_DELETED));
+            // Listeners attached again after a failure deliver known messages as added
+            Map<String, ChatMessage> stream = streams.get(partnerId);
+            if (documentChange.getType() == DocumentChange.Type.MODIFIED
+                    || (stream != null && stream.containsKey(chatMessage.id))) {
+                onModified(partnerId, chatMessage, isDeleted);
+                continue;
+            }
+            if (isDeleted) {
+                continue;
+            }
+            List<ChatMessage> added = addedByPartner.get(partnerId);
+            if (added == null) {
+                added = new ArrayList<>();
+                addedByPartner.put(partnerId, added);
+            }
+            added.add(chatMessage);
+        }
+
+        for (Map.Entry<String, List<ChatMessage>> entry : addedByPartner.entrySet()) {
+            String partnerId = entry.getKey();
+            List<ChatMessage> added = entry.getValue();
+            Map<String, ChatMessage> stream = streams.get(partnerId);
+            if (stream == null) {
+                stream = new LinkedHashMap<>();
+                streams.put(partnerId, stream);
+            }
+            for (ChatMessage chatMessage : added) {
+                stream.put(chatMessage.id, chatMessage);
+            }
+
+            List<MessageStreamListener> listeners = subscribers.get(partnerId);
+            if (listeners != null && !listeners.isEmpty()) {
+                // The conversation is on screen, so its messages are read as they arrive
+                for (MessageStreamListener listener : new ArrayList<>(listeners)) {
+                    listener.onMessagesReceived(added);
+                }
+                markRead(partnerId);
+            } else {
+                isUnreadChanged |= countUnread(partnerId, added);
+            }
+        }
+        if (isUnreadChanged) {
+            notifyUnreadCounts();
+        }
+    }
+
+    /**
+     * Helper method that applies an edited or deleted message to its stream and subscribers.
+     * @param partnerId String type ID of the conversation partner.
+     * @param chatMessage ChatMessage read from the modified document.
+     * @param isDeleted Whether the sender deleted the message.
+     */
+    private void onModified(String partnerId, ChatMessage chatMessage, boolean isDeleted) {
+        Map<String, ChatMessage> stream = streams.get(partnerId);
+        if (stream != null) {
+            if (isDeleted) {
+                stream.remove(chatMessage.id);
+            } else {
+                stream.put(chatMessage.id, chatMessage);
+            }
+        }
+        List<MessageStreamListener> listeners = subscribers.get(partnerId);
+        if (listeners == null) {
+            return;
+        }
+        for (MessageStreamListener listener : new ArrayList<>(listeners)) {
+            if (isDeleted) {
+                listener.onMessageRemoved(chatMessage.id);
+            } else {
+                listener.onMessageChanged(chatMessage);
+            }
+        }
+    }
+
+    /**
+     * Helper method that drops a message whose document left the chat collection. Messages past
+     * the recent tail may just have been moved to the archive, so only newer ones are removed from
+     * the subscribers and the unread count.
+     * @param partnerId String type ID of the conversation partner.
+     * @param chatMessage ChatMessage read from the removed document.
+     * @return Returns true if the unread count changed.
+     */
+    private boolean onRemoved(String partnerId, ChatMessage chatMessage) {
+        Map<String, ChatMessage> stream = streams.get(partnerId);
+        if (stream == null || stream.remove(chatMessage.id) == null) {
+            return false;
+        }
+        if (chatMessage.dateObject.getTime() < System.currentTimeMillis() - MessageArchive.RECENT_TAIL_MILLIS) {
+            return false;
+        }
+        List<MessageStreamListener> listeners = subscribers.get(partnerId);
+        if (listeners != null) {
+            for (MessageStreamListener listener : new ArrayList<>(listeners)) {
+                listener.onMessageRemoved(chatMessage.id);
+            }
+        }
+        Integer current = unreadCounts.get(partnerId);
+        if (current == null || !partnerId.equals(chatMessage.senderId)
+                || chatMessage.dateObject.getTime() <= getReadUntil(partnerId)) {
+            return false;
+        }
+        if (current <= 1) {
+            unreadCounts.remove(partnerId);
+        } else {
+            unreadCounts.put(partnerId, current - 1);
+        }
+        return true;
+    }
+
+    /**
+     * Helper method that counts the messages of a partner received after the conversation was
+     * last read.
+     * @param partnerId String type ID of the conversation partner.
+     * @param added List of new messages of the conversation.
+     * @return Returns true if the unread count changed.
+     */
+    private boolean countUnread(String partnerId, List<ChatMessage> added) {
+        long readUntil = getReadUntil(partnerId);
+        int unread = 0;
+        for (ChatMessage chatMessage : added) {
+            if (partnerId.equals(chatMessage.senderId) && chatMessage.dateObject.getTime() > readUntil) {
+                unread++;
+            }
+        }
+        if (unread == 0) {
+            return false;
+        }
+        Integer current = unreadCounts.get(partnerId);
+        unreadCounts.put(partnerId, (current == null ? 0 : current) + unread);
+        return true;
+    }
+
+    /**
+     * Helper method that returns the time a conversation was last read.
+     * @param partnerId String type ID of the conversation partner.
+     * @return Returns the time in milliseconds, or when unread counting started.
+     */
+    private long getReadUntil(String partnerId) {
+        return readMarkers.getLong(partnerId, readMarkers.getLong(KEY_READ_SINCE, 0));
+    }
+
+    /**
+     * Helper method that turns a chat document into a chat message.
+     * @param document DocumentSnapshot of the message.
+     * @return Returns the ChatMessage, dateTime is left for the subscriber to format.
+     */
+    private static ChatMessage toChatMessage(DocumentSnapshot document) {
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = document.getId();
+        chatMessage.senderId = document.getString(Constants.KEY_SENDER_ID);
+        chatMessage.receiverId = document.getString(Constants.KEY_RECEIVER_ID);
+        chatMessage.message = document.getString(Constants.KEY_MESSAGE);
+        Blob ciphertext = document.getBlob(Constants.KEY_CIPHERTEXT);
+        chatMessage.ciphertext = ciphertext != null ? ciphertext.toBytes() : null;
+        chatMessage.dateObject = document.getDate(Constants.KEY_TIMESTAMP);
+        chatMessage.edited = Boolean.TRUE.equals(document.getBoolean(Constants.KEY_EDITED));
+        MessageReactions.read(chatMessage, document.get(Constants.KEY_REACTIONS),
+                document.get(Constants.KEY_REACTED_BY));
+        return chatMessage;
+    }
+
+    /**
+     * Method that subscribes to the stream of a conversation. The newest messages the stream
+     * already holds are replayed right away and the conversation is marked as read.
+     * @param partnerId String type ID of the conversation partner.
+     * @param listener MessageStreamListener to receive the messages.
+     */
+    public void subscribe(String partnerId, MessageStreamListener listener) {
+        List<MessageStreamListener> listeners = subscribers.get(partnerId);
+        if (listeners == null) {
+            listeners = new ArrayList<>();
+            subscribers.put(partnerId, listeners);
+        }
+        listeners.add(listener);
+        Map<String, ChatMessage> stream = streams.get(partnerId);
+        if (stream != null && !stream.isEmpty()) {
+            List<ChatMessage> tail = new ArrayList<>(stream.values());
+            Collections.sort(tail, (obj1, obj2) -> obj1.dateObject.compareTo(obj2.dateObject));
+            listener.onMessagesReceived(new ArrayList<>(tail.subList(Math.max(0, tail.size() - REPLAY_SIZE),
+                    tail.size())));
+        }
+        markRead(partnerId);
+    }
+
+    /**
+     * Method that unsubscribes from the stream of a conversation.
+     * @param partnerId String type ID of the conversation partner.
+     * @param listener MessageStreamListener passed to subscribe.
+     */
+    public void unsubscribe(String partnerId, MessageStreamListener listener) {
+        List<MessageStreamListener> listeners = subscribers.get(partnerId);
+        if (listeners != null) {
+            listeners.remove(listener);
+            if (listeners.isEmpty()) {
+                subscribers.remove(partnerId);
+            }
+        }
+        markRead(partnerId);
+    }
+
+    /**
+     * Helper method that marks a conversation as read up to now.
+     * @param partnerId String type ID of the conversation partner.
+     */
+    private void markRead(String partnerId) {
+        if (readMarkers != null) {
+            readMarkers.edit().putLong(partnerId, System.currentTimeMillis()).apply();
+        }
+        if (unreadCounts.remove(partnerId) != null) {
+            notifyUnreadCounts();
+        }
+    }
+
+    /**
+     * Method that registers a listener for the unread counts and delivers the current counts.
+     * @param listener UnreadCountListener to be added.
+     */
+    public void addUnreadCountListener(UnreadCountListener listener) {
+        unreadCountListeners.add(listener);
+        listener.onUnreadCountsChanged(Collections.unmodifiableMap(new HashMap<>(unreadCounts)));
+    }
+
+    /**
+     * Method that removes a listener for the unread counts.
+     * @param listener UnreadCountListener to be removed.
+     */
+    public void removeUnreadCountListener(UnreadCountListener listener) {
+        unreadCountListeners.remove(listener);
+    }
+
+    /**
+     * Helper method that delivers the unread counts to the registered listeners.
+     */
+    private void notifyUnreadCounts() {
+        Map<String, Integer> counts = Collections.unmodifiableMap(new HashMap<>(unreadCounts));
+        for (UnreadCountListener listener : new ArrayList<>(unreadCountListeners)) {
+            listener.onUnreadCountsChanged(counts);
+        }
+    }
+}
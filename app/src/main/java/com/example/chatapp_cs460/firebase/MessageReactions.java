@@ -0,0 +1,180 @@
+/**
+ * A class that stores emoji reactions on the message documents themselves. Every message keeps a
+ * map of counts by emoji, changed only with atomic increments, and a small map of the emoji each
+ * user reacted with. A reaction is a single update of those fields, so reactions of different users
+ * never conflict and no document is written per reaction.
+ */
+package com.example.chatapp_cs460.firebase;
+
+import com.example.chatapp_cs460.models.ChatMessage;
+import com.example.chatapp_cs460.utilities.Constants;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class MessageReactions {
+    /**
+     * Emojis offered in the reaction picker, in the order counts are shown.
+     */
+    public static final String[] EMOJIS = {"👍", "❤️", "😂", "😮", "😢", "🙏"};
+
+    /**
+     * Private constructor, the class only holds static helpers.
+     */
+    private MessageReactions() {
+    }
+
+    /**
+     * Method that reads the reaction fields of a message document or archive entry into a message.
+     * @param chatMessage ChatMessage to be filled.
+     * @param reactions Value of the reactions field, may be null.
+     * @param reactedBy Value of the reactedBy field, may be null.
+     */
+    public static void read(ChatMessage chatMessage, Object reactions, Object reactedBy) {
+        if (reactions instanceof Map) {
+            Map<String, Long> counts = new LinkedHashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) reactions).entrySet()) {
+                if (entry.getValue() instanceof Number) {
+                    counts.put(String.valueOf(entry.getKey()), ((Number) entry.getValue()).longValue());
+                }
+            }
+            chatMessage.reactions = counts;
+        }
+        if (reactedBy instanceof Map) {
+            Map<String, String> users = new HashMap<>();
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) reactedBy).entrySet()) {
+                if (entry.getValue() instanceof String) {
+                    users.put(String.valueOf(entry.getKey()), (String) entry.getValue());
+                }
+            }
+            chatMessage.reactedBy = users;
+        }
+    }
+
+    /**
+     * Method that reacts to a message, or takes the reaction back when the user reacted with the
+     * same emoji before. Reacting with another emoji moves the user's reaction.
+     * @param reference DocumentReference of the message.
+     * @param chatMessage ChatMessage as currently shown, for the user's previous reaction.
+     * @param userId String type ID of the reacting user.
+     * @param emoji String type emoji of the reaction.
+     * @return Returns the Task of the update.
+     */
+    public static Task<Void> react(DocumentReference reference, ChatMessage chatMessage, String userId, String emoji) {
+        String previous = getReaction(chatMessage, userId);
+        String next = emoji.equals(previous) ? null : emoji;
+        List<Object> fieldsAndValues = new ArrayList<>();
+        if (previous != null) {
+            fieldsAndValues.add(FieldPath.of(Constants.KEY_REACTIONS, previous));
+            fieldsAndValues.add(FieldValue.increment(-1));
+        }
+        if (next != null) {
+            fieldsAndValues.add(FieldPath.of(Constants.KEY_REACTIONS, next));
+            fieldsAndValues.add(FieldValue.increment(1));
+        }
+        fieldsAndValues.add(FieldPath.of(Constants.KEY_REACTED_BY, userId));
+        fieldsAndValues.add(next != null ? next : FieldValue.delete());
+        return FirestoreAccounting.getInstance().write(reference.update((FieldPath) fieldsAndValues.get(0),
+                fieldsAndValues.get(1), fieldsAndValues.subList(2, fieldsAndValues.size()).toArray()),
+                1, "messages.react");
+    }
+
+    /**
+     * Method that returns a copy of a message with a reaction applied the way react() writes it,
+     * used to show the reaction where no listener delivers the update.
+     * @param chatMessage ChatMessage as currently shown.
+     * @param userId String type ID of the reacting user.
+     * @param emoji String type emoji of the reaction.
+     * @return Returns the ChatMessage copy with the new reactions.
+     */
+    public static ChatMessage withReaction(ChatMessage chatMessage, String userId, String emoji) {
+        ChatMessage reacted = new ChatMessage();
+        reacted.id = chatMessage.id;
+        reacted.senderId = chatMessage.senderId;
+        reacted.receiverId = chatMessage.receiverId;
+        reacted.message = chatMessage.message;
+        reacted.ciphertext = chatMessage.ciphertext;
+        reacted.edited = chatMessage.edited;
+        reacted.dateObject = chatMessage.dateObject;
+        reacted.dateTime = chatMessage.dateTime;
+        reacted.reactions = chatMessage.reactions != null
+                ? new LinkedHashMap<>(chatMessage.reactions) : new LinkedHashMap<>();
+        reacted.reactedBy = chatMessage.reactedBy != null
+                ? new HashMap<>(chatMessage.reactedBy) : new HashMap<>();
+        String previous = reacted.reactedBy.remove(userId);
+        if (previous != null) {
+            Long count = reacted.reactions.get(previous);
+            reacted.reactions.put(previous, (count == null ? 0 : count) - 1);
+        }
+        if (!emoji.equals(previous)) {
+            Long count = reacted.reactions.get(emoji);
+            reacted.reactions.put(emoji, (count == null ? 0 : count) + 1);
+            reacted.reactedBy.put(userId, emoji);
+        }
+        return reacted;
+    }
+
+    /**
+     * Method that returns the emoji a user reacted to a message with.
+     * @param chatMessage ChatMessage class object.
+     * @param userId String type ID of the user.
+     * @return Returns the emoji or null if the user did not react.
+     */
+    public static String getReaction(ChatMessage chatMessage, String userId) {
+        return chatMessage.reactedBy != null ? chatMessage.reactedBy.get(userId) : null;
+    }
+
+    /**
+     * Method that formats the reaction counts of a message, offered emojis first.
+     * @param chatMessage ChatMessage class object.
+     * @return Returns the counts as text, or null if nobody reacted.
+     */
+    public static String format(ChatMessage chatMessage) {
+        if (chatMessage.reactions == null || chatMessage.reactions.isEmpty()) {
+            return null;
+        }
+        List<String> emojis = new ArrayList<>(Arrays.asList(EMOJIS));
+        for (String emoji : chatMessage.reactions.keySet()) {
+            if (!emojis.contains(emoji)) {
+                emojis.add(emoji);
+            }
+        }
+        StringBuilder text = new StringBuilder();
+        for (String emoji : emojis) {
+            Long count = chatMessage.reactions.get(emoji);
+            if (count == null || count <= 0) {
+                continue;
+            }
+            if (text.length() > 0) {
+                text.append("  ");
+            }
+            text.append(emoji).append(' ').append(count);
+        }
+        return text.length() > 0 ? text.toString() : null;
+    }
+
+    /**
+     * Method that tells whether two versions of a message differ only in their reactions, so the
+     * text does not have to be measured or decrypted again.
+     * @param current ChatMessage as currently shown, with its text set.
+     * @param changed ChatMessage read from the modified document.
+     * @return Returns true if the text and the edited flag are unchanged.
+     */
+    public static boolean isReactionChange(ChatMessage current, ChatMessage changed) {
+        if (current.edited != changed.edited) {
+            return false;
+        }
+        if (changed.ciphertext != null || current.ciphertext != null) {
+            return Arrays.equals(current.ciphertext, changed.ciphertext);
+        }
+        return current.message != null && current.message.equals(changed.message);
+    }
+}
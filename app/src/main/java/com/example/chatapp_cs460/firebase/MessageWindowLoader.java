@@ -0,0 +1,499 @@
+/**
+ * A class that loads the history of a conversation in windows around a point in time. A window is
+ * read with cursor queries ordered by time, ending before and starting at the anchor, so reaching
+ * a message from a year ago costs one window of reads instead of everything in between. The window
+ * then grows in either direction as the user scrolls. Group conversations are windowed over their
+ * message documents. One-to-one chats are windowed over their recent messages in the chat
+ * collection first, and over their daily archive buckets below them. Messages up to the time the
+ * user cleared the conversation are left out.
+ */
+package com.example.chatapp_cs460.firebase;
+
+import com.example.chatapp_cs460.models.ChatMessage;
+import com.example.chatapp_cs460.utilities.Constants;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+public class MessageWindowLoader {
+    /**
+     * Messages read per window, and archive buckets, one per active day, read per window, on an
+     * unmetered link.
+     */
+    public static final int MESSAGE_WINDOW_SIZE = 50;
+    public static final int ARCHIVE_WINDOW_SIZE = 7;
+
+    /**
+     * Database, the conversation and the time it was cleared.
+     */
+    private final FirebaseFirestore database;
+    private final String conversationId;
+    private final String conversationKey;
+    private Date clearedBefore;
+
+    /**
+     * Pagers of the conversation, oldest first. Groups have their messages only, one-to-one chats
+     * their archive buckets below their recent messages.
+     */
+    private final Pager[] pagers;
+
+    /**
+     * Constructor for the MessageWindowLoader.
+     * @param database FirebaseFirestore instance.
+     * @param conversationId String type ID of a group conversation, null for a one-to-one chat.
+     * @param conversationKey String type key of a one-to-one chat, null for a group conversation.
+     * @param messageWindowSize Number of messages per window.
+     * @param archiveWindowSize Number of archive buckets per window of a one-to-one chat.
+     */
+    public MessageWindowLoader(FirebaseFirestore database, String conversationId, String conversationKey,
+                               int messageWindowSize, int archiveWindowSize) {
+        this.database = database;
+        this.conversationId = conversationId;
+        this.conversationKey = conversationKey;
+        Pager messages = new Pager(false, messageWindowSize);
+        pagers = conversationId != null ? new Pager[]{messages}
+                : new Pager[]{new Pager(true, archiveWindowSize), messages};
+    }
+
+    /**
+     * Method that hides the messages up to the time the user cleared the conversation, from the
+     * next loaded window on.
+     * @param clearedBefore Date up to which messages are hidden, null to show the whole history.
+     */
+    public void setClearedBefore(Date clearedBefore) {
+        this.clearedBefore = clearedBefore;
+    }
+
+    /**
+     * Method that loads the first window of the conversation, half before and half from the anchor.
+     * A one-to-one chat opens the archive at the anchor when it has buckets from that day on, and
+     * its recent messages otherwise, so the window never spans a gap between the two. Without an
+     * anchor the newest window is loaded, and the archive of a one-to-one chat is only read with it
+     * when the recent messages do not fill the window. The newest window is served from the
+     * Firestore cache when prefetching left a usable one there.
+     * @param anchor Date to open the conversation at, null for the newest messages.
+     * @return Returns a Task with the loaded messages, dateTime is left for the caller to format.
+     */
+    public Task<List<ChatMessage>> loadAround(Date anchor) {
+        for (Pager pager : pagers) {
+            pager.reset();
+        }
+        Pager recent = pagers[pagers.length - 1];
+        if (anchor != null && pagers.length == 1) {
+            return recent.loadAround(anchor);
+        }
+        if (anchor != null) {
+            Pager archive = pagers[0];
+            return archive.loadFrom(anchor).continueWithTask(task -> {
+                if (archive.newest == null) {
+                    // The anchor is newer than the archive, which is opened once the recent messages run out
+                    archive.reset();
+                    return recent.loadAround(anchor);
+                }
+                // The recent messages are only opened once the archive has no newer buckets
+                Task<List<ChatMessage>> newer = archive.hasNewer
+                        ? Tasks.forResult(new ArrayList<>()) : recent.loadOldest();
+                return Tasks.whenAllSuccess(archive.loadBefore(anchor), task, newer)
+                        .continueWith(parts -> concat(parts.getResult()));
+            });
+        }
+        return recent.loadNewestCached().continueWithTask(task -> {
+            if (pagers.length == 1 || recent.hasOlder) {
+                return Tasks.forResult(task.getResult());
+            }
+            return Tasks.whenAllSuccess(task, pagers[0].loadNewest()).continueWith(parts -> concat(parts.getResult()));
+        });
+    }
+
+    /**
+     * Method that loads the window before the oldest loaded message. Recent messages are paged
+     * first, the archive is opened at its newest bucket once they run out.
+     * @return Returns a Task with the loaded messages.
+     */
+    public Task<List<ChatMessage>> loadOlder() {
+        for (int i = pagers.length - 1; i >= 0; i--) {
+            Pager pager = pagers[i];
+            if (pager.isOpened && pager.hasOlder) {
+                return pager.loadOlder();
+            }
+            if (!pager.isOpened && isNewerOpened(i)) {
+                return pager.loadNewest();
+            }
+        }
+        return Tasks.forResult(new ArrayList<>());
+    }
+
+    /**
+     * Method that loads the window after the newest loaded message. The archive is paged first,
+     * the recent messages are opened at their oldest message once it runs out.
+     * @return Returns a Task with the loaded messages.
+     */
+    public Task<List<ChatMessage>> loadNewer() {
+        for (int i = 0; i < pagers.length; i++) {
+            Pager pager = pagers[i];
+            if (pager.isOpened && pager.hasNewer) {
+                return pager.loadNewer();
+            }
+            if (!pager.isOpened && isOlderOpened(i)) {
+                return pager.loadOldest();
+            }
+        }
+        return Tasks.forResult(new ArrayList<>());
+    }
+
+    /**
+     * Method that tells whether there may be messages before the loaded range.
+     * @return Returns false once the beginning of the conversation was reached.
+     */
+    public boolean hasOlder() {
+        for (int i = 0; i < pagers.length; i++) {
+            Pager pager = pagers[i];
+            if (pager.isOpened ? pager.hasOlder : isNewerOpened(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Method that tells whether there may be messages after the loaded range.
+     * @return Returns false once the newest messages are loaded.
+     */
+    public boolean hasNewer() {
+        for (int i = 0; i < pagers.length; i++) {
+            Pager pager = pagers[i];
+            if (pager.isOpened ? pager.hasNewer : isOlderOpened(i)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Helper method that tells whether the pager below another one was opened.
+     * @param index Index of the pager.
+     * @return Returns true if an older pager exists and was opened.
+     */
+    private boolean isOlderOpened(int index) {
+        return index > 0 && pagers[index - 1].isOpened;
+    }
+
+    /**
+     * Helper method that tells whether the pager above another one was opened.
+     * @param index Index of the pager.
+     * @return Returns true if a newer pager exists and was opened.
+     */
+    private boolean isNewerOpened(int index) {
+        return index < pagers.length - 1 && pagers[index + 1].isOpened;
+    }
+
+    /**
+     * Method that returns the newest loaded message document, where live updates take over. The
+     * document is an exact cursor, so messages sent at the same time are not skipped.
+     * @return Returns the DocumentSnapshot or null if no recent message was loaded.
+     */
+    public DocumentSnapshot getNewestLoaded() {
+        return pagers[pagers.length - 1].newest;
+    }
+
+    /**
+     * Helper method that joins the messages of window parts.
+     * @param parts List of the message lists of the parts.
+     * @return Returns the List of all messages.
+     */
+    private static List<ChatMessage> concat(List<Object> parts) {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        for (Object part : parts) {
+            @SuppressWarnings("unchecked")
+            List<ChatMessage> partMessages = (List<ChatMessage>) part;
+            chatMessages.addAll(partMessages);
+        }
+        return chatMessages;
+    }
+
+    /**
+     * Helper method that returns the recent messages of the conversation after the time it was
+     * cleared, ordered by time.
+     * @return Returns the ordered Query.
+     */
+    private Query getMessagesQuery() {
+        Query query;
+        if (conversationId != null) {
+            query = database.collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                    .document(conversationId)
+                    .collection(Constants.KEY_COLLECTION_MESSAGES);
+        } else {
+            // Needs the composite index on conversationKey and timestamp, older messages get the key
+            // from the ConversationKeyBackfill tool
+            query = database.collection(Constants.KEY_COLLECTION_CHAT)
+                    .whereEqualTo(Constants.KEY_CONVERSATION_KEY, conversationKey);
+        }
+        if (clearedBefore != null) {
+            query = query.whereGreaterThan(Constants.KEY_TIMESTAMP, clearedBefore);
+        }
+        return query.orderBy(Constants.KEY_TIMESTAMP);
+    }
+
+    /**
+     * Helper method that returns the archive buckets of the one-to-one chat from the day it was
+     * cleared, ordered by time.
+     * @return Returns the ordered Query.
+     */
+    private Query getArchiveQuery() {
+        // Needs the composite index on conversationKey and bucketStart
+        Query query = database.collection(Constants.KEY_COLLECTION_CHAT_ARCHIVE)
+                .whereEqualTo(Constants.KEY_CONVERSATION_KEY, conversationKey);
+        if (clearedBefore != null) {
+            query = query.whereGreaterThanOrEqualTo(Constants.KEY_BUCKET_START,
+                    MessageArchive.getBucketStart(clearedBefore));
+        }
+        return query.orderBy(Constants.KEY_BUCKET_START);
+    }
+
+    /**
+     * Helper method that turns a message document into a chat message.
+     * @param document DocumentSnapshot of the message.
+     * @return Returns the ChatMessage, dateTime is left for the caller to format.
+     */
+    private ChatMessage toChatMessage(DocumentSnapshot document) {
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = document.getId();
+        chatMessage.senderId = document.getString(Constants.KEY_SENDER_ID);
+        chatMessage.receiverId = conversationId != null
+                ? conversationId : document.getString(Constants.KEY_RECEIVER_ID);
+        chatMessage.message = document.getString(Constants.KEY_MESSAGE);
+        Blob ciphertext = document.getBlob(Constants.KEY_CIPHERTEXT);
+        chatMessage.ciphertext = ciphertext != null ? ciphertext.toBytes() : null;
+        chatMessage.edited = Boolean.TRUE.equals(document.getBoolean(Constants.KEY_EDITED));
+        chatMessage.dateObject = document.getDate(Constants.KEY_TIMESTAMP);
+        MessageReactions.read(chatMessage, document.get(Constants.KEY_REACTIONS),
+                document.get(Constants.KEY_REACTED_BY));
+        return chatMessage;
+    }
+
+    /**
+     * Pager of one collection of the conversation, keeping the oldest and newest loaded documents
+     * as exact cursors, so documents with the same time are never skipped.
+     */
+    private class Pager {
+        private final boolean isArchive;
+        private final int windowSize;
+        private DocumentSnapshot oldest;
+        private DocumentSnapshot newest;
+        private boolean isOpened;
+        private boolean hasOlder;
+        private boolean hasNewer;
+
+        private Pager(boolean isArchive, int windowSize) {
+            this.isArchive = isArchive;
+            this.windowSize = windowSize;
+        }
+
+        /**
+         * Forgets the loaded range, before a new first window is loaded.
+         */
+        private void reset() {
+            oldest = null;
+            newest = null;
+            isOpened = false;
+            hasOlder = true;
+            hasNewer = true;
+        }
+
+        /**
+         * Opens the pager at its newest documents.
+         * @return Returns a Task with the loaded messages.
+         */
+        private Task<List<ChatMessage>> loadNewest() {
+            isOpened = true;
+            hasNewer = false;
+            return run(getQuery().limitToLast(windowSize), windowSize, true, false);
+        }
+
+        /**
+         * Opens the pager at its newest documents from the Firestore cache. The cached window is
+         * only used when it is full, and for a one-to-one chat when its newest message is recent
+         * enough for the MessageHub to deliver everything after it. Otherwise the server is read.
+         * @return Returns a Task with the loaded messages.
+         */
+        private Task<List<ChatMessage>> loadNewestCached() {
+            isOpened = true;
+            hasNewer = false;
+            Query query = getQuery().limitToLast(windowSize);
+            return FirestoreAccounting.getInstance().get(query, Source.CACHE, "messages.window")
+                    .continueWithTask(task -> {
+                        if (task.isSuccessful() && isUsableCache(task.getResult())) {
+                            return Tasks.forResult(apply(task.getResult(), windowSize, true, false));
+                        }
+                        return run(query, windowSize, true, false);
+                    });
+        }
+
+        /**
+         * Checks whether a cached newest window can be shown without a gap before live updates.
+         * @param snapshot QuerySnapshot read from the cache.
+         * @return Returns true if the cached window is usable.
+         */
+        private boolean isUsableCache(QuerySnapshot snapshot) {
+            if (snapshot.size() < windowSize) {
+                return false;
+            }
+            if (conversationId != null) {
+                // Group live updates start after the newest loaded document, whatever its age
+                return true;
+            }
+            Date newestTime = snapshot.getDocuments().get(snapshot.size() - 1).getDate(Constants.KEY_TIMESTAMP);
+            return newestTime != null
+                    && System.currentTimeMillis() - newestTime.getTime() < MessageArchive.RECENT_TAIL_MILLIS;
+        }
+
+        /**
+         * Opens the pager at its oldest documents.
+         * @return Returns a Task with the loaded messages.
+         */
+        private Task<List<ChatMessage>> loadOldest() {
+            isOpened = true;
+            hasOlder = false;
+            return run(getQuery().limit(windowSize), windowSize, false, true);
+        }
+
+        /**
+         * Opens the pager at an anchor, half before and half from it.
+         * @param anchor Date to open the conversation at.
+         * @return Returns a Task with the loaded messages.
+         */
+        private Task<List<ChatMessage>> loadAround(Date anchor) {
+            return Tasks.whenAllSuccess(loadBefore(anchor), loadFrom(anchor))
+                    .continueWith(task -> concat(task.getResult()));
+        }
+
+        /**
+         * Opens the pager with the half window before an anchor.
+         * @param anchor Date to open the conversation at.
+         * @return Returns a Task with the loaded messages.
+         */
+        private Task<List<ChatMessage>> loadBefore(Date anchor) {
+            isOpened = true;
+            int half = Math.max(1, windowSize / 2);
+            return run(getQuery().endBefore(getCursor(anchor)).limitToLast(half), half, true, false);
+        }
+
+        /**
+         * Opens the pager with the half window from an anchor.
+         * @param anchor Date to open the conversation at.
+         * @return Returns a Task with the loaded messages.
+         */
+        private Task<List<ChatMessage>> loadFrom(Date anchor) {
+            isOpened = true;
+            int half = Math.max(1, windowSize / 2);
+            return run(getQuery().startAt(getCursor(anchor)).limit(half), half, false, true);
+        }
+
+        /**
+         * Loads the window before the oldest loaded document.
+         * @return Returns a Task with the loaded messages.
+         */
+        private Task<List<ChatMessage>> loadOlder() {
+            if (oldest == null) {
+                hasOlder = false;
+                return Tasks.forResult(new ArrayList<>());
+            }
+            return run(getQuery().endBefore(oldest).limitToLast(windowSize), windowSize, true, false);
+        }
+
+        /**
+         * Loads the window after the newest loaded document.
+         * @return Returns a Task with the loaded messages.
+         */
+        private Task<List<ChatMessage>> loadNewer() {
+            if (newest == null) {
+                hasNewer = false;
+                return Tasks.forResult(new ArrayList<>());
+            }
+            return run(getQuery().startAfter(newest).limit(windowSize), windowSize, false, true);
+        }
+
+        /**
+         * Returns the value of the ordered field an anchor starts at.
+         * @param anchor Date to open the conversation at.
+         * @return Returns the anchor, or the start of its day for archive buckets.
+         */
+        private Object getCursor(Date anchor) {
+            return isArchive ? MessageArchive.getBucketStart(anchor) : anchor;
+        }
+
+        /**
+         * Returns the ordered query of the collection of the pager.
+         * @return Returns the ordered Query.
+         */
+        private Query getQuery() {
+            return isArchive ? getArchiveQuery() : getMessagesQuery();
+        }
+
+        /**
+         * Runs a window query and moves the loaded range.
+         * @param query Query of the window.
+         * @param limit Number of documents the query was limited to, fewer means an end was reached.
+         * @param isOlder Whether the window extends the range backwards.
+         * @param isNewer Whether the window extends the range forwards.
+         * @return Returns a Task with the messages of the window.
+         */
+        private Task<List<ChatMessage>> run(Query query, int limit, boolean isOlder, boolean isNewer) {
+            return FirestoreAccounting.getInstance().get(query, "messages.window")
+                    .continueWith(task -> apply(task.getResult(), limit, isOlder, isNewer));
+        }
+
+        /**
+         * Moves the loaded range over the documents of a window and turns them into messages.
+         * @param snapshot QuerySnapshot of the window.
+         * @param limit Number of documents the query was limited to, fewer means an end was reached.
+         * @param isOlder Whether the window extends the range backwards.
+         * @param isNewer Whether the window extends the range forwards.
+         * @return Returns the messages of the window.
+         */
+        private List<ChatMessage> apply(QuerySnapshot snapshot, int limit, boolean isOlder, boolean isNewer) {
+            List<DocumentSnapshot> documents = snapshot.getDocuments();
+            if (isOlder && documents.size() < limit) {
+                hasOlder = false;
+            }
+            if (isNewer && documents.size() < limit) {
+                hasNewer = false;
+            }
+            if (!documents.isEmpty()) {
+                // Results are in ascending order, also for limitToLast
+                if (isOlder || oldest == null) {
+                    oldest = documents.get(0);
+                }
+                if (isNewer || newest == null) {
+                    newest = documents.get(documents.size() - 1);
+                }
+            }
+            List<ChatMessage> chatMessages = new ArrayList<>();
+            for (DocumentSnapshot document : documents) {
+                if (!isArchive) {
+                    if (!Boolean.TRUE.equals(document.getBoolean(Constants.KEY_DELETED))) {
+                        chatMessages.add(toChatMessage(document));
+                    }
+                    continue;
+                }
+                // The bucket of the day the conversation was cleared holds hidden messages too
+                for (ChatMessage chatMessage : MessageArchive.getMessages(document)) {
+                    if (clearedBefore == null || chatMessage.dateObject == null
+                            || chatMessage.dateObject.after(clearedBefore)) {
+                        chatMessages.add(chatMessage);
+                    }
+                }
+            }
+            return chatMessages;
+        }
+    }
+}
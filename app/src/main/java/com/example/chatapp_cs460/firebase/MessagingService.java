@@ -1,5 +1,6 @@
 /**
- * A messaging service utility class. Lies dormant.
+ * A messaging service utility class. Chat pushes are posted as message notifications that can be
+ * answered inline.
  * @author Telmen Enkhtuvshin
  */
 package com.example.chatapp_cs460.firebase;
@@ -8,6 +9,7 @@ import android.util.Log;
 
 import androidx.annotation.NonNull;
 
+import com.example.chatapp_cs460.utilities.MessageNotifications;
 import com.google.firebase.messaging.FirebaseMessagingService;
 import com.google.firebase.messaging.RemoteMessage;
 
@@ -24,12 +26,18 @@ public class MessagingService extends FirebaseMessagingService {
     }
 
     /**
-     * An action listener that reacts when message is received and logs it.
+     * An action listener that reacts when message is received. Chat pushes are posted to the
+     * notification of their conversation, other messages are logged.
      * @param message Remote message that has been received.
      */
     @Override
     public void onMessageReceived(@NonNull RemoteMessage message) {
         super.onMessageReceived(message);
-        Log.d("FCM", "460 Message:" + message.getNotification().getBody());
+        if (MessageNotifications.show(getApplicationContext(), message.getData())) {
+            return;
+        }
+        if (message.getNotification() != null) {
+            Log.d("FCM", "460 Message:" + message.getNotification().getBody());
+        }
     }
 }
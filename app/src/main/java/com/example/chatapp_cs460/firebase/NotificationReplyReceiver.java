@@ -0,0 +1,141 @@
+/**
+ * A broadcast receiver that sends the inline replies typed into message notifications. The reply
+ * is written to the chat collection the same way the chat page sends it, encrypted when the other
+ * user published a key, and without starting any page. The notification shows the reply once the
+ * server confirmed the write. A write that is not confirmed in time, like while offline, stays
+ * queued in the database and is shown as sending until it is.
+ */
+package com.example.chatapp_cs460.firebase;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import androidx.core.app.RemoteInput;
+
+import com.example.chatapp_cs460.R;
+import com.example.chatapp_cs460.crypto.MessageCipher;
+import com.example.chatapp_cs460.crypto.SessionKeyStore;
+import com.example.chatapp_cs460.crypto.SessionKeys;
+import com.example.chatapp_cs460.utilities.Constants;
+import com.example.chatapp_cs460.utilities.MessageNotifications;
+import com.example.chatapp_cs460.utilities.PreferenceManager;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.Blob;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.security.GeneralSecurityException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class NotificationReplyReceiver extends BroadcastReceiver {
+    /**
+     * Longest wait for the write, below the time the system allows a broadcast to run.
+     */
+    private static final long WRITE_TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(8);
+
+    /**
+     * Action listener that sends the reply of a notification in the background.
+     * @param context Context class object.
+     * @param intent Intent with the ID of the other user and the reply results.
+     */
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        Bundle results = RemoteInput.getResultsFromIntent(intent);
+        CharSequence reply = results != null ? results.getCharSequence(MessageNotifications.KEY_REPLY) : null;
+        String receiverId = intent.getStringExtra(Constants.KEY_RECEIVER_ID);
+        Context appContext = context.getApplicationContext();
+        String senderId = new PreferenceManager(appContext).getString(Constants.KEY_USER_ID);
+        if (reply == null || reply.toString().trim().isEmpty() || receiverId == null || senderId == null) {
+            return;
+        }
+        String text = reply.toString();
+        PendingResult pendingResult = goAsync();
+        AtomicBoolean isFinished = new AtomicBoolean(false);
+        new Handler(Looper.getMainLooper()).postDelayed(() -> {
+            if (isFinished.compareAndSet(false, true)) {
+                MessageNotifications.showReply(appContext, receiverId,
+                        appContext.getString(R.string.reply_sending, text));
+                pendingResult.finish();
+            }
+        }, WRITE_TIMEOUT_MILLIS);
+        FirebaseFirestore database = FirebaseFirestore.getInstance();
+        getSessionKeys(appContext, database, senderId, receiverId)
+                .continueWithTask(task -> FirestoreAccounting.getInstance().write(database
+                        .collection(Constants.KEY_COLLECTION_CHAT)
+                        .add(createMessage(senderId, receiverId, text, task.getResult())), 1, "messages.reply"))
+                .addOnCompleteListener(task -> {
+                    if (task.isSuccessful()) {
+                        MessageNotifications.showReply(appContext, receiverId, text);
+                    } else {
+                        Log.e("FCM", "Unable to send reply", task.getException());
+                        MessageNotifications.showReply(appContext, receiverId,
+                                appContext.getString(R.string.reply_not_sent, text));
+                    }
+                    // Also updates the notification after a timeout, while the process is still alive
+                    if (isFinished.compareAndSet(false, true)) {
+                        pendingResult.finish();
+                    }
+                });
+    }
+
+    /**
+     * Helper method that resolves the session keys of the conversation with the other user.
+     * @param context Context class object.
+     * @param database FirebaseFirestore instance.
+     * @param senderId String type ID of the signed in user.
+     * @param receiverId String type ID of the other user.
+     * @return Returns a Task with the SessionKeys, null if the message is sent in plaintext,
+     * failing if the other user could not be loaded.
+     */
+    private static Task<SessionKeys> getSessionKeys(Context context, FirebaseFirestore database,
+                                                    String senderId, String receiverId) {
+        if (!Constants.MESSAGE_ENCRYPTION_ENABLED) {
+            return Tasks.forResult(null);
+        }
+        return UserDirectory.getInstance().fetchUser(database, receiverId)
+                .continueWithTask(task -> SessionKeyStore.getInstance()
+                        .getSessionKeys(context, database, senderId, task.getResult()));
+    }
+
+    /**
+     * Helper method that builds a chat message document.
+     * @param senderId String type ID of the signed in user.
+     * @param receiverId String type ID of the other user.
+     * @param text String type text of the reply.
+     * @param sessionKeys SessionKeys of the conversation, null to send plaintext.
+     * @return Returns the fields of the message.
+     */
+    private static HashMap<String, Object> createMessage(String senderId, String receiverId, String text,
+                                                         SessionKeys sessionKeys) {
+        String conversationKey = MessageArchive.getConversationKey(senderId, receiverId);
+        HashMap<String, Object> message = new HashMap<>();
+        message.put(Constants.KEY_SENDER_ID, senderId);
+        message.put(Constants.KEY_RECEIVER_ID, receiverId);
+        message.put(Constants.KEY_CONVERSATION_KEY, conversationKey);
+        message.put(Constants.KEY_TIMESTAMP, new Date());
+        // Only the ciphertext is stored when the receiver published a key
+        byte[] ciphertext = null;
+        if (sessionKeys != null) {
+            try {
+                ciphertext = MessageCipher.encrypt(sessionKeys.getCurrentKey(), sessionKeys.getCurrentKeyId(),
+                        conversationKey, text);
+            } catch (GeneralSecurityException e) {
+                // Sent in plaintext, like the chat page does
+            }
+        }
+        if (ciphertext != null) {
+            message.put(Constants.KEY_CIPHERTEXT, Blob.fromBytes(ciphertext));
+        } else {
+            message.put(Constants.KEY_MESSAGE, text);
+        }
+        return message;
+    }
+}
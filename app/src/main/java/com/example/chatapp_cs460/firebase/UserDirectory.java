@@ -0,0 +1,412 @@
+/**
+ * A process-wide copy of the user directory. It is seeded at startup from the copy persisted by the
+ * previous session, or from a prebuilt directory snapshot shipped with the app, so the users page
+ * renders without waiting on the network. Afterwards only users changed since the newest known
+ * update, the high-water mark, are fetched from the database. Deleted accounts arrive as tombstones.
+ */
+package com.example.chatapp_cs460.firebase;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+import android.util.Log;
+
+import com.example.chatapp_cs460.models.User;
+import com.example.chatapp_cs460.utilities.AvatarCache;
+import com.example.chatapp_cs460.utilities.Constants;
+import com.google.android.gms.tasks.Task;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class UserDirectory {
+    /**
+     * Single shared instance.
+     */
+    private static UserDirectory instance;
+
+    /**
+     * Name of the persisted copy and the field names of the directory file format.
+     */
+    private static final String LOCAL_COPY_FILE = "user_directory.json";
+    private static final String KEY_GENERATED_AT = "generatedAt";
+    private static final String KEY_GENERATED_AT_ID = "generatedAtId";
+    private static final String KEY_USERS = "users";
+    private static final String KEY_ID = "id";
+
+    /**
+     * Known users by ID, the newest merged update and the ID of the user it belongs to, and whether
+     * the snapshot has been read. Without an ID the mark covers every user updated at its instant.
+     */
+    private final Map<String, User> usersById = new LinkedHashMap<>();
+    private Date syncedUntil;
+    private String syncedUntilId;
+    private boolean isLoaded = false;
+    private boolean isFullSyncPending = false;
+    private File localCopy;
+
+    private final ExecutorService loadExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Private constructor, use getInstance().
+     */
+    private UserDirectory() {
+    }
+
+    /**
+     * Method that returns the shared directory, creating it on first use.
+     * @return Returns the UserDirectory instance.
+     */
+    public static synchronized UserDirectory getInstance() {
+        if (instance == null) {
+            instance = new UserDirectory();
+        }
+        return instance;
+    }
+
+    /**
+     * Method that reads the directory snapshot in the background, once per process.
+     * @param context Context class object used to open the app assets.
+     * @param onLoaded Runnable called on the main thread when the directory is ready, may be null.
+     */
+    public void load(Context context, Runnable onLoaded) {
+        Context applicationContext = context.getApplicationContext();
+        loadExecutor.execute(() -> {
+            readSnapshot(applicationContext);
+            if (onLoaded != null) {
+                mainHandler.post(onLoaded);
+            }
+        });
+    }
+
+    /**
+     * Helper method that reads the persisted copy of the directory, or the snapshot asset produced
+     * by the DirectorySnapshotGenerator tool when there is no copy yet.
+     * @param context Application context.
+     */
+    private void readSnapshot(Context context) {
+        synchronized (this) {
+            if (isLoaded) {
+                return;
+            }
+            isLoaded = true;
+            localCopy = new File(context.getFilesDir(), LOCAL_COPY_FILE);
+        }
+        try {
+            readDirectory(localCopy.exists()
+                    ? new FileInputStream(localCopy)
+                    : context.getAssets().open(Constants.ASSET_DIRECTORY_SNAPSHOT));
+        } catch (FileNotFoundException e) {
+            // No copy and no snapshot shipped, the directory is fetched in full
+        } catch (IOException | IllegalStateException e) {
+            Log.e("UserDirectory", "Unable to read directory snapshot", e);
+            synchronized (this) {
+                usersById.clear();
+                syncedUntil = null;
+                syncedUntilId = null;
+            }
+        }
+    }
+
+    /**
+     * Helper method that streams a directory file into the directory.
+     * @param input InputStream of the directory file, closed when done.
+     * @throws IOException If the file can not be read.
+     */
+    private void readDirectory(InputStream input) throws IOException {
+        Date generatedAt = null;
+        String generatedAtId = null;
+        try (JsonReader reader = new JsonReader(new InputStreamReader(input, StandardCharsets.UTF_8))) {
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (KEY_GENERATED_AT.equals(name)) {
+                    generatedAt = new Date(reader.nextLong());
+                } else if (KEY_GENERATED_AT_ID.equals(name)) {
+                    generatedAtId = nextStringOrNull(reader);
+                } else if (KEY_USERS.equals(name)) {
+                    reader.beginArray();
+                    while (reader.hasNext()) {
+                        readSnapshotUser(reader);
+                    }
+                    reader.endArray();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+        }
+        advanceSyncedUntil(generatedAt, generatedAtId);
+    }
+
+    /**
+     * Helper method that persists the directory in the background, so the next session starts from
+     * it and only asks for changes past its high-water mark.
+     * @param until Date of the high-water mark a merged page produced, may be null.
+     * @param untilId String type ID of the user of the mark, may be null.
+     */
+    private void saveLocalCopy(Date until, String untilId) {
+        loadExecutor.execute(() -> {
+            List<User> users;
+            synchronized (this) {
+                if (localCopy == null) {
+                    return;
+                }
+                users = new ArrayList<>(usersById.values());
+            }
+            // Writing next to the copy and swapping, so a crash never leaves half a file
+            File temporary = new File(localCopy.getPath() + ".tmp");
+            try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(
+                    new FileOutputStream(temporary), StandardCharsets.UTF_8))) {
+                writer.beginObject();
+                if (until != null) {
+                    writer.name(KEY_GENERATED_AT).value(until.getTime());
+                    writer.name(KEY_GENERATED_AT_ID).value(untilId);
+                }
+                writer.name(KEY_USERS).beginArray();
+                for (User user : users) {
+                    writer.beginObject();
+                    writer.name(KEY_ID).value(user.id);
+                    writer.name(Constants.KEY_NAME).value(user.name);
+                    writer.name(Constants.KEY_EMAIL).value(user.email);
+                    writer.name(Constants.KEY_IMAGE).value(user.image);
+                    writer.name(Constants.KEY_IMAGE_PLACEHOLDER).value(user.imagePlaceholder);
+                    writer.name(Constants.KEY_PUBLIC_KEY).value(user.publicKey);
+                    writer.endObject();
+                }
+                writer.endArray();
+                writer.endObject();
+            } catch (IOException e) {
+                Log.e("UserDirectory", "Unable to save directory", e);
+                return;
+            }
+            if (!temporary.renameTo(localCopy)) {
+                Log.e("UserDirectory", "Unable to replace directory copy");
+            }
+        });
+    }
+
+    /**
+     * Helper method that reads a single user entry of the snapshot.
+     * @param reader JsonReader positioned at the user object.
+     * @throws IOException If the snapshot can not be read.
+     */
+    private void readSnapshotUser(JsonReader reader) throws IOException {
+        User user = new User();
+        long updatedAt = 0;
+        reader.beginObject();
+        while (reader.hasNext()) {
+            String name = reader.nextName();
+            if (KEY_ID.equals(name)) {
+                user.id = nextStringOrNull(reader);
+            } else if (Constants.KEY_NAME.equals(name)) {
+                user.name = nextStringOrNull(reader);
+            } else if (Constants.KEY_EMAIL.equals(name)) {
+                user.email = nextStringOrNull(reader);
+            } else if (Constants.KEY_IMAGE.equals(name)) {
+                user.image = nextStringOrNull(reader);
+            } else if (Constants.KEY_IMAGE_PLACEHOLDER.equals(name)) {
+                user.imagePlaceholder = nextStringOrNull(reader);
+            } else if (Constants.KEY_PUBLIC_KEY.equals(name)) {
+                user.publicKey = nextStringOrNull(reader);
+            } else if (Constants.KEY_UPDATED_AT.equals(name)) {
+                updatedAt = reader.nextLong();
+            } else {
+                reader.skipValue();
+            }
+        }
+        reader.endObject();
+        if (user.id != null) {
+            put(user);
+            advanceSyncedUntil(updatedAt > 0 ? new Date(updatedAt) : null, user.id);
+        }
+    }
+
+    /**
+     * Helper method that reads a String value that may be null.
+     * @param reader JsonReader positioned at the value.
+     * @return Returns the String or null.
+     * @throws IOException If the snapshot can not be read.
+     */
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+
+    /**
+     * Helper method that stores a user. The high-water mark is left alone, since a single user
+     * says nothing about the changes of the others.
+     * @param user User class object.
+     */
+    private synchronized void put(User user) {
+        usersById.put(user.id, user);
+    }
+
+    /**
+     * Helper method that moves the high-water mark forward, never backwards. Updates of the same
+     * instant are ordered by user ID, like the changes query orders them.
+     * @param date Date of an update, may be null.
+     * @param id String type ID of the updated user, null for every user updated at the date.
+     */
+    private synchronized void advanceSyncedUntil(Date date, String id) {
+        if (date == null) {
+            return;
+        }
+        int order = syncedUntil == null ? 1 : date.compareTo(syncedUntil);
+        if (order == 0 && syncedUntilId != null) {
+            order = id == null ? 1 : id.compareTo(syncedUntilId);
+        }
+        if (order > 0) {
+            syncedUntil = date;
+            syncedUntilId = id;
+        }
+    }
+
+    /**
+     * Method that returns the query for the users changed since the newest known update,
+     * or for the whole collection when the directory is empty.
+     * @param database FirebaseFirestore instance.
+     * @param pageSize Number of changed users to fetch at most, 0 for all of them. A full fetch is
+     *                 never paged, since users without an updatedAt field would be left out.
+     * @return Returns the Query to fetch.
+     */
+    public synchronized Query getChangesQuery(FirebaseFirestore database, int pageSize) {
+        Query query = database.collection(Constants.KEY_COLLECTION_USERS);
+        isFullSyncPending = syncedUntil == null;
+        if (syncedUntil != null) {
+            // Oldest changes first and ties by ID, so the next page continues right after the
+            // newest merged user, even when users share its update time
+            query = query.orderBy(Constants.KEY_UPDATED_AT).orderBy(FieldPath.documentId());
+            query = syncedUntilId != null
+                    ? query.startAfter(syncedUntil, syncedUntilId)
+                    : query.startAfter(syncedUntil);
+            if (pageSize > 0) {
+                query = query.limit(pageSize);
+            }
+        }
+        return query;
+    }
+
+    /**
+     * Method that applies fetched user documents to the directory and persists it. Tombstones of
+     * deleted accounts remove the user, and a full fetch replaces the directory. Only a merged
+     * changes page moves the high-water mark.
+     * @param snapshot QuerySnapshot from the changes query.
+     */
+    public synchronized void merge(QuerySnapshot snapshot) {
+        if (isFullSyncPending) {
+            usersById.clear();
+            isFullSyncPending = false;
+        } else if (snapshot.isEmpty()) {
+            return;
+        }
+        for (DocumentSnapshot document : snapshot.getDocuments()) {
+            if (Boolean.TRUE.equals(document.getBoolean(Constants.KEY_DELETED))) {
+                usersById.remove(document.getId());
+                AvatarCache.getInstance().remove(document.getId());
+            } else {
+                putDocument(document);
+            }
+            advanceSyncedUntil(document.getDate(Constants.KEY_UPDATED_AT), document.getId());
+        }
+        saveLocalCopy(syncedUntil, syncedUntilId);
+    }
+
+    /**
+     * Helper method that stores a user document, dropping a decoded avatar that went stale.
+     * @param document DocumentSnapshot of the user.
+     * @return Returns the stored User object.
+     */
+    private synchronized User putDocument(DocumentSnapshot document) {
+        User user = new User();
+        user.id = document.getId();
+        user.name = document.getString(Constants.KEY_NAME);
+        user.email = document.getString(Constants.KEY_EMAIL);
+        user.image = document.getString(Constants.KEY_IMAGE);
+        user.imagePlaceholder = document.getString(Constants.KEY_IMAGE_PLACEHOLDER);
+        user.token = document.getString(Constants.KEY_FCM_TOKEN);
+        user.publicKey = document.getString(Constants.KEY_PUBLIC_KEY);
+        User previous = usersById.get(user.id);
+        if (previous != null && previous.image != null && !previous.image.equals(user.image)) {
+            AvatarCache.getInstance().remove(user.id);
+        }
+        put(user);
+        return user;
+    }
+
+    /**
+     * Method that returns a known user.
+     * @param userId String type ID of the user.
+     * @return Returns the User object or null if the user is not in the directory.
+     */
+    public synchronized User getUser(String userId) {
+        return usersById.get(userId);
+    }
+
+    /**
+     * Method that returns a user from the directory, fetching it from the database if missing.
+     * @param database FirebaseFirestore instance.
+     * @param userId String type ID of the user.
+     * @return Returns a Task with the User object, failing if the user does not exist.
+     */
+    public Task<User> fetchUser(FirebaseFirestore database, String userId) {
+        User user = getUser(userId);
+        if (user != null) {
+            return Tasks.forResult(user);
+        }
+        DocumentReference reference = database.collection(Constants.KEY_COLLECTION_USERS).document(userId);
+        return FirestoreAccounting.getInstance().get(reference, Source.DEFAULT, "users.fetch")
+                .continueWith(task -> {
+                    DocumentSnapshot document = task.getResult();
+                    if (document == null || !document.exists()
+                            || Boolean.TRUE.equals(document.getBoolean(Constants.KEY_DELETED))) {
+                        throw new IllegalStateException("No user " + userId);
+                    }
+                    return putDocument(document);
+                });
+    }
+
+    /**
+     * Method that returns the known users.
+     * @param excludedUserId String type ID of a user to leave out, usually the signed in user.
+     * @return Returns a new list of users.
+     */
+    public synchronized List<User> getUsers(String excludedUserId) {
+        List<User> users = new ArrayList<>();
+        for (User user : usersById.values()) {
+            if (!user.id.equals(excludedUserId)) {
+                users.add(user);
+            }
+        }
+        return users;
+    }
+}
@@ -0,0 +1,16 @@
+/**
+ * An interface class that contains an action listener
+ * that reacts when a user profile image has been loaded into the cache.
+ */
+package com.example.chatapp_cs460.listeners;
+
+import android.graphics.Bitmap;
+
+public interface AvatarListener {
+    /**
+     * Action listener that activates when the profile image of a user is ready to display.
+     * @param userId String type ID of the user whose image was loaded.
+     * @param bitmap Decoded Bitmap profile image, null if the user has no usable image.
+     */
+    void onAvatarLoaded(String userId, Bitmap bitmap);
+}
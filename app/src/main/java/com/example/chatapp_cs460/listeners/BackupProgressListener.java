@@ -0,0 +1,13 @@
+/**
+ * An interface class that contains an action listener
+ * that reacts when an export or a restore of messages makes progress.
+ */
+package com.example.chatapp_cs460.listeners;
+
+public interface BackupProgressListener {
+    /**
+     * Action listener that activates after every exported page or committed restore batch.
+     * @param messages Number of messages exported or committed so far.
+     */
+    void onBackupProgress(int messages);
+}
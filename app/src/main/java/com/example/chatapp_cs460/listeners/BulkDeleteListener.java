@@ -0,0 +1,23 @@
+/**
+ * An interface class that contains action listeners
+ * that react when an account deletion makes progress.
+ */
+package com.example.chatapp_cs460.listeners;
+
+import java.util.List;
+
+public interface BulkDeleteListener {
+    /**
+     * Action listener that activates after every committed delete batch.
+     * @param messageIds List of the IDs of the messages the batch deleted.
+     * @param deleted Number of documents deleted or updated so far.
+     */
+    void onBatchDeleted(List<String> messageIds, int deleted);
+
+    /**
+     * Action listener that activates when a step of the deletion is done, so an interrupted
+     * deletion can continue with the next one.
+     * @param nextStep Index of the next step to run.
+     */
+    void onStepFinished(int nextStep);
+}
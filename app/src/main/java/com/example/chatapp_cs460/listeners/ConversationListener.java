@@ -0,0 +1,15 @@
+/**
+ * An interface class that contains an action listener
+ * that reacts when a conversation is clicked.
+ */
+package com.example.chatapp_cs460.listeners;
+
+import com.example.chatapp_cs460.models.Conversation;
+
+public interface ConversationListener {
+    /**
+     * Action listener that activates when the user clicks on a conversation.
+     * @param conversation Conversation class object that was clicked.
+     */
+    void onConversationClicked(Conversation conversation);
+}
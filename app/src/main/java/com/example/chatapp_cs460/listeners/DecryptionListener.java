@@ -0,0 +1,17 @@
+/**
+ * An interface class that contains an action listener
+ * that reacts when a batch of encrypted messages has been decrypted.
+ */
+package com.example.chatapp_cs460.listeners;
+
+import com.example.chatapp_cs460.models.ChatMessage;
+
+import java.util.List;
+
+public interface DecryptionListener {
+    /**
+     * Action listener that activates when a batch of messages is ready to display.
+     * @param chatMessages List of messages whose message field now holds the plaintext.
+     */
+    void onMessagesDecrypted(List<ChatMessage> chatMessages);
+}
@@ -0,0 +1,14 @@
+/**
+ * An interface class that contains an action listener
+ * that reacts when the day header or sender run of a listed message changed.
+ */
+package com.example.chatapp_cs460.listeners;
+
+public interface GroupingListener {
+    /**
+     * Action listener that activates when a message next to an inserted or removed message was
+     * regrouped.
+     * @param position Position of the regrouped message.
+     */
+    void onGroupingChanged(int position);
+}
@@ -0,0 +1,16 @@
+/**
+ * An interface class that contains an action listener
+ * that reacts when the preview of a link has been loaded.
+ */
+package com.example.chatapp_cs460.listeners;
+
+import com.example.chatapp_cs460.models.LinkPreview;
+
+public interface LinkPreviewListener {
+    /**
+     * Action listener that activates when the preview of a link is ready to display.
+     * @param url String type URL of the link.
+     * @param linkPreview LinkPreview of the page, null if it could not be loaded right now.
+     */
+    void onLinkPreviewLoaded(String url, LinkPreview linkPreview);
+}
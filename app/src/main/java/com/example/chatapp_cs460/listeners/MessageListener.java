@@ -0,0 +1,15 @@
+/**
+ * An interface class that contains an action listener
+ * that reacts when a chat message is long pressed.
+ */
+package com.example.chatapp_cs460.listeners;
+
+import com.example.chatapp_cs460.models.ChatMessage;
+
+public interface MessageListener {
+    /**
+     * Action listener that activates when the user long presses on a message.
+     * @param chatMessage ChatMessage class object that was long pressed.
+     */
+    void onMessageLongClicked(ChatMessage chatMessage);
+}
@@ -0,0 +1,30 @@
+/**
+ * An interface class that contains an action listener
+ * that reacts when messages arrive in, change in or leave the stream of a conversation.
+ */
+package com.example.chatapp_cs460.listeners;
+
+import com.example.chatapp_cs460.models.ChatMessage;
+
+import java.util.List;
+
+public interface MessageStreamListener {
+    /**
+     * Action listener that activates when messages of the subscribed conversation are received.
+     * The first call replays the messages the stream already holds.
+     * @param chatMessages List of new messages, dateTime is left for the listener to format.
+     */
+    void onMessagesReceived(List<ChatMessage> chatMessages);
+
+    /**
+     * Action listener that activates when the sender edited a message of the conversation.
+     * @param chatMessage ChatMessage with the new text, replacing the message with the same ID.
+     */
+    void onMessageChanged(ChatMessage chatMessage);
+
+    /**
+     * Action listener that activates when the sender deleted a message of the conversation.
+     * @param messageId String type ID of the deleted message.
+     */
+    void onMessageRemoved(String messageId);
+}
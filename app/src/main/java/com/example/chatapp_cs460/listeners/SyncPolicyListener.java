@@ -0,0 +1,15 @@
+/**
+ * An interface class that contains an action listener
+ * that reacts when the sync policy changes with the network or the data saver setting.
+ */
+package com.example.chatapp_cs460.listeners;
+
+import com.example.chatapp_cs460.utilities.SyncPolicy;
+
+public interface SyncPolicyListener {
+    /**
+     * Action listener that activates when the link quality the policy decides on changes.
+     * @param syncPolicy SyncPolicy with the new decisions.
+     */
+    void onSyncPolicyChanged(SyncPolicy syncPolicy);
+}
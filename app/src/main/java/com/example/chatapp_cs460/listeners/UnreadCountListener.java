@@ -0,0 +1,15 @@
+/**
+ * An interface class that contains an action listener
+ * that reacts when the number of unread messages of a conversation changes.
+ */
+package com.example.chatapp_cs460.listeners;
+
+import java.util.Map;
+
+public interface UnreadCountListener {
+    /**
+     * Action listener that activates when new messages arrive or a conversation is read.
+     * @param unreadCounts Number of unread messages by the ID of the user who sent them.
+     */
+    void onUnreadCountsChanged(Map<String, Integer> unreadCounts);
+}
@@ -13,4 +13,10 @@ public interface UserListener {
      * @param user
      */
     void onUserClicked(User user);
+
+    /**
+     * Action listener that activates when the user long presses on the user profile.
+     * @param user User class object that was long pressed.
+     */
+    void onUserLongClicked(User user);
 }
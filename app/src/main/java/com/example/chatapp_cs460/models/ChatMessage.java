@@ -5,12 +5,41 @@
 package com.example.chatapp_cs460.models;
 
 import java.util.Date;
+import java.util.Map;
 
 public class ChatMessage {
     /**
      * Chat message fields.
      */
-    public String senderId, receiverId, message, dateTime;
+    public String id, senderId, receiverId, message, dateTime;
 
     public Date dateObject;
+
+    /**
+     * Whether the sender edited the message after sending it.
+     */
+    public boolean edited;
+
+    /**
+     * Encrypted message text, null for messages stored in plaintext.
+     */
+    public byte[] ciphertext;
+
+    /**
+     * Reaction counts by emoji and the emoji each user reacted with, null without reactions.
+     */
+    public Map<String, Long> reactions;
+    public Map<String, String> reactedBy;
+
+    /**
+     * Place of the message in the list, kept by the MessageGrouping: whether it is the first
+     * message of its day, and whether it continues or ends a run of messages of its sender.
+     */
+    public boolean startsDay, continuesRun, endsRun;
+
+    /**
+     * First link of the text, found once when the message is first bound. Empty for a text
+     * without a link, null until it was looked for.
+     */
+    public String linkUrl;
 }
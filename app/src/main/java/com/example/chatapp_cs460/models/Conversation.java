@@ -0,0 +1,19 @@
+/**
+ * A Model object class that holds group conversation information.
+ * Messages of the conversation are stored in its own messages sub collection.
+ */
+package com.example.chatapp_cs460.models;
+
+import java.util.Date;
+import java.util.List;
+
+public class Conversation {
+    /**
+     * Conversation fields.
+     */
+    public String id, name, lastMessage, lastSenderId;
+
+    public List<String> members;
+
+    public Date dateObject;
+}
@@ -0,0 +1,31 @@
+/**
+ * A model class of the preview of a link posted in a message, read from the head of the linked
+ * page. A preview without a title means the page could not be previewed.
+ */
+package com.example.chatapp_cs460.models;
+
+public class LinkPreview {
+    public final String url, title, description, siteName;
+
+    /**
+     * Constructor for the LinkPreview.
+     * @param url String type URL of the page.
+     * @param title String type title of the page, null if it could not be previewed.
+     * @param description String type description of the page, may be null.
+     * @param siteName String type name of the site, the host when the page names none.
+     */
+    public LinkPreview(String url, String title, String description, String siteName) {
+        this.url = url;
+        this.title = title;
+        this.description = description;
+        this.siteName = siteName;
+    }
+
+    /**
+     * Method that tells whether there is anything to show.
+     * @return Returns true if the page had no title.
+     */
+    public boolean isEmpty() {
+        return title == null || title.isEmpty();
+    }
+}
@@ -1,8 +1,11 @@
 package com.example.chatapp_cs460.models;
 
-import java.io.Serializable;
-
-public class User implements Serializable {
-    public String name, image, email, token, id;
+public class User {
+    public String name, image, email, token, id, publicKey;
+    /**
+     * Tiny placeholder of the image, rendered while the image decodes. Null for users who signed
+     * up before placeholders existed.
+     */
+    public String imagePlaceholder;
 
 }
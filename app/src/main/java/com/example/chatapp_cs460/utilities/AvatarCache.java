@@ -0,0 +1,267 @@
+/**
+ * A process-wide cache of decoded user profile images. Adapters share it so an avatar is decoded
+ * once per process, no matter how many rows or message bubbles display it. Until an avatar is
+ * decoded, adapters show its rendered placeholder, which is cached here as well. While the sync policy
+ * defers media downloads, avatars are only read from the local database cache, and the ones that
+ * were missing are fetched once the link gets better.
+ */
+package com.example.chatapp_cs460.utilities;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Base64;
+import android.util.LruCache;
+
+import com.example.chatapp_cs460.firebase.FirestoreAccounting;
+import com.example.chatapp_cs460.listeners.AvatarListener;
+import com.example.chatapp_cs460.listeners.SyncPolicyListener;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Source;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class AvatarCache implements SyncPolicyListener {
+    /**
+     * Maximum amount of decoded bitmap memory the cache may hold.
+     */
+    private static final int MAX_CACHE_BYTES = 4 * 1024 * 1024;
+
+    /**
+     * Number of rendered placeholders kept, each one is only a kilobyte.
+     */
+    private static final int MAX_PLACEHOLDERS = 512;
+
+    /**
+     * Single shared instance.
+     */
+    private static AvatarCache instance;
+
+    /**
+     * Decoded bitmaps keyed by user ID, pending loads, users whose download was deferred and the
+     * decoding thread.
+     */
+    private final LruCache<String, Bitmap> bitmaps;
+    private final LruCache<String, Bitmap> placeholders = new LruCache<>(MAX_PLACEHOLDERS);
+    private final Map<String, List<AvatarListener>> pendingLoads = new HashMap<>();
+    private final Set<String> deferredUserIds = new LinkedHashSet<>();
+    private final ExecutorService decodeExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Private constructor, use getInstance().
+     */
+    private AvatarCache() {
+        bitmaps = new LruCache<String, Bitmap>(MAX_CACHE_BYTES) {
+            @Override
+            protected int sizeOf(String key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+        SyncPolicy.getInstance().addListener(this);
+    }
+
+    /**
+     * Method that returns the shared cache, creating it on first use.
+     * @return Returns the AvatarCache instance.
+     */
+    public static synchronized AvatarCache getInstance() {
+        if (instance == null) {
+            instance = new AvatarCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Method that returns an already decoded avatar.
+     * @param userId String type ID of the user.
+     * @return Returns the cached Bitmap or null if it has not been decoded yet.
+     */
+    public Bitmap get(String userId) {
+        if (userId == null) {
+            return null;
+        }
+        return bitmaps.get(userId);
+    }
+
+    /**
+     * Method that stores a decoded avatar.
+     * @param userId String type ID of the user.
+     * @param bitmap Decoded Bitmap profile image.
+     */
+    public void put(String userId, Bitmap bitmap) {
+        if (userId != null && bitmap != null) {
+            bitmaps.put(userId, bitmap);
+        }
+    }
+
+    /**
+     * Method that drops the decoded avatar of a user, used when the user changed the image.
+     * @param userId String type ID of the user.
+     */
+    public void remove(String userId) {
+        if (userId != null) {
+            bitmaps.remove(userId);
+        }
+    }
+
+    /**
+     * Method that decodes an encoded avatar and stores it, unless it is already cached.
+     * @param userId String type ID of the user.
+     * @param encodedImage Base64 String profile image from the database.
+     * @return Returns the cached or decoded Bitmap, null if the image can not be decoded.
+     */
+    public Bitmap putEncoded(String userId, String encodedImage) {
+        Bitmap bitmap = get(userId);
+        if (bitmap == null) {
+            bitmap = decode(encodedImage);
+            put(userId, bitmap);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Method that returns the rendered placeholder of an avatar, rendering it on first use. It is
+     * small enough to render while binding a row.
+     * @param placeholder String type placeholder of the avatar, may be null.
+     * @return Returns the placeholder Bitmap, null without a valid placeholder.
+     */
+    public Bitmap getPlaceholder(String placeholder) {
+        if (placeholder == null) {
+            return null;
+        }
+        Bitmap bitmap = placeholders.get(placeholder);
+        if (bitmap == null) {
+            bitmap = AvatarPlaceholder.render(placeholder);
+            if (bitmap != null) {
+                placeholders.put(placeholder, bitmap);
+            }
+        }
+        return bitmap;
+    }
+
+    /**
+     * Method that decodes an encoded avatar in the background and delivers it to the listener on
+     * the main thread, used when the encoded image is already at hand. Cached avatars are
+     * delivered immediately, and concurrent requests for the same user share one decode.
+     * @param userId String type ID of the user.
+     * @param encodedImage Base64 String profile image, may be null.
+     * @param listener AvatarListener to be called with the result.
+     */
+    public void loadEncoded(String userId, String encodedImage, AvatarListener listener) {
+        Bitmap cached = get(userId);
+        if (cached != null || userId == null || encodedImage == null) {
+            listener.onAvatarLoaded(userId, cached);
+            return;
+        }
+        // Joining an existing decode or fetch
+        List<AvatarListener> listeners = pendingLoads.get(userId);
+        if (listeners != null) {
+            listeners.add(listener);
+            return;
+        }
+        listeners = new ArrayList<>();
+        listeners.add(listener);
+        pendingLoads.put(userId, listeners);
+        decodeExecutor.execute(() -> {
+            Bitmap bitmap = decode(encodedImage);
+            mainHandler.post(() -> deliver(userId, bitmap));
+        });
+    }
+
+    /**
+     * Method that delivers the avatar of a user to the listener on the main thread. Cached avatars
+     * are delivered immediately, others are fetched from the database and decoded in the
+     * background. Concurrent requests for the same user share one fetch. While media downloads
+     * are deferred, an avatar missing from the local cache is delivered as null.
+     * @param userId String type ID of the user.
+     * @param listener AvatarListener to be called with the result.
+     */
+    public void load(String userId, AvatarListener listener) {
+        Bitmap cached = get(userId);
+        if (cached != null || userId == null) {
+            listener.onAvatarLoaded(userId, cached);
+            return;
+        }
+        // Joining an existing fetch
+        List<AvatarListener> listeners = pendingLoads.get(userId);
+        if (listeners != null) {
+            listeners.add(listener);
+            return;
+        }
+        listeners = new ArrayList<>();
+        listeners.add(listener);
+        pendingLoads.put(userId, listeners);
+
+        boolean isDeferred = SyncPolicy.getInstance().shouldDeferMediaDownloads();
+        FirestoreAccounting.getInstance().get(FirebaseFirestore.getInstance()
+                        .collection(Constants.KEY_COLLECTION_USERS)
+                        .document(userId), isDeferred ? Source.CACHE : Source.DEFAULT, "users.avatar")
+                .addOnCompleteListener(task -> {
+                    String encodedImage = task.isSuccessful() && task.getResult() != null
+                            ? task.getResult().getString(Constants.KEY_IMAGE) : null;
+                    if (encodedImage == null && isDeferred) {
+                        deferredUserIds.add(userId);
+                    }
+                    // Decoding off the main thread
+                    decodeExecutor.execute(() -> {
+                        Bitmap bitmap = decode(encodedImage);
+                        mainHandler.post(() -> deliver(userId, bitmap));
+                    });
+                });
+    }
+
+    /**
+     * Action listener that fetches the deferred avatars into the cache once the link allows
+     * media downloads again. They are shown the next time a page binds them.
+     * @param syncPolicy SyncPolicy with the new decisions.
+     */
+    @Override
+    public void onSyncPolicyChanged(SyncPolicy syncPolicy) {
+        if (syncPolicy.shouldDeferMediaDownloads() || deferredUserIds.isEmpty()) {
+            return;
+        }
+        for (String userId : new ArrayList<>(deferredUserIds)) {
+            deferredUserIds.remove(userId);
+            load(userId, (loadedUserId, bitmap) -> { });
+        }
+    }
+
+    /**
+     * Helper method that caches a loaded avatar and notifies the waiting listeners.
+     * @param userId String type ID of the user.
+     * @param bitmap Decoded Bitmap profile image.
+     */
+    private void deliver(String userId, Bitmap bitmap) {
+        put(userId, bitmap);
+        List<AvatarListener> listeners = pendingLoads.remove(userId);
+        if (listeners != null) {
+            for (AvatarListener listener : listeners) {
+                listener.onAvatarLoaded(userId, bitmap);
+            }
+        }
+    }
+
+    /**
+     * Method that decodes a Base64 profile image String.
+     * @param encodedImage String type encoded profile image.
+     * @return Returns the Bitmap or null if there is nothing to decode.
+     */
+    public static Bitmap decode(String encodedImage) {
+        if (encodedImage == null) {
+            return null;
+        }
+        // Turning into byte array
+        byte[] bytes = Base64.decode(encodedImage, Base64.DEFAULT);
+        // Producing Bitmap
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    }
+}
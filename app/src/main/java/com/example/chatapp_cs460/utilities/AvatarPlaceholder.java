@@ -0,0 +1,272 @@
+/**
+ * A class that encodes a profile image into a tiny placeholder, and renders it back. The
+ * placeholder is a BlurHash string: the average color and the strongest color waves of the image,
+ * base 83 encoded into 28 characters. It is stored next to the full image, so lists can paint a
+ * blurred likeness of every avatar on their first frame while the full images decode.
+ */
+package com.example.chatapp_cs460.utilities;
+
+import android.graphics.Bitmap;
+
+public class AvatarPlaceholder {
+    /**
+     * Number of color waves kept across and down the image.
+     */
+    static final int COMPONENTS_X = 4;
+    static final int COMPONENTS_Y = 3;
+
+    /**
+     * Size images are scaled to before encoding, and the size placeholders are rendered at. The
+     * image view stretches the rendered placeholder, which is blurry by design.
+     */
+    private static final int ENCODE_SIZE = 32;
+    public static final int RENDER_SIZE = 16;
+
+    /**
+     * Digits of the base 83 encoding.
+     */
+    private static final String DIGITS =
+            "0123456789ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz#$%*+,-.:;=?@[]^_{|}~";
+
+    /**
+     * Private constructor, the class only has static methods.
+     */
+    private AvatarPlaceholder() {
+    }
+
+    /**
+     * Method that encodes the placeholder of a profile image.
+     * @param bitmap Bitmap profile image.
+     * @return Returns the placeholder String.
+     */
+    public static String encode(Bitmap bitmap) {
+        Bitmap scaled = Bitmap.createScaledBitmap(bitmap, ENCODE_SIZE, ENCODE_SIZE, true);
+        int[] pixels = new int[ENCODE_SIZE * ENCODE_SIZE];
+        scaled.getPixels(pixels, 0, ENCODE_SIZE, 0, 0, ENCODE_SIZE, ENCODE_SIZE);
+        if (scaled != bitmap) {
+            scaled.recycle();
+        }
+        return encode(pixels, ENCODE_SIZE, ENCODE_SIZE);
+    }
+
+    /**
+     * Method that renders a placeholder into a small bitmap.
+     * @param placeholder String type placeholder, may be null.
+     * @return Returns the Bitmap, null if the placeholder is missing or invalid.
+     */
+    public static Bitmap render(String placeholder) {
+        int[] pixels = decode(placeholder, RENDER_SIZE, RENDER_SIZE);
+        if (pixels == null) {
+            return null;
+        }
+        return Bitmap.createBitmap(pixels, RENDER_SIZE, RENDER_SIZE, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Method that encodes the placeholder of an image given as pixels.
+     * @param pixels ARGB colors of the image, row by row.
+     * @param width Width of the image.
+     * @param height Height of the image.
+     * @return Returns the placeholder String.
+     */
+    static String encode(int[] pixels, int width, int height) {
+        float[][] factors = new float[COMPONENTS_X * COMPONENTS_Y][];
+        for (int j = 0; j < COMPONENTS_Y; j++) {
+            for (int i = 0; i < COMPONENTS_X; i++) {
+                factors[j * COMPONENTS_X + i] = getFactor(pixels, width, height, i, j);
+            }
+        }
+        StringBuilder placeholder = new StringBuilder();
+        appendBase83(placeholder, (COMPONENTS_X - 1) + (COMPONENTS_Y - 1) * 9, 1);
+
+        // The waves are scaled by the strongest one
+        float maximum = 0;
+        for (int k = 1; k < factors.length; k++) {
+            for (float value : factors[k]) {
+                maximum = Math.max(maximum, Math.abs(value));
+            }
+        }
+        int quantisedMaximum = (int) Math.max(0, Math.min(82, Math.floor(maximum * 166 - 0.5)));
+        float scale = (quantisedMaximum + 1) / 166f;
+        appendBase83(placeholder, quantisedMaximum, 1);
+
+        float[] average = factors[0];
+        appendBase83(placeholder, (toSrgb(average[0]) << 16) + (toSrgb(average[1]) << 8) + toSrgb(average[2]), 4);
+        for (int k = 1; k < factors.length; k++) {
+            float[] factor = factors[k];
+            appendBase83(placeholder, quantise(factor[0], scale) * 19 * 19
+                    + quantise(factor[1], scale) * 19 + quantise(factor[2], scale), 2);
+        }
+        return placeholder.toString();
+    }
+
+    /**
+     * Method that renders a placeholder into pixels.
+     * @param placeholder String type placeholder, may be null.
+     * @param width Width of the rendered image.
+     * @param height Height of the rendered image.
+     * @return Returns the opaque ARGB colors row by row, null if the placeholder is missing or
+     * invalid.
+     */
+    static int[] decode(String placeholder, int width, int height) {
+        if (placeholder == null || placeholder.length() < 6) {
+            return null;
+        }
+        for (int i = 0; i < placeholder.length(); i++) {
+            if (DIGITS.indexOf(placeholder.charAt(i)) < 0) {
+                return null;
+            }
+        }
+        int sizeFlag = decodeBase83(placeholder, 0, 1);
+        int componentsX = sizeFlag % 9 + 1;
+        int componentsY = sizeFlag / 9 + 1;
+        if (placeholder.length() != 4 + 2 * componentsX * componentsY) {
+            return null;
+        }
+        float scale = (decodeBase83(placeholder, 1, 1) + 1) / 166f;
+        float[][] colors = new float[componentsX * componentsY][];
+        int average = decodeBase83(placeholder, 2, 4);
+        colors[0] = new float[]{toLinear(average >> 16), toLinear((average >> 8) & 255), toLinear(average & 255)};
+        for (int k = 1; k < colors.length; k++) {
+            int value = decodeBase83(placeholder, 4 + k * 2, 2);
+            colors[k] = new float[]{dequantise(value / (19 * 19), scale),
+                    dequantise((value / 19) % 19, scale), dequantise(value % 19, scale)};
+        }
+
+        // The cosines only depend on the row or column, so they are computed once. Like the
+        // encoder, pixels are sampled at their centers, so a flat image has no waves at all
+        double[] cosinesX = new double[width * componentsX];
+        for (int x = 0; x < width; x++) {
+            for (int i = 0; i < componentsX; i++) {
+                cosinesX[x * componentsX + i] = Math.cos(Math.PI * (x + 0.5) * i / width);
+            }
+        }
+        double[] cosinesY = new double[height * componentsY];
+        for (int y = 0; y < height; y++) {
+            for (int j = 0; j < componentsY; j++) {
+                cosinesY[y * componentsY + j] = Math.cos(Math.PI * (y + 0.5) * j / height);
+            }
+        }
+        int[] pixels = new int[width * height];
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                float r = 0, g = 0, b = 0;
+                for (int j = 0; j < componentsY; j++) {
+                    for (int i = 0; i < componentsX; i++) {
+                        float basis = (float) (cosinesX[x * componentsX + i] * cosinesY[y * componentsY + j]);
+                        float[] color = colors[j * componentsX + i];
+                        r += color[0] * basis;
+                        g += color[1] * basis;
+                        b += color[2] * basis;
+                    }
+                }
+                pixels[y * width + x] = 0xff000000 | (toSrgb(r) << 16) | (toSrgb(g) << 8) | toSrgb(b);
+            }
+        }
+        return pixels;
+    }
+
+    /**
+     * Helper method that measures how much of one color wave the image has.
+     * @param pixels ARGB colors of the image.
+     * @param width Width of the image.
+     * @param height Height of the image.
+     * @param i Frequency of the wave across.
+     * @param j Frequency of the wave down.
+     * @return Returns the linear red, green and blue amounts.
+     */
+    private static float[] getFactor(int[] pixels, int width, int height, int i, int j) {
+        float r = 0, g = 0, b = 0;
+        for (int y = 0; y < height; y++) {
+            double cosineY = Math.cos(Math.PI * j * (y + 0.5) / height);
+            for (int x = 0; x < width; x++) {
+                float basis = (float) (Math.cos(Math.PI * i * (x + 0.5) / width) * cosineY);
+                int pixel = pixels[y * width + x];
+                r += basis * toLinear((pixel >> 16) & 255);
+                g += basis * toLinear((pixel >> 8) & 255);
+                b += basis * toLinear(pixel & 255);
+            }
+        }
+        float normalisation = (i == 0 && j == 0 ? 1f : 2f) / (width * height);
+        return new float[]{r * normalisation, g * normalisation, b * normalisation};
+    }
+
+    /**
+     * Helper method that turns a wave amount into one of 19 steps.
+     * @param value Linear amount.
+     * @param scale Amount of the strongest wave.
+     * @return Returns the step, 0 to 18.
+     */
+    private static int quantise(float value, float scale) {
+        return (int) Math.max(0, Math.min(18, Math.floor(signedPow(value / scale, 0.5f) * 9 + 9.5)));
+    }
+
+    /**
+     * Helper method that turns a step back into a wave amount.
+     * @param step Step, 0 to 18.
+     * @param scale Amount of the strongest wave.
+     * @return Returns the linear amount.
+     */
+    private static float dequantise(int step, float scale) {
+        return signedPow((step - 9) / 9f, 2f) * scale;
+    }
+
+    /**
+     * Helper method that raises the size of a value to a power, keeping its sign.
+     * @param value Value to be raised.
+     * @param exponent Power.
+     * @return Returns the signed result.
+     */
+    private static float signedPow(float value, float exponent) {
+        return Math.copySign((float) Math.pow(Math.abs(value), exponent), value);
+    }
+
+    /**
+     * Helper method that turns an sRGB channel into linear light.
+     * @param value Channel, 0 to 255.
+     * @return Returns the linear value, 0 to 1.
+     */
+    private static float toLinear(int value) {
+        float v = value / 255f;
+        return v <= 0.04045f ? v / 12.92f : (float) Math.pow((v + 0.055f) / 1.055f, 2.4f);
+    }
+
+    /**
+     * Helper method that turns linear light into an sRGB channel.
+     * @param value Linear value.
+     * @return Returns the channel, 0 to 255.
+     */
+    private static int toSrgb(float value) {
+        float v = Math.max(0, Math.min(1, value));
+        double srgb = v <= 0.0031308f ? v * 12.92f : 1.055f * Math.pow(v, 1 / 2.4f) - 0.055f;
+        return (int) Math.min(255, Math.round(srgb * 255));
+    }
+
+    /**
+     * Helper method that appends a number in base 83.
+     * @param builder StringBuilder of the placeholder.
+     * @param value Number to be appended.
+     * @param length Number of digits.
+     */
+    private static void appendBase83(StringBuilder builder, int value, int length) {
+        for (int i = 1; i <= length; i++) {
+            int divisor = (int) Math.pow(83, length - i);
+            builder.append(DIGITS.charAt((value / divisor) % 83));
+        }
+    }
+
+    /**
+     * Helper method that reads a number in base 83.
+     * @param placeholder String type placeholder.
+     * @param start Index of the first digit.
+     * @param length Number of digits.
+     * @return Returns the number.
+     */
+    private static int decodeBase83(String placeholder, int start, int length) {
+        int value = 0;
+        for (int i = start; i < start + length; i++) {
+            value = value * 83 + DIGITS.indexOf(placeholder.charAt(i));
+        }
+        return value;
+    }
+}
@@ -0,0 +1,42 @@
+/**
+ * An interface class that reports the state of the network link to the sync policy. The system
+ * implementation reads the ConnectivityManager, tests provide simulated link conditions.
+ */
+package com.example.chatapp_cs460.utilities;
+
+public interface ConnectivityProvider {
+    /**
+     * Method that tells whether a network is available.
+     * @return Returns true when the device is online.
+     */
+    boolean isConnected();
+
+    /**
+     * Method that tells whether the network charges for data.
+     * @return Returns true for metered networks such as mobile data or a tethered hotspot.
+     */
+    boolean isMetered();
+
+    /**
+     * Method that returns the estimated downstream bandwidth of the network.
+     * @return Returns the bandwidth in kbps, 0 when it is unknown.
+     */
+    int getDownstreamKbps();
+
+    /**
+     * Method that tells whether the system data saver restricts the app in the background.
+     * @return Returns true when the system data saver is on for the app.
+     */
+    boolean isDataSaverRestricted();
+
+    /**
+     * Method that starts reporting changes of the link.
+     * @param onChanged Runnable to be called on the main thread when the link changes.
+     */
+    void start(Runnable onChanged);
+
+    /**
+     * Method that stops reporting changes of the link.
+     */
+    void stop();
+}
@@ -16,15 +16,68 @@ public class Constants {
     public static final String KEY_IS_SIGNED_IN = "isSignedIn";
     public static final String KEY_PREFERENCE_NAME = "chatAppPreference";
     public static final String KEY_IMAGE = "image";
+    public static final String KEY_IMAGE_PLACEHOLDER = "imagePlaceholder";
     public static final String KEY_FCM_TOKEN = "fcmToken";
+    public static final String KEY_UPDATED_AT = "updatedAt";
+    public static final String KEY_DELETED = "deleted";
+    public static final String ASSET_DIRECTORY_SNAPSHOT = "directory_snapshot.json";
 
     /**
      * Chat Collection Keys
      */
-    public static final String KEY_USER = "user";
     public static final String KEY_COLLECTION_CHAT = "chat";
     public static final String KEY_SENDER_ID = "senderId";
     public static final String KEY_RECEIVER_ID = "receiverId";
     public static final String KEY_MESSAGE = "message";
     public static final String KEY_TIMESTAMP = "timestamp";
+    public static final String KEY_EDITED = "edited";
+    public static final String KEY_REACTIONS = "reactions";
+    public static final String KEY_REACTED_BY = "reactedBy";
+
+    /**
+     * Conversation Collection Keys
+     */
+    public static final String KEY_COLLECTION_CONVERSATIONS = "conversations";
+    public static final String KEY_COLLECTION_MESSAGES = "messages";
+    public static final String KEY_CONVERSATION_ID = "conversationId";
+    public static final String KEY_CONVERSATION_NAME = "conversationName";
+    public static final String KEY_MEMBERS = "members";
+    public static final String KEY_CREATED_BY = "createdBy";
+    public static final String KEY_LAST_MESSAGE = "lastMessage";
+    public static final String KEY_LAST_SENDER_ID = "lastSenderId";
+
+    /**
+     * Chat Archive Collection Keys
+     */
+    public static final String KEY_COLLECTION_CHAT_ARCHIVE = "chatArchive";
+    public static final String KEY_CONVERSATION_KEY = "conversationKey";
+    public static final String KEY_BUCKET_START = "bucketStart";
+    public static final String KEY_MESSAGES = "messages";
+    public static final String KEY_MESSAGE_ID = "messageId";
+    public static final String KEY_PARTICIPANTS = "participants";
+
+    /**
+     * Cleared Conversation Collection Keys, kept under the user document
+     */
+    public static final String KEY_COLLECTION_CLEARED = "cleared";
+    public static final String KEY_CLEARED_BEFORE = "clearedBefore";
+
+    /**
+     * Whether this client compacts its older sent messages into archive buckets.
+     * Archived history is always read, whether or not compaction is enabled.
+     */
+    public static final boolean MESSAGE_ARCHIVE_ENABLED = true;
+
+    /**
+     * End-to-end Encryption Keys
+     */
+    public static final String KEY_CIPHERTEXT = "ciphertext";
+    public static final String KEY_PUBLIC_KEY = "publicKey";
+    public static final String KEY_PUBLIC_KEYS = "publicKeys";
+
+    /**
+     * Whether this client encrypts the messages it sends to users that published a public key.
+     * Encrypted messages are always decrypted, whether or not sending encrypted is enabled.
+     */
+    public static final boolean MESSAGE_ENCRYPTION_ENABLED = true;
 }
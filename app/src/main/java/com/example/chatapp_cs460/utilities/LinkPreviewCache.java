@@ -0,0 +1,363 @@
+/**
+ * A process-wide cache of link previews. Previews are kept in memory and in files in the cache
+ * folder of the app, so a link posted in many chats, or seen again after a restart, is fetched
+ * once until its preview expires. Concurrent requests for the same link share one fetch. Links
+ * that could not be previewed are remembered for a shorter time, and while the sync policy defers
+ * media downloads only previews already on disk are shown.
+ */
+package com.example.chatapp_cs460.utilities;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import com.example.chatapp_cs460.listeners.LinkPreviewListener;
+import com.example.chatapp_cs460.models.LinkPreview;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class LinkPreviewCache {
+    /**
+     * Number of previews kept in memory.
+     */
+    private static final int MAX_MEMORY_ENTRIES = 256;
+
+    /**
+     * Time a preview is kept, and the shorter time a link that could not be previewed is kept.
+     */
+    static final long PREVIEW_TTL_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    static final long FAILED_TTL_MILLIS = 60L * 60 * 1000;
+
+    /**
+     * Number of pages fetched at the same time.
+     */
+    private static final int MAX_CONCURRENT_FETCHES = 4;
+
+    /**
+     * Folder of the preview files in the cache folder, and the version of their format.
+     */
+    private static final String DIRECTORY_NAME = "link_previews";
+    private static final int FILE_VERSION = 1;
+
+    /**
+     * Links a preview is made of, the first one in a message is previewed.
+     */
+    private static final Pattern URL = Pattern.compile("https?://[^\\s<>\"]+", Pattern.CASE_INSENSITIVE);
+
+    /**
+     * Single shared instance.
+     */
+    private static LinkPreviewCache instance;
+
+    /**
+     * Previews in memory keyed by URL, pending loads guarded by the map, and the fetching setup.
+     */
+    private final LruCache<String, Entry> previews = new LruCache<>(MAX_MEMORY_ENTRIES);
+    private final Map<String, List<LinkPreviewListener>> pendingLoads = new HashMap<>();
+    private final LinkPreviewFetcher fetcher;
+    private final Executor fetchExecutor;
+    private final Executor callbackExecutor;
+    private final boolean followsSyncPolicy;
+    private volatile File directory;
+
+    /**
+     * Preview in memory with the time it expires.
+     */
+    private static class Entry {
+        final LinkPreview linkPreview;
+        final long expiresAt;
+
+        Entry(LinkPreview linkPreview, long expiresAt) {
+            this.linkPreview = linkPreview;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * Constructor for the LinkPreviewCache, used directly by tests with their own fetcher,
+     * threads and folder.
+     * @param fetcher LinkPreviewFetcher of the pages.
+     * @param fetchExecutor Executor the disk reads and fetches run on.
+     * @param callbackExecutor Executor the listeners are called on.
+     * @param directory Folder of the preview files, null to keep previews in memory only.
+     * @param followsSyncPolicy Whether fetches wait while the sync policy defers media downloads.
+     */
+    LinkPreviewCache(LinkPreviewFetcher fetcher, Executor fetchExecutor, Executor callbackExecutor,
+                     File directory, boolean followsSyncPolicy) {
+        this.fetcher = fetcher;
+        this.fetchExecutor = fetchExecutor;
+        this.callbackExecutor = callbackExecutor;
+        this.directory = directory;
+        this.followsSyncPolicy = followsSyncPolicy;
+    }
+
+    /**
+     * Method that returns the shared cache, creating it on first use. Until start() is called it
+     * keeps previews in memory only.
+     * @return Returns the LinkPreviewCache instance.
+     */
+    public static synchronized LinkPreviewCache getInstance() {
+        if (instance == null) {
+            Handler mainHandler = new Handler(Looper.getMainLooper());
+            instance = new LinkPreviewCache(new LinkPreviewFetcher(LinkPreviewFetcher.MAX_HEAD_BYTES),
+                    Executors.newFixedThreadPool(MAX_CONCURRENT_FETCHES), mainHandler::post, null, true);
+        }
+        return instance;
+    }
+
+    /**
+     * Method that starts keeping previews on disk, in the cache folder of the app.
+     * @param context Context class object.
+     */
+    public void start(Context context) {
+        if (directory == null) {
+            directory = new File(context.getCacheDir(), DIRECTORY_NAME);
+        }
+    }
+
+    /**
+     * Method that finds the link of a message that is previewed.
+     * @param message String type text of a message, may be null.
+     * @return Returns the first http or https URL of the message, null if it has none.
+     */
+    public static String findUrl(String message) {
+        if (message == null) {
+            return null;
+        }
+        Matcher matcher = URL.matcher(message);
+        if (!matcher.find()) {
+            return null;
+        }
+        // Punctuation that ends a sentence is not part of the link
+        String url = matcher.group();
+        int end = url.length();
+        while (end > 0 && ".,;:!?)]}'".indexOf(url.charAt(end - 1)) >= 0) {
+            end--;
+        }
+        return url.substring(0, end);
+    }
+
+    /**
+     * Method that returns a preview already in memory.
+     * @param url String type URL of the link.
+     * @return Returns the LinkPreview, empty for links that could not be previewed, or null if it
+     * is not in memory.
+     */
+    public LinkPreview get(String url) {
+        if (url == null) {
+            return null;
+        }
+        Entry entry = previews.get(url);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.expiresAt <= currentTimeMillis()) {
+            previews.remove(url);
+            return null;
+        }
+        return entry.linkPreview;
+    }
+
+    /**
+     * Method that delivers the preview of a link to the listener. Previews in memory are delivered
+     * immediately, others are read from disk or fetched in the background and delivered on the
+     * callback thread. While media downloads are deferred, a preview missing from disk is
+     * delivered as null.
+     * @param url String type URL of the link.
+     * @param listener LinkPreviewListener to be called with the result.
+     */
+    public void load(String url, LinkPreviewListener listener) {
+        LinkPreview cached = get(url);
+        if (cached != null || url == null) {
+            listener.onLinkPreviewLoaded(url, cached);
+            return;
+        }
+        synchronized (pendingLoads) {
+            // Joining an existing fetch
+            List<LinkPreviewListener> listeners = pendingLoads.get(url);
+            if (listeners != null) {
+                listeners.add(listener);
+                return;
+            }
+            listeners = new ArrayList<>();
+            listeners.add(listener);
+            pendingLoads.put(url, listeners);
+        }
+        fetchExecutor.execute(() -> deliver(url, loadInBackground(url)));
+    }
+
+    /**
+     * Helper method that reads a preview from disk, or fetches and stores it.
+     * @param url String type URL of the link.
+     * @return Returns the LinkPreview, null if it was neither on disk nor could be fetched now.
+     */
+    private LinkPreview loadInBackground(String url) {
+        Entry entry = readFile(url);
+        if (entry == null) {
+            if (followsSyncPolicy && SyncPolicy.getInstance().shouldDeferMediaDownloads()) {
+                return null;
+            }
+            try {
+                LinkPreview linkPreview = fetcher.fetch(url);
+                entry = new Entry(linkPreview, currentTimeMillis()
+                        + (linkPreview.isEmpty() ? FAILED_TTL_MILLIS : PREVIEW_TTL_MILLIS));
+            } catch (IOException | RuntimeException e) {
+                // Pages that can not be read are shown by their host until the failure expires
+                entry = new Entry(new LinkPreview(url, null, null, LinkPreviewFetcher.getHost(url)),
+                        currentTimeMillis() + FAILED_TTL_MILLIS);
+            }
+            writeFile(url, entry);
+        }
+        previews.put(url, entry);
+        return entry.linkPreview;
+    }
+
+    /**
+     * Helper method that hands a loaded preview to the listeners waiting for it.
+     * @param url String type URL of the link.
+     * @param linkPreview LinkPreview of the link, may be null.
+     */
+    private void deliver(String url, LinkPreview linkPreview) {
+        List<LinkPreviewListener> listeners;
+        synchronized (pendingLoads) {
+            listeners = pendingLoads.remove(url);
+        }
+        if (listeners == null) {
+            return;
+        }
+        callbackExecutor.execute(() -> {
+            for (LinkPreviewListener listener : listeners) {
+                listener.onLinkPreviewLoaded(url, linkPreview);
+            }
+        });
+    }
+
+    /**
+     * Helper method that reads the preview file of a link, deleting it once expired.
+     * @param url String type URL of the link.
+     * @return Returns the Entry, null if there is no current file.
+     */
+    private Entry readFile(String url) {
+        File file = getFile(url);
+        if (file == null || !file.exists()) {
+            return null;
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            // Files of an older format, an expired preview, or a hash shared with another link
+            if (input.readInt() != FILE_VERSION) {
+                file.delete();
+                return null;
+            }
+            long expiresAt = input.readLong();
+            if (expiresAt <= currentTimeMillis()
+                    || !url.equals(input.readUTF())) {
+                file.delete();
+                return null;
+            }
+            return new Entry(new LinkPreview(url, readString(input), readString(input), readString(input)),
+                    expiresAt);
+        } catch (IOException e) {
+            file.delete();
+            return null;
+        }
+    }
+
+    /**
+     * Helper method that writes the preview file of a link, through a temporary file so readers
+     * never see half of it.
+     * @param url String type URL of the link.
+     * @param entry Entry to be written.
+     */
+    private void writeFile(String url, Entry entry) {
+        File file = getFile(url);
+        if (file == null || (!file.getParentFile().exists() && !file.getParentFile().mkdirs())) {
+            return;
+        }
+        File temporary = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)))) {
+            output.writeInt(FILE_VERSION);
+            output.writeLong(entry.expiresAt);
+            output.writeUTF(url);
+            writeString(output, entry.linkPreview.title);
+            writeString(output, entry.linkPreview.description);
+            writeString(output, entry.linkPreview.siteName);
+        } catch (IOException e) {
+            // The preview stays in memory and is fetched again next run
+            temporary.delete();
+            return;
+        }
+        if (!temporary.renameTo(file)) {
+            temporary.delete();
+        }
+    }
+
+    /**
+     * Helper method that writes a String that may be null.
+     * @param output DataOutputStream of the file.
+     * @param value String to be written, may be null.
+     */
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    /**
+     * Helper method that reads a String written by writeString().
+     * @param input DataInputStream of the file.
+     * @return Returns the String, may be null.
+     */
+    private static String readString(DataInputStream input) throws IOException {
+        return input.readBoolean() ? input.readUTF() : null;
+    }
+
+    /**
+     * Helper method that names the preview file of a link after the hash of its URL.
+     * @param url String type URL of the link.
+     * @return Returns the File, null without a folder.
+     */
+    private File getFile(String url) {
+        File folder = directory;
+        if (folder == null) {
+            return null;
+        }
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-1").digest(url.getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(hash.length * 2);
+            for (byte b : hash) {
+                name.append(String.format("%02x", b));
+            }
+            return new File(folder, name.toString());
+        } catch (NoSuchAlgorithmException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Method that returns the current time, replaced by tests to expire previews.
+     * @return Returns the time in milliseconds.
+     */
+    long currentTimeMillis() {
+        return System.currentTimeMillis();
+    }
+}
@@ -0,0 +1,259 @@
+/**
+ * A class that builds the preview of a link from the head of the linked page. Only the start of
+ * the page is downloaded: reading stops at the end of the head, or at a byte cap for pages whose
+ * head never ends, so previewing a link to a large page or file costs a few kilobytes.
+ */
+package com.example.chatapp_cs460.utilities;
+
+import com.example.chatapp_cs460.models.LinkPreview;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+public class LinkPreviewFetcher {
+    /**
+     * Most bytes of a page that are read, enough for the head of nearly every page.
+     */
+    public static final int MAX_HEAD_BYTES = 32 * 1024;
+
+    /**
+     * Connect and read timeouts, and the longest title or description kept.
+     */
+    private static final int TIMEOUT_MILLIS = 5000;
+    private static final int MAX_TEXT_LENGTH = 300;
+
+    /**
+     * Patterns of the parts of the head a preview is built from.
+     */
+    private static final Pattern HEAD_END = Pattern.compile("</head|<body", Pattern.CASE_INSENSITIVE);
+    private static final Pattern META_TAG = Pattern.compile("<meta\\s[^>]*>", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ATTRIBUTE = Pattern.compile(
+            "([a-zA-Z:_-]+)\\s*=\\s*(\"([^\"]*)\"|'([^']*)'|([^\\s>]+))");
+    private static final Pattern TITLE = Pattern.compile("<title[^>]*>(.*?)</title",
+            Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+    private static final Pattern CHARSET = Pattern.compile("charset=[\"']?([\\w-]+)", Pattern.CASE_INSENSITIVE);
+    private static final Pattern ENTITY = Pattern.compile("&(#x[0-9a-fA-F]+|#[0-9]+|amp|lt|gt|quot|apos|nbsp);");
+
+    /**
+     * Byte cap of the fetcher.
+     */
+    private final int maxHeadBytes;
+
+    /**
+     * Constructor for the LinkPreviewFetcher.
+     * @param maxHeadBytes Most bytes read from a page.
+     */
+    public LinkPreviewFetcher(int maxHeadBytes) {
+        this.maxHeadBytes = maxHeadBytes;
+    }
+
+    /**
+     * Method that downloads the head of a page and builds its preview. Pages that can not be
+     * previewed, such as images or missing pages, give an empty preview.
+     * @param url String type http or https URL of the page.
+     * @return Returns the LinkPreview, empty if the page has no title.
+     * @throws IOException If the page could not be reached, or the server failed.
+     */
+    public LinkPreview fetch(String url) throws IOException {
+        HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setInstanceFollowRedirects(true);
+            connection.setRequestProperty("Accept", "text/html");
+            // Servers that support ranges send no more than the cap
+            connection.setRequestProperty("Range", "bytes=0-" + (maxHeadBytes - 1));
+            int status = connection.getResponseCode();
+            if (status >= 500) {
+                throw new IOException("Server failed with " + status);
+            }
+            String contentType = connection.getContentType();
+            if ((status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_PARTIAL)
+                    || (contentType != null && !contentType.toLowerCase(Locale.US).contains("html"))) {
+                return new LinkPreview(url, null, null, getHost(url));
+            }
+            String head;
+            try (InputStream input = connection.getInputStream()) {
+                head = readHead(input, getCharset(contentType));
+            }
+            return parse(url, head);
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Helper method that reads a page until the end of its head or the byte cap.
+     * @param input InputStream of the page.
+     * @param charset Charset named by the server, null to look for one in the head.
+     * @return Returns the head as a String.
+     */
+    private String readHead(InputStream input, Charset charset) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while (bytes.size() < maxHeadBytes
+                && (read = input.read(buffer, 0, Math.min(buffer.length, maxHeadBytes - bytes.size()))) != -1) {
+            bytes.write(buffer, 0, read);
+            // Markup is ASCII in every charset a page is likely to use
+            if (HEAD_END.matcher(bytes.toString("ISO-8859-1")).find()) {
+                break;
+            }
+        }
+        if (charset == null) {
+            Matcher matcher = CHARSET.matcher(bytes.toString("ISO-8859-1"));
+            charset = matcher.find() ? toCharset(matcher.group(1)) : null;
+        }
+        return new String(bytes.toByteArray(), charset != null ? charset : StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Method that builds a preview from the head of a page, preferring the Open Graph tags over
+     * the title and description of the page.
+     * @param url String type URL of the page.
+     * @param head String type head of the page.
+     * @return Returns the LinkPreview.
+     */
+    static LinkPreview parse(String url, String head) {
+        Matcher end = HEAD_END.matcher(head);
+        if (end.find()) {
+            head = head.substring(0, end.start());
+        }
+        Map<String, String> meta = new HashMap<>();
+        Matcher tags = META_TAG.matcher(head);
+        while (tags.find()) {
+            String name = null;
+            String content = null;
+            Matcher attributes = ATTRIBUTE.matcher(tags.group());
+            while (attributes.find()) {
+                String key = attributes.group(1).toLowerCase(Locale.US);
+                String value = attributes.group(3) != null ? attributes.group(3)
+                        : attributes.group(4) != null ? attributes.group(4) : attributes.group(5);
+                if (key.equals("property") || key.equals("name")) {
+                    name = value.toLowerCase(Locale.US);
+                } else if (key.equals("content")) {
+                    content = value;
+                }
+            }
+            if (name != null && content != null && !meta.containsKey(name)) {
+                meta.put(name, content);
+            }
+        }
+        String title = first(meta.get("og:title"), meta.get("twitter:title"));
+        if (title == null) {
+            Matcher matcher = TITLE.matcher(head);
+            title = matcher.find() ? clean(matcher.group(1)) : null;
+        }
+        String description = first(meta.get("og:description"), meta.get("description"));
+        String siteName = first(meta.get("og:site_name"), getHost(url));
+        return new LinkPreview(url, title, description, siteName);
+    }
+
+    /**
+     * Helper method that picks the first usable text.
+     * @param preferred String type preferred text, may be null.
+     * @param fallback String type fallback text, may be null.
+     * @return Returns the cleaned text, null if neither has any.
+     */
+    private static String first(String preferred, String fallback) {
+        String text = clean(preferred);
+        return text != null ? text : clean(fallback);
+    }
+
+    /**
+     * Helper method that decodes the entities of a text, collapses its white space and shortens it.
+     * @param text String type text from the head.
+     * @return Returns the clean text, null if it is blank.
+     */
+    private static String clean(String text) {
+        if (text == null) {
+            return null;
+        }
+        Matcher matcher = ENTITY.matcher(text);
+        StringBuffer decoded = new StringBuffer();
+        while (matcher.find()) {
+            matcher.appendReplacement(decoded, Matcher.quoteReplacement(decodeEntity(matcher.group(1))));
+        }
+        matcher.appendTail(decoded);
+        String clean = decoded.toString().replaceAll("\\s+", " ").trim();
+        if (clean.isEmpty()) {
+            return null;
+        }
+        return clean.length() > MAX_TEXT_LENGTH ? clean.substring(0, MAX_TEXT_LENGTH - 1) + "\u2026" : clean;
+    }
+
+    /**
+     * Helper method that decodes one HTML entity.
+     * @param entity String type entity without its ampersand and semicolon.
+     * @return Returns the decoded text.
+     */
+    private static String decodeEntity(String entity) {
+        switch (entity) {
+            case "amp": return "&";
+            case "lt": return "<";
+            case "gt": return ">";
+            case "quot": return "\"";
+            case "apos": return "'";
+            case "nbsp": return " ";
+            default:
+                try {
+                    int codePoint = entity.startsWith("#x")
+                            ? Integer.parseInt(entity.substring(2), 16)
+                            : Integer.parseInt(entity.substring(1));
+                    return new String(Character.toChars(codePoint));
+                } catch (IllegalArgumentException e) {
+                    return "&" + entity + ";";
+                }
+        }
+    }
+
+    /**
+     * Helper method that reads the charset of a content type.
+     * @param contentType String type content type header, may be null.
+     * @return Returns the Charset, null if none is named or it is not supported.
+     */
+    private static Charset getCharset(String contentType) {
+        if (contentType == null) {
+            return null;
+        }
+        Matcher matcher = CHARSET.matcher(contentType);
+        return matcher.find() ? toCharset(matcher.group(1)) : null;
+    }
+
+    /**
+     * Helper method that looks up a charset by name.
+     * @param name String type name of the charset.
+     * @return Returns the Charset, null if it is not supported.
+     */
+    private static Charset toCharset(String name) {
+        try {
+            return Charset.forName(name);
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Helper method that returns the host of a URL without its www prefix.
+     * @param url String type URL.
+     * @return Returns the host, null if the URL has none.
+     */
+    static String getHost(String url) {
+        try {
+            String host = new URL(url).getHost();
+            return host.startsWith("www.") ? host.substring(4) : host;
+        } catch (IOException e) {
+            return null;
+        }
+    }
+}
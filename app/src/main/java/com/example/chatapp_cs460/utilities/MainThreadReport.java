@@ -0,0 +1,141 @@
+/**
+ * A class that collects what the main thread watchdog found: main thread tasks that ran longer
+ * than the threshold and disk or network access on the main thread. Every entry is attributed to
+ * the app class and method it was caught in, so tests and developers can ask for the entries of
+ * one method instead of reading stack traces.
+ */
+package com.example.chatapp_cs460.utilities;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+public class MainThreadReport {
+    /**
+     * Kind of the entries of slow tasks, violations use the name of the violation instead.
+     */
+    public static final String KIND_SLOW_TASK = "SlowTask";
+
+    /**
+     * Entry of the report.
+     */
+    public static class Entry {
+        public final String kind;
+        public final long durationMillis;
+        public final String attribution;
+        public final List<String> stack;
+
+        /**
+         * Constructor for the Entry.
+         * @param kind String type kind, KIND_SLOW_TASK or the name of a violation.
+         * @param durationMillis Duration of a slow task, 0 for violations.
+         * @param attribution String type app class and method, as Class.method.
+         * @param stack List of the stack frames the entry was attributed from.
+         */
+        public Entry(String kind, long durationMillis, String attribution, List<String> stack) {
+            this.kind = kind;
+            this.durationMillis = durationMillis;
+            this.attribution = attribution;
+            this.stack = stack;
+        }
+
+        /**
+         * Method that formats the entry as a tab separated line.
+         * @return Returns the line, without the stack.
+         */
+        @Override
+        public String toString() {
+            return kind + "\t" + durationMillis + "ms\t" + attribution;
+        }
+    }
+
+    /**
+     * Entries in the order they were recorded, guarded by the report.
+     */
+    private final List<Entry> entries = new ArrayList<>();
+
+    /**
+     * Method that adds an entry to the report.
+     * @param entry Entry to be added.
+     */
+    public synchronized void add(Entry entry) {
+        entries.add(entry);
+    }
+
+    /**
+     * Method that returns every entry of the report.
+     * @return Returns a copy of the entries.
+     */
+    public synchronized List<Entry> getEntries() {
+        return new ArrayList<>(entries);
+    }
+
+    /**
+     * Method that returns the slow tasks of the report.
+     * @return Returns the entries of slow tasks.
+     */
+    public synchronized List<Entry> getSlowTasks() {
+        List<Entry> slowTasks = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (KIND_SLOW_TASK.equals(entry.kind)) {
+                slowTasks.add(entry);
+            }
+        }
+        return slowTasks;
+    }
+
+    /**
+     * Method that returns the disk and network violations of the report.
+     * @return Returns the entries of violations.
+     */
+    public synchronized List<Entry> getViolations() {
+        List<Entry> violations = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (!KIND_SLOW_TASK.equals(entry.kind)) {
+                violations.add(entry);
+            }
+        }
+        return violations;
+    }
+
+    /**
+     * Method that returns the entries attributed to an app class or method.
+     * @param attribution String type simple class name, or class and method as Class.method.
+     * @return Returns the matching entries.
+     */
+    public synchronized List<Entry> getEntriesFrom(String attribution) {
+        List<Entry> matching = new ArrayList<>();
+        for (Entry entry : entries) {
+            if (entry.attribution.equals(attribution) || entry.attribution.startsWith(attribution + ".")) {
+                matching.add(entry);
+            }
+        }
+        return matching;
+    }
+
+    /**
+     * Method that removes every entry, used between test cases.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Method that writes the report, one line per entry followed by its stack.
+     * @param writer Writer of the report, left open.
+     * @throws IOException If the report can not be written.
+     */
+    public void writeTo(Writer writer) throws IOException {
+        for (Entry entry : getEntries()) {
+            writer.write(entry.toString());
+            writer.write('\n');
+            for (String frame : entry.stack) {
+                writer.write("\tat ");
+                writer.write(frame);
+                writer.write('\n');
+            }
+        }
+        writer.flush();
+    }
+}
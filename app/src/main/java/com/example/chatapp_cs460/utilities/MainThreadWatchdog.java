@@ -0,0 +1,306 @@
+/**
+ * A debug-only watchdog of the main thread. It turns on StrictMode disk and network detection and
+ * times every message the main looper dispatches. While a message runs, a background thread
+ * samples the main thread stack, and a message that runs longer than the threshold is recorded
+ * with its samples, attributed to the app method that shows up in most of them. Findings go to a
+ * MainThreadReport, and are appended to main_thread_report.txt in the files folder of the app.
+ * Release builds, which are not debuggable, never start it.
+ */
+package com.example.chatapp_cs460.utilities;
+
+import android.app.Application;
+import android.content.pm.ApplicationInfo;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.StrictMode;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+
+public class MainThreadWatchdog {
+    /**
+     * Main thread tasks longer than this are recorded, a few frames worth of stalled UI.
+     */
+    static final long SLOW_TASK_MILLIS = 100;
+
+    /**
+     * Time between stack samples of a running task, and the most samples kept per task.
+     */
+    static final long SAMPLE_INTERVAL_MILLIS = 20;
+    private static final int MAX_SAMPLES = 25;
+
+    /**
+     * Package of the app classes entries are attributed to, and the file of the report.
+     */
+    private static final String APP_PACKAGE = "com.example.chatapp_cs460.";
+    private static final String REPORT_FILE_NAME = "main_thread_report.txt";
+
+    /**
+     * Single shared instance.
+     */
+    private static MainThreadWatchdog instance;
+
+    /**
+     * Threshold and report of the watchdog.
+     */
+    private final long slowTaskMillis;
+    private final MainThreadReport report = new MainThreadReport();
+
+    /**
+     * The message being dispatched and the stack samples taken while it runs, guarded by the
+     * watchdog. A start time of -1 means the main looper is idle.
+     */
+    private long dispatchStart = -1;
+    private String dispatchTarget;
+    private final List<StackTraceElement[]> samples = new ArrayList<>();
+
+    /**
+     * Main thread, the sampling thread and the report file, set once started.
+     */
+    private Thread mainThread;
+    private Handler sampler;
+    private File reportFile;
+
+    /**
+     * Constructor for the MainThreadWatchdog, used directly by tests with their own threshold.
+     * @param slowTaskMillis Duration from which a main thread task is recorded.
+     */
+    MainThreadWatchdog(long slowTaskMillis) {
+        this.slowTaskMillis = slowTaskMillis;
+    }
+
+    /**
+     * Method that returns the shared watchdog, creating it on first use.
+     * @return Returns the MainThreadWatchdog instance.
+     */
+    public static synchronized MainThreadWatchdog getInstance() {
+        if (instance == null) {
+            instance = new MainThreadWatchdog(SLOW_TASK_MILLIS);
+        }
+        return instance;
+    }
+
+    /**
+     * Method that starts watching the main thread in debuggable builds. Calling it again, or in a
+     * release build, has no effect. Must be called on the main thread.
+     * @param application Application class object.
+     */
+    public void start(Application application) {
+        if (mainThread != null
+                || (application.getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) == 0) {
+            return;
+        }
+        mainThread = Looper.getMainLooper().getThread();
+        reportFile = new File(application.getFilesDir(), REPORT_FILE_NAME);
+        HandlerThread samplerThread = new HandlerThread("MainThreadWatchdog");
+        samplerThread.start();
+        sampler = new Handler(samplerThread.getLooper());
+
+        // Disk and network access on the main thread
+        StrictMode.ThreadPolicy.Builder policy = new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .detectNetwork();
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+            policy.penaltyListener(Executors.newSingleThreadExecutor(), violation ->
+                    onViolation(violation.getClass().getSimpleName(), violation.getStackTrace()));
+        } else {
+            policy.penaltyLog();
+        }
+        StrictMode.setThreadPolicy(policy.build());
+
+        // The looper logs a line before and after every message it dispatches
+        Looper.getMainLooper().setMessageLogging(line -> {
+            if (line.startsWith(">")) {
+                onDispatchStart(SystemClock.uptimeMillis(), line);
+                sampler.postDelayed(sampleRunnable, SAMPLE_INTERVAL_MILLIS);
+            } else if (line.startsWith("<")) {
+                sampler.removeCallbacks(sampleRunnable);
+                onDispatchEnd(SystemClock.uptimeMillis());
+            }
+        });
+    }
+
+    /**
+     * Sampling task that records the main thread stack while a message runs.
+     */
+    private final Runnable sampleRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (addSample(mainThread.getStackTrace())) {
+                sampler.postDelayed(this, SAMPLE_INTERVAL_MILLIS);
+            }
+        }
+    };
+
+    /**
+     * Method that returns the report of the watchdog.
+     * @return Returns the MainThreadReport.
+     */
+    public MainThreadReport getReport() {
+        return report;
+    }
+
+    /**
+     * Method that marks the start of a main thread task.
+     * @param now Uptime in milliseconds.
+     * @param target String type description of the task, used when no sample names an app method.
+     */
+    synchronized void onDispatchStart(long now, String target) {
+        dispatchStart = now;
+        dispatchTarget = target;
+        samples.clear();
+    }
+
+    /**
+     * Method that keeps a stack sample of the running main thread task.
+     * @param stack Stack of the main thread.
+     * @return Returns false when no task is running or enough samples were kept, to stop sampling.
+     */
+    synchronized boolean addSample(StackTraceElement[] stack) {
+        if (dispatchStart < 0 || samples.size() >= MAX_SAMPLES) {
+            return false;
+        }
+        samples.add(stack);
+        return true;
+    }
+
+    /**
+     * Method that marks the end of a main thread task, recording it when it was slow.
+     * @param now Uptime in milliseconds.
+     */
+    void onDispatchEnd(long now) {
+        MainThreadReport.Entry entry;
+        synchronized (this) {
+            if (dispatchStart < 0) {
+                return;
+            }
+            long duration = now - dispatchStart;
+            dispatchStart = -1;
+            if (duration < slowTaskMillis) {
+                return;
+            }
+            entry = createSlowTaskEntry(duration);
+            samples.clear();
+        }
+        record(entry);
+    }
+
+    /**
+     * Method that records a disk or network access on the main thread.
+     * @param kind String type name of the violation.
+     * @param stack Stack of the access.
+     */
+    void onViolation(String kind, StackTraceElement[] stack) {
+        String attribution = getAppFrame(stack);
+        record(new MainThreadReport.Entry(kind, 0,
+                attribution != null ? attribution : kind, toFrames(stack)));
+    }
+
+    /**
+     * Helper method that attributes a slow task to the app method found in most of its samples.
+     * Without one the deepest sampled frame, or the looper target, names the task.
+     * @param duration Duration of the task in milliseconds.
+     * @return Returns the report Entry.
+     */
+    private MainThreadReport.Entry createSlowTaskEntry(long duration) {
+        Map<String, Integer> counts = new HashMap<>();
+        String attribution = null;
+        StackTraceElement[] attributedStack = null;
+        for (StackTraceElement[] sample : samples) {
+            String frame = getAppFrame(sample);
+            if (frame == null) {
+                continue;
+            }
+            Integer count = counts.get(frame);
+            counts.put(frame, count == null ? 1 : count + 1);
+            if (attribution == null || counts.get(frame) > counts.get(attribution)) {
+                attribution = frame;
+                attributedStack = sample;
+            }
+        }
+        if (attribution == null && !samples.isEmpty() && samples.get(0).length > 0) {
+            attributedStack = samples.get(0);
+            attribution = attributedStack[0].getClassName() + "." + attributedStack[0].getMethodName();
+        }
+        if (attribution == null) {
+            attribution = dispatchTarget != null ? dispatchTarget : "unknown";
+        }
+        return new MainThreadReport.Entry(MainThreadReport.KIND_SLOW_TASK, duration, attribution,
+                attributedStack != null ? toFrames(attributedStack) : Collections.<String>emptyList());
+    }
+
+    /**
+     * Helper method that finds the innermost app frame of a stack, skipping the watchdog.
+     * @param stack Stack frames, innermost first.
+     * @return Returns the simple class name and method as Class.method, or null without app frames.
+     */
+    static String getAppFrame(StackTraceElement[] stack) {
+        for (StackTraceElement frame : stack) {
+            String className = frame.getClassName();
+            if (!className.startsWith(APP_PACKAGE) || className.startsWith(MainThreadWatchdog.class.getName())) {
+                continue;
+            }
+            String simpleName = className.substring(className.lastIndexOf('.') + 1);
+            // Lambdas and inner classes are attributed to the class that declares them
+            int nested = simpleName.indexOf('$');
+            if (nested > 0) {
+                simpleName = simpleName.substring(0, nested);
+            }
+            String method = frame.getMethodName();
+            if (method.startsWith("lambda$")) {
+                String[] parts = method.split("\\$");
+                method = parts.length > 1 ? parts[1] : method;
+            }
+            return simpleName + "." + method;
+        }
+        return null;
+    }
+
+    /**
+     * Helper method that turns stack frames into text.
+     * @param stack Stack frames.
+     * @return Returns the frames as Strings.
+     */
+    private static List<String> toFrames(StackTraceElement[] stack) {
+        List<String> frames = new ArrayList<>(stack.length);
+        for (StackTraceElement frame : stack) {
+            frames.add(frame.toString());
+        }
+        return frames;
+    }
+
+    /**
+     * Helper method that adds an entry to the report and appends it to the report file off the
+     * main thread.
+     * @param entry Entry to be recorded.
+     */
+    private void record(MainThreadReport.Entry entry) {
+        report.add(entry);
+        if (sampler == null || reportFile == null) {
+            return;
+        }
+        Log.w("MainThreadWatchdog", entry.toString());
+        sampler.post(() -> {
+            try (Writer writer = new FileWriter(reportFile, true)) {
+                MainThreadReport single = new MainThreadReport();
+                single.add(entry);
+                single.writeTo(writer);
+            } catch (IOException e) {
+                Log.e("MainThreadWatchdog", "Unable to write report", e);
+            }
+        });
+    }
+}
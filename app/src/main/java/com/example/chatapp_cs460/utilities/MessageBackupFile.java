@@ -0,0 +1,484 @@
+/**
+ * A class that reads and writes message backup files one message at a time, so a backup of any
+ * size is written and restored in constant memory. Backups are JSON Lines, a header line followed
+ * by one message per line, or a compact gzipped binary format with the same content. Readers
+ * recognise the format from the first bytes of the file.
+ */
+package com.example.chatapp_cs460.utilities;
+
+import android.util.Base64;
+import android.util.JsonReader;
+import android.util.JsonToken;
+import android.util.JsonWriter;
+
+import com.example.chatapp_cs460.models.ChatMessage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+public class MessageBackupFile {
+    /**
+     * File formats of a backup.
+     */
+    public enum Format {
+        JSON_LINES(".jsonl"),
+        BINARY(".bin");
+
+        private final String extension;
+
+        Format(String extension) {
+            this.extension = extension;
+        }
+
+        /**
+         * Method that returns the file name extension of the format.
+         * @return Returns the extension including the dot.
+         */
+        public String getExtension() {
+            return extension;
+        }
+    }
+
+    /**
+     * Scopes of a backup, a chat with one user, a group conversation or every chat of an account.
+     */
+    public static final String SCOPE_CHAT = "chat";
+    public static final String SCOPE_GROUP = "group";
+    public static final String SCOPE_ACCOUNT = "account";
+
+    /**
+     * Format marker and version of the header, and the marker that starts every binary file.
+     */
+    private static final String FORMAT_NAME = "chatapp-backup";
+    private static final int VERSION = 1;
+    private static final int BINARY_MAGIC = 0x43414231;
+    private static final int MAX_FIELD_BYTES = 16 * 1024 * 1024;
+
+    /**
+     * JSON keys of the header.
+     */
+    private static final String KEY_FORMAT = "format";
+    private static final String KEY_VERSION = "version";
+    private static final String KEY_SCOPE = "scope";
+    private static final String KEY_ID = "id";
+    private static final String KEY_EXPORTED_AT = "exportedAt";
+
+    /**
+     * Private constructor, the class only holds static helpers and the reader and writer types.
+     */
+    private MessageBackupFile() {
+    }
+
+    /**
+     * Header of a backup, what was exported and when.
+     */
+    public static class Header {
+        public final String scope;
+        public final String id;
+        public final long exportedAt;
+
+        /**
+         * Constructor for the Header.
+         * @param scope String type scope, one of the SCOPE constants.
+         * @param id String type key of the chat, ID of the group or ID of the account.
+         * @param exportedAt Time of the export in milliseconds.
+         */
+        public Header(String scope, String id, long exportedAt) {
+            this.scope = scope;
+            this.id = id;
+            this.exportedAt = exportedAt;
+        }
+    }
+
+    /**
+     * Writer of the messages of a backup.
+     */
+    public interface BackupWriter extends Closeable {
+        /**
+         * Method that appends a message to the backup.
+         * @param chatMessage ChatMessage with at least its ID and date set.
+         * @throws IOException If the file can not be written.
+         */
+        void write(ChatMessage chatMessage) throws IOException;
+    }
+
+    /**
+     * Reader of the messages of a backup.
+     */
+    public interface BackupReader extends Closeable {
+        /**
+         * Method that returns the header of the backup.
+         * @return Returns the Header.
+         */
+        Header getHeader();
+
+        /**
+         * Method that reads the next message of the backup.
+         * @return Returns the ChatMessage, or null at the end of the backup.
+         * @throws IOException If the file can not be read.
+         */
+        ChatMessage next() throws IOException;
+    }
+
+    /**
+     * Method that starts a backup in the given format.
+     * @param output OutputStream of the backup file, closed with the writer.
+     * @param format Format of the file.
+     * @param header Header of the backup.
+     * @return Returns the BackupWriter.
+     * @throws IOException If the file can not be written.
+     */
+    public static BackupWriter openWriter(OutputStream output, Format format, Header header) throws IOException {
+        if (format == Format.BINARY) {
+            return new BinaryWriter(output, header);
+        }
+        return new JsonLinesWriter(output, header);
+    }
+
+    /**
+     * Method that opens a backup, recognising its format.
+     * @param input InputStream of the backup file, closed with the reader.
+     * @return Returns the BackupReader positioned at the first message.
+     * @throws IOException If the file can not be read or is not a backup.
+     */
+    public static BackupReader openReader(InputStream input) throws IOException {
+        BufferedInputStream buffered = new BufferedInputStream(input);
+        buffered.mark(2);
+        int first = buffered.read();
+        int second = buffered.read();
+        buffered.reset();
+        // Binary backups are gzip streams
+        if (first == 0x1f && second == 0x8b) {
+            return new BinaryReader(buffered);
+        }
+        return new JsonLinesReader(buffered);
+    }
+
+    /**
+     * JSON Lines writer, one JSON object per line.
+     */
+    private static class JsonLinesWriter implements BackupWriter {
+        private final Writer output;
+        private final JsonWriter writer;
+
+        JsonLinesWriter(OutputStream output, Header header) throws IOException {
+            this.output = new BufferedWriter(new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            writer = new JsonWriter(this.output);
+            // Lenient, so the writer accepts one top level object per line
+            writer.setLenient(true);
+            writer.beginObject();
+            writer.name(KEY_FORMAT).value(FORMAT_NAME);
+            writer.name(KEY_VERSION).value(VERSION);
+            writer.name(KEY_SCOPE).value(header.scope);
+            writer.name(KEY_ID).value(header.id);
+            writer.name(KEY_EXPORTED_AT).value(header.exportedAt);
+            writer.endObject();
+            this.output.write('\n');
+        }
+
+        @Override
+        public void write(ChatMessage chatMessage) throws IOException {
+            writer.beginObject();
+            writer.name(Constants.KEY_MESSAGE_ID).value(chatMessage.id);
+            writer.name(Constants.KEY_SENDER_ID).value(chatMessage.senderId);
+            writer.name(Constants.KEY_RECEIVER_ID).value(chatMessage.receiverId);
+            if (chatMessage.message != null) {
+                writer.name(Constants.KEY_MESSAGE).value(chatMessage.message);
+            }
+            if (chatMessage.ciphertext != null) {
+                writer.name(Constants.KEY_CIPHERTEXT)
+                        .value(Base64.encodeToString(chatMessage.ciphertext, Base64.NO_WRAP));
+            }
+            writer.name(Constants.KEY_TIMESTAMP).value(chatMessage.dateObject.getTime());
+            if (chatMessage.edited) {
+                writer.name(Constants.KEY_EDITED).value(true);
+            }
+            if (chatMessage.reactions != null && !chatMessage.reactions.isEmpty()) {
+                writer.name(Constants.KEY_REACTIONS).beginObject();
+                for (Map.Entry<String, Long> reaction : chatMessage.reactions.entrySet()) {
+                    writer.name(reaction.getKey()).value(reaction.getValue());
+                }
+                writer.endObject();
+            }
+            if (chatMessage.reactedBy != null && !chatMessage.reactedBy.isEmpty()) {
+                writer.name(Constants.KEY_REACTED_BY).beginObject();
+                for (Map.Entry<String, String> reaction : chatMessage.reactedBy.entrySet()) {
+                    writer.name(reaction.getKey()).value(reaction.getValue());
+                }
+                writer.endObject();
+            }
+            writer.endObject();
+            output.write('\n');
+        }
+
+        @Override
+        public void close() throws IOException {
+            writer.close();
+        }
+    }
+
+    /**
+     * JSON Lines reader, one JSON object per line.
+     */
+    private static class JsonLinesReader implements BackupReader {
+        private final JsonReader reader;
+        private final Header header;
+
+        JsonLinesReader(InputStream input) throws IOException {
+            reader = new JsonReader(new BufferedReader(new InputStreamReader(input, StandardCharsets.UTF_8)));
+            reader.setLenient(true);
+            String format = null;
+            String scope = null;
+            String id = null;
+            long exportedAt = 0;
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (KEY_FORMAT.equals(name)) {
+                    format = reader.nextString();
+                } else if (KEY_SCOPE.equals(name)) {
+                    scope = reader.nextString();
+                } else if (KEY_ID.equals(name)) {
+                    id = nextStringOrNull(reader);
+                } else if (KEY_EXPORTED_AT.equals(name)) {
+                    exportedAt = reader.nextLong();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            if (!FORMAT_NAME.equals(format)) {
+                throw new IOException("Not a message backup");
+            }
+            header = new Header(scope, id, exportedAt);
+        }
+
+        @Override
+        public Header getHeader() {
+            return header;
+        }
+
+        @Override
+        public ChatMessage next() throws IOException {
+            if (reader.peek() == JsonToken.END_DOCUMENT) {
+                return null;
+            }
+            ChatMessage chatMessage = new ChatMessage();
+            reader.beginObject();
+            while (reader.hasNext()) {
+                String name = reader.nextName();
+                if (Constants.KEY_MESSAGE_ID.equals(name)) {
+                    chatMessage.id = nextStringOrNull(reader);
+                } else if (Constants.KEY_SENDER_ID.equals(name)) {
+                    chatMessage.senderId = nextStringOrNull(reader);
+                } else if (Constants.KEY_RECEIVER_ID.equals(name)) {
+                    chatMessage.receiverId = nextStringOrNull(reader);
+                } else if (Constants.KEY_MESSAGE.equals(name)) {
+                    chatMessage.message = nextStringOrNull(reader);
+                } else if (Constants.KEY_CIPHERTEXT.equals(name)) {
+                    chatMessage.ciphertext = Base64.decode(reader.nextString(), Base64.NO_WRAP);
+                } else if (Constants.KEY_TIMESTAMP.equals(name)) {
+                    chatMessage.dateObject = new Date(reader.nextLong());
+                } else if (Constants.KEY_EDITED.equals(name)) {
+                    chatMessage.edited = reader.nextBoolean();
+                } else if (Constants.KEY_REACTIONS.equals(name)) {
+                    chatMessage.reactions = new LinkedHashMap<>();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        chatMessage.reactions.put(reader.nextName(), reader.nextLong());
+                    }
+                    reader.endObject();
+                } else if (Constants.KEY_REACTED_BY.equals(name)) {
+                    chatMessage.reactedBy = new HashMap<>();
+                    reader.beginObject();
+                    while (reader.hasNext()) {
+                        chatMessage.reactedBy.put(reader.nextName(), reader.nextString());
+                    }
+                    reader.endObject();
+                } else {
+                    reader.skipValue();
+                }
+            }
+            reader.endObject();
+            return chatMessage;
+        }
+
+        @Override
+        public void close() throws IOException {
+            reader.close();
+        }
+    }
+
+    /**
+     * Binary writer, length prefixed fields in a gzip stream.
+     */
+    private static class BinaryWriter implements BackupWriter {
+        private final DataOutputStream output;
+
+        BinaryWriter(OutputStream output, Header header) throws IOException {
+            this.output = new DataOutputStream(new BufferedOutputStream(new GZIPOutputStream(output)));
+            this.output.writeInt(BINARY_MAGIC);
+            this.output.writeInt(VERSION);
+            writeString(header.scope);
+            writeString(header.id);
+            this.output.writeLong(header.exportedAt);
+        }
+
+        @Override
+        public void write(ChatMessage chatMessage) throws IOException {
+            output.writeBoolean(true);
+            writeString(chatMessage.id);
+            writeString(chatMessage.senderId);
+            writeString(chatMessage.receiverId);
+            writeString(chatMessage.message);
+            writeBytes(chatMessage.ciphertext);
+            output.writeLong(chatMessage.dateObject.getTime());
+            output.writeBoolean(chatMessage.edited);
+            int reactionCount = chatMessage.reactions != null ? chatMessage.reactions.size() : 0;
+            output.writeInt(reactionCount);
+            if (reactionCount > 0) {
+                for (Map.Entry<String, Long> reaction : chatMessage.reactions.entrySet()) {
+                    writeString(reaction.getKey());
+                    output.writeLong(reaction.getValue());
+                }
+            }
+            int reactedCount = chatMessage.reactedBy != null ? chatMessage.reactedBy.size() : 0;
+            output.writeInt(reactedCount);
+            if (reactedCount > 0) {
+                for (Map.Entry<String, String> reaction : chatMessage.reactedBy.entrySet()) {
+                    writeString(reaction.getKey());
+                    writeString(reaction.getValue());
+                }
+            }
+        }
+
+        private void writeString(String value) throws IOException {
+            writeBytes(value != null ? value.getBytes(StandardCharsets.UTF_8) : null);
+        }
+
+        private void writeBytes(byte[] value) throws IOException {
+            if (value == null) {
+                output.writeInt(-1);
+                return;
+            }
+            output.writeInt(value.length);
+            output.write(value);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // End marker, so a truncated file is told apart from a complete one
+            output.writeBoolean(false);
+            output.close();
+        }
+    }
+
+    /**
+     * Binary reader, length prefixed fields in a gzip stream.
+     */
+    private static class BinaryReader implements BackupReader {
+        private final DataInputStream input;
+        private final Header header;
+
+        BinaryReader(InputStream input) throws IOException {
+            this.input = new DataInputStream(new BufferedInputStream(new GZIPInputStream(input)));
+            if (this.input.readInt() != BINARY_MAGIC) {
+                throw new IOException("Not a message backup");
+            }
+            this.input.readInt();
+            header = new Header(readString(), readString(), this.input.readLong());
+        }
+
+        @Override
+        public Header getHeader() {
+            return header;
+        }
+
+        @Override
+        public ChatMessage next() throws IOException {
+            if (!input.readBoolean()) {
+                return null;
+            }
+            ChatMessage chatMessage = new ChatMessage();
+            chatMessage.id = readString();
+            chatMessage.senderId = readString();
+            chatMessage.receiverId = readString();
+            chatMessage.message = readString();
+            chatMessage.ciphertext = readBytes();
+            chatMessage.dateObject = new Date(input.readLong());
+            chatMessage.edited = input.readBoolean();
+            int reactionCount = input.readInt();
+            if (reactionCount > 0) {
+                chatMessage.reactions = new LinkedHashMap<>();
+                for (int i = 0; i < reactionCount; i++) {
+                    chatMessage.reactions.put(readString(), input.readLong());
+                }
+            }
+            int reactedCount = input.readInt();
+            if (reactedCount > 0) {
+                chatMessage.reactedBy = new HashMap<>();
+                for (int i = 0; i < reactedCount; i++) {
+                    chatMessage.reactedBy.put(readString(), readString());
+                }
+            }
+            return chatMessage;
+        }
+
+        private String readString() throws IOException {
+            byte[] bytes = readBytes();
+            return bytes != null ? new String(bytes, StandardCharsets.UTF_8) : null;
+        }
+
+        private byte[] readBytes() throws IOException {
+            int length = input.readInt();
+            if (length < 0) {
+                return null;
+            }
+            // No field of a message comes close, a larger length means the file is damaged
+            if (length > MAX_FIELD_BYTES) {
+                throw new EOFException("Corrupt message backup");
+            }
+            byte[] bytes = new byte[length];
+            input.readFully(bytes);
+            return bytes;
+        }
+
+        @Override
+        public void close() throws IOException {
+            input.close();
+        }
+    }
+
+    /**
+     * Helper method that reads a String value that may be null.
+     * @param reader JsonReader positioned at the value.
+     * @return Returns the String or null.
+     * @throws IOException If the file can not be read.
+     */
+    private static String nextStringOrNull(JsonReader reader) throws IOException {
+        if (reader.peek() == JsonToken.NULL) {
+            reader.nextNull();
+            return null;
+        }
+        return reader.nextString();
+    }
+}
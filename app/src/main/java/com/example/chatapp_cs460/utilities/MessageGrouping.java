@@ -0,0 +1,129 @@
+/**
+ * A class that keeps the day headers and sender runs of a message list sorted by date. A message
+ * starts a day when the message before it was sent on another local day, and continues a run when
+ * the same sender sent the message before it shortly before, on the same day. The flags of a
+ * message only depend on its neighbors, so an insert or removal regroups the messages at the
+ * boundaries of the change instead of the whole list.
+ */
+package com.example.chatapp_cs460.utilities;
+
+import com.example.chatapp_cs460.listeners.GroupingListener;
+import com.example.chatapp_cs460.models.ChatMessage;
+
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+public class MessageGrouping {
+    /**
+     * Payload of a change that only touched the grouping of a message.
+     */
+    public static final String PAYLOAD_GROUPING = "grouping";
+
+    /**
+     * Longest gap between two messages of a sender that still belong to the same run.
+     */
+    static final long RUN_GAP_MILLIS = TimeUnit.MINUTES.toMillis(5);
+
+    private static final long DAY_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    /**
+     * Private constructor, the class only has static methods.
+     */
+    private MessageGrouping() {
+    }
+
+    /**
+     * Method that groups every message of a list, used after the list was rebuilt as a whole.
+     * @param chatMessages List of messages sorted by date.
+     */
+    public static void groupAll(List<ChatMessage> chatMessages) {
+        for (int i = 0; i < chatMessages.size(); i++) {
+            group(chatMessages, i);
+        }
+    }
+
+    /**
+     * Method that groups a range of messages and the messages at its boundaries, used after the
+     * range was inserted.
+     * @param chatMessages List of messages sorted by date.
+     * @param start Position of the first message of the range.
+     * @param count Number of messages in the range.
+     * @param listener Listener called for each boundary message whose grouping changed, may be null.
+     */
+    public static void groupRange(List<ChatMessage> chatMessages, int start, int count,
+                                  GroupingListener listener) {
+        for (int i = start; i < start + count; i++) {
+            group(chatMessages, i);
+        }
+        regroup(chatMessages, start - 1, listener);
+        regroup(chatMessages, start + count, listener);
+    }
+
+    /**
+     * Method that regroups the neighbors of a removed message.
+     * @param chatMessages List of messages sorted by date, without the removed message.
+     * @param position Former position of the removed message.
+     * @param listener Listener called for each neighbor whose grouping changed, may be null.
+     */
+    public static void groupRemoval(List<ChatMessage> chatMessages, int position, GroupingListener listener) {
+        regroup(chatMessages, position - 1, listener);
+        regroup(chatMessages, position, listener);
+    }
+
+    /**
+     * Method that sets the grouping of the message at a position from its neighbors.
+     * @param chatMessages List of messages sorted by date.
+     * @param position Position of the message.
+     * @return Returns true if the grouping of the message changed.
+     */
+    public static boolean group(List<ChatMessage> chatMessages, int position) {
+        ChatMessage chatMessage = chatMessages.get(position);
+        ChatMessage previous = position > 0 ? chatMessages.get(position - 1) : null;
+        ChatMessage next = position + 1 < chatMessages.size() ? chatMessages.get(position + 1) : null;
+        boolean startsDay = previous == null || getDay(previous) != getDay(chatMessage);
+        boolean continuesRun = !startsDay && isSameRun(previous, chatMessage);
+        boolean endsRun = next == null || getDay(next) != getDay(chatMessage) || !isSameRun(chatMessage, next);
+        boolean isChanged = startsDay != chatMessage.startsDay
+                || continuesRun != chatMessage.continuesRun
+                || endsRun != chatMessage.endsRun;
+        chatMessage.startsDay = startsDay;
+        chatMessage.continuesRun = continuesRun;
+        chatMessage.endsRun = endsRun;
+        return isChanged;
+    }
+
+    /**
+     * Method that returns the local day a message was sent on.
+     * @param chatMessage ChatMessage with its date set.
+     * @return Returns the number of local days since the epoch.
+     */
+    public static long getDay(ChatMessage chatMessage) {
+        long time = chatMessage.dateObject.getTime();
+        return Math.floorDiv(time + TimeZone.getDefault().getOffset(time), DAY_MILLIS);
+    }
+
+    /**
+     * Helper method that regroups a message next to a change, reporting it when it changed.
+     * @param chatMessages List of messages sorted by date.
+     * @param position Position of the message, ignored when outside the list.
+     * @param listener Listener to be called, may be null.
+     */
+    private static void regroup(List<ChatMessage> chatMessages, int position, GroupingListener listener) {
+        if (position >= 0 && position < chatMessages.size()
+                && group(chatMessages, position) && listener != null) {
+            listener.onGroupingChanged(position);
+        }
+    }
+
+    /**
+     * Helper method that checks whether a message continues the run of the message before it.
+     * @param previous ChatMessage before.
+     * @param chatMessage ChatMessage after.
+     * @return Returns true if both have the same sender and were sent close together.
+     */
+    private static boolean isSameRun(ChatMessage previous, ChatMessage chatMessage) {
+        return previous.senderId != null && previous.senderId.equals(chatMessage.senderId)
+                && chatMessage.dateObject.getTime() - previous.dateObject.getTime() <= RUN_GAP_MILLIS;
+    }
+}
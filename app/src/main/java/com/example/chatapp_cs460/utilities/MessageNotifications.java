@@ -0,0 +1,247 @@
+/**
+ * A class that posts the notifications of new chat messages. Each conversation has one
+ * MessagingStyle notification that new messages are appended to, all of them bundled in one
+ * group, and each one offers an inline reply. A reply is sent by NotificationReplyReceiver in the
+ * background and appended to the notification, so answering a message never starts a page.
+ */
+package com.example.chatapp_cs460.utilities;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.service.notification.StatusBarNotification;
+
+import androidx.core.app.NotificationCompat;
+import androidx.core.app.NotificationManagerCompat;
+import androidx.core.app.Person;
+import androidx.core.app.RemoteInput;
+
+import com.example.chatapp_cs460.R;
+import com.example.chatapp_cs460.activities.ChatActivity;
+import com.example.chatapp_cs460.firebase.NotificationReplyReceiver;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+
+public class MessageNotifications {
+    /**
+     * Keys of the data of a chat push, as sent by the push dispatcher of the tools module.
+     */
+    public static final String DATA_TYPE = "type";
+    public static final String DATA_RECEIVER_ID = "receiverId";
+    public static final String DATA_MESSAGES = "messages";
+    public static final String TYPE_CHAT = "chat";
+
+    /**
+     * Key of the reply text in the inline reply results.
+     */
+    public static final String KEY_REPLY = "reply";
+
+    /**
+     * Channel and group of the message notifications, and the ID of the group summary.
+     */
+    private static final String CHANNEL_ID = "chatMessages";
+    private static final String GROUP_KEY = "com.example.chatapp_cs460.MESSAGES";
+    private static final String SUMMARY_TAG = "summary";
+    private static final int NOTIFICATION_ID = 1;
+
+    /**
+     * Private constructor, the class only has static methods.
+     */
+    private MessageNotifications() {
+    }
+
+    /**
+     * Method that posts the messages of a chat push, appending them to the notification of each
+     * conversation they belong to.
+     * @param context Context class object.
+     * @param data Map of the data fields of the push.
+     * @return Returns false if the push is not a chat push for the signed in user.
+     */
+    public static boolean show(Context context, Map<String, String> data) {
+        PreferenceManager preferenceManager = new PreferenceManager(context);
+        String userId = preferenceManager.getString(Constants.KEY_USER_ID);
+        if (!TYPE_CHAT.equals(data.get(DATA_TYPE)) || userId == null
+                || !userId.equals(data.get(DATA_RECEIVER_ID)) || data.get(DATA_MESSAGES) == null) {
+            return false;
+        }
+        try {
+            // Pushes carry the newest messages of a burst, the older ones are read in the chat
+            JSONArray messages = new JSONArray(data.get(DATA_MESSAGES));
+            for (int i = 0; i < messages.length(); i++) {
+                JSONObject message = messages.getJSONObject(i);
+                String text = message.optString(Constants.KEY_MESSAGE, null);
+                if (text == null) {
+                    // Encrypted messages are only read inside the chat
+                    text = context.getString(R.string.encrypted_message);
+                }
+                String senderId = message.getString(Constants.KEY_SENDER_ID);
+                // optString turns a JSON null into "null"
+                String senderName = message.isNull("senderName") ? null : message.getString("senderName");
+                append(context, senderId, new NotificationCompat.MessagingStyle.Message(text,
+                        message.optLong(Constants.KEY_TIMESTAMP, System.currentTimeMillis()),
+                        new Person.Builder()
+                                .setKey(senderId)
+                                .setName(senderName != null ? senderName : context.getString(R.string.app_name))
+                                .build()));
+            }
+        } catch (JSONException e) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Method that appends a reply of the signed in user to the notification of a conversation,
+     * which also tells the system the inline reply was handled.
+     * @param context Context class object.
+     * @param otherUserId String type ID of the other user of the conversation.
+     * @param text String type text of the reply.
+     */
+    public static void showReply(Context context, String otherUserId, String text) {
+        append(context, otherUserId, new NotificationCompat.MessagingStyle.Message(text,
+                System.currentTimeMillis(), (Person) null));
+    }
+
+    /**
+     * Method that removes the notification of a conversation, used when its page is opened.
+     * @param context Context class object.
+     * @param otherUserId String type ID of the other user of the conversation.
+     */
+    public static void cancel(Context context, String otherUserId) {
+        NotificationManagerCompat manager = NotificationManagerCompat.from(context);
+        manager.cancel(otherUserId, NOTIFICATION_ID);
+        // Dropping the summary with the last conversation
+        if (findNotification(context, null) == null) {
+            manager.cancel(SUMMARY_TAG, NOTIFICATION_ID);
+        }
+    }
+
+    /**
+     * Helper method that appends a message to the notification of a conversation, keeping the
+     * messages it already shows.
+     * @param context Context class object.
+     * @param otherUserId String type ID of the other user of the conversation.
+     * @param message Message to be appended.
+     */
+    private static void append(Context context, String otherUserId, NotificationCompat.MessagingStyle.Message message) {
+        NotificationManagerCompat manager = NotificationManagerCompat.from(context);
+        if (!manager.areNotificationsEnabled()) {
+            return;
+        }
+        createChannel(context);
+        Notification existing = findNotification(context, otherUserId);
+        NotificationCompat.MessagingStyle style = existing != null
+                ? NotificationCompat.MessagingStyle.extractMessagingStyleFromNotification(existing) : null;
+        if (style == null) {
+            String name = new PreferenceManager(context).getString(Constants.KEY_NAME);
+            style = new NotificationCompat.MessagingStyle(new Person.Builder()
+                    .setName(name != null ? name : context.getString(R.string.you))
+                    .build());
+        }
+        style.addMessage(message);
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(context, CHANNEL_ID)
+                .setSmallIcon(R.drawable.ic_send)
+                .setStyle(style)
+                .setCategory(NotificationCompat.CATEGORY_MESSAGE)
+                .setPriority(NotificationCompat.PRIORITY_HIGH)
+                .setGroup(GROUP_KEY)
+                .setAutoCancel(true)
+                .setContentIntent(createOpenIntent(context, otherUserId))
+                .addAction(createReplyAction(context, otherUserId))
+                // Only messages from the other user alert again
+                .setOnlyAlertOnce(message.getPerson() == null);
+        try {
+            manager.notify(otherUserId, NOTIFICATION_ID, builder.build());
+            manager.notify(SUMMARY_TAG, NOTIFICATION_ID, new NotificationCompat.Builder(context, CHANNEL_ID)
+                    .setSmallIcon(R.drawable.ic_send)
+                    .setGroup(GROUP_KEY)
+                    .setGroupSummary(true)
+                    .setAutoCancel(true)
+                    .build());
+        } catch (SecurityException e) {
+            // Notifications are not allowed
+        }
+    }
+
+    /**
+     * Helper method that builds the intent that opens the chat with the other user.
+     * @param context Context class object.
+     * @param otherUserId String type ID of the other user.
+     * @return Returns the PendingIntent.
+     */
+    private static PendingIntent createOpenIntent(Context context, String otherUserId) {
+        Intent intent = new Intent(context, ChatActivity.class)
+                .putExtra(Constants.KEY_RECEIVER_ID, otherUserId)
+                .addFlags(Intent.FLAG_ACTIVITY_NEW_TASK | Intent.FLAG_ACTIVITY_CLEAR_TOP);
+        return PendingIntent.getActivity(context, otherUserId.hashCode(), intent,
+                PendingIntent.FLAG_UPDATE_CURRENT | PendingIntent.FLAG_IMMUTABLE);
+    }
+
+    /**
+     * Helper method that builds the inline reply action of a conversation. The reply goes to a
+     * broadcast receiver, so no page is started to send it.
+     * @param context Context class object.
+     * @param otherUserId String type ID of the other user.
+     * @return Returns the reply Action.
+     */
+    private static NotificationCompat.Action createReplyAction(Context context, String otherUserId) {
+        Intent intent = new Intent(context, NotificationReplyReceiver.class)
+                .putExtra(Constants.KEY_RECEIVER_ID, otherUserId);
+        // The system fills in the reply, so the intent has to stay mutable
+        int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+            flags |= PendingIntent.FLAG_MUTABLE;
+        }
+        PendingIntent replyIntent = PendingIntent.getBroadcast(context, otherUserId.hashCode(), intent, flags);
+        RemoteInput remoteInput = new RemoteInput.Builder(KEY_REPLY)
+                .setLabel(context.getString(R.string.type_a_message))
+                .build();
+        return new NotificationCompat.Action.Builder(R.drawable.ic_send, context.getString(R.string.reply), replyIntent)
+                .addRemoteInput(remoteInput)
+                .setSemanticAction(NotificationCompat.Action.SEMANTIC_ACTION_REPLY)
+                .setShowsUserInterface(false)
+                .setAllowGeneratedReplies(true)
+                .build();
+    }
+
+    /**
+     * Helper method that finds a posted message notification.
+     * @param context Context class object.
+     * @param otherUserId String type ID of the other user, null for any conversation.
+     * @return Returns the Notification, null if none is posted.
+     */
+    private static Notification findNotification(Context context, String otherUserId) {
+        NotificationManager manager = (NotificationManager) context.getSystemService(Context.NOTIFICATION_SERVICE);
+        for (StatusBarNotification posted : manager.getActiveNotifications()) {
+            if (posted.getId() != NOTIFICATION_ID || posted.getTag() == null || SUMMARY_TAG.equals(posted.getTag())) {
+                continue;
+            }
+            if (otherUserId == null || otherUserId.equals(posted.getTag())) {
+                return posted.getNotification();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Helper method that creates the message channel, which is needed from Android 8.
+     * @param context Context class object.
+     */
+    private static void createChannel(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.O) {
+            return;
+        }
+        NotificationChannel channel = new NotificationChannel(CHANNEL_ID,
+                context.getString(R.string.messages), NotificationManager.IMPORTANCE_HIGH);
+        context.getSystemService(NotificationManager.class).createNotificationChannel(channel);
+    }
+}
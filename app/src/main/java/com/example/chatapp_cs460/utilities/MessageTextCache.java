@@ -0,0 +1,171 @@
+/**
+ * A process-wide cache of measured message texts. Message bodies are measured, with their link
+ * spans, on a background thread when they are received, so binding a message bubble during scroll
+ * only applies an already measured text instead of measuring it on the main thread. Measured text
+ * does not depend on the width it is laid out at, so a text is cached once per message.
+ */
+package com.example.chatapp_cs460.utilities;
+
+import android.text.SpannableString;
+import android.text.util.Linkify;
+import android.util.LruCache;
+
+import androidx.core.text.PrecomputedTextCompat;
+
+import com.example.chatapp_cs460.models.ChatMessage;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class MessageTextCache {
+    /**
+     * Number of measured texts kept and the largest backlog measured ahead of binding.
+     */
+    private static final int MAX_ENTRIES = 2000;
+    private static final int MAX_PENDING = 500;
+
+    /**
+     * Single shared instance.
+     */
+    private static MessageTextCache instance;
+
+    /**
+     * Measured texts keyed by message ID, the text metrics of the bubbles and the newest messages
+     * received before the metrics were known.
+     */
+    private final LruCache<String, PrecomputedTextCompat> texts = new LruCache<>(MAX_ENTRIES);
+    private final ExecutorService measureExecutor = Executors.newSingleThreadExecutor();
+    private PrecomputedTextCompat.Params params;
+    private final Deque<ChatMessage> pendingMessages = new ArrayDeque<>();
+
+    /**
+     * Private constructor, use getInstance().
+     */
+    private MessageTextCache() {
+    }
+
+    /**
+     * Method that returns the shared cache, creating it on first use.
+     * @return Returns the MessageTextCache instance.
+     */
+    public static synchronized MessageTextCache getInstance() {
+        if (instance == null) {
+            instance = new MessageTextCache();
+        }
+        return instance;
+    }
+
+    /**
+     * Method that sets the text metrics of the message bubbles, taken from an inflated bubble.
+     * Messages received before the metrics were known are measured now.
+     * @param params Text metrics parameters of the message TextView.
+     */
+    public synchronized void setParams(PrecomputedTextCompat.Params params) {
+        if (params.equals(this.params)) {
+            return;
+        }
+        this.params = params;
+        texts.evictAll();
+        List<ChatMessage> messages = new ArrayList<>(pendingMessages);
+        pendingMessages.clear();
+        precompute(messages);
+    }
+
+    /**
+     * Method that measures newly received messages in the background.
+     * @param messages List of messages to measure.
+     */
+    public synchronized void precompute(List<ChatMessage> messages) {
+        if (params == null) {
+            // Measured once the first bubble provides the metrics, keeping the newest messages
+            for (ChatMessage message : messages) {
+                if (pendingMessages.size() >= MAX_PENDING) {
+                    pendingMessages.pollFirst();
+                }
+                pendingMessages.addLast(message);
+            }
+            return;
+        }
+        PrecomputedTextCompat.Params measureParams = params;
+        // Newest messages are closest to the visible end of the chat
+        for (int i = messages.size() - 1; i >= Math.max(0, messages.size() - MAX_PENDING); i--) {
+            ChatMessage message = messages.get(i);
+            measureExecutor.execute(() -> measure(message, measureParams));
+        }
+    }
+
+    /**
+     * Method that returns the measured text of a message, if it is ready.
+     * @param message ChatMessage to be bound.
+     * @param params Text metrics parameters of the TextView it is bound to.
+     * @return Returns the measured text or null.
+     */
+    public synchronized PrecomputedTextCompat get(ChatMessage message, PrecomputedTextCompat.Params params) {
+        if (message.id == null || !params.equals(this.params)) {
+            return null;
+        }
+        PrecomputedTextCompat cached = texts.get(message.id);
+        return isCurrent(cached, message.message) ? cached : null;
+    }
+
+    /**
+     * Method that drops the measured text of a message whose text changed.
+     * @param messageId String type ID of the message.
+     */
+    public synchronized void invalidate(String messageId) {
+        if (messageId != null) {
+            texts.remove(messageId);
+        }
+    }
+
+    /**
+     * Method that returns the text of a message with its link spans, unmeasured. Used to bind a
+     * message directly when its measured text is not ready yet.
+     * @param message ChatMessage to be bound.
+     * @return Returns the text with links.
+     */
+    public static SpannableString createText(ChatMessage message) {
+        SpannableString text = new SpannableString(message.message == null ? "" : message.message);
+        Linkify.addLinks(text, Linkify.WEB_URLS | Linkify.EMAIL_ADDRESSES);
+        return text;
+    }
+
+    /**
+     * Helper method that adds the link spans to a message text, measures it and caches it. A job
+     * queued before an edit may run after it, so a text is only skipped or kept while it matches.
+     * @param message ChatMessage to measure.
+     * @param params Text metrics parameters to measure with.
+     */
+    private void measure(ChatMessage message, PrecomputedTextCompat.Params params) {
+        String text = message.message;
+        if (message.id == null) {
+            return;
+        }
+        synchronized (this) {
+            PrecomputedTextCompat cached = texts.get(message.id);
+            if (isCurrent(cached, text) && cached.getParams().equals(params)) {
+                return;
+            }
+        }
+        PrecomputedTextCompat measured = PrecomputedTextCompat.create(createText(message), params);
+        synchronized (this) {
+            if (params.equals(this.params) && isCurrent(measured, message.message)) {
+                texts.put(message.id, measured);
+            }
+        }
+    }
+
+    /**
+     * Helper method that checks whether a measured text still shows the text of a message.
+     * @param measured Measured text, may be null.
+     * @param text String type current text of the message.
+     * @return Returns true if the measured text matches.
+     */
+    private static boolean isCurrent(PrecomputedTextCompat measured, String text) {
+        return measured != null && measured.toString().equals(text == null ? "" : text);
+    }
+}
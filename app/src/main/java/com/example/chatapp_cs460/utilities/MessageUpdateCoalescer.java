@@ -0,0 +1,274 @@
+/**
+ * A class that buffers incoming chat messages and applies them to the message list at most once
+ * per display frame. When a reconnect or a busy group delivers many snapshots in quick succession,
+ * they are merged into one batch with a single adapter notification and a single scroll decision.
+ * It also keeps an index from message ID to list position, so an edited or deleted message is
+ * found without searching the list and only its own position is notified, and keeps the day
+ * headers and sender runs of the list by regrouping only the boundaries of each change.
+ */
+package com.example.chatapp_cs460.utilities;
+
+import android.view.Choreographer;
+
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.example.chatapp_cs460.models.ChatMessage;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+public class MessageUpdateCoalescer implements Choreographer.FrameCallback {
+    /**
+     * Batch size above which the list is refreshed as a whole instead of by range.
+     */
+    public static final int FULL_REFRESH_THRESHOLD = 100;
+
+    /**
+     * Message order used for the list.
+     */
+    private static final Comparator<ChatMessage> BY_DATE =
+            (obj1, obj2) -> obj1.dateObject.compareTo(obj2.dateObject);
+
+    /**
+     * The message list, its adapter and view, the buffered messages and the callback run after
+     * every applied batch.
+     */
+    private final List<ChatMessage> chatMessages;
+    private final RecyclerView.Adapter<?> adapter;
+    private final RecyclerView recyclerView;
+    private final Runnable onApplied;
+    private final List<ChatMessage> pendingMessages = new ArrayList<>();
+    private final Map<String, Integer> positions = new HashMap<>();
+    private boolean isFramePosted = false;
+    private boolean isFollowingNewest = true;
+
+    /**
+     * Constructor for the MessageUpdateCoalescer.
+     * @param chatMessages List of messages shown by the adapter.
+     * @param adapter Adapter of the message list.
+     * @param recyclerView RecyclerView showing the messages.
+     * @param onApplied Runnable called after every applied batch, may be null.
+     */
+    public MessageUpdateCoalescer(List<ChatMessage> chatMessages, RecyclerView.Adapter<?> adapter,
+                                  RecyclerView recyclerView, Runnable onApplied) {
+        this.chatMessages = chatMessages;
+        this.adapter = adapter;
+        this.recyclerView = recyclerView;
+        this.onApplied = onApplied;
+    }
+
+    /**
+     * Method that buffers received messages until the next frame. Must be called on the main thread.
+     * @param messages List of new messages.
+     */
+    public void submit(List<ChatMessage> messages) {
+        if (messages.isEmpty()) {
+            return;
+        }
+        pendingMessages.addAll(messages);
+        if (!isFramePosted) {
+            isFramePosted = true;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Method that stops a pending frame, used when the page is closed.
+     */
+    public void cancel() {
+        if (isFramePosted) {
+            Choreographer.getInstance().removeFrameCallback(this);
+            isFramePosted = false;
+        }
+        pendingMessages.clear();
+    }
+
+    /**
+     * Frame callback that applies the buffered messages.
+     * @param frameTimeNanos The time in nanoseconds when the frame started being rendered.
+     */
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        isFramePosted = false;
+        flush();
+    }
+
+    /**
+     * Method that applies the buffered messages as one batch. Batches that only append newer
+     * messages are inserted as a range, and so are batches that only prepend older messages, such as
+     * an older window of history, which keeps the message on screen in place. Large batches and
+     * batches mixed into the list refresh the whole list.
+     */
+    public void flush() {
+        if (pendingMessages.isEmpty()) {
+            return;
+        }
+        List<ChatMessage> batch = new ArrayList<>(pendingMessages);
+        pendingMessages.clear();
+        Collections.sort(batch, BY_DATE);
+
+        // Deciding on the scroll before the list changes
+        boolean wasEmpty = chatMessages.isEmpty();
+        boolean wasAtBottom = wasEmpty || !recyclerView.canScrollVertically(1);
+        boolean isAppendOnly = wasEmpty
+                || BY_DATE.compare(batch.get(0), chatMessages.get(chatMessages.size() - 1)) >= 0;
+        boolean isPrependOnly = !isAppendOnly
+                && BY_DATE.compare(batch.get(batch.size() - 1), chatMessages.get(0)) <= 0;
+
+        if (isPrependOnly) {
+            chatMessages.addAll(0, batch);
+            indexPositions(0);
+            adapter.notifyItemRangeInserted(0, batch.size());
+            // Boundaries are notified after the insert, in the positions of the new list
+            MessageGrouping.groupRange(chatMessages, 0, batch.size(), this::onGroupingChanged);
+        } else if (wasEmpty || !isAppendOnly || batch.size() > FULL_REFRESH_THRESHOLD) {
+            chatMessages.addAll(batch);
+            if (!isAppendOnly) {
+                // Mixed into the list, which is sorted and rebound as a whole anyway
+                Collections.sort(chatMessages, BY_DATE);
+                positions.clear();
+                indexPositions(0);
+                MessageGrouping.groupAll(chatMessages);
+            } else {
+                int start = chatMessages.size() - batch.size();
+                indexPositions(start);
+                MessageGrouping.groupRange(chatMessages, start, batch.size(), null);
+            }
+            adapter.notifyDataSetChanged();
+        } else {
+            int start = chatMessages.size();
+            chatMessages.addAll(batch);
+            indexPositions(start);
+            adapter.notifyItemRangeInserted(start, batch.size());
+            MessageGrouping.groupRange(chatMessages, start, batch.size(), this::onGroupingChanged);
+        }
+
+        // A single scroll per batch, only when the user was following the newest messages
+        if (wasEmpty) {
+            recyclerView.scrollToPosition(chatMessages.size() - 1);
+        } else if (wasAtBottom && isAppendOnly && isFollowingNewest) {
+            recyclerView.smoothScrollToPosition(chatMessages.size() - 1);
+        }
+        if (onApplied != null) {
+            onApplied.run();
+        }
+    }
+
+    /**
+     * Method that sets whether appended messages scroll the list when the user is at the bottom.
+     * Turned off while an older window of the conversation is shown, so paging towards the newest
+     * messages does not run past what the user is reading.
+     * @param isFollowingNewest Whether the list follows the newest messages.
+     */
+    public void setFollowingNewest(boolean isFollowingNewest) {
+        this.isFollowingNewest = isFollowingNewest;
+    }
+
+    /**
+     * Method that empties the list and drops the buffered messages, used when the page moves to
+     * another window of the conversation.
+     */
+    public void clear() {
+        cancel();
+        chatMessages.clear();
+        positions.clear();
+        adapter.notifyDataSetChanged();
+    }
+
+    /**
+     * Method that returns the message with an ID as currently listed or buffered.
+     * @param messageId String type ID of the message.
+     * @return Returns the ChatMessage or null if it is not in the list.
+     */
+    public ChatMessage get(String messageId) {
+        Integer position = positions.get(messageId);
+        if (position != null) {
+            return chatMessages.get(position);
+        }
+        for (ChatMessage pendingMessage : pendingMessages) {
+            if (messageId.equals(pendingMessage.id)) {
+                return pendingMessage;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Method that replaces a message whose text changed, notifying only its position.
+     * Messages still waiting for the next frame are replaced in the buffer.
+     * @param changedMessage ChatMessage with the same ID as the message it replaces.
+     */
+    public void update(ChatMessage changedMessage) {
+        update(changedMessage, null);
+    }
+
+    /**
+     * Method that replaces a changed message, notifying only its position with a payload, so the
+     * adapter can rebind just the part that changed.
+     * @param changedMessage ChatMessage with the same ID as the message it replaces.
+     * @param payload Payload of the change, null to rebind the whole item.
+     */
+    public void update(ChatMessage changedMessage, Object payload) {
+        Integer position = positions.get(changedMessage.id);
+        if (position != null) {
+            chatMessages.set(position, changedMessage);
+            MessageGrouping.group(chatMessages, position);
+            adapter.notifyItemChanged(position, payload);
+            return;
+        }
+        for (int i = 0; i < pendingMessages.size(); i++) {
+            if (changedMessage.id.equals(pendingMessages.get(i).id)) {
+                pendingMessages.set(i, changedMessage);
+                return;
+            }
+        }
+    }
+
+    /**
+     * Method that removes a deleted message, notifying only its position. The positions of the
+     * messages after it move up by one, which for the usual deletes near the newest end is short.
+     * @param messageId String type ID of the deleted message.
+     */
+    public void remove(String messageId) {
+        Integer position = positions.remove(messageId);
+        if (position == null) {
+            Iterator<ChatMessage> iterator = pendingMessages.iterator();
+            while (iterator.hasNext()) {
+                if (messageId.equals(iterator.next().id)) {
+                    iterator.remove();
+                }
+            }
+            return;
+        }
+        chatMessages.remove((int) position);
+        indexPositions(position);
+        adapter.notifyItemRemoved(position);
+        MessageGrouping.groupRemoval(chatMessages, position, this::onGroupingChanged);
+    }
+
+    /**
+     * Action listener that rebinds only the grouping of a message next to a change.
+     * @param position Position of the regrouped message.
+     */
+    private void onGroupingChanged(int position) {
+        adapter.notifyItemChanged(position, MessageGrouping.PAYLOAD_GROUPING);
+    }
+
+    /**
+     * Helper method that records the positions of the messages from a position to the end.
+     * @param start First position to record.
+     */
+    private void indexPositions(int start) {
+        for (int i = start; i < chatMessages.size(); i++) {
+            String messageId = chatMessages.get(i).id;
+            if (messageId != null) {
+                positions.put(messageId, i);
+            }
+        }
+    }
+}
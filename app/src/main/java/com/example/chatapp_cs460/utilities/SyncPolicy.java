@@ -0,0 +1,241 @@
+/**
+ * A process-wide policy that adapts how much the app downloads to the network it is on. It sorts
+ * the link into a quality class from connectivity, metering, bandwidth and the data saver settings,
+ * and the pages ask it for their query page sizes, whether to download avatars now and whether to
+ * prefetch. On Wi-Fi the app behaves as before, on a slow metered link it reads in small pages and
+ * leaves media to the local cache until the link gets better.
+ */
+package com.example.chatapp_cs460.utilities;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import com.example.chatapp_cs460.listeners.SyncPolicyListener;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class SyncPolicy {
+    /**
+     * Quality classes of the link, from worst to best.
+     */
+    public enum LinkQuality {
+        OFFLINE,
+        CONSTRAINED,
+        METERED,
+        UNMETERED
+    }
+
+    /**
+     * Downstream bandwidth below which a metered link counts as constrained.
+     */
+    static final int SLOW_LINK_KBPS = 1000;
+
+    /**
+     * Page sizes of the user directory changes query, by link quality. 0 fetches every change at once.
+     */
+    static final int DIRECTORY_PAGE_SIZE_METERED = 200;
+    static final int DIRECTORY_PAGE_SIZE_CONSTRAINED = 50;
+
+    /**
+     * Preference file of the policy and the key of the in-app data saver setting.
+     */
+    private static final String PREFERENCE_NAME = "chatAppSyncPreference";
+    private static final String KEY_DATA_SAVER = "dataSaver";
+
+    /**
+     * Single shared instance.
+     */
+    private static SyncPolicy instance;
+
+    /**
+     * Link state source, the data saver setting, the current link quality and the registered
+     * listeners. Changed only on the main thread, background work reads the link quality.
+     */
+    private ConnectivityProvider connectivityProvider;
+    private SharedPreferences preferences;
+    private boolean isDataSaverEnabled;
+    private volatile LinkQuality linkQuality = LinkQuality.UNMETERED;
+    private final List<SyncPolicyListener> listeners = new ArrayList<>();
+
+    /**
+     * Constructor for the SyncPolicy, used directly by tests with a simulated link.
+     * @param connectivityProvider ConnectivityProvider of the link state, null for an unmetered link.
+     * @param isDataSaverEnabled Whether the in-app data saver is on.
+     */
+    SyncPolicy(ConnectivityProvider connectivityProvider, boolean isDataSaverEnabled) {
+        this.isDataSaverEnabled = isDataSaverEnabled;
+        setConnectivityProvider(connectivityProvider);
+    }
+
+    /**
+     * Method that returns the shared policy, creating it on first use. Until start() is called it
+     * assumes an unmetered link.
+     * @return Returns the SyncPolicy instance.
+     */
+    public static synchronized SyncPolicy getInstance() {
+        if (instance == null) {
+            instance = new SyncPolicy(null, false);
+        }
+        return instance;
+    }
+
+    /**
+     * Method that starts watching the network of the device and reads the data saver setting.
+     * Calling it again has no effect.
+     * @param context Context class object.
+     */
+    public void start(Context context) {
+        if (preferences != null) {
+            return;
+        }
+        preferences = context.getApplicationContext().getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
+        isDataSaverEnabled = preferences.getBoolean(KEY_DATA_SAVER, false);
+        setConnectivityProvider(new SystemConnectivityProvider(context));
+    }
+
+    /**
+     * Method that replaces the source of the link state and applies its current state.
+     * @param connectivityProvider ConnectivityProvider of the link state, null for an unmetered link.
+     */
+    void setConnectivityProvider(ConnectivityProvider connectivityProvider) {
+        if (this.connectivityProvider != null) {
+            this.connectivityProvider.stop();
+        }
+        this.connectivityProvider = connectivityProvider;
+        if (connectivityProvider != null) {
+            connectivityProvider.start(this::refresh);
+        }
+        refresh();
+    }
+
+    /**
+     * Method that re-reads the link state and notifies the listeners if the link quality changed.
+     */
+    public void refresh() {
+        LinkQuality newQuality = classify();
+        if (newQuality == linkQuality) {
+            return;
+        }
+        linkQuality = newQuality;
+        for (SyncPolicyListener listener : new ArrayList<>(listeners)) {
+            listener.onSyncPolicyChanged(this);
+        }
+    }
+
+    /**
+     * Helper method that sorts the link into a quality class. Either data saver turns any link into
+     * a constrained one, so does a metered link slower than SLOW_LINK_KBPS.
+     * @return Returns the LinkQuality of the current link.
+     */
+    private LinkQuality classify() {
+        if (connectivityProvider == null) {
+            return isDataSaverEnabled ? LinkQuality.CONSTRAINED : LinkQuality.UNMETERED;
+        }
+        if (!connectivityProvider.isConnected()) {
+            return LinkQuality.OFFLINE;
+        }
+        if (isDataSaverEnabled || connectivityProvider.isDataSaverRestricted()) {
+            return LinkQuality.CONSTRAINED;
+        }
+        if (!connectivityProvider.isMetered()) {
+            return LinkQuality.UNMETERED;
+        }
+        int downstreamKbps = connectivityProvider.getDownstreamKbps();
+        return downstreamKbps > 0 && downstreamKbps < SLOW_LINK_KBPS
+                ? LinkQuality.CONSTRAINED : LinkQuality.METERED;
+    }
+
+    /**
+     * Method that returns the current link quality.
+     * @return Returns the LinkQuality.
+     */
+    public LinkQuality getLinkQuality() {
+        return linkQuality;
+    }
+
+    /**
+     * Method that tells whether the in-app data saver is on.
+     * @return Returns true when the user turned data saver on.
+     */
+    public boolean isDataSaverEnabled() {
+        return isDataSaverEnabled;
+    }
+
+    /**
+     * Method that turns the in-app data saver on or off and keeps the setting.
+     * @param isDataSaverEnabled Whether data saver should be on.
+     */
+    public void setDataSaverEnabled(boolean isDataSaverEnabled) {
+        this.isDataSaverEnabled = isDataSaverEnabled;
+        if (preferences != null) {
+            preferences.edit().putBoolean(KEY_DATA_SAVER, isDataSaverEnabled).apply();
+        }
+        refresh();
+    }
+
+    /**
+     * Method that scales a history window to the link. Offline reads come from the local cache,
+     * so they keep the full window.
+     * @param fullWindowSize Window size on an unmetered link.
+     * @return Returns the window size to read, at least 1.
+     */
+    public int getHistoryWindowSize(int fullWindowSize) {
+        switch (linkQuality) {
+            case METERED:
+                return Math.max(1, fullWindowSize / 2);
+            case CONSTRAINED:
+                return Math.max(1, fullWindowSize / 4);
+            default:
+                return fullWindowSize;
+        }
+    }
+
+    /**
+     * Method that returns the page size of the user directory changes query.
+     * @return Returns the number of users per page, 0 to fetch every change at once.
+     */
+    public int getDirectoryPageSize() {
+        switch (linkQuality) {
+            case METERED:
+                return DIRECTORY_PAGE_SIZE_METERED;
+            case CONSTRAINED:
+                return DIRECTORY_PAGE_SIZE_CONSTRAINED;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Method that tells whether avatar and attachment downloads should wait for a better link.
+     * Deferred media is still served from the local cache.
+     * @return Returns true on constrained links and offline.
+     */
+    public boolean shouldDeferMediaDownloads() {
+        return linkQuality == LinkQuality.CONSTRAINED || linkQuality == LinkQuality.OFFLINE;
+    }
+
+    /**
+     * Method that tells whether conversations may be prefetched in the background.
+     * @return Returns true only on unmetered links.
+     */
+    public boolean shouldPrefetch() {
+        return linkQuality == LinkQuality.UNMETERED;
+    }
+
+    /**
+     * Method that registers a listener for changes of the policy.
+     * @param listener SyncPolicyListener to be added.
+     */
+    public void addListener(SyncPolicyListener listener) {
+        listeners.add(listener);
+    }
+
+    /**
+     * Method that removes a listener for changes of the policy.
+     * @param listener SyncPolicyListener to be removed.
+     */
+    public void removeListener(SyncPolicyListener listener) {
+        listeners.remove(listener);
+    }
+}
@@ -0,0 +1,93 @@
+/**
+ * A connectivity provider that reads the default network of the device from the ConnectivityManager.
+ */
+package com.example.chatapp_cs460.utilities;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.os.Handler;
+import android.os.Looper;
+
+import androidx.annotation.NonNull;
+
+public class SystemConnectivityProvider implements ConnectivityProvider {
+    /**
+     * Connectivity service, the registered callback and the main thread handler changes are
+     * reported on.
+     */
+    private final ConnectivityManager connectivityManager;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private ConnectivityManager.NetworkCallback networkCallback;
+
+    /**
+     * Constructor for the SystemConnectivityProvider.
+     * @param context Context class object.
+     */
+    public SystemConnectivityProvider(Context context) {
+        connectivityManager = (ConnectivityManager) context.getApplicationContext()
+                .getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    @Override
+    public boolean isConnected() {
+        NetworkCapabilities capabilities = getCapabilities();
+        return capabilities != null && capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_INTERNET);
+    }
+
+    @Override
+    public boolean isMetered() {
+        NetworkCapabilities capabilities = getCapabilities();
+        return capabilities == null || !capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_NOT_METERED);
+    }
+
+    @Override
+    public int getDownstreamKbps() {
+        NetworkCapabilities capabilities = getCapabilities();
+        return capabilities != null ? capabilities.getLinkDownstreamBandwidthKbps() : 0;
+    }
+
+    @Override
+    public boolean isDataSaverRestricted() {
+        return connectivityManager.isActiveNetworkMetered()
+                && connectivityManager.getRestrictBackgroundStatus()
+                == ConnectivityManager.RESTRICT_BACKGROUND_STATUS_ENABLED;
+    }
+
+    @Override
+    public void start(Runnable onChanged) {
+        stop();
+        // Callbacks arrive on a binder thread, the policy is only touched on the main thread
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onCapabilitiesChanged(@NonNull Network network,
+                                              @NonNull NetworkCapabilities networkCapabilities) {
+                mainHandler.post(onChanged);
+            }
+
+            @Override
+            public void onLost(@NonNull Network network) {
+                mainHandler.post(onChanged);
+            }
+        };
+        connectivityManager.registerDefaultNetworkCallback(networkCallback);
+    }
+
+    @Override
+    public void stop() {
+        if (networkCallback != null) {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
+    }
+
+    /**
+     * Helper method that returns the capabilities of the default network.
+     * @return Returns the NetworkCapabilities or null when offline.
+     */
+    private NetworkCapabilities getCapabilities() {
+        Network network = connectivityManager.getActiveNetwork();
+        return network != null ? connectivityManager.getNetworkCapabilities(network) : null;
+    }
+}
@@ -0,0 +1,140 @@
+/**
+ * A background job that deletes an account. The finished steps and the number of deleted documents
+ * are kept while it runs, so when it is stopped and retried it skips the finished steps and keeps
+ * counting. Every committed batch also drops the deleted messages from the local caches.
+ */
+package com.example.chatapp_cs460.workers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.chatapp_cs460.crypto.MessageDecryptor;
+import com.example.chatapp_cs460.firebase.BulkDelete;
+import com.example.chatapp_cs460.listeners.BulkDeleteListener;
+import com.example.chatapp_cs460.utilities.MessageTextCache;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+public class BulkDeleteWorker extends Worker {
+    /**
+     * Keys of the input and progress data of the work.
+     */
+    public static final String KEY_USER_ID = "userId";
+    public static final String KEY_PROGRESS = "progress";
+
+    /**
+     * Preference file of the finished steps and deleted counts of interrupted work, keyed by work.
+     */
+    private static final String PREFERENCE_NAME = "chatAppDeletePreference";
+    private static final String KEY_STEP_SUFFIX = "_step";
+    private static final String KEY_DELETED_SUFFIX = "_deleted";
+
+    /**
+     * Constructor for the worker, called by WorkManager.
+     * @param context Application context.
+     * @param workerParams Parameters of the work.
+     */
+    public BulkDeleteWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Method that starts deleting an account, keeping a running deletion of the same account.
+     * @param context Context class object.
+     * @param userId String type ID of the account.
+     * @return Returns the UUID of the work, for observing its progress.
+     */
+    public static UUID deleteAccount(Context context, String userId) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+        Data input = new Data.Builder()
+                .putString(KEY_USER_ID, userId)
+                .build();
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(BulkDeleteWorker.class)
+                .setConstraints(constraints)
+                .setInputData(input)
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork(getWorkName(userId),
+                ExistingWorkPolicy.KEEP, request);
+        return request.getId();
+    }
+
+    /**
+     * Method that runs the deletion from the first step an earlier attempt did not finish.
+     * @return Returns success, or retry when the database could not be reached.
+     */
+    @NonNull
+    @Override
+    public Result doWork() {
+        String userId = getInputData().getString(KEY_USER_ID);
+        if (userId == null) {
+            return Result.failure();
+        }
+        String workName = getWorkName(userId);
+        SharedPreferences state = getApplicationContext().getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
+        BulkDeleteListener listener = new BulkDeleteListener() {
+            @Override
+            public void onBatchDeleted(List<String> messageIds, int deleted) {
+                state.edit().putInt(workName + KEY_DELETED_SUFFIX, deleted).apply();
+                removeLocalMessages(messageIds);
+                setProgressAsync(new Data.Builder().putInt(KEY_PROGRESS, deleted).build());
+            }
+
+            @Override
+            public void onStepFinished(int nextStep) {
+                state.edit().putInt(workName + KEY_STEP_SUFFIX, nextStep).apply();
+            }
+        };
+        try {
+            BulkDelete.deleteAccount(FirebaseFirestore.getInstance(), userId,
+                    state.getInt(workName + KEY_STEP_SUFFIX, 0),
+                    state.getInt(workName + KEY_DELETED_SUFFIX, 0), listener);
+            state.edit()
+                    .remove(workName + KEY_STEP_SUFFIX)
+                    .remove(workName + KEY_DELETED_SUFFIX)
+                    .apply();
+            return Result.success();
+        } catch (ExecutionException e) {
+            return Result.retry();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        }
+    }
+
+    /**
+     * Helper method that drops deleted messages from the local caches.
+     * @param messageIds List of the IDs of the deleted messages.
+     */
+    private void removeLocalMessages(List<String> messageIds) {
+        MessageTextCache messageTextCache = MessageTextCache.getInstance();
+        MessageDecryptor messageDecryptor = MessageDecryptor.getInstance();
+        for (String messageId : messageIds) {
+            messageTextCache.invalidate(messageId);
+            messageDecryptor.invalidate(messageId);
+        }
+    }
+
+    /**
+     * Helper method that returns the unique name of the deletion of an account.
+     * @param userId String type ID of the account.
+     * @return Returns the work name.
+     */
+    private static String getWorkName(String userId) {
+        return "bulkDelete_" + userId;
+    }
+}
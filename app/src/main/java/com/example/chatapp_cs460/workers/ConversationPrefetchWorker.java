@@ -0,0 +1,326 @@
+/**
+ * A background job that warms the local caches while the device is charging on an unmetered
+ * network. It ranks the conversations of the signed in user by recency weighted activity and
+ * fetches the newest window of each, plus the avatars of their users, until a byte budget is spent.
+ * The windows are the ones MessageWindowLoader opens a conversation with, so opening one of those
+ * chats later is served from the Firestore cache instead of the network.
+ */
+package com.example.chatapp_cs460.workers;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.chatapp_cs460.firebase.FirestoreAccounting;
+import com.example.chatapp_cs460.firebase.MessageArchive;
+import com.example.chatapp_cs460.firebase.MessageWindowLoader;
+import com.example.chatapp_cs460.utilities.AvatarCache;
+import com.example.chatapp_cs460.utilities.Constants;
+import com.example.chatapp_cs460.utilities.PreferenceManager;
+import com.example.chatapp_cs460.utilities.SyncPolicy;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.Source;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class ConversationPrefetchWorker extends Worker {
+    /**
+     * Unique name of the periodic work.
+     */
+    private static final String WORK_NAME = "conversationPrefetch";
+
+    /**
+     * Prefetch limits: bytes per run, recent messages scanned for ranking, conversations warmed
+     * and the half life of the activity weight.
+     */
+    private static final long BYTE_BUDGET = 2 * 1024 * 1024;
+    private static final int RECENT_MESSAGES_SCANNED = 200;
+    private static final int MAX_CONVERSATIONS = 10;
+    private static final long HALF_LIFE_MILLIS = TimeUnit.DAYS.toMillis(3);
+
+    /**
+     * Bytes fetched so far in this run.
+     */
+    private long bytesFetched = 0;
+
+    /**
+     * Constructor for the worker, called by WorkManager.
+     * @param context Application context.
+     * @param workerParams Parameters of the work.
+     */
+    public ConversationPrefetchWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Method that schedules the prefetch, keeping an already scheduled one.
+     * @param context Context class object.
+     */
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.UNMETERED)
+                .setRequiresCharging(true)
+                .build();
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                ConversationPrefetchWorker.class, 6, TimeUnit.HOURS)
+                .setConstraints(constraints)
+                .build();
+        WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    /**
+     * Method that ranks the conversations and prefetches them within the byte budget.
+     * @return Returns success, or retry when the database could not be reached.
+     */
+    @NonNull
+    @Override
+    public Result doWork() {
+        String userId = new PreferenceManager(getApplicationContext()).getString(Constants.KEY_USER_ID);
+        // Data saver turns prefetching off, even on the unmetered networks the work runs on
+        if (userId == null || !SyncPolicy.getInstance().shouldPrefetch()) {
+            return Result.success();
+        }
+        FirebaseFirestore database = FirebaseFirestore.getInstance();
+        try {
+            Map<String, Double> chatScores = rankChats(database, userId);
+            Map<String, Double> groupScores = rankGroups(database, userId);
+
+            // Warming the highest ranked conversations first, until the budget is spent
+            for (String conversation : getTopConversations(chatScores, groupScores)) {
+                if (bytesFetched >= BYTE_BUDGET || isStopped()) {
+                    break;
+                }
+                if (groupScores.containsKey(conversation)) {
+                    prefetchGroup(database, conversation);
+                } else {
+                    prefetchChat(database, userId, conversation);
+                }
+            }
+            return Result.success();
+        } catch (ExecutionException e) {
+            return Result.retry();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        }
+    }
+
+    /**
+     * Method that scores the users the signed in user recently chatted with. Every message adds a
+     * weight that halves with each half life of age, so frequent and recent chats rank highest.
+     * @param database FirebaseFirestore instance.
+     * @param userId String type ID of the signed in user.
+     * @return Returns the scores by the ID of the other user.
+     * @throws ExecutionException If a database read fails.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    private Map<String, Double> rankChats(FirebaseFirestore database, String userId)
+            throws ExecutionException, InterruptedException {
+        Map<String, Double> scores = new HashMap<>();
+        long now = System.currentTimeMillis();
+        String[][] directions = {
+                {Constants.KEY_RECEIVER_ID, Constants.KEY_SENDER_ID},
+                {Constants.KEY_SENDER_ID, Constants.KEY_RECEIVER_ID}
+        };
+        for (String[] direction : directions) {
+            QuerySnapshot recent = fetch(database.collection(Constants.KEY_COLLECTION_CHAT)
+                    .whereEqualTo(direction[0], userId)
+                    .orderBy(Constants.KEY_TIMESTAMP, Query.Direction.DESCENDING)
+                    .limit(RECENT_MESSAGES_SCANNED));
+            for (DocumentSnapshot document : recent.getDocuments()) {
+                String otherUserId = document.getString(direction[1]);
+                Date timestamp = document.getDate(Constants.KEY_TIMESTAMP);
+                if (otherUserId != null && timestamp != null) {
+                    addScore(scores, otherUserId, now - timestamp.getTime());
+                }
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Method that scores the group conversations of the signed in user by their last activity.
+     * @param database FirebaseFirestore instance.
+     * @param userId String type ID of the signed in user.
+     * @return Returns the scores by conversation ID.
+     * @throws ExecutionException If a database read fails.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    private Map<String, Double> rankGroups(FirebaseFirestore database, String userId)
+            throws ExecutionException, InterruptedException {
+        Map<String, Double> scores = new HashMap<>();
+        long now = System.currentTimeMillis();
+        QuerySnapshot conversations = fetch(database.collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                .whereArrayContains(Constants.KEY_MEMBERS, userId));
+        for (DocumentSnapshot document : conversations.getDocuments()) {
+            Date timestamp = document.getDate(Constants.KEY_TIMESTAMP);
+            if (timestamp != null) {
+                addScore(scores, document.getId(), now - timestamp.getTime());
+            }
+        }
+        return scores;
+    }
+
+    /**
+     * Helper method that adds the recency weight of one activity to a score.
+     * @param scores Map of scores.
+     * @param key Key of the conversation.
+     * @param ageMillis Age of the activity in milliseconds.
+     */
+    private static void addScore(Map<String, Double> scores, String key, long ageMillis) {
+        double weight = Math.pow(0.5, (double) Math.max(0, ageMillis) / HALF_LIFE_MILLIS);
+        Double score = scores.get(key);
+        scores.put(key, score == null ? weight : score + weight);
+    }
+
+    /**
+     * Helper method that returns the highest ranked conversations of both kinds.
+     * @param chatScores Scores of the chats with single users.
+     * @param groupScores Scores of the group conversations.
+     * @return Returns the conversation keys in descending score order.
+     */
+    private static List<String> getTopConversations(Map<String, Double> chatScores,
+                                                    Map<String, Double> groupScores) {
+        Map<String, Double> scores = new HashMap<>(chatScores);
+        scores.putAll(groupScores);
+        List<String> keys = new ArrayList<>(scores.keySet());
+        Collections.sort(keys, (obj1, obj2) -> Double.compare(scores.get(obj2), scores.get(obj1)));
+        return keys.size() > MAX_CONVERSATIONS ? keys.subList(0, MAX_CONVERSATIONS) : keys;
+    }
+
+    /**
+     * Method that prefetches the newest messages, archive buckets and avatar of a chat with a
+     * single user.
+     * @param database FirebaseFirestore instance.
+     * @param userId String type ID of the signed in user.
+     * @param otherUserId String type ID of the other user.
+     * @throws ExecutionException If a database read fails.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    private void prefetchChat(FirebaseFirestore database, String userId, String otherUserId)
+            throws ExecutionException, InterruptedException {
+        // The newest windows, as MessageWindowLoader opens the chat
+        String conversationKey = MessageArchive.getConversationKey(userId, otherUserId);
+        fetch(database.collection(Constants.KEY_COLLECTION_CHAT)
+                .whereEqualTo(Constants.KEY_CONVERSATION_KEY, conversationKey)
+                .orderBy(Constants.KEY_TIMESTAMP)
+                .limitToLast(MessageWindowLoader.MESSAGE_WINDOW_SIZE));
+        if (bytesFetched < BYTE_BUDGET) {
+            fetch(database.collection(Constants.KEY_COLLECTION_CHAT_ARCHIVE)
+                    .whereEqualTo(Constants.KEY_CONVERSATION_KEY, conversationKey)
+                    .orderBy(Constants.KEY_BUCKET_START)
+                    .limitToLast(MessageWindowLoader.ARCHIVE_WINDOW_SIZE));
+        }
+        prefetchAvatar(database, otherUserId);
+    }
+
+    /**
+     * Method that prefetches the newest messages of a group conversation and its senders' avatars.
+     * @param database FirebaseFirestore instance.
+     * @param conversationId String type ID of the group conversation.
+     * @throws ExecutionException If a database read fails.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    private void prefetchGroup(FirebaseFirestore database, String conversationId)
+            throws ExecutionException, InterruptedException {
+        QuerySnapshot tail = fetch(database.collection(Constants.KEY_COLLECTION_CONVERSATIONS)
+                .document(conversationId)
+                .collection(Constants.KEY_COLLECTION_MESSAGES)
+                .orderBy(Constants.KEY_TIMESTAMP)
+                .limitToLast(MessageWindowLoader.MESSAGE_WINDOW_SIZE));
+        List<String> senderIds = new ArrayList<>();
+        for (DocumentSnapshot document : tail.getDocuments()) {
+            String senderId = document.getString(Constants.KEY_SENDER_ID);
+            if (senderId != null && !senderIds.contains(senderId)) {
+                senderIds.add(senderId);
+            }
+        }
+        for (String senderId : senderIds) {
+            if (bytesFetched >= BYTE_BUDGET) {
+                break;
+            }
+            prefetchAvatar(database, senderId);
+        }
+    }
+
+    /**
+     * Method that fetches a user document into the Firestore cache and decodes its avatar into
+     * the shared AvatarCache, unless it is already decoded.
+     * @param database FirebaseFirestore instance.
+     * @param userId String type ID of the user.
+     * @throws ExecutionException If a database read fails.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    private void prefetchAvatar(FirebaseFirestore database, String userId)
+            throws ExecutionException, InterruptedException {
+        if (AvatarCache.getInstance().get(userId) != null) {
+            return;
+        }
+        DocumentSnapshot user = Tasks.await(FirestoreAccounting.getInstance().get(database
+                .collection(Constants.KEY_COLLECTION_USERS)
+                .document(userId), Source.SERVER, "prefetch.avatar"));
+        bytesFetched += estimateBytes(user);
+        AvatarCache.getInstance().putEncoded(userId, user.getString(Constants.KEY_IMAGE));
+    }
+
+    /**
+     * Helper method that runs a query against the server, which also stores the result in the
+     * Firestore cache, and counts the fetched bytes.
+     * @param query Query to run.
+     * @return Returns the QuerySnapshot.
+     * @throws ExecutionException If the database read fails.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    private QuerySnapshot fetch(Query query) throws ExecutionException, InterruptedException {
+        QuerySnapshot snapshot = Tasks.await(FirestoreAccounting.getInstance()
+                .get(query, Source.SERVER, "prefetch.messages"));
+        countBytes(snapshot);
+        return snapshot;
+    }
+
+    /**
+     * Helper method that adds the estimated size of the documents to the fetched bytes.
+     * @param snapshot QuerySnapshot of fetched documents.
+     */
+    private void countBytes(QuerySnapshot snapshot) {
+        for (DocumentSnapshot document : snapshot.getDocuments()) {
+            bytesFetched += estimateBytes(document);
+        }
+    }
+
+    /**
+     * Helper method that estimates the size of a document from its String values.
+     * @param document DocumentSnapshot to measure.
+     * @return Returns the estimated size in bytes.
+     */
+    private static long estimateBytes(DocumentSnapshot document) {
+        long bytes = document.getId().length();
+        Map<String, Object> data = document.getData();
+        if (data != null) {
+            for (Map.Entry<String, Object> field : data.entrySet()) {
+                Object value = field.getValue();
+                bytes += field.getKey().length() + (value instanceof String ? ((String) value).length() : 8);
+            }
+        }
+        return bytes;
+    }
+}
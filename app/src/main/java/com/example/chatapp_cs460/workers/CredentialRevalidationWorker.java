@@ -0,0 +1,119 @@
+/**
+ * A background job that confirms a sign in that was accepted by the local verifier of the
+ * CredentialStore. It reads the account from the server once a connection is available. When the
+ * account was deleted or its email or password changed, the verifier is dropped and the user is
+ * marked as signed out, otherwise the stored name and image are refreshed.
+ */
+package com.example.chatapp_cs460.workers;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.chatapp_cs460.crypto.CredentialStore;
+import com.example.chatapp_cs460.firebase.FirestoreAccounting;
+import com.example.chatapp_cs460.utilities.Constants;
+import com.example.chatapp_cs460.utilities.PreferenceManager;
+import com.google.android.gms.tasks.Tasks;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Source;
+
+import java.util.concurrent.ExecutionException;
+
+public class CredentialRevalidationWorker extends Worker {
+    /**
+     * Keys of the input data of the work.
+     */
+    private static final String KEY_INPUT_EMAIL = "email";
+    private static final String KEY_INPUT_USER_ID = "userId";
+
+    /**
+     * Constructor for the worker, called by WorkManager.
+     * @param context Application context.
+     * @param workerParams Parameters of the work.
+     */
+    public CredentialRevalidationWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Method that schedules the revalidation of a local sign in, replacing a pending one.
+     * @param context Context class object.
+     * @param email String type email the user signed in with.
+     * @param userId String type ID of the account the verifier belongs to.
+     */
+    public static void enqueue(Context context, String email, String userId) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+        Data input = new Data.Builder()
+                .putString(KEY_INPUT_EMAIL, email)
+                .putString(KEY_INPUT_USER_ID, userId)
+                .build();
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(CredentialRevalidationWorker.class)
+                .setConstraints(constraints)
+                .setInputData(input)
+                .build();
+        WorkManager.getInstance(context).enqueueUniqueWork("credentialRevalidation",
+                ExistingWorkPolicy.REPLACE, request);
+    }
+
+    /**
+     * Method that reads the account from the server and compares it with the local verifier.
+     * @return Returns success, or retry when the server could not be reached.
+     */
+    @NonNull
+    @Override
+    public Result doWork() {
+        String email = getInputData().getString(KEY_INPUT_EMAIL);
+        String userId = getInputData().getString(KEY_INPUT_USER_ID);
+        if (email == null || userId == null) {
+            return Result.failure();
+        }
+        Context context = getApplicationContext();
+        CredentialStore credentialStore = CredentialStore.getInstance();
+        DocumentSnapshot user;
+        try {
+            user = Tasks.await(FirestoreAccounting.getInstance().get(FirebaseFirestore.getInstance()
+                    .collection(Constants.KEY_COLLECTION_USERS)
+                    .document(userId), Source.SERVER, "users.revalidate"));
+        } catch (ExecutionException e) {
+            return Result.retry();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        }
+
+        PreferenceManager preferenceManager = new PreferenceManager(context);
+        boolean isCurrentUser = userId.equals(preferenceManager.getString(Constants.KEY_USER_ID));
+        if (!user.exists()
+                || Boolean.TRUE.equals(user.getBoolean(Constants.KEY_DELETED))
+                || !email.trim().equalsIgnoreCase(String.valueOf(user.getString(Constants.KEY_EMAIL)).trim())
+                || !credentialStore.matches(context, email, user.getString(Constants.KEY_PASSWORD))) {
+            // The local sign in is no longer valid, the next sign in has to ask the server
+            credentialStore.forget(context, email);
+            if (isCurrentUser) {
+                preferenceManager.putBoolean(Constants.KEY_IS_SIGNED_IN, false);
+            }
+            return Result.success();
+        }
+
+        String name = user.getString(Constants.KEY_NAME);
+        String image = user.getString(Constants.KEY_IMAGE);
+        credentialStore.updateAccount(context, email, name, image);
+        if (isCurrentUser) {
+            preferenceManager.putString(Constants.KEY_NAME, name);
+            preferenceManager.putString(Constants.KEY_IMAGE, image);
+        }
+        return Result.success();
+    }
+}
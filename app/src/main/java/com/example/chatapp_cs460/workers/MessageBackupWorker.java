@@ -0,0 +1,208 @@
+/**
+ * A background job that exports a conversation into a backup file, or restores one. The messages
+ * stream between the database and the file a page at a time, so backups of any size run in
+ * constant memory. A restore keeps the number of messages it has committed, so when it is stopped
+ * and retried it continues after the last committed batch instead of starting over.
+ */
+package com.example.chatapp_cs460.workers;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.Data;
+import androidx.work.ExistingWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.OneTimeWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.chatapp_cs460.firebase.MessageBackup;
+import com.example.chatapp_cs460.utilities.Constants;
+import com.example.chatapp_cs460.utilities.MessageBackupFile;
+import com.example.chatapp_cs460.utilities.PreferenceManager;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+
+public class MessageBackupWorker extends Worker {
+    /**
+     * Keys of the input and progress data of the work.
+     */
+    public static final String KEY_MODE = "mode";
+    public static final String KEY_SCOPE = "scope";
+    public static final String KEY_ID = "id";
+    public static final String KEY_URI = "uri";
+    public static final String KEY_FORMAT = "format";
+    public static final String KEY_PROGRESS = "progress";
+
+    /**
+     * Modes of the work.
+     */
+    private static final String MODE_EXPORT = "export";
+    private static final String MODE_RESTORE = "restore";
+
+    /**
+     * Preference file of the committed counts of interrupted restores, keyed by backup.
+     */
+    private static final String PREFERENCE_NAME = "chatAppBackupPreference";
+
+    /**
+     * Constructor for the worker, called by WorkManager.
+     * @param context Application context.
+     * @param workerParams Parameters of the work.
+     */
+    public MessageBackupWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Method that starts an export, replacing a running export of the same messages.
+     * @param context Context class object.
+     * @param scope String type scope, one of the MessageBackupFile SCOPE constants.
+     * @param id String type ID of the other user, the user or the group.
+     * @param uri Uri of the file to write.
+     * @param format Format of the file.
+     * @return Returns the UUID of the work, for observing its progress.
+     */
+    public static UUID export(Context context, String scope, String id, Uri uri, MessageBackupFile.Format format) {
+        Data input = new Data.Builder()
+                .putString(KEY_MODE, MODE_EXPORT)
+                .putString(KEY_SCOPE, scope)
+                .putString(KEY_ID, id)
+                .putString(KEY_URI, uri.toString())
+                .putString(KEY_FORMAT, format.name())
+                .build();
+        return enqueue(context, "messageBackup_" + scope + "_" + id, input);
+    }
+
+    /**
+     * Method that starts a restore, keeping a running restore of the same file.
+     * @param context Context class object.
+     * @param uri Uri of the backup file, readable by the app until the restore finishes.
+     * @return Returns the UUID of the work, for observing its progress.
+     */
+    public static UUID restore(Context context, Uri uri) {
+        Data input = new Data.Builder()
+                .putString(KEY_MODE, MODE_RESTORE)
+                .putString(KEY_URI, uri.toString())
+                .build();
+        return enqueue(context, "messageRestore_" + uri, input);
+    }
+
+    /**
+     * Helper method that enqueues a unique one-off backup work that needs a connection.
+     * @param context Context class object.
+     * @param workName String type unique name of the work.
+     * @param input Data of the work.
+     * @return Returns the UUID of the work.
+     */
+    private static UUID enqueue(Context context, String workName, Data input) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .build();
+        OneTimeWorkRequest request = new OneTimeWorkRequest.Builder(MessageBackupWorker.class)
+                .setConstraints(constraints)
+                .setInputData(input)
+                .build();
+        boolean isExport = MODE_EXPORT.equals(input.getString(KEY_MODE));
+        WorkManager.getInstance(context).enqueueUniqueWork(workName,
+                isExport ? ExistingWorkPolicy.REPLACE : ExistingWorkPolicy.KEEP, request);
+        return request.getId();
+    }
+
+    /**
+     * Method that runs the export or restore.
+     * @return Returns success, retry when the database could not be reached, or failure when the
+     * file can not be used.
+     */
+    @NonNull
+    @Override
+    public Result doWork() {
+        String userId = new PreferenceManager(getApplicationContext()).getString(Constants.KEY_USER_ID);
+        String uriString = getInputData().getString(KEY_URI);
+        if (userId == null || uriString == null) {
+            return Result.failure();
+        }
+        Uri uri = Uri.parse(uriString);
+        try {
+            if (MODE_RESTORE.equals(getInputData().getString(KEY_MODE))) {
+                return restore(uri);
+            }
+            return export(userId, uri);
+        } catch (ExecutionException e) {
+            return Result.retry();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        } catch (IOException e) {
+            Log.e("Backup", "Unable to use backup file", e);
+            return Result.failure();
+        }
+    }
+
+    /**
+     * Helper method that exports the messages of the input scope. An export that is retried
+     * starts over, rewriting the file.
+     * @param userId String type ID of the signed in user.
+     * @param uri Uri of the file to write.
+     * @return Returns success.
+     */
+    private Result export(String userId, Uri uri) throws ExecutionException, InterruptedException, IOException {
+        String scope = getInputData().getString(KEY_SCOPE);
+        String id = getInputData().getString(KEY_ID);
+        MessageBackupFile.Format format = MessageBackupFile.Format.valueOf(getInputData().getString(KEY_FORMAT));
+        MessageBackupFile.Header header = new MessageBackupFile.Header(scope, id, System.currentTimeMillis());
+        OutputStream output = getApplicationContext().getContentResolver().openOutputStream(uri, "wt");
+        if (output == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        try (MessageBackupFile.BackupWriter writer = MessageBackupFile.openWriter(output, format, header)) {
+            MessageBackup.export(FirebaseFirestore.getInstance(), userId, writer, header, this::reportProgress);
+        }
+        return Result.success();
+    }
+
+    /**
+     * Helper method that restores a backup, continuing after the messages an earlier attempt of
+     * the same backup committed.
+     * @param uri Uri of the backup file.
+     * @return Returns success.
+     */
+    private Result restore(Uri uri) throws ExecutionException, InterruptedException, IOException {
+        InputStream input = getApplicationContext().getContentResolver().openInputStream(uri);
+        if (input == null) {
+            throw new FileNotFoundException(uri.toString());
+        }
+        SharedPreferences committedCounts = getApplicationContext()
+                .getSharedPreferences(PREFERENCE_NAME, Context.MODE_PRIVATE);
+        try (MessageBackupFile.BackupReader reader = MessageBackupFile.openReader(input)) {
+            // The export time tells a new backup written to the same file apart
+            String key = uri + "@" + reader.getHeader().exportedAt;
+            MessageBackup.restore(FirebaseFirestore.getInstance(), reader,
+                    committedCounts.getInt(key, 0), committed -> {
+                        committedCounts.edit().putInt(key, committed).apply();
+                        reportProgress(committed);
+                    });
+            committedCounts.edit().remove(key).apply();
+        }
+        return Result.success();
+    }
+
+    /**
+     * Helper method that publishes the number of messages handled so far as the work progress.
+     * @param messages Number of exported or committed messages.
+     */
+    private void reportProgress(int messages) {
+        setProgressAsync(new Data.Builder().putInt(KEY_PROGRESS, messages).build());
+    }
+}
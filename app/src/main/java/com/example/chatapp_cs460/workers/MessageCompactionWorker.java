@@ -0,0 +1,82 @@
+/**
+ * A background job that compacts the older sent messages of the signed in user into
+ * day bucketed archive documents. Runs once a day while online and the battery is not low.
+ */
+package com.example.chatapp_cs460.workers;
+
+import android.content.Context;
+
+import androidx.annotation.NonNull;
+import androidx.work.Constraints;
+import androidx.work.ExistingPeriodicWorkPolicy;
+import androidx.work.NetworkType;
+import androidx.work.PeriodicWorkRequest;
+import androidx.work.WorkManager;
+import androidx.work.Worker;
+import androidx.work.WorkerParameters;
+
+import com.example.chatapp_cs460.firebase.MessageArchive;
+import com.example.chatapp_cs460.utilities.Constants;
+import com.example.chatapp_cs460.utilities.PreferenceManager;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.Date;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+public class MessageCompactionWorker extends Worker {
+    /**
+     * Unique name of the periodic work.
+     */
+    private static final String WORK_NAME = "messageCompaction";
+
+    /**
+     * Constructor for the worker, called by WorkManager.
+     * @param context Application context.
+     * @param workerParams Parameters of the work.
+     */
+    public MessageCompactionWorker(@NonNull Context context, @NonNull WorkerParameters workerParams) {
+        super(context, workerParams);
+    }
+
+    /**
+     * Method that schedules the daily compaction, keeping an already scheduled one.
+     * @param context Context class object.
+     */
+    public static void schedule(Context context) {
+        Constraints constraints = new Constraints.Builder()
+                .setRequiredNetworkType(NetworkType.CONNECTED)
+                .setRequiresBatteryNotLow(true)
+                .build();
+        PeriodicWorkRequest request = new PeriodicWorkRequest.Builder(
+                MessageCompactionWorker.class, 1, TimeUnit.DAYS)
+                .setConstraints(constraints)
+                .build();
+        WorkManager.getInstance(context)
+                .enqueueUniquePeriodicWork(WORK_NAME, ExistingPeriodicWorkPolicy.KEEP, request);
+    }
+
+    /**
+     * Method that archives the sent messages older than the recent tail.
+     * @return Returns success, or retry when the database could not be reached.
+     */
+    @NonNull
+    @Override
+    public Result doWork() {
+        String userId = new PreferenceManager(getApplicationContext()).getString(Constants.KEY_USER_ID);
+        if (userId == null) {
+            return Result.success();
+        }
+        // Only messages older than the recent tail are archived
+        Date cutoff = new Date(System.currentTimeMillis() - MessageArchive.RECENT_TAIL_MILLIS);
+        try {
+            MessageArchive.compact(FirebaseFirestore.getInstance(), userId, cutoff);
+            return Result.success();
+        } catch (ExecutionException e) {
+            return Result.retry();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return Result.retry();
+        }
+    }
+}
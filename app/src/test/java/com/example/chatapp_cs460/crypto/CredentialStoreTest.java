@@ -0,0 +1,57 @@
+/**
+ * Credential store test class
+ */
+package com.example.chatapp_cs460.crypto;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+/**
+ * Creates sign in verifiers and checks passwords against them, including verifiers that were
+ * tampered with.
+ */
+public class CredentialStoreTest {
+    private static final byte[] SALT = {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12, 13, 14, 15, 16};
+
+    @Test
+    public void verifier_matchesOnlyItsPassword() throws Exception {
+        String verifier = CredentialStore.createVerifier("hunter2", SALT, 1000);
+
+        assertTrue(CredentialStore.matches(verifier, "hunter2"));
+        assertFalse(CredentialStore.matches(verifier, "hunter3"));
+        assertFalse(CredentialStore.matches(verifier, ""));
+        assertFalse(verifier.contains("hunter2"));
+    }
+
+    @Test
+    public void verifier_dependsOnSalt() throws Exception {
+        byte[] otherSalt = SALT.clone();
+        otherSalt[0] = 99;
+
+        String verifier = CredentialStore.createVerifier("hunter2", SALT, 1000);
+        String other = CredentialStore.createVerifier("hunter2", otherSalt, 1000);
+        assertNotEquals(verifier, other);
+        assertTrue(CredentialStore.matches(other, "hunter2"));
+    }
+
+    @Test
+    public void verifier_recordsIterations() throws Exception {
+        String verifier = CredentialStore.createVerifier("hunter2", SALT, CredentialStore.ITERATIONS);
+
+        assertTrue(verifier.startsWith(CredentialStore.ITERATIONS + "$"));
+        assertTrue(CredentialStore.matches(verifier, "hunter2"));
+        // Fewer iterations make a different hash, so a lowered count is rejected
+        assertFalse(CredentialStore.matches(verifier.replaceFirst("^\\d+", "1000"), "hunter2"));
+    }
+
+    @Test
+    public void malformedVerifier_neverMatches() {
+        assertFalse(CredentialStore.matches("", "hunter2"));
+        assertFalse(CredentialStore.matches("1000$0102", "hunter2"));
+        assertFalse(CredentialStore.matches("x$0102$0304", "hunter2"));
+        assertFalse(CredentialStore.matches("1000$zz$0304", "hunter2"));
+        assertFalse(CredentialStore.matches("0$0102$0304", "hunter2"));
+        assertFalse(CredentialStore.matches("1000$$0304", "hunter2"));
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Decryption throughput test class
+ */
+package com.example.chatapp_cs460.crypto;
+
+import com.example.chatapp_cs460.models.ChatMessage;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Decrypts a 10k message history with the worker pool within a time limit, then checks that
+ * reading the same history again is served from the plaintext cache.
+ */
+public class MessageDecryptorBenchmarkTest {
+    private static final int HISTORY_SIZE = 10000;
+    private static final String CONVERSATION_KEY = "alice_bob";
+    private static final byte[] ALICE_KEY_ID = {1, 1, 1, 1, 1, 1, 1, 1};
+    private static final byte[] BOB_KEY_ID = {2, 2, 2, 2, 2, 2, 2, 2};
+
+    @Test
+    public void decryptHistory_throughput() throws Exception {
+        SessionKeys sessionKeys = new SessionKeys(MessageCipher.deriveSessionKey(new byte[32], CONVERSATION_KEY),
+                ALICE_KEY_ID, BOB_KEY_ID);
+        List<ChatMessage> history = createHistory(sessionKeys);
+        int threads = Math.max(2, Runtime.getRuntime().availableProcessors() - 1);
+        MessageDecryptor decryptor = new MessageDecryptor(threads, Runnable::run);
+
+        // First pass decrypts every message on the pool
+        List<ChatMessage> delivered = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch done = new CountDownLatch(
+                (HISTORY_SIZE + MessageDecryptor.BATCH_SIZE - 1) / MessageDecryptor.BATCH_SIZE);
+        decryptor.decrypt(history, sessionKeys, CONVERSATION_KEY, batch -> {
+            delivered.addAll(batch);
+            done.countDown();
+        });
+        assertTrue("Decrypting " + HISTORY_SIZE + " messages on " + threads + " threads took over 60 s",
+                done.await(60, TimeUnit.SECONDS));
+
+        assertEquals(HISTORY_SIZE, delivered.size());
+        for (ChatMessage chatMessage : history) {
+            assertEquals("Message number " + chatMessage.id, chatMessage.message);
+        }
+
+        // Second pass never reaches the pool, the whole history is delivered from the cache at once
+        for (ChatMessage chatMessage : history) {
+            chatMessage.message = null;
+        }
+        AtomicInteger deliveries = new AtomicInteger();
+        decryptor.decrypt(history, sessionKeys, CONVERSATION_KEY, batch -> {
+            deliveries.incrementAndGet();
+            assertEquals(HISTORY_SIZE, batch.size());
+        });
+        assertEquals(1, deliveries.get());
+        assertEquals("Message number 0", history.get(0).message);
+    }
+
+    @Test
+    public void decrypt_wrongConversation_isRejected() throws Exception {
+        SessionKeys sessionKeys = new SessionKeys(MessageCipher.deriveSessionKey(new byte[32], CONVERSATION_KEY),
+                ALICE_KEY_ID, BOB_KEY_ID);
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = "moved";
+        chatMessage.ciphertext = MessageCipher.encrypt(sessionKeys.getCurrentKey(), sessionKeys.getCurrentKeyId(),
+                "alice_carol", "Hello");
+
+        List<ChatMessage> delivered = new ArrayList<>();
+        CountDownLatch done = new CountDownLatch(1);
+        new MessageDecryptor(1, Runnable::run).decrypt(Collections.singletonList(chatMessage), sessionKeys,
+                CONVERSATION_KEY, batch -> {
+                    delivered.addAll(batch);
+                    done.countDown();
+                });
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        assertEquals(MessageDecryptor.UNDECRYPTABLE_TEXT, delivered.get(0).message);
+    }
+
+    private static List<ChatMessage> createHistory(SessionKeys sessionKeys) throws Exception {
+        List<ChatMessage> history = new ArrayList<>();
+        for (int i = 0; i < HISTORY_SIZE; i++) {
+            ChatMessage chatMessage = new ChatMessage();
+            chatMessage.id = String.valueOf(i);
+            chatMessage.ciphertext = MessageCipher.encrypt(sessionKeys.getCurrentKey(), sessionKeys.getCurrentKeyId(),
+                    CONVERSATION_KEY, "Message number " + i);
+            history.add(chatMessage);
+        }
+        return history;
+    }
+}
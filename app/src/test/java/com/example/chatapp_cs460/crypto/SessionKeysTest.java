@@ -0,0 +1,109 @@
+/**
+ * Session key history test class
+ */
+package com.example.chatapp_cs460.crypto;
+
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.util.List;
+
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import static org.junit.Assert.*;
+
+/**
+ * Encrypts messages under a sequence of key pairs of one user, checking that the key ID in the
+ * payload picks the right session key from the history, in both directions, and that payloads
+ * written before key IDs still decrypt.
+ */
+public class SessionKeysTest {
+    private static final String CONVERSATION_KEY = "alice_bob";
+    private static final byte[] ALICE_KEY_ID = {1, 1, 1, 1, 1, 1, 1, 1};
+    private static final byte[] BOB_OLD_KEY_ID = {2, 2, 2, 2, 2, 2, 2, 2};
+    private static final byte[] BOB_NEW_KEY_ID = {3, 3, 3, 3, 3, 3, 3, 3};
+
+    @Test
+    public void messagesOfAnEarlierKey_decryptWithTheHistory() throws Exception {
+        byte[] oldKey = MessageCipher.deriveSessionKey(new byte[]{2}, CONVERSATION_KEY);
+        byte[] newKey = MessageCipher.deriveSessionKey(new byte[]{3}, CONVERSATION_KEY);
+        // Bob sent this before publishing a new key pair
+        byte[] payload = MessageCipher.encrypt(oldKey, concat(BOB_OLD_KEY_ID, ALICE_KEY_ID), CONVERSATION_KEY, "Hi");
+
+        SessionKeys current = new SessionKeys(newKey, ALICE_KEY_ID, BOB_NEW_KEY_ID);
+        assertNull(decrypt(current, payload));
+
+        current.put(oldKey, ALICE_KEY_ID, BOB_OLD_KEY_ID);
+        List<byte[]> candidates = current.getCandidates(payload);
+        assertEquals(1, candidates.size());
+        assertSame(oldKey, candidates.get(0));
+        assertEquals("Hi", decrypt(current, payload));
+    }
+
+    @Test
+    public void sentMessages_nameTheSenderKeyFirst() throws Exception {
+        byte[] key = MessageCipher.deriveSessionKey(new byte[]{3}, CONVERSATION_KEY);
+        SessionKeys sessionKeys = new SessionKeys(key, ALICE_KEY_ID, BOB_NEW_KEY_ID);
+
+        byte[] payload = MessageCipher.encrypt(key, sessionKeys.getCurrentKeyId(), CONVERSATION_KEY, "Hello");
+
+        assertArrayEquals(concat(ALICE_KEY_ID, BOB_NEW_KEY_ID), MessageCipher.getKeyId(payload));
+        assertEquals("Hello", decrypt(sessionKeys, payload));
+        // Bob's keys for the same session name the key pairs the other way around
+        assertEquals("Hello", decrypt(new SessionKeys(key, BOB_NEW_KEY_ID, ALICE_KEY_ID), payload));
+    }
+
+    @Test
+    public void payloadsWrittenBeforeKeyIds_decryptWithAnyKnownKey() throws Exception {
+        byte[] oldKey = MessageCipher.deriveSessionKey(new byte[]{2}, CONVERSATION_KEY);
+        byte[] newKey = MessageCipher.deriveSessionKey(new byte[]{3}, CONVERSATION_KEY);
+        // Nonce followed by the ciphertext and tag, without a key ID header
+        byte[] nonce = new byte[12];
+        Cipher cipher = Cipher.getInstance("AES/GCM/NoPadding");
+        cipher.init(Cipher.ENCRYPT_MODE, new SecretKeySpec(oldKey, "AES"), new GCMParameterSpec(128, nonce));
+        cipher.updateAAD(CONVERSATION_KEY.getBytes(StandardCharsets.UTF_8));
+        byte[] payload = concat(nonce, cipher.doFinal("Before".getBytes(StandardCharsets.UTF_8)));
+
+        SessionKeys sessionKeys = new SessionKeys(newKey, ALICE_KEY_ID, BOB_NEW_KEY_ID);
+        sessionKeys.put(oldKey, ALICE_KEY_ID, BOB_OLD_KEY_ID);
+
+        assertNull(MessageCipher.getKeyId(payload));
+        assertEquals("Before", decrypt(sessionKeys, payload));
+    }
+
+    @Test(expected = GeneralSecurityException.class)
+    public void alteredKeyId_isRejected() throws Exception {
+        byte[] key = MessageCipher.deriveSessionKey(new byte[]{3}, CONVERSATION_KEY);
+        byte[] payload = MessageCipher.encrypt(key, concat(ALICE_KEY_ID, BOB_NEW_KEY_ID), CONVERSATION_KEY, "Hello");
+        // The key ID header is authenticated with the message
+        payload[4] ^= 1;
+        MessageCipher.decrypt(key, CONVERSATION_KEY, payload);
+    }
+
+    /**
+     * Helper method that decrypts a payload with the first matching candidate key.
+     * @param sessionKeys SessionKeys to try.
+     * @param payload Encrypted payload.
+     * @return Returns the text, or null if no candidate matches.
+     */
+    private static String decrypt(SessionKeys sessionKeys, byte[] payload) {
+        for (byte[] candidate : sessionKeys.getCandidates(payload)) {
+            try {
+                return MessageCipher.decrypt(candidate, CONVERSATION_KEY, payload);
+            } catch (GeneralSecurityException e) {
+                // Next candidate
+            }
+        }
+        return null;
+    }
+
+    private static byte[] concat(byte[] first, byte[] second) {
+        byte[] joined = new byte[first.length + second.length];
+        System.arraycopy(first, 0, joined, 0, first.length);
+        System.arraycopy(second, 0, joined, first.length, second.length);
+        return joined;
+    }
+}
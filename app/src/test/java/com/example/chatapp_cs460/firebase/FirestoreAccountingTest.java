@@ -0,0 +1,117 @@
+/**
+ * Firestore accounting test class
+ */
+package com.example.chatapp_cs460.firebase;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Records simulated reads and writes, and checks how they are split between screens, queries,
+ * the session, and cache and server reads.
+ */
+public class FirestoreAccountingTest {
+
+    @Test
+    public void reads_countedAgainstScreenQueryAndSession() {
+        FirestoreAccounting accounting = new FirestoreAccounting();
+        accounting.record("UserActivity", "users.changes", 40, 4000, false, 0);
+        accounting.record("UserActivity", "users.avatar", 3, 300, true, 0);
+        accounting.record("ChatActivity", "messages.window", 20, 2000, false, 0);
+        accounting.record("ChatActivity", "messages.send", 0, 0, false, 1);
+
+        FirestoreAccounting.Usage users = accounting.getScreenUsage("UserActivity");
+        assertEquals(40, users.serverReads);
+        assertEquals(3, users.cacheReads);
+        assertEquals(4000, users.serverBytes);
+        assertEquals(300, users.cacheBytes);
+        assertEquals(2, users.operations);
+
+        FirestoreAccounting.Usage chat = accounting.getScreenUsage("ChatActivity");
+        assertEquals(20, chat.serverReads);
+        assertEquals(1, chat.writes);
+
+        FirestoreAccounting.Usage session = accounting.getSessionUsage();
+        assertEquals(60, session.serverReads);
+        assertEquals(3, session.cacheReads);
+        assertEquals(1, session.writes);
+        assertEquals(4, session.operations);
+    }
+
+    @Test
+    public void queryUsage_summedOverScreens() {
+        FirestoreAccounting accounting = new FirestoreAccounting();
+        accounting.record("UserActivity", "users.avatar", 2, 200, false, 0);
+        accounting.record("ChatActivity", "users.avatar", 1, 100, false, 0);
+        accounting.record(FirestoreAccounting.SCREEN_BACKGROUND, "users.avatar", 5, 500, true, 0);
+
+        assertEquals(3, accounting.getQueryUsage("users.avatar").serverReads);
+        assertEquals(5, accounting.getQueryUsage("users.avatar").cacheReads);
+        assertEquals(1, accounting.getQueryUsage("ChatActivity", "users.avatar").serverReads);
+        assertEquals(0, accounting.getQueryUsage("MainActivity", "users.avatar").operations);
+        assertEquals(0, accounting.getQueryUsage("users.fetch").operations);
+    }
+
+    @Test
+    public void usage_isACopy() {
+        FirestoreAccounting accounting = new FirestoreAccounting();
+        accounting.record("UserActivity", "users.changes", 1, 100, false, 0);
+        FirestoreAccounting.Usage usage = accounting.getScreenUsage("UserActivity");
+        accounting.record("UserActivity", "users.changes", 1, 100, false, 0);
+
+        assertEquals(1, usage.serverReads);
+        assertEquals(2, accounting.getScreenUsage("UserActivity").serverReads);
+    }
+
+    @Test
+    public void reset_dropsAllUsage() {
+        FirestoreAccounting accounting = new FirestoreAccounting();
+        accounting.record("UserActivity", "users.changes", 10, 1000, false, 2);
+        accounting.reset();
+
+        assertEquals(0, accounting.getSessionUsage().operations);
+        assertEquals(0, accounting.getScreenUsage("UserActivity").operations);
+        assertEquals(0, accounting.getQueryUsage("users.changes").operations);
+    }
+
+    @Test
+    public void report_listsQueriesWithMostServerReadsFirst() throws IOException {
+        FirestoreAccounting accounting = new FirestoreAccounting();
+        accounting.record("ChatActivity", "messages.window", 20, 2048, false, 0);
+        accounting.record("ChatActivity", "conversation.live", 50, 5120, false, 0);
+        StringWriter writer = new StringWriter();
+        accounting.writeTo(writer);
+
+        String[] lines = writer.toString().split("\n");
+        assertEquals(4, lines.length);
+        assertTrue(lines[0].startsWith("session\tserverReads=70\tserverKb=7\t"));
+        assertTrue(lines[1].startsWith("ChatActivity\tserverReads=70\t"));
+        assertTrue(lines[2].startsWith("\tconversation.live\tserverReads=50\t"));
+        assertTrue(lines[3].startsWith("\tmessages.window\tserverReads=20\t"));
+    }
+
+    @Test
+    public void estimateBytes_followsStorageSizes() {
+        assertEquals(6, FirestoreAccounting.estimateBytes("hello"));
+        assertEquals(3, FirestoreAccounting.estimateBytes("\u00e9"));
+        assertEquals(8, FirestoreAccounting.estimateBytes(42L));
+        assertEquals(8, FirestoreAccounting.estimateBytes(new Date()));
+        assertEquals(1, FirestoreAccounting.estimateBytes(true));
+        assertEquals(1, FirestoreAccounting.estimateBytes(null));
+        assertEquals(3, FirestoreAccounting.estimateBytes(new byte[3]));
+
+        Map<String, Object> message = new HashMap<>();
+        message.put("message", "hi");
+        message.put("reactedBy", Arrays.asList("a", "bc"));
+        // "message" 8 + "hi" 3, "reactedBy" 10 + "a" 2 + "bc" 3
+        assertEquals(26, FirestoreAccounting.estimateBytes(message));
+    }
+}
@@ -0,0 +1,141 @@
+/**
+ * Chat page scale test class
+ */
+package com.example.chatapp_cs460.perf;
+
+import android.app.Application;
+import android.content.Context;
+import android.view.ContextThemeWrapper;
+
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ApplicationProvider;
+
+import com.example.chatapp_cs460.R;
+import com.example.chatapp_cs460.adapters.ChatAdapter;
+import com.example.chatapp_cs460.models.ChatMessage;
+import com.example.chatapp_cs460.utilities.MessageGrouping;
+import com.example.chatapp_cs460.utilities.MessageTextCache;
+import com.example.chatapp_cs460.utilities.MessageUpdateCoalescer;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Seeds a 100k message conversation, runs it through the message ingestion path of the chat page
+ * and binds the newest 10k bubbles, checking time, allocations and retained memory against the
+ * stored baselines.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class ChatAdapterScaleTest {
+    private static final int HISTORY_SIZE = 100000;
+    private static final int LIVE_MESSAGES = 1000;
+    private static final int BOUND_MESSAGES = 10000;
+    private static final int VIEW_HOLDERS = 12;
+    private static final String ME = "me";
+    private static final String OTHER = "other";
+
+    @Test
+    public void hundredThousandMessages_ingestAndBind() {
+        Context context = new ContextThemeWrapper(ApplicationProvider.getApplicationContext(),
+                R.style.Theme_ChatAppCS460);
+        RecyclerView recyclerView = new RecyclerView(context);
+        recyclerView.setLayoutManager(new LinearLayoutManager(context));
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        ChatAdapter adapter = new ChatAdapter(null, chatMessages, ME);
+        recyclerView.setAdapter(adapter);
+        MessageUpdateCoalescer coalescer = new MessageUpdateCoalescer(chatMessages, adapter, recyclerView, null);
+
+        // View holders of both types, inflating them hands the text metrics to the text cache
+        Map<Integer, RecyclerView.ViewHolder[]> holders = new HashMap<>();
+        for (int viewType : new int[] {ChatAdapter.VIEW_TYPE_SENT, ChatAdapter.VIEW_TYPE_RECEIVED}) {
+            RecyclerView.ViewHolder[] typeHolders = new RecyclerView.ViewHolder[VIEW_HOLDERS];
+            for (int i = 0; i < VIEW_HOLDERS; i++) {
+                typeHolders[i] = adapter.createViewHolder(recyclerView, viewType);
+            }
+            holders.put(viewType, typeHolders);
+        }
+
+        List<ChatMessage> history = createMessages(0, HISTORY_SIZE);
+        // Snapshots deliver documents in no particular order
+        Collections.shuffle(history, new java.util.Random(460));
+        List<ChatMessage> liveMessages = createMessages(HISTORY_SIZE, LIVE_MESSAGES);
+
+        // Ingest, the initial snapshot as one batch followed by single live messages
+        long heapBefore = PerformanceBaselines.usedHeapBytes();
+        long allocatedBefore = PerformanceBaselines.allocatedBytes();
+        long start = System.nanoTime();
+        ingest(coalescer, history);
+        for (ChatMessage chatMessage : liveMessages) {
+            ingest(coalescer, Collections.singletonList(chatMessage));
+        }
+        PerformanceBaselines.check("chat.ingest.ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        PerformanceBaselines.check("chat.ingest.allocatedKb",
+                (PerformanceBaselines.allocatedBytes() - allocatedBefore) / 1024);
+        assertEquals(HISTORY_SIZE + LIVE_MESSAGES, adapter.getItemCount());
+        for (int i = 1; i < chatMessages.size(); i++) {
+            assertFalse(chatMessages.get(i).dateObject.before(chatMessages.get(i - 1).dateObject));
+        }
+        // Days and runs kept at the boundaries of each batch match grouping the whole list
+        for (int i = 0; i < chatMessages.size(); i++) {
+            assertFalse(MessageGrouping.group(chatMessages, i));
+        }
+
+        // Bind, scrolling back from the newest message
+        int[] nextHolder = new int[3];
+        long bindAllocatedBefore = PerformanceBaselines.allocatedBytes();
+        start = System.nanoTime();
+        for (int position = adapter.getItemCount() - 1;
+             position >= adapter.getItemCount() - BOUND_MESSAGES; position--) {
+            int viewType = adapter.getItemViewType(position);
+            RecyclerView.ViewHolder holder = holders.get(viewType)[nextHolder[viewType]++ % VIEW_HOLDERS];
+            adapter.bindViewHolder(holder, position);
+        }
+        PerformanceBaselines.check("chat.bind.ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        PerformanceBaselines.check("chat.bind.allocatedKb",
+                (PerformanceBaselines.allocatedBytes() - bindAllocatedBefore) / 1024);
+        PerformanceBaselines.check("chat.retainedKb",
+                (PerformanceBaselines.usedHeapBytes() - heapBefore) / 1024);
+        coalescer.cancel();
+    }
+
+    /**
+     * Runs messages through the same steps as the snapshot listener of the chat page.
+     */
+    private static void ingest(MessageUpdateCoalescer coalescer, List<ChatMessage> messages) {
+        MessageTextCache.getInstance().precompute(messages);
+        coalescer.submit(messages);
+        coalescer.flush();
+    }
+
+    private static List<ChatMessage> createMessages(int first, int count) {
+        long startTime = 1700000000000L;
+        List<ChatMessage> messages = new ArrayList<>(count);
+        for (int i = first; i < first + count; i++) {
+            ChatMessage chatMessage = new ChatMessage();
+            chatMessage.id = "message" + i;
+            chatMessage.senderId = i % 3 == 0 ? ME : OTHER;
+            chatMessage.receiverId = i % 3 == 0 ? OTHER : ME;
+            chatMessage.message = i % 10 == 0
+                    ? "Synthetic message " + i + " with a link https://example.com/" + i
+                    : "Synthetic message " + i;
+            chatMessage.dateObject = new Date(startTime + i * 30000L);
+            chatMessage.dateTime = "10:13 PM";
+            messages.add(chatMessage);
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Message backup scale test class
+ */
+package com.example.chatapp_cs460.perf;
+
+import android.app.Application;
+
+import com.example.chatapp_cs460.models.ChatMessage;
+import com.example.chatapp_cs460.utilities.MessageBackupFile;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Streams a 1M message conversation through a backup file and back in both formats, checking the
+ * time against the stored baselines and that the heap in use does not grow with the number of
+ * messages, measured halfway through and at the end of each pass.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class MessageBackupScaleTest {
+    private static final int MESSAGE_COUNT = 1000000;
+    private static final String ME = "me";
+    private static final String OTHER = "other";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void millionMessages_jsonLinesRoundTrip() throws IOException {
+        roundTrip(MessageBackupFile.Format.JSON_LINES, "backup.jsonl");
+    }
+
+    @Test
+    public void millionMessages_binaryRoundTrip() throws IOException {
+        roundTrip(MessageBackupFile.Format.BINARY, "backup.binary");
+    }
+
+    @Test
+    public void everyFieldSurvivesBothFormats() throws IOException {
+        ChatMessage original = createMessage(7);
+        original.message = null;
+        original.ciphertext = new byte[] {1, 2, 3, -1};
+        original.edited = true;
+        original.reactions = new LinkedHashMap<>(Collections.singletonMap("👍", 2L));
+        original.reactedBy = new HashMap<>(Collections.singletonMap(OTHER, "👍"));
+        for (MessageBackupFile.Format format : MessageBackupFile.Format.values()) {
+            File file = folder.newFile("fields" + format.getExtension());
+            MessageBackupFile.Header header = new MessageBackupFile.Header(MessageBackupFile.SCOPE_CHAT, OTHER, 42L);
+            try (MessageBackupFile.BackupWriter writer =
+                         MessageBackupFile.openWriter(new FileOutputStream(file), format, header)) {
+                writer.write(original);
+            }
+            try (MessageBackupFile.BackupReader reader = MessageBackupFile.openReader(new FileInputStream(file))) {
+                assertEquals(MessageBackupFile.SCOPE_CHAT, reader.getHeader().scope);
+                assertEquals(OTHER, reader.getHeader().id);
+                assertEquals(42L, reader.getHeader().exportedAt);
+                ChatMessage restored = reader.next();
+                assertEquals(original.id, restored.id);
+                assertEquals(original.senderId, restored.senderId);
+                assertEquals(original.receiverId, restored.receiverId);
+                assertNull(restored.message);
+                assertArrayEquals(original.ciphertext, restored.ciphertext);
+                assertEquals(original.dateObject, restored.dateObject);
+                assertTrue(restored.edited);
+                assertEquals(original.reactions, restored.reactions);
+                assertEquals(original.reactedBy, restored.reactedBy);
+                assertNull(reader.next());
+            }
+        }
+    }
+
+    private void roundTrip(MessageBackupFile.Format format, String metric) throws IOException {
+        File file = folder.newFile(metric + format.getExtension());
+        MessageBackupFile.Header header = new MessageBackupFile.Header(MessageBackupFile.SCOPE_CHAT, OTHER,
+                System.currentTimeMillis());
+        long heapBefore = PerformanceBaselines.usedHeapBytes();
+        long largestGrowth = 0;
+
+        // Export, messages are created one at a time like the pages of a query
+        long start = System.nanoTime();
+        try (MessageBackupFile.BackupWriter writer =
+                     MessageBackupFile.openWriter(new FileOutputStream(file), format, header)) {
+            for (int i = 0; i < MESSAGE_COUNT; i++) {
+                writer.write(createMessage(i));
+                if (i == MESSAGE_COUNT / 2) {
+                    largestGrowth = Math.max(largestGrowth, PerformanceBaselines.usedHeapBytes() - heapBefore);
+                }
+            }
+        }
+        PerformanceBaselines.check(metric + ".write.ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+        // Restore side, reading every message back in order
+        start = System.nanoTime();
+        int read = 0;
+        try (MessageBackupFile.BackupReader reader = MessageBackupFile.openReader(new FileInputStream(file))) {
+            ChatMessage chatMessage;
+            while ((chatMessage = reader.next()) != null) {
+                assertEquals("message" + read, chatMessage.id);
+                read++;
+                if (read == MESSAGE_COUNT / 2) {
+                    largestGrowth = Math.max(largestGrowth, PerformanceBaselines.usedHeapBytes() - heapBefore);
+                }
+            }
+        }
+        PerformanceBaselines.check(metric + ".read.ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        assertEquals(MESSAGE_COUNT, read);
+        largestGrowth = Math.max(largestGrowth, PerformanceBaselines.usedHeapBytes() - heapBefore);
+        PerformanceBaselines.check(metric + ".retainedKb", Math.max(0, largestGrowth) / 1024);
+    }
+
+    private static ChatMessage createMessage(int i) {
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.id = "message" + i;
+        chatMessage.senderId = i % 3 == 0 ? ME : OTHER;
+        chatMessage.receiverId = i % 3 == 0 ? OTHER : ME;
+        chatMessage.message = "Synthetic message " + i;
+        chatMessage.dateObject = new Date(1700000000000L + i * 30000L);
+        return chatMessage;
+    }
+}
@@ -0,0 +1,114 @@
+/**
+ * Baseline helper class of the scale tests
+ */
+package com.example.chatapp_cs460.perf;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.util.Properties;
+
+import static org.junit.Assert.*;
+
+/**
+ * Compares measurements of the scale tests against the baselines stored in
+ * src/test/resources/perf/baselines.properties. A measurement fails the test when it exceeds its
+ * baseline by more than the tolerance, 25% unless -Pperf.tolerance is given.
+ * Running with -Pperf.record=true writes the measurements to build/perf/baselines.properties
+ * instead of checking them, to be copied over the stored baselines after an intended change.
+ */
+final class PerformanceBaselines {
+    private static final String BASELINE_RESOURCE = "/perf/baselines.properties";
+
+    private static final Properties baselines = new Properties();
+    private static final Properties recorded = new Properties();
+
+    static {
+        try (InputStream input = PerformanceBaselines.class.getResourceAsStream(BASELINE_RESOURCE)) {
+            if (input != null) {
+                baselines.load(input);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read " + BASELINE_RESOURCE, e);
+        }
+    }
+
+    private PerformanceBaselines() {
+    }
+
+    /**
+     * Checks a measurement against its baseline, or records it in record mode.
+     * @param metric Name of the metric, for example chat.bind.ms.
+     * @param measured Measured value, lower is better.
+     */
+    static void check(String metric, long measured) {
+        if (Boolean.getBoolean("perf.record")) {
+            record(metric, measured);
+            return;
+        }
+        String baseline = baselines.getProperty(metric);
+        assertNotNull("No baseline for " + metric + " (measured " + measured
+                + "), record one with -Pperf.record=true", baseline);
+        double tolerance = Double.parseDouble(System.getProperty("perf.tolerance", "0.25"));
+        long limit = (long) (Long.parseLong(baseline.trim()) * (1 + tolerance));
+        assertTrue(String.format("%s regressed: %d > %d (baseline %s, tolerance %.0f%%)",
+                metric, measured, limit, baseline, tolerance * 100), measured <= limit);
+    }
+
+    /**
+     * Returns the heap in use after a garbage collection, used for the memory footprint.
+     * @return Used heap bytes.
+     */
+    static long usedHeapBytes() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    /**
+     * Returns the bytes allocated so far by all live threads, including the background loaders and
+     * measuring threads of the app, used for the allocation counts.
+     * @return Allocated bytes, or 0 when the JVM does not track thread allocations.
+     */
+    static long allocatedBytes() {
+        java.lang.management.ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean)) {
+            return 0;
+        }
+        long total = 0;
+        for (long allocated : ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(bean.getAllThreadIds())) {
+            total += Math.max(0, allocated);
+        }
+        return total;
+    }
+
+    private static synchronized void record(String metric, long measured) {
+        recorded.setProperty(metric, Long.toString(measured));
+        File directory = new File(System.getProperty("perf.output", "build/perf"));
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalStateException("Unable to create " + directory);
+        }
+        File output = new File(directory, "baselines.properties");
+        // Merging with the metrics recorded by other test classes of the same run
+        Properties merged = new Properties();
+        if (output.exists()) {
+            try (InputStream input = new FileInputStream(output)) {
+                merged.load(input);
+            } catch (IOException e) {
+                throw new IllegalStateException("Unable to read " + output, e);
+            }
+        }
+        merged.putAll(recorded);
+        try (OutputStream stream = new FileOutputStream(output)) {
+            merged.store(stream, "Recorded scale test baselines");
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write " + output, e);
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/**
+ * Users page scale test class
+ */
+package com.example.chatapp_cs460.perf;
+
+import android.app.Application;
+import android.content.Context;
+import android.os.Looper;
+import android.view.ContextThemeWrapper;
+
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
+import androidx.test.core.app.ApplicationProvider;
+
+import com.example.chatapp_cs460.R;
+import com.example.chatapp_cs460.adapters.UsersAdapter;
+import com.example.chatapp_cs460.firebase.UserDirectory;
+import com.example.chatapp_cs460.listeners.UserListener;
+import com.example.chatapp_cs460.models.User;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.Assert.*;
+import static org.robolectric.Shadows.shadowOf;
+
+/**
+ * Seeds a 10k user directory, loads it the way the app does at startup and binds every row of the
+ * users list, checking time, allocations and retained memory against the stored baselines. Rows
+ * bind the placeholder of the avatar, the avatars themselves decode in the background.
+ * A plain Application is used, so the directory is not loaded before the synthetic copy exists.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class UsersAdapterScaleTest {
+    private static final int USER_COUNT = 10000;
+    private static final int VIEW_HOLDERS = 12;
+    /**
+     * A 1x1 PNG, so every row decodes a real avatar.
+     */
+    private static final String AVATAR =
+            "iVBORw0KGgoAAAANSUhEUgAAAAEAAAABCAYAAAAfFcSJAAAADUlEQVR42mNkYPhfDwAChwGA60e6kgAAAABJRU5ErkJggg==";
+    /**
+     * A placeholder shared by every user, rendered while the avatars decode in the background.
+     */
+    private static final String AVATAR_PLACEHOLDER = "LEHV6nWB2yk8pyo0adR*.7kCMdnj";
+
+    @Test
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    public void tenThousandUsers_ingestAndBind() throws Exception {
+        Context context = ApplicationProvider.getApplicationContext();
+        writeDirectory(new File(context.getFilesDir(), "user_directory.json"));
+
+        // Ingest, reading the persisted directory copy
+        long heapBefore = PerformanceBaselines.usedHeapBytes();
+        long allocatedBefore = PerformanceBaselines.allocatedBytes();
+        long start = System.nanoTime();
+        AtomicBoolean loaded = new AtomicBoolean(false);
+        UserDirectory.getInstance().load(context, () -> loaded.set(true));
+        long deadline = start + TimeUnit.SECONDS.toNanos(60);
+        while (!loaded.get() && System.nanoTime() < deadline) {
+            shadowOf(Looper.getMainLooper()).idle();
+            Thread.sleep(1);
+        }
+        assertTrue(loaded.get());
+        List<User> users = UserDirectory.getInstance().getUsers(null);
+        PerformanceBaselines.check("users.ingest.ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        assertEquals(USER_COUNT, users.size());
+
+        // Bind, cycling through a screenful of view holders like a fling through the list
+        Context themedContext = new ContextThemeWrapper(context, R.style.Theme_ChatAppCS460);
+        RecyclerView recyclerView = new RecyclerView(themedContext);
+        recyclerView.setLayoutManager(new LinearLayoutManager(themedContext));
+        // Raw adapter type, the view holder class is private to the adapters package
+        RecyclerView.Adapter adapter = new UsersAdapter(users, new UserListener() {
+            @Override
+            public void onUserClicked(User user) {
+            }
+
+            @Override
+            public void onUserLongClicked(User user) {
+            }
+        });
+        RecyclerView.ViewHolder[] holders = new RecyclerView.ViewHolder[VIEW_HOLDERS];
+        for (int i = 0; i < VIEW_HOLDERS; i++) {
+            holders[i] = adapter.createViewHolder(recyclerView, adapter.getItemViewType(i));
+        }
+        long ingestAllocated = PerformanceBaselines.allocatedBytes() - allocatedBefore;
+        long bindAllocatedBefore = PerformanceBaselines.allocatedBytes();
+        start = System.nanoTime();
+        for (int position = 0; position < USER_COUNT; position++) {
+            adapter.bindViewHolder(holders[position % VIEW_HOLDERS], position);
+        }
+        PerformanceBaselines.check("users.bind.ms", TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+        long bindAllocated = PerformanceBaselines.allocatedBytes() - bindAllocatedBefore;
+
+        // Ingest allocations include inflating the view holders
+        PerformanceBaselines.check("users.ingest.allocatedKb", ingestAllocated / 1024);
+        PerformanceBaselines.check("users.bind.allocatedKb", bindAllocated / 1024);
+        PerformanceBaselines.check("users.retainedKb",
+                (PerformanceBaselines.usedHeapBytes() - heapBefore) / 1024);
+        assertEquals(USER_COUNT, adapter.getItemCount());
+    }
+
+    private static void writeDirectory(File file) throws Exception {
+        try (Writer writer = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+            writer.write("{\"generatedAt\":1700000000000,\"users\":[");
+            for (int i = 0; i < USER_COUNT; i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write("{\"id\":\"user" + i + "\",\"name\":\"Synthetic User " + i
+                        + "\",\"email\":\"user" + i + "@example.com\",\"image\":\"" + AVATAR
+                        + "\",\"imagePlaceholder\":\"" + AVATAR_PLACEHOLDER + "\"}");
+            }
+            writer.write("]}");
+        }
+    }
+}
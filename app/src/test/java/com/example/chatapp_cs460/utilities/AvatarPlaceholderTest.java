@@ -0,0 +1,71 @@
+/**
+ * Avatar placeholder test class
+ */
+package com.example.chatapp_cs460.utilities;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+/**
+ * Encodes synthetic images into placeholders and renders them back, checking the size of the
+ * placeholder and that the rendered image keeps the colors and layout of the original.
+ */
+public class AvatarPlaceholderTest {
+    private static final int SIZE = 32;
+
+    @Test
+    public void solidImage_rendersSameColor() {
+        int[] pixels = new int[SIZE * SIZE];
+        Arrays.fill(pixels, 0xff3366cc);
+
+        String placeholder = AvatarPlaceholder.encode(pixels, SIZE, SIZE);
+        assertEquals(4 + 2 * AvatarPlaceholder.COMPONENTS_X * AvatarPlaceholder.COMPONENTS_Y,
+                placeholder.length());
+
+        int[] rendered = AvatarPlaceholder.decode(placeholder, 16, 16);
+        assertNotNull(rendered);
+        for (int pixel : rendered) {
+            assertColor(0x33, 0x66, 0xcc, pixel);
+        }
+    }
+
+    @Test
+    public void splitImage_keepsEachHalf() {
+        // Dark left half, light right half
+        int[] pixels = new int[SIZE * SIZE];
+        for (int y = 0; y < SIZE; y++) {
+            for (int x = 0; x < SIZE; x++) {
+                pixels[y * SIZE + x] = x < SIZE / 2 ? 0xff202020 : 0xffe0e0e0;
+            }
+        }
+        int[] rendered = AvatarPlaceholder.decode(AvatarPlaceholder.encode(pixels, SIZE, SIZE), 16, 16);
+
+        assertNotNull(rendered);
+        int left = rendered[8 * 16] & 0xff;
+        int right = rendered[8 * 16 + 15] & 0xff;
+        assertTrue("left " + left + " right " + right, left < 0x60 && right > 0xa0);
+    }
+
+    @Test
+    public void invalidPlaceholder_notRendered() {
+        assertNull(AvatarPlaceholder.decode(null, 16, 16));
+        assertNull(AvatarPlaceholder.decode("", 16, 16));
+        // A placeholder made elsewhere renders, a wrong length or a character outside the alphabet does not
+        assertEquals(256, AvatarPlaceholder.decode("LEHV6nWB2yk8pyo0adR*.7kCMdnj", 16, 16).length);
+        assertNull(AvatarPlaceholder.decode("LEHV6nWB2yk8pyo0adR*.7kCMdn", 16, 16));
+        assertNull(AvatarPlaceholder.decode("LEHV6nWB2yk8pyo0adR*.7kCMd\"j", 16, 16));
+    }
+
+    /**
+     * Checks a rendered color, allowing for the quantised waves of the placeholder.
+     */
+    private static void assertColor(int r, int g, int b, int pixel) {
+        assertEquals(0xff, pixel >>> 24);
+        assertEquals(r, (pixel >> 16) & 0xff, 2);
+        assertEquals(g, (pixel >> 8) & 0xff, 2);
+        assertEquals(b, pixel & 0xff, 2);
+    }
+}
@@ -0,0 +1,209 @@
+/**
+ * Link preview cache test class
+ */
+package com.example.chatapp_cs460.utilities;
+
+import android.app.Application;
+
+import com.example.chatapp_cs460.models.LinkPreview;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Serves pages from a local HTTP stub and checks that the cache fetches each link once no matter
+ * how many requests share it, reads only the head of a page, and keeps previews on disk until
+ * they expire.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(application = Application.class)
+public class LinkPreviewCacheTest {
+    private static final String PAGE = "<html><head><title>Fallback</title>"
+            + "<meta property=\"og:title\" content=\"Tom &amp; Jerry\">"
+            + "<meta name=\"description\" content=\"A cat and a mouse\">"
+            + "<meta property=\"og:site_name\" content='Cartoons'>"
+            + "</head><body><meta property=\"og:title\" content=\"Body\"></body></html>";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private HttpServer server;
+    private final AtomicInteger requests = new AtomicInteger();
+    private volatile CountDownLatch release = new CountDownLatch(0);
+    private volatile int status = 200;
+    private volatile String page = PAGE;
+    private ExecutorService fetchExecutor;
+
+    @Before
+    public void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/", exchange -> {
+            requests.incrementAndGet();
+            try {
+                release.await(5, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            byte[] body = page.getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/html; charset=utf-8");
+            exchange.sendResponseHeaders(status, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            } catch (IOException e) {
+                // The fetcher hangs up once it has the head
+            }
+        });
+        server.setExecutor(Executors.newCachedThreadPool());
+        server.start();
+        fetchExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void stopServer() {
+        server.stop(0);
+        fetchExecutor.shutdownNow();
+    }
+
+    @Test
+    public void concurrentRequests_shareOneFetch() throws InterruptedException {
+        LinkPreviewCache cache = newCache(null);
+        release = new CountDownLatch(1);
+        List<LinkPreview> results = Collections.synchronizedList(new ArrayList<>());
+        CountDownLatch delivered = new CountDownLatch(5);
+        for (int i = 0; i < 5; i++) {
+            cache.load(url("/shared"), (url, linkPreview) -> {
+                results.add(linkPreview);
+                delivered.countDown();
+            });
+        }
+        release.countDown();
+
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        assertEquals(1, requests.get());
+        for (LinkPreview linkPreview : results) {
+            assertEquals("Tom & Jerry", linkPreview.title);
+        }
+        // Served from memory afterwards
+        assertNotNull(cache.get(url("/shared")));
+        assertEquals("Tom & Jerry", load(cache, url("/shared")).title);
+        assertEquals(1, requests.get());
+    }
+
+    @Test
+    public void head_parsedAndBodyIgnored() throws InterruptedException {
+        LinkPreview linkPreview = load(newCache(null), url("/page"));
+
+        assertEquals("Tom & Jerry", linkPreview.title);
+        assertEquals("A cat and a mouse", linkPreview.description);
+        assertEquals("Cartoons", linkPreview.siteName);
+    }
+
+    @Test
+    public void titleAfterByteCap_notRead() throws InterruptedException {
+        StringBuilder padding = new StringBuilder("<html><head><script>");
+        while (padding.length() < 64 * 1024) {
+            padding.append("var x = 0; ");
+        }
+        page = padding + "</script><title>Too late</title></head></html>";
+        LinkPreview late = load(newCache(null), url("/late"));
+        assertTrue(late.isEmpty());
+
+        page = "<html><head><title>In time</title>" + padding + "</script></head></html>";
+        assertEquals("In time", load(newCache(null), url("/early")).title);
+    }
+
+    @Test
+    public void disk_sharedAcrossInstancesUntilExpired() throws Exception {
+        File directory = folder.newFolder("link_previews");
+        assertEquals("Tom & Jerry", load(newCache(directory), url("/disk")).title);
+        assertEquals(1, requests.get());
+
+        // A new process reads the preview from disk
+        page = "<html><head><title>Changed</title></head></html>";
+        assertEquals("Tom & Jerry", load(newCache(directory), url("/disk")).title);
+        assertEquals(1, requests.get());
+
+        // Once expired it is fetched again
+        LinkPreviewCache later = newCache(directory, LinkPreviewCache.PREVIEW_TTL_MILLIS + 1);
+        assertEquals("Changed", load(later, url("/disk")).title);
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void failedFetch_rememberedForShorterTime() throws Exception {
+        File directory = folder.newFolder("link_previews");
+        status = 503;
+        assertTrue(load(newCache(directory), url("/down")).isEmpty());
+        assertTrue(load(newCache(directory), url("/down")).isEmpty());
+        assertEquals(1, requests.get());
+
+        status = 200;
+        LinkPreviewCache later = newCache(directory, LinkPreviewCache.FAILED_TTL_MILLIS + 1);
+        assertEquals("Tom & Jerry", load(later, url("/down")).title);
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void findUrl_firstLinkWithoutTrailingPunctuation() {
+        assertEquals("https://example.com/a?b=1",
+                LinkPreviewCache.findUrl("see https://example.com/a?b=1, and http://other.org"));
+        assertEquals("http://example.com/x", LinkPreviewCache.findUrl("(http://example.com/x)."));
+        assertNull(LinkPreviewCache.findUrl("no links here"));
+        assertNull(LinkPreviewCache.findUrl(null));
+    }
+
+    private String url(String path) {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + path;
+    }
+
+    private LinkPreviewCache newCache(File directory) {
+        return newCache(directory, 0);
+    }
+
+    /**
+     * Creates a cache over the stub whose clock runs ahead by the offset.
+     */
+    private LinkPreviewCache newCache(File directory, long clockOffset) {
+        return new LinkPreviewCache(new LinkPreviewFetcher(LinkPreviewFetcher.MAX_HEAD_BYTES),
+                fetchExecutor, Runnable::run, directory, false) {
+            @Override
+            long currentTimeMillis() {
+                return System.currentTimeMillis() + clockOffset;
+            }
+        };
+    }
+
+    private static LinkPreview load(LinkPreviewCache cache, String url) throws InterruptedException {
+        LinkPreview[] result = new LinkPreview[1];
+        CountDownLatch delivered = new CountDownLatch(1);
+        cache.load(url, (loadedUrl, linkPreview) -> {
+            result[0] = linkPreview;
+            delivered.countDown();
+        });
+        assertTrue(delivered.await(10, TimeUnit.SECONDS));
+        return result[0];
+    }
+}
@@ -0,0 +1,105 @@
+/**
+ * Main thread watchdog test class
+ */
+package com.example.chatapp_cs460.utilities;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Feeds the watchdog simulated looper dispatches and stack samples, and checks which main thread
+ * tasks end up in the report and which app methods they are attributed to.
+ */
+public class MainThreadWatchdogTest {
+
+    @Test
+    public void fastTask_isNotRecorded() {
+        MainThreadWatchdog watchdog = new MainThreadWatchdog(100);
+        watchdog.onDispatchStart(1000, ">>>>> Dispatching to Handler");
+        watchdog.addSample(stack(frame("com.example.chatapp_cs460.activities.MainActivity", "loadUserDetails")));
+        watchdog.onDispatchEnd(1099);
+
+        assertTrue(watchdog.getReport().getEntries().isEmpty());
+    }
+
+    @Test
+    public void slowTask_attributedToMostSampledAppMethod() {
+        MainThreadWatchdog watchdog = new MainThreadWatchdog(100);
+        watchdog.onDispatchStart(1000, ">>>>> Dispatching to Handler");
+        StackTraceElement[] decoding = stack(
+                frame("android.graphics.BitmapFactory", "nativeDecodeByteArray"),
+                frame("com.example.chatapp_cs460.activities.ChatActivity", "getBitmapFromEncodedString"),
+                frame("android.os.Handler", "dispatchMessage"));
+        watchdog.addSample(decoding);
+        watchdog.addSample(decoding);
+        watchdog.addSample(stack(frame("com.example.chatapp_cs460.utilities.PreferenceManager", "getString")));
+        watchdog.onDispatchEnd(1250);
+
+        List<MainThreadReport.Entry> slowTasks = watchdog.getReport().getSlowTasks();
+        assertEquals(1, slowTasks.size());
+        assertEquals(250, slowTasks.get(0).durationMillis);
+        assertEquals("ChatActivity.getBitmapFromEncodedString", slowTasks.get(0).attribution);
+        assertEquals(3, slowTasks.get(0).stack.size());
+        assertEquals(1, watchdog.getReport().getEntriesFrom("ChatActivity").size());
+        assertTrue(watchdog.getReport().getEntriesFrom("PreferenceManager").isEmpty());
+    }
+
+    @Test
+    public void slowTaskWithoutSamples_attributedToLooperTarget() {
+        MainThreadWatchdog watchdog = new MainThreadWatchdog(100);
+        watchdog.onDispatchStart(0, ">>>>> Dispatching to Handler (android.view.Choreographer)");
+        watchdog.onDispatchEnd(400);
+
+        assertEquals(">>>>> Dispatching to Handler (android.view.Choreographer)",
+                watchdog.getReport().getSlowTasks().get(0).attribution);
+    }
+
+    @Test
+    public void lambdasAndInnerClasses_attributedToDeclaringMethod() {
+        assertEquals("SignUpActivity.pickImage", MainThreadWatchdog.getAppFrame(stack(
+                frame("com.example.chatapp_cs460.activities.SignUpActivity", "lambda$pickImage$0"))));
+        assertEquals("ChatActivity.onMessagesReceived", MainThreadWatchdog.getAppFrame(stack(
+                frame("com.example.chatapp_cs460.activities.ChatActivity$1", "onMessagesReceived"))));
+        assertNull(MainThreadWatchdog.getAppFrame(stack(frame("android.os.Looper", "loop"))));
+    }
+
+    @Test
+    public void samplesOutsideATask_areIgnored() {
+        MainThreadWatchdog watchdog = new MainThreadWatchdog(100);
+        assertFalse(watchdog.addSample(stack(frame("com.example.chatapp_cs460.activities.MainActivity", "onCreate"))));
+        watchdog.onDispatchEnd(500);
+
+        assertTrue(watchdog.getReport().getEntries().isEmpty());
+    }
+
+    @Test
+    public void violation_recordedAndWrittenToReport() throws IOException {
+        MainThreadWatchdog watchdog = new MainThreadWatchdog(100);
+        watchdog.onViolation("DiskReadViolation", stack(
+                frame("android.app.SharedPreferencesImpl", "awaitLoadedLocked"),
+                frame("com.example.chatapp_cs460.utilities.PreferenceManager", "getString")));
+
+        MainThreadReport report = watchdog.getReport();
+        assertEquals(1, report.getViolations().size());
+        assertTrue(report.getSlowTasks().isEmpty());
+        assertEquals("PreferenceManager.getString", report.getViolations().get(0).attribution);
+
+        StringWriter text = new StringWriter();
+        report.writeTo(text);
+        assertTrue(text.toString().startsWith("DiskReadViolation\t0ms\tPreferenceManager.getString\n"));
+        assertTrue(text.toString().contains("\tat com.example.chatapp_cs460.utilities.PreferenceManager.getString"));
+    }
+
+    private static StackTraceElement frame(String className, String methodName) {
+        return new StackTraceElement(className, methodName, null, -1);
+    }
+
+    private static StackTraceElement[] stack(StackTraceElement... frames) {
+        return frames;
+    }
+}
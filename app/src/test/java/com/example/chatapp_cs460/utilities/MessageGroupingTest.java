@@ -0,0 +1,120 @@
+/**
+ * Message grouping test class
+ */
+package com.example.chatapp_cs460.utilities;
+
+import com.example.chatapp_cs460.models.ChatMessage;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+/**
+ * Groups synthetic conversations into days and sender runs, checking that regrouping only the
+ * boundaries of inserts and removals gives the same flags as grouping the whole list.
+ */
+public class MessageGroupingTest {
+    private static final long DAY_START = 1700006400000L; // Nov 15, 2023 00:00 UTC
+    private static final long MINUTE = TimeUnit.MINUTES.toMillis(1);
+
+    private TimeZone defaultTimeZone;
+
+    @Before
+    public void setUp() {
+        defaultTimeZone = TimeZone.getDefault();
+        TimeZone.setDefault(TimeZone.getTimeZone("UTC"));
+    }
+
+    @After
+    public void tearDown() {
+        TimeZone.setDefault(defaultTimeZone);
+    }
+
+    @Test
+    public void groupAll_marksDaysAndRuns() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        chatMessages.add(message("a", DAY_START + 10 * MINUTE));
+        chatMessages.add(message("a", DAY_START + 11 * MINUTE));
+        chatMessages.add(message("b", DAY_START + 12 * MINUTE));
+        chatMessages.add(message("b", DAY_START + 30 * MINUTE));
+        chatMessages.add(message("b", DAY_START + TimeUnit.DAYS.toMillis(1)));
+        MessageGrouping.groupAll(chatMessages);
+
+        assertFlags(chatMessages.get(0), true, false, false);
+        assertFlags(chatMessages.get(1), false, true, true);
+        // A new sender starts a run
+        assertFlags(chatMessages.get(2), false, false, true);
+        // A long gap starts a run
+        assertFlags(chatMessages.get(3), false, false, true);
+        // A new day starts a run even from the same sender
+        assertFlags(chatMessages.get(4), true, false, true);
+    }
+
+    @Test
+    public void groupRange_matchesGroupAll() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        for (int i = 0; i < 200; i++) {
+            ChatMessage chatMessage = message(i % 7 < 3 ? "a" : "b", DAY_START + i * 20 * MINUTE);
+            int position = i % 2 == 0 ? chatMessages.size() : 0;
+            if (position == 0) {
+                // Prepending keeps the list sorted when older messages arrive first
+                chatMessage.dateObject = new Date(DAY_START - i * 20 * MINUTE);
+            }
+            chatMessages.add(position, chatMessage);
+            List<Integer> changed = new ArrayList<>();
+            MessageGrouping.groupRange(chatMessages, position, 1, changed::add);
+            for (int changedPosition : changed) {
+                assertTrue(Math.abs(changedPosition - position) == 1);
+            }
+            assertSameAsGroupAll(chatMessages);
+        }
+    }
+
+    @Test
+    public void groupRemoval_matchesGroupAll() {
+        List<ChatMessage> chatMessages = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            chatMessages.add(message(i % 5 < 2 ? "a" : "b", DAY_START + i * 3 * MINUTE));
+        }
+        MessageGrouping.groupAll(chatMessages);
+        while (!chatMessages.isEmpty()) {
+            int position = chatMessages.size() / 3;
+            chatMessages.remove(position);
+            MessageGrouping.groupRemoval(chatMessages, position, null);
+            assertSameAsGroupAll(chatMessages);
+        }
+    }
+
+    private static ChatMessage message(String senderId, long time) {
+        ChatMessage chatMessage = new ChatMessage();
+        chatMessage.senderId = senderId;
+        chatMessage.dateObject = new Date(time);
+        return chatMessage;
+    }
+
+    private static void assertFlags(ChatMessage chatMessage, boolean startsDay, boolean continuesRun,
+                                    boolean endsRun) {
+        assertEquals(startsDay, chatMessage.startsDay);
+        assertEquals(continuesRun, chatMessage.continuesRun);
+        assertEquals(endsRun, chatMessage.endsRun);
+    }
+
+    private static void assertSameAsGroupAll(List<ChatMessage> chatMessages) {
+        for (int i = 0; i < chatMessages.size(); i++) {
+            ChatMessage chatMessage = chatMessages.get(i);
+            boolean startsDay = chatMessage.startsDay;
+            boolean continuesRun = chatMessage.continuesRun;
+            boolean endsRun = chatMessage.endsRun;
+            assertFalse("Position " + i + " was left stale", MessageGrouping.group(chatMessages, i));
+            assertFlags(chatMessage, startsDay, continuesRun, endsRun);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/**
+ * Sync policy test class
+ */
+package com.example.chatapp_cs460.utilities;
+
+import com.example.chatapp_cs460.listeners.SyncPolicyListener;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Drives the sync policy through simulated link conditions with a fake connectivity provider and
+ * checks the page sizes, media deferral and prefetch decisions for each of them.
+ */
+public class SyncPolicyTest {
+
+    @Test
+    public void unmeteredLink_fullPagesAndPrefetch() {
+        FakeConnectivityProvider link = new FakeConnectivityProvider();
+        SyncPolicy policy = new SyncPolicy(link, false);
+
+        assertEquals(SyncPolicy.LinkQuality.UNMETERED, policy.getLinkQuality());
+        assertEquals(50, policy.getHistoryWindowSize(50));
+        assertEquals(0, policy.getDirectoryPageSize());
+        assertFalse(policy.shouldDeferMediaDownloads());
+        assertTrue(policy.shouldPrefetch());
+    }
+
+    @Test
+    public void meteredLink_smallerPagesNoPrefetch() {
+        FakeConnectivityProvider link = new FakeConnectivityProvider();
+        link.isMetered = true;
+        link.downstreamKbps = 20000;
+        SyncPolicy policy = new SyncPolicy(link, false);
+
+        assertEquals(SyncPolicy.LinkQuality.METERED, policy.getLinkQuality());
+        assertEquals(25, policy.getHistoryWindowSize(50));
+        assertEquals(SyncPolicy.DIRECTORY_PAGE_SIZE_METERED, policy.getDirectoryPageSize());
+        assertFalse(policy.shouldDeferMediaDownloads());
+        assertFalse(policy.shouldPrefetch());
+    }
+
+    @Test
+    public void throttledMeteredLink_deferMedia() {
+        FakeConnectivityProvider link = new FakeConnectivityProvider();
+        link.isMetered = true;
+        link.downstreamKbps = 256;
+        SyncPolicy policy = new SyncPolicy(link, false);
+
+        assertEquals(SyncPolicy.LinkQuality.CONSTRAINED, policy.getLinkQuality());
+        assertEquals(12, policy.getHistoryWindowSize(50));
+        assertEquals(1, policy.getHistoryWindowSize(2));
+        assertEquals(SyncPolicy.DIRECTORY_PAGE_SIZE_CONSTRAINED, policy.getDirectoryPageSize());
+        assertTrue(policy.shouldDeferMediaDownloads());
+        assertFalse(policy.shouldPrefetch());
+    }
+
+    @Test
+    public void meteredLinkOfUnknownBandwidth_isNotConstrained() {
+        FakeConnectivityProvider link = new FakeConnectivityProvider();
+        link.isMetered = true;
+        link.downstreamKbps = 0;
+        SyncPolicy policy = new SyncPolicy(link, false);
+
+        assertEquals(SyncPolicy.LinkQuality.METERED, policy.getLinkQuality());
+    }
+
+    @Test
+    public void dataSaver_constrainsEvenUnmeteredLinks() {
+        FakeConnectivityProvider link = new FakeConnectivityProvider();
+        SyncPolicy policy = new SyncPolicy(link, false);
+
+        policy.setDataSaverEnabled(true);
+        assertEquals(SyncPolicy.LinkQuality.CONSTRAINED, policy.getLinkQuality());
+        assertTrue(policy.shouldDeferMediaDownloads());
+        assertFalse(policy.shouldPrefetch());
+
+        policy.setDataSaverEnabled(false);
+        assertEquals(SyncPolicy.LinkQuality.UNMETERED, policy.getLinkQuality());
+
+        // The system data saver has the same effect as the in-app setting
+        link.isDataSaverRestricted = true;
+        link.changed();
+        assertEquals(SyncPolicy.LinkQuality.CONSTRAINED, policy.getLinkQuality());
+    }
+
+    @Test
+    public void offline_keepsFullWindowsFromCacheAndDefersMedia() {
+        FakeConnectivityProvider link = new FakeConnectivityProvider();
+        link.isConnected = false;
+        SyncPolicy policy = new SyncPolicy(link, false);
+
+        assertEquals(SyncPolicy.LinkQuality.OFFLINE, policy.getLinkQuality());
+        assertEquals(50, policy.getHistoryWindowSize(50));
+        assertTrue(policy.shouldDeferMediaDownloads());
+        assertFalse(policy.shouldPrefetch());
+    }
+
+    @Test
+    public void linkChanges_notifyListenersOnlyWhenQualityChanges() {
+        FakeConnectivityProvider link = new FakeConnectivityProvider();
+        SyncPolicy policy = new SyncPolicy(link, false);
+        List<SyncPolicy.LinkQuality> notified = new ArrayList<>();
+        SyncPolicyListener listener = syncPolicy -> notified.add(syncPolicy.getLinkQuality());
+        policy.addListener(listener);
+
+        // Wi-Fi to a throttled mobile link and back
+        link.isMetered = true;
+        link.downstreamKbps = 300;
+        link.changed();
+        link.downstreamKbps = 400;
+        link.changed();
+        link.isMetered = false;
+        link.changed();
+        assertEquals(2, notified.size());
+        assertEquals(SyncPolicy.LinkQuality.CONSTRAINED, notified.get(0));
+        assertEquals(SyncPolicy.LinkQuality.UNMETERED, notified.get(1));
+
+        policy.removeListener(listener);
+        link.isConnected = false;
+        link.changed();
+        assertEquals(2, notified.size());
+    }
+
+    @Test
+    public void replacingProvider_stopsThePreviousOne() {
+        FakeConnectivityProvider first = new FakeConnectivityProvider();
+        SyncPolicy policy = new SyncPolicy(first, false);
+        FakeConnectivityProvider second = new FakeConnectivityProvider();
+        second.isConnected = false;
+
+        policy.setConnectivityProvider(second);
+        assertNull(first.onChanged);
+        assertEquals(SyncPolicy.LinkQuality.OFFLINE, policy.getLinkQuality());
+    }
+
+    /**
+     * Connectivity provider with a link state set by the test.
+     */
+    private static class FakeConnectivityProvider implements ConnectivityProvider {
+        boolean isConnected = true;
+        boolean isMetered = false;
+        int downstreamKbps = 100000;
+        boolean isDataSaverRestricted = false;
+        Runnable onChanged;
+
+        void changed() {
+            if (onChanged != null) {
+                onChanged.run();
+            }
+        }
+
+        @Override
+        public boolean isConnected() {
+            return isConnected;
+        }
+
+        @Override
+        public boolean isMetered() {
+            return isMetered;
+        }
+
+        @Override
+        public int getDownstreamKbps() {
+            return downstreamKbps;
+        }
+
+        @Override
+        public boolean isDataSaverRestricted() {
+            return isDataSaverRestricted;
+        }
+
+        @Override
+        public void start(Runnable onChanged) {
+            this.onChanged = onChanged;
+        }
+
+        @Override
+        public void stop() {
+            onChanged = null;
+        }
+    }
+}
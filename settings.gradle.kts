@@ -21,4 +21,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "ChatApp-CS460"
 include(":app")
+include(":tools")
  
\ No newline at end of file
@@ -0,0 +1,30 @@
+plugins {
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_1_8
+    targetCompatibility = JavaVersion.VERSION_1_8
+}
+
+application {
+    mainClass.set("com.example.chatapp_cs460.tools.DirectorySnapshotGenerator")
+}
+
+// Long running push service, ./gradlew :tools:runPushDispatcher --args="[projectId]"
+tasks.register<JavaExec>("runPushDispatcher") {
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.example.chatapp_cs460.tools.PushDispatcher")
+}
+
+// One-off backfill of chat message conversation keys, ./gradlew :tools:runConversationKeyBackfill --args="[projectId]"
+tasks.register<JavaExec>("runConversationKeyBackfill") {
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.example.chatapp_cs460.tools.ConversationKeyBackfill")
+}
+
+dependencies {
+    implementation(libs.google.cloud.firestore)
+    implementation(libs.gson)
+    testImplementation(libs.junit)
+}
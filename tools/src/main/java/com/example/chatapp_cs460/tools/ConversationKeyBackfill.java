@@ -0,0 +1,108 @@
+/**
+ * A one-off command line tool that adds the conversation key to chat messages written before the
+ * app stored it. Chat windows and chat backups query messages by that key, so older messages are
+ * missing from both until they are backfilled. Run it once, after the app update, with
+ * ./gradlew :tools:runConversationKeyBackfill --args="[projectId]"
+ * Setting FIRESTORE_EMULATOR_HOST runs it against the local Firestore emulator instead. Running it
+ * again only rewrites what is still missing the key.
+ */
+package com.example.chatapp_cs460.tools;
+
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.cloud.firestore.WriteBatch;
+
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Logger;
+
+public class ConversationKeyBackfill {
+    private static final Logger LOGGER = Logger.getLogger(ConversationKeyBackfill.class.getName());
+
+    /**
+     * Database field names, matching the Constants class of the app.
+     */
+    private static final String COLLECTION_CHAT = "chat";
+    private static final String KEY_SENDER_ID = "senderId";
+    private static final String KEY_RECEIVER_ID = "receiverId";
+    private static final String KEY_CONVERSATION_KEY = "conversationKey";
+
+    /**
+     * Default project and number of messages read per page, which is also the largest batch.
+     */
+    private static final String DEFAULT_PROJECT_ID = "chatapp-cs460";
+    private static final int PAGE_SIZE = 500;
+
+    /**
+     * Entry point of the tool.
+     * @param args Optional project ID.
+     * @throws Exception If the database can not be read or written.
+     */
+    public static void main(String[] args) throws Exception {
+        String projectId = args.length > 0 ? args[0] : DEFAULT_PROJECT_ID;
+
+        // Picks up FIRESTORE_EMULATOR_HOST when it is set
+        try (Firestore firestore = FirestoreOptions.newBuilder()
+                .setProjectId(projectId)
+                .build()
+                .getService()) {
+            int count = backfill(firestore);
+            LOGGER.info("Added the conversation key to " + count + " messages of " + projectId);
+        }
+    }
+
+    /**
+     * Method that pages through the chat collection and adds the conversation key to every message
+     * without one. Firestore can not query for a missing field, so every message is read.
+     * @param firestore Firestore instance.
+     * @return Returns the number of messages updated.
+     * @throws ExecutionException If a database read or write fails.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    static int backfill(Firestore firestore) throws ExecutionException, InterruptedException {
+        Query firstPage = firestore.collection(COLLECTION_CHAT)
+                .orderBy(FieldPath.documentId())
+                .limit(PAGE_SIZE);
+        QuerySnapshot page = firstPage.get().get();
+        int count = 0;
+        while (!page.isEmpty()) {
+            WriteBatch batch = firestore.batch();
+            int batchSize = 0;
+            for (QueryDocumentSnapshot document : page) {
+                String senderId = document.getString(KEY_SENDER_ID);
+                String receiverId = document.getString(KEY_RECEIVER_ID);
+                if (document.contains(KEY_CONVERSATION_KEY) || senderId == null || receiverId == null) {
+                    continue;
+                }
+                batch.update(document.getReference(), KEY_CONVERSATION_KEY,
+                        getConversationKey(senderId, receiverId));
+                batchSize++;
+            }
+            if (batchSize > 0) {
+                batch.commit().get();
+                count += batchSize;
+            }
+            if (page.size() < PAGE_SIZE) {
+                break;
+            }
+            QueryDocumentSnapshot last = page.getDocuments().get(page.size() - 1);
+            page = firstPage.startAfter(last).get().get();
+        }
+        return count;
+    }
+
+    /**
+     * Method that returns the key of a one-to-one conversation, matching MessageArchive of the app.
+     * @param firstUserId String type ID of one user.
+     * @param secondUserId String type ID of the other user.
+     * @return Returns the two IDs in sorted order, joined by an underscore.
+     */
+    static String getConversationKey(String firstUserId, String secondUserId) {
+        return firstUserId.compareTo(secondUserId) < 0
+                ? firstUserId + "_" + secondUserId
+                : secondUserId + "_" + firstUserId;
+    }
+}
@@ -0,0 +1,132 @@
+/**
+ * A command line tool that packages the user directory into the snapshot file the app loads at
+ * startup. Run it periodically, before a release, with
+ * ./gradlew :tools:run --args="[projectId] [outputFile]"
+ * Setting FIRESTORE_EMULATOR_HOST runs it against the local Firestore emulator instead.
+ */
+package com.example.chatapp_cs460.tools;
+
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutionException;
+
+public class DirectorySnapshotGenerator {
+    /**
+     * Database field names, matching the Constants class of the app.
+     */
+    private static final String COLLECTION_USERS = "User";
+    private static final String KEY_NAME = "name";
+    private static final String KEY_EMAIL = "email";
+    private static final String KEY_IMAGE = "image";
+    private static final String KEY_IMAGE_PLACEHOLDER = "imagePlaceholder";
+    private static final String KEY_PUBLIC_KEY = "publicKey";
+    private static final String KEY_UPDATED_AT = "updatedAt";
+    private static final String KEY_DELETED = "deleted";
+
+    /**
+     * Default arguments and number of users read per page.
+     */
+    private static final String DEFAULT_PROJECT_ID = "chatapp-cs460";
+    private static final String DEFAULT_OUTPUT = "../app/src/main/assets/directory_snapshot.json";
+    private static final int PAGE_SIZE = 500;
+
+    /**
+     * Entry point of the tool.
+     * @param args Optional project ID and output file.
+     * @throws Exception If the database can not be read or the file can not be written.
+     */
+    public static void main(String[] args) throws Exception {
+        String projectId = args.length > 0 ? args[0] : DEFAULT_PROJECT_ID;
+        File output = new File(args.length > 1 ? args[1] : DEFAULT_OUTPUT);
+
+        // Picks up FIRESTORE_EMULATOR_HOST when it is set
+        try (Firestore firestore = FirestoreOptions.newBuilder()
+                .setProjectId(projectId)
+                .build()
+                .getService()) {
+            int count = writeSnapshot(firestore, output);
+            System.out.println("Wrote " + count + " users to " + output.getCanonicalPath());
+        }
+    }
+
+    /**
+     * Method that pages through the users collection and streams it into the snapshot file.
+     * The read time of the first page is recorded as the snapshot time, anything written after it
+     * is fetched live by the app.
+     * @param firestore Firestore instance.
+     * @param output File to write.
+     * @return Returns the number of users written.
+     * @throws IOException If the file can not be written.
+     * @throws ExecutionException If the database read fails.
+     * @throws InterruptedException If the thread is interrupted while waiting.
+     */
+    static int writeSnapshot(Firestore firestore, File output)
+            throws IOException, ExecutionException, InterruptedException {
+        File parent = output.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists() && !parent.mkdirs()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        int count = 0;
+        try (JsonWriter writer = new JsonWriter(new OutputStreamWriter(
+                new FileOutputStream(output), StandardCharsets.UTF_8))) {
+            Query firstPage = firestore.collection(COLLECTION_USERS)
+                    .orderBy(FieldPath.documentId())
+                    .limit(PAGE_SIZE);
+            QuerySnapshot page = firstPage.get().get();
+
+            writer.beginObject();
+            writer.name("generatedAt").value(page.getReadTime().toDate().getTime());
+            writer.name("users").beginArray();
+            while (!page.isEmpty()) {
+                for (QueryDocumentSnapshot document : page) {
+                    // Deleted accounts are left out, the app drops them through their tombstones
+                    if (!Boolean.TRUE.equals(document.getBoolean(KEY_DELETED))) {
+                        writeUser(writer, document);
+                        count++;
+                    }
+                }
+                if (page.size() < PAGE_SIZE) {
+                    break;
+                }
+                QueryDocumentSnapshot last = page.getDocuments().get(page.size() - 1);
+                page = firstPage.startAfter(last).get().get();
+            }
+            writer.endArray();
+            writer.endObject();
+        }
+        return count;
+    }
+
+    /**
+     * Helper method that writes the directory fields of a single user.
+     * @param writer JsonWriter of the snapshot file.
+     * @param document User document.
+     * @throws IOException If the file can not be written.
+     */
+    private static void writeUser(JsonWriter writer, QueryDocumentSnapshot document) throws IOException {
+        writer.beginObject();
+        writer.name("id").value(document.getId());
+        writer.name(KEY_NAME).value(document.getString(KEY_NAME));
+        writer.name(KEY_EMAIL).value(document.getString(KEY_EMAIL));
+        writer.name(KEY_IMAGE).value(document.getString(KEY_IMAGE));
+        writer.name(KEY_IMAGE_PLACEHOLDER).value(document.getString(KEY_IMAGE_PLACEHOLDER));
+        writer.name(KEY_PUBLIC_KEY).value(document.getString(KEY_PUBLIC_KEY));
+        Timestamp updatedAt = document.getTimestamp(KEY_UPDATED_AT);
+        if (updatedAt != null) {
+            writer.name(KEY_UPDATED_AT).value(updatedAt.toDate().getTime());
+        }
+        writer.endObject();
+    }
+}
@@ -0,0 +1,170 @@
+/**
+ * The push sender that delivers pushes through the FCM HTTP v1 API. FCM takes one message per
+ * request, so a batch is sent over a small pool of parallel connections. The endpoint is
+ * configurable, which lets tests point the sender at a local fake push endpoint.
+ */
+package com.example.chatapp_cs460.tools;
+
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class FcmHttpSender implements PushSender, AutoCloseable {
+    /**
+     * Production endpoint, OAuth scope of FCM and the request timeouts.
+     */
+    public static final String FCM_ENDPOINT = "https://fcm.googleapis.com";
+    private static final String MESSAGING_SCOPE = "https://www.googleapis.com/auth/firebase.messaging";
+    private static final int TIMEOUT_MILLIS = 10000;
+
+    /**
+     * Send URL of the project, credentials and the connection pool.
+     */
+    private final URL sendUrl;
+    private final GoogleCredentials credentials;
+    private final ExecutorService connections;
+
+    /**
+     * Constructor for the FcmHttpSender.
+     * @param endpoint String type base URL, FCM_ENDPOINT or a fake endpoint.
+     * @param projectId String type Firebase project ID.
+     * @param credentials GoogleCredentials of a service account, null to send without authorization.
+     * @param parallelism Number of requests sent at the same time.
+     * @throws IOException If the URL is malformed.
+     */
+    public FcmHttpSender(String endpoint, String projectId, GoogleCredentials credentials, int parallelism)
+            throws IOException {
+        this.sendUrl = new URL(endpoint + "/v1/projects/" + projectId + "/messages:send");
+        this.credentials = credentials != null ? credentials.createScoped(MESSAGING_SCOPE) : null;
+        this.connections = Executors.newFixedThreadPool(parallelism);
+    }
+
+    @Override
+    public List<Result> send(List<PushMessage> pushes) throws IOException {
+        String authorization = null;
+        if (credentials != null) {
+            credentials.refreshIfExpired();
+            authorization = "Bearer " + credentials.getAccessToken().getTokenValue();
+        }
+        List<Future<Result>> futures = new ArrayList<>();
+        for (PushMessage push : pushes) {
+            String header = authorization;
+            futures.add(connections.submit(() -> sendOne(push, header)));
+        }
+        List<Result> results = new ArrayList<>();
+        for (Future<Result> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (ExecutionException e) {
+                results.add(Result.RETRY);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while sending", e);
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Helper method that sends a single push.
+     * @param push PushMessage to send.
+     * @param authorization String type authorization header, may be null.
+     * @return Returns the Result of the push.
+     */
+    private Result sendOne(PushMessage push, String authorization) {
+        HttpURLConnection connection = null;
+        try {
+            connection = (HttpURLConnection) sendUrl.openConnection();
+            connection.setConnectTimeout(TIMEOUT_MILLIS);
+            connection.setReadTimeout(TIMEOUT_MILLIS);
+            connection.setRequestMethod("POST");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/json; charset=UTF-8");
+            if (authorization != null) {
+                connection.setRequestProperty("Authorization", authorization);
+            }
+            try (OutputStream output = connection.getOutputStream()) {
+                output.write(toJson(push).getBytes(StandardCharsets.UTF_8));
+            }
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_OK) {
+                return Result.SENT;
+            }
+            String error = readError(connection);
+            if (status == HttpURLConnection.HTTP_NOT_FOUND || error.contains("UNREGISTERED")
+                    || (status == HttpURLConnection.HTTP_BAD_REQUEST && error.contains("registration token"))) {
+                return Result.INVALID_TOKEN;
+            }
+            return status == 429 || status >= 500 ? Result.RETRY : Result.FAILED;
+        } catch (IOException e) {
+            return Result.RETRY;
+        } finally {
+            if (connection != null) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Helper method that builds the request body of a push. Pushes are data messages with high
+     * priority, so the app is woken to build the notification.
+     * @param push PushMessage to send.
+     * @return Returns the JSON body.
+     */
+    static String toJson(PushMessage push) {
+        JsonObject data = new JsonObject();
+        for (Map.Entry<String, String> field : push.data.entrySet()) {
+            data.addProperty(field.getKey(), field.getValue());
+        }
+        JsonObject android = new JsonObject();
+        android.addProperty("priority", "high");
+        JsonObject message = new JsonObject();
+        message.addProperty("token", push.token);
+        message.add("data", data);
+        message.add("android", android);
+        JsonObject body = new JsonObject();
+        body.add("message", message);
+        return body.toString();
+    }
+
+    /**
+     * Helper method that reads the error body of a failed request.
+     * @param connection HttpURLConnection of the request.
+     * @return Returns the body, or an empty String.
+     */
+    private static String readError(HttpURLConnection connection) throws IOException {
+        try (InputStream input = connection.getErrorStream()) {
+            if (input == null) {
+                return "";
+            }
+            StringBuilder text = new StringBuilder();
+            byte[] buffer = new byte[4096];
+            int read;
+            while ((read = input.read(buffer)) != -1) {
+                text.append(new String(buffer, 0, read, StandardCharsets.UTF_8));
+            }
+            return text.toString();
+        }
+    }
+
+    /**
+     * Method that closes the connection pool.
+     */
+    @Override
+    public void close() {
+        connections.shutdown();
+    }
+}
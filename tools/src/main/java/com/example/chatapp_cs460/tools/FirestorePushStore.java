@@ -0,0 +1,73 @@
+/**
+ * The push store backed by the User collection. Users are read in one request for every dispatch
+ * window, limited to their name and token, so the avatar images stay on the server.
+ */
+package com.example.chatapp_cs460.tools;
+
+import com.google.cloud.firestore.DocumentReference;
+import com.google.cloud.firestore.DocumentSnapshot;
+import com.google.cloud.firestore.FieldMask;
+import com.google.cloud.firestore.FieldValue;
+import com.google.cloud.firestore.Firestore;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class FirestorePushStore implements PushStore {
+    /**
+     * Database field names, matching the Constants class of the app.
+     */
+    static final String COLLECTION_USERS = "User";
+    static final String KEY_NAME = "name";
+    static final String KEY_FCM_TOKEN = "fcmToken";
+
+    /**
+     * Database of the users.
+     */
+    private final Firestore firestore;
+
+    /**
+     * Constructor for the FirestorePushStore.
+     * @param firestore Firestore instance.
+     */
+    public FirestorePushStore(Firestore firestore) {
+        this.firestore = firestore;
+    }
+
+    @Override
+    public Map<String, User> getUsers(Collection<String> userIds) throws Exception {
+        Map<String, User> users = new HashMap<>();
+        if (userIds.isEmpty()) {
+            return users;
+        }
+        List<DocumentReference> references = new ArrayList<>();
+        for (String userId : userIds) {
+            references.add(firestore.collection(COLLECTION_USERS).document(userId));
+        }
+        List<DocumentSnapshot> documents = firestore.getAll(
+                references.toArray(new DocumentReference[0]), FieldMask.of(KEY_NAME, KEY_FCM_TOKEN)).get();
+        for (DocumentSnapshot document : documents) {
+            if (document.exists()) {
+                users.put(document.getId(),
+                        new User(document.getString(KEY_NAME), document.getString(KEY_FCM_TOKEN)));
+            }
+        }
+        return users;
+    }
+
+    @Override
+    public void removeToken(String userId, String token) throws Exception {
+        DocumentReference reference = firestore.collection(COLLECTION_USERS).document(userId);
+        firestore.runTransaction(transaction -> {
+            DocumentSnapshot document = transaction.get(reference).get();
+            // The app may have stored a fresh token since the push was sent
+            if (token.equals(document.getString(KEY_FCM_TOKEN))) {
+                transaction.update(reference, KEY_FCM_TOKEN, FieldValue.delete());
+            }
+            return null;
+        }).get();
+    }
+}
@@ -0,0 +1,532 @@
+/**
+ * A standalone service that sends push notifications for new chat messages. It watches the chat
+ * collection, holds new messages for a short window and sends one push per recipient with every
+ * message of that window, so a burst of messages costs one push instead of one each. Tokens and
+ * names come from a user cache that is refreshed in one request per window, failed sends are
+ * retried with backoff and tokens the push service rejects are removed from their users. The watch
+ * is attached again after errors and moved forward periodically, so it never grows. Run it
+ * with
+ * ./gradlew :tools:runPushDispatcher --args="[projectId]"
+ * Setting FIRESTORE_EMULATOR_HOST runs it against the local Firestore emulator, and setting
+ * FCM_ENDPOINT sends the pushes to a fake push endpoint instead of FCM.
+ */
+package com.example.chatapp_cs460.tools;
+
+import com.google.auth.oauth2.GoogleCredentials;
+import com.google.cloud.Timestamp;
+import com.google.cloud.firestore.Blob;
+import com.google.cloud.firestore.DocumentChange;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.ListenerRegistration;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class PushDispatcher implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(PushDispatcher.class.getName());
+
+    /**
+     * Database field names, matching the Constants class of the app.
+     */
+    static final String COLLECTION_CHAT = "chat";
+    static final String KEY_SENDER_ID = "senderId";
+    static final String KEY_RECEIVER_ID = "receiverId";
+    static final String KEY_MESSAGE = "message";
+    static final String KEY_CIPHERTEXT = "ciphertext";
+    static final String KEY_TIMESTAMP = "timestamp";
+
+    /**
+     * Data fields of a push. The messages are a JSON array of objects with the message ID, sender,
+     * sender name, text and time, the text is left out for encrypted messages and the name for
+     * unknown senders.
+     */
+    public static final String DATA_TYPE = "type";
+    public static final String DATA_RECEIVER_ID = "receiverId";
+    public static final String DATA_MESSAGES = "messages";
+    public static final String DATA_COUNT = "count";
+    public static final String TYPE_CHAT = "chat";
+
+    /**
+     * Default time messages are held for grouping, how long cached users stay valid, the most
+     * messages carried by one push and the send attempts of a push.
+     */
+    static final long DEFAULT_WINDOW_MILLIS = 2000;
+    static final long USER_CACHE_MILLIS = TimeUnit.MINUTES.toMillis(10);
+    static final int MAX_MESSAGES_PER_PUSH = 10;
+    static final int MAX_ATTEMPTS = 4;
+    private static final long DEFAULT_RETRY_BASE_MILLIS = 1000;
+
+    /**
+     * First and longest delay before a failed watch is attached again, and how often the watch is
+     * moved forward to the newest message seen.
+     */
+    private static final long WATCH_RETRY_DELAY_MILLIS = TimeUnit.SECONDS.toMillis(5);
+    private static final long MAX_WATCH_RETRY_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+    private static final long WATCH_REANCHOR_MILLIS = TimeUnit.MINUTES.toMillis(30);
+
+    /**
+     * A message waiting for its window to end.
+     */
+    static class PendingMessage {
+        final String id;
+        final String senderId;
+        final String text;
+        final long timestamp;
+
+        PendingMessage(String id, String senderId, String text, long timestamp) {
+            this.id = id;
+            this.senderId = senderId;
+            this.text = text;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /**
+     * A user of the cache and the time it was read.
+     */
+    private static class CachedUser {
+        final PushStore.User user;
+        final long readAt;
+
+        CachedUser(PushStore.User user, long readAt) {
+            this.user = user;
+            this.readAt = readAt;
+        }
+    }
+
+    /**
+     * Collaborators and timing of the dispatcher.
+     */
+    private final PushStore store;
+    private final PushSender sender;
+    private final long windowMillis;
+    private final long retryBaseMillis;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        // Pending windows do not keep the process alive, close() sends them on shutdown
+        Thread thread = new Thread(runnable, "PushDispatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Messages waiting for the window to end, by recipient, and whether a flush is scheduled.
+     * Guarded by the dispatcher.
+     */
+    private final Map<String, List<PendingMessage>> pending = new LinkedHashMap<>();
+    private boolean isFlushScheduled = false;
+
+    /**
+     * State of the chat watch: the listener, the time it was attached after, the newest message
+     * seen, the delay before the next attempt after an error, and a generation that tells the
+     * callbacks of replaced listeners apart. Guarded by the dispatcher.
+     */
+    private ListenerRegistration watchRegistration;
+    private Timestamp watchedSince;
+    private Timestamp newestSeen;
+    private long watchRetryDelayMillis = WATCH_RETRY_DELAY_MILLIS;
+    private int watchGeneration = 0;
+    private boolean isWatching = false;
+
+    /**
+     * Users read so far, only used on the scheduler thread or by tests calling flush() directly.
+     */
+    private final Map<String, CachedUser> userCache = new HashMap<>();
+
+    /**
+     * Counters of the pushes, for the log and for tests.
+     */
+    final AtomicInteger sentCount = new AtomicInteger();
+    final AtomicInteger invalidTokenCount = new AtomicInteger();
+    final AtomicInteger droppedCount = new AtomicInteger();
+
+    /**
+     * Constructor for the PushDispatcher.
+     * @param store PushStore of the user tokens and names.
+     * @param sender PushSender that delivers the pushes.
+     */
+    public PushDispatcher(PushStore store, PushSender sender) {
+        this(store, sender, DEFAULT_WINDOW_MILLIS, DEFAULT_RETRY_BASE_MILLIS);
+    }
+
+    /**
+     * Constructor for the PushDispatcher, used directly by tests with short timings.
+     * @param store PushStore of the user tokens and names.
+     * @param sender PushSender that delivers the pushes.
+     * @param windowMillis Time messages are held for grouping.
+     * @param retryBaseMillis Wait before the first retry, doubled for every further one.
+     */
+    PushDispatcher(PushStore store, PushSender sender, long windowMillis, long retryBaseMillis) {
+        this.store = store;
+        this.sender = sender;
+        this.windowMillis = windowMillis;
+        this.retryBaseMillis = retryBaseMillis;
+    }
+
+    /**
+     * Entry point of the service. Runs until the process is stopped.
+     * @param args Optional project ID.
+     * @throws Exception If the service can not start.
+     */
+    public static void main(String[] args) throws Exception {
+        String projectId = args.length > 0 ? args[0] : "chatapp-cs460";
+        String endpoint = System.getenv("FCM_ENDPOINT");
+        // Picks up FIRESTORE_EMULATOR_HOST when it is set
+        Firestore firestore = FirestoreOptions.newBuilder().setProjectId(projectId).build().getService();
+        FcmHttpSender sender = new FcmHttpSender(endpoint != null ? endpoint : FcmHttpSender.FCM_ENDPOINT,
+                projectId, endpoint != null ? null : GoogleCredentials.getApplicationDefault(), 8);
+        PushDispatcher dispatcher = new PushDispatcher(new FirestorePushStore(firestore), sender);
+        ListenerRegistration registration = dispatcher.watch(firestore, Timestamp.now());
+        CountDownLatch stopped = new CountDownLatch(1);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            registration.remove();
+            dispatcher.close();
+            sender.close();
+            stopped.countDown();
+        }));
+        LOGGER.info("Dispatching pushes for " + projectId);
+        stopped.await();
+    }
+
+    /**
+     * Method that starts watching the chat collection for messages written after a point in time.
+     * Messages already in the collection were either seen in the app or pushed by an earlier run.
+     * @param firestore Firestore instance.
+     * @param since Timestamp after which messages are pushed.
+     * @return Returns the ListenerRegistration that stops the watch.
+     */
+    public ListenerRegistration watch(Firestore firestore, Timestamp since) {
+        synchronized (this) {
+            newestSeen = since;
+            isWatching = true;
+            attachWatch(firestore);
+        }
+        scheduler.scheduleWithFixedDelay(() -> reanchorWatch(firestore),
+                WATCH_REANCHOR_MILLIS, WATCH_REANCHOR_MILLIS, TimeUnit.MILLISECONDS);
+        return this::stopWatch;
+    }
+
+    /**
+     * Helper method that attaches the chat listener after the newest message seen so far. Called
+     * while holding the dispatcher.
+     * @param firestore Firestore instance.
+     */
+    private void attachWatch(Firestore firestore) {
+        int generation = ++watchGeneration;
+        watchedSince = newestSeen;
+        watchRegistration = firestore.collection(COLLECTION_CHAT)
+                .whereGreaterThan(KEY_TIMESTAMP, watchedSince)
+                .addSnapshotListener((snapshot, error) -> {
+                    synchronized (this) {
+                        if (generation != watchGeneration) {
+                            return;
+                        }
+                        if (error != null || snapshot == null) {
+                            onWatchError(firestore, error);
+                            return;
+                        }
+                        watchRetryDelayMillis = WATCH_RETRY_DELAY_MILLIS;
+                    }
+                    for (DocumentChange change : snapshot.getDocumentChanges()) {
+                        if (change.getType() != DocumentChange.Type.ADDED) {
+                            continue;
+                        }
+                        QueryDocumentSnapshot document = change.getDocument();
+                        Timestamp timestamp = document.getTimestamp(KEY_TIMESTAMP);
+                        Blob ciphertext = document.getBlob(KEY_CIPHERTEXT);
+                        enqueue(document.getId(), document.getString(KEY_SENDER_ID),
+                                document.getString(KEY_RECEIVER_ID),
+                                ciphertext != null ? null : document.getString(KEY_MESSAGE),
+                                timestamp != null ? timestamp.toDate().getTime() : System.currentTimeMillis());
+                        synchronized (this) {
+                            if (timestamp != null && timestamp.compareTo(newestSeen) > 0) {
+                                newestSeen = timestamp;
+                            }
+                        }
+                    }
+                });
+    }
+
+    /**
+     * Helper method that logs a failed watch and attaches it again after a delay that doubles with
+     * every failure in a row. A failed listener receives nothing more. Called while holding the
+     * dispatcher.
+     * @param firestore Firestore instance.
+     * @param error Exception of the listener, may be null.
+     */
+    private void onWatchError(Firestore firestore, Exception error) {
+        LOGGER.log(Level.WARNING, "Chat watch failed, attaching again in " + watchRetryDelayMillis + " ms", error);
+        watchRegistration.remove();
+        watchGeneration++;
+        long delayMillis = watchRetryDelayMillis;
+        watchRetryDelayMillis = Math.min(MAX_WATCH_RETRY_DELAY_MILLIS, watchRetryDelayMillis * 2);
+        scheduler.schedule(() -> {
+            synchronized (this) {
+                if (isWatching) {
+                    attachWatch(firestore);
+                }
+            }
+        }, delayMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Helper method that moves the watch forward to the newest message seen, so the result set of
+     * the listener does not keep every message pushed since the start.
+     * @param firestore Firestore instance.
+     */
+    private synchronized void reanchorWatch(Firestore firestore) {
+        if (!isWatching || newestSeen.equals(watchedSince)) {
+            return;
+        }
+        watchRegistration.remove();
+        attachWatch(firestore);
+    }
+
+    /**
+     * Helper method that stops the watch, also any attempt to attach it again.
+     */
+    private synchronized void stopWatch() {
+        isWatching = false;
+        watchGeneration++;
+        if (watchRegistration != null) {
+            watchRegistration.remove();
+        }
+    }
+
+    /**
+     * Method that holds a new message for the push of its recipient. The first message of a window
+     * schedules the flush at the end of the window.
+     * @param messageId String type ID of the message document.
+     * @param senderId String type ID of the sender.
+     * @param receiverId String type ID of the recipient.
+     * @param text String type text of the message, null for encrypted messages.
+     * @param timestamp Time the message was sent in milliseconds.
+     */
+    public void enqueue(String messageId, String senderId, String receiverId, String text, long timestamp) {
+        if (senderId == null || receiverId == null || senderId.equals(receiverId)) {
+            return;
+        }
+        synchronized (this) {
+            List<PendingMessage> messages = pending.get(receiverId);
+            if (messages == null) {
+                messages = new ArrayList<>();
+                pending.put(receiverId, messages);
+            }
+            messages.add(new PendingMessage(messageId, senderId, text, timestamp));
+            if (isFlushScheduled) {
+                return;
+            }
+            isFlushScheduled = true;
+        }
+        scheduler.schedule(this::flush, windowMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Method that ends the current window, sending one push per recipient with a token.
+     */
+    void flush() {
+        Map<String, List<PendingMessage>> window;
+        synchronized (this) {
+            window = new LinkedHashMap<>(pending);
+            pending.clear();
+            isFlushScheduled = false;
+        }
+        if (window.isEmpty()) {
+            return;
+        }
+        Set<String> userIds = new HashSet<>(window.keySet());
+        for (List<PendingMessage> messages : window.values()) {
+            for (PendingMessage message : messages) {
+                userIds.add(message.senderId);
+            }
+        }
+        Map<String, PushStore.User> users;
+        try {
+            users = getUsers(userIds);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Unable to read users, dropping " + window.size() + " pushes", e);
+            droppedCount.addAndGet(window.size());
+            return;
+        }
+
+        List<PushMessage> pushes = new ArrayList<>();
+        for (Map.Entry<String, List<PendingMessage>> recipient : window.entrySet()) {
+            PushStore.User user = users.get(recipient.getKey());
+            if (user == null || user.token == null) {
+                continue;
+            }
+            pushes.add(new PushMessage(recipient.getKey(), user.token,
+                    toData(recipient.getKey(), recipient.getValue(), users)));
+        }
+        for (int start = 0; start < pushes.size(); start += PushSender.MAX_BATCH_SIZE) {
+            send(pushes.subList(start, Math.min(pushes.size(), start + PushSender.MAX_BATCH_SIZE)), 1);
+        }
+    }
+
+    /**
+     * Helper method that sends a batch, retrying the pushes that failed temporarily with an
+     * exponential backoff, and removes tokens the push service rejected. Retries are scheduled
+     * instead of waited for, so they do not hold up the windows of other messages.
+     * @param batch List of at most MAX_BATCH_SIZE pushes.
+     * @param attempt Number of the attempt, from 1.
+     */
+    private void send(List<PushMessage> batch, int attempt) {
+        List<PushSender.Result> results;
+        try {
+            results = sender.send(batch);
+        } catch (IOException e) {
+            results = Collections.nCopies(batch.size(), PushSender.Result.RETRY);
+        }
+        List<PushMessage> retries = new ArrayList<>();
+        for (int i = 0; i < batch.size(); i++) {
+            PushMessage push = batch.get(i);
+            switch (results.get(i)) {
+                case SENT:
+                    sentCount.incrementAndGet();
+                    break;
+                case INVALID_TOKEN:
+                    invalidTokenCount.incrementAndGet();
+                    removeToken(push);
+                    break;
+                case RETRY:
+                    retries.add(push);
+                    break;
+                default:
+                    droppedCount.incrementAndGet();
+                    break;
+            }
+        }
+        if (retries.isEmpty()) {
+            return;
+        }
+        if (attempt >= MAX_ATTEMPTS) {
+            droppedCount.addAndGet(retries.size());
+            return;
+        }
+        try {
+            scheduler.schedule(() -> send(retries, attempt + 1),
+                    retryBaseMillis << (attempt - 1), TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // The dispatcher was closed
+            droppedCount.addAndGet(retries.size());
+        }
+    }
+
+    /**
+     * Helper method that returns the users of a window, reading the ones missing from the cache,
+     * or cached for too long, in one request.
+     * @param userIds Set of user IDs.
+     * @return Returns the users that exist, by ID.
+     * @throws Exception If the users can not be read.
+     */
+    private Map<String, PushStore.User> getUsers(Set<String> userIds) throws Exception {
+        long now = System.currentTimeMillis();
+        Map<String, PushStore.User> users = new HashMap<>();
+        List<String> missing = new ArrayList<>();
+        for (String userId : userIds) {
+            CachedUser cached = userCache.get(userId);
+            if (cached != null && now - cached.readAt < USER_CACHE_MILLIS) {
+                users.put(userId, cached.user);
+            } else {
+                missing.add(userId);
+            }
+        }
+        if (!missing.isEmpty()) {
+            Map<String, PushStore.User> read = store.getUsers(missing);
+            for (String userId : missing) {
+                PushStore.User user = read.get(userId);
+                if (user != null) {
+                    userCache.put(userId, new CachedUser(user, now));
+                    users.put(userId, user);
+                } else {
+                    userCache.remove(userId);
+                }
+            }
+        }
+        return users;
+    }
+
+    /**
+     * Helper method that removes a rejected token from its user and from the cache.
+     * @param push PushMessage that was rejected.
+     */
+    private void removeToken(PushMessage push) {
+        CachedUser cached = userCache.get(push.recipientId);
+        if (cached != null && push.token.equals(cached.user.token)) {
+            userCache.put(push.recipientId,
+                    new CachedUser(new PushStore.User(cached.user.name, null), cached.readAt));
+        }
+        try {
+            store.removeToken(push.recipientId, push.token);
+        } catch (Exception e) {
+            LOGGER.log(Level.WARNING, "Unable to remove token of " + push.recipientId, e);
+        }
+    }
+
+    /**
+     * Helper method that builds the data of the push of one recipient. Only the newest messages
+     * are carried, the count tells the app how many there were.
+     * @param recipientId String type ID of the recipient.
+     * @param messages List of the messages of the window, oldest first.
+     * @param users Map of the users of the window, for the sender names.
+     * @return Returns the data fields.
+     */
+    static Map<String, String> toData(String recipientId, List<PendingMessage> messages,
+                                      Map<String, PushStore.User> users) {
+        JsonArray entries = new JsonArray();
+        for (PendingMessage message : messages.subList(Math.max(0, messages.size() - MAX_MESSAGES_PER_PUSH),
+                messages.size())) {
+            JsonObject entry = new JsonObject();
+            entry.addProperty("id", message.id);
+            entry.addProperty(KEY_SENDER_ID, message.senderId);
+            PushStore.User sender = users.get(message.senderId);
+            // Left out when the sender is unknown, the app shows its own name instead
+            if (sender != null && sender.name != null) {
+                entry.addProperty("senderName", sender.name);
+            }
+            if (message.text != null) {
+                entry.addProperty(KEY_MESSAGE, message.text);
+            }
+            entry.addProperty(KEY_TIMESTAMP, message.timestamp);
+            entries.add(entry);
+        }
+        Map<String, String> data = new LinkedHashMap<>();
+        data.put(DATA_TYPE, TYPE_CHAT);
+        data.put(DATA_RECEIVER_ID, recipientId);
+        data.put(DATA_COUNT, Integer.toString(messages.size()));
+        data.put(DATA_MESSAGES, entries.toString());
+        return data;
+    }
+
+    /**
+     * Method that sends what is still pending and stops the dispatcher.
+     */
+    @Override
+    public void close() {
+        scheduler.execute(this::flush);
+        scheduler.shutdown();
+        try {
+            scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
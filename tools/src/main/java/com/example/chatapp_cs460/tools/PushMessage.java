@@ -0,0 +1,29 @@
+/**
+ * A push notification for one recipient, carrying the messages sent to them within one dispatch
+ * window. The messages travel as data, so the app builds the notification itself.
+ */
+package com.example.chatapp_cs460.tools;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+public class PushMessage {
+    /**
+     * Recipient, the device token the push is sent to and the data of the push.
+     */
+    public final String recipientId;
+    public final String token;
+    public final Map<String, String> data;
+
+    /**
+     * Constructor for the PushMessage.
+     * @param recipientId String type ID of the receiving user.
+     * @param token String type FCM registration token of the recipient.
+     * @param data Map of the data fields of the push.
+     */
+    public PushMessage(String recipientId, String token, Map<String, String> data) {
+        this.recipientId = recipientId;
+        this.token = token;
+        this.data = new LinkedHashMap<>(data);
+    }
+}
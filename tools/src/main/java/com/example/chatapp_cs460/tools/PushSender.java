@@ -0,0 +1,34 @@
+/**
+ * An interface class for the service that delivers pushes to devices, so the dispatcher can run
+ * against FCM or against a fake endpoint in tests.
+ */
+package com.example.chatapp_cs460.tools;
+
+import java.io.IOException;
+import java.util.List;
+
+public interface PushSender {
+    /**
+     * Most pushes handed to a sender at once, the batch limit of FCM.
+     */
+    int MAX_BATCH_SIZE = 500;
+
+    /**
+     * Outcomes of a single push. RETRY is a temporary failure, FAILED a push the service rejected
+     * for another reason than its token.
+     */
+    enum Result {
+        SENT,
+        RETRY,
+        INVALID_TOKEN,
+        FAILED
+    }
+
+    /**
+     * Method that sends a batch of pushes.
+     * @param pushes List of at most MAX_BATCH_SIZE pushes.
+     * @return Returns the Result of every push, in the order of the batch.
+     * @throws IOException If the service can not be reached at all, every push is retried.
+     */
+    List<Result> send(List<PushMessage> pushes) throws IOException;
+}
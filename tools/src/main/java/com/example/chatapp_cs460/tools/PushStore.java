@@ -0,0 +1,45 @@
+/**
+ * An interface class for the user data the push dispatcher needs, the device token and display
+ * name of each user.
+ */
+package com.example.chatapp_cs460.tools;
+
+import java.util.Collection;
+import java.util.Map;
+
+public interface PushStore {
+    /**
+     * Push relevant fields of a user.
+     */
+    class User {
+        public final String name;
+        public final String token;
+
+        /**
+         * Constructor for the User.
+         * @param name String type display name, may be null.
+         * @param token String type FCM registration token, null if the user has none.
+         */
+        public User(String name, String token) {
+            this.name = name;
+            this.token = token;
+        }
+    }
+
+    /**
+     * Method that reads the push fields of several users in one request.
+     * @param userIds Collection of user IDs.
+     * @return Returns the users that exist, by ID.
+     * @throws Exception If the users can not be read.
+     */
+    Map<String, User> getUsers(Collection<String> userIds) throws Exception;
+
+    /**
+     * Method that removes a token the push service rejected, unless the user registered a new one
+     * in the meantime.
+     * @param userId String type ID of the user.
+     * @param token String type rejected token.
+     * @throws Exception If the user can not be updated.
+     */
+    void removeToken(String userId, String token) throws Exception;
+}
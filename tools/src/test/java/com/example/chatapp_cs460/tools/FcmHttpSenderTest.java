@@ -0,0 +1,134 @@
+/**
+ * FCM sender test class
+ */
+package com.example.chatapp_cs460.tools;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpServer;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Sends pushes to a local fake push endpoint that answers by token the way FCM does, and checks
+ * the request bodies and how every answer is classified.
+ */
+public class FcmHttpSenderTest {
+    private HttpServer server;
+    private final List<JsonObject> received = Collections.synchronizedList(new ArrayList<>());
+    private FcmHttpSender sender;
+
+    @Before
+    public void startEndpoint() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/v1/projects/test-project/messages:send", exchange -> {
+            JsonObject body = JsonParser.parseString(read(exchange.getRequestBody())).getAsJsonObject();
+            received.add(body);
+            String token = body.getAsJsonObject("message").get("token").getAsString();
+            int status;
+            String answer;
+            switch (token) {
+                case "unregistered":
+                    status = 404;
+                    answer = "{\"error\":{\"status\":\"NOT_FOUND\",\"details\":[{\"errorCode\":\"UNREGISTERED\"}]}}";
+                    break;
+                case "malformed":
+                    status = 400;
+                    answer = "{\"error\":{\"status\":\"INVALID_ARGUMENT\",\"message\":\"The registration token is not a valid FCM registration token\"}}";
+                    break;
+                case "busy":
+                    status = 503;
+                    answer = "{\"error\":{\"status\":\"UNAVAILABLE\"}}";
+                    break;
+                case "quota":
+                    status = 429;
+                    answer = "{\"error\":{\"status\":\"RESOURCE_EXHAUSTED\"}}";
+                    break;
+                case "forbidden":
+                    status = 403;
+                    answer = "{\"error\":{\"status\":\"PERMISSION_DENIED\"}}";
+                    break;
+                default:
+                    status = 200;
+                    answer = "{\"name\":\"projects/test-project/messages/1\"}";
+                    break;
+            }
+            byte[] bytes = answer.getBytes(StandardCharsets.UTF_8);
+            exchange.sendResponseHeaders(status, bytes.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(bytes);
+            }
+        });
+        server.start();
+        sender = new FcmHttpSender("http://127.0.0.1:" + server.getAddress().getPort(), "test-project", null, 4);
+    }
+
+    @After
+    public void stopEndpoint() {
+        sender.close();
+        server.stop(0);
+    }
+
+    @Test
+    public void answers_classifiedPerPush() throws IOException {
+        List<PushMessage> pushes = new ArrayList<>();
+        for (String token : Arrays.asList("good", "unregistered", "malformed", "busy", "quota", "forbidden")) {
+            pushes.add(push(token));
+        }
+
+        List<PushSender.Result> results = sender.send(pushes);
+
+        assertEquals(Arrays.asList(PushSender.Result.SENT, PushSender.Result.INVALID_TOKEN,
+                PushSender.Result.INVALID_TOKEN, PushSender.Result.RETRY, PushSender.Result.RETRY,
+                PushSender.Result.FAILED), results);
+        assertEquals(6, received.size());
+    }
+
+    @Test
+    public void body_isAHighPriorityDataMessage() throws IOException {
+        sender.send(Collections.singletonList(push("good")));
+
+        JsonObject message = received.get(0).getAsJsonObject("message");
+        assertEquals("good", message.get("token").getAsString());
+        assertEquals("high", message.getAsJsonObject("android").get("priority").getAsString());
+        assertEquals("bob", message.getAsJsonObject("data").get(PushDispatcher.DATA_RECEIVER_ID).getAsString());
+        assertFalse(message.has("notification"));
+    }
+
+    @Test
+    public void unreachableEndpoint_retried() throws IOException {
+        server.stop(0);
+        List<PushSender.Result> results = sender.send(Collections.singletonList(push("good")));
+
+        assertEquals(Collections.singletonList(PushSender.Result.RETRY), results);
+    }
+
+    private static PushMessage push(String token) {
+        return new PushMessage("bob", token, Collections.singletonMap(PushDispatcher.DATA_RECEIVER_ID, "bob"));
+    }
+
+    private static String read(InputStream input) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        byte[] buffer = new byte[4096];
+        int read;
+        while ((read = input.read(buffer)) != -1) {
+            bytes.write(buffer, 0, read);
+        }
+        return new String(bytes.toByteArray(), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Firestore push store emulator test class
+ */
+package com.example.chatapp_cs460.tools;
+
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Reads and cleans up tokens in the Firestore emulator. Skipped unless FIRESTORE_EMULATOR_HOST
+ * points at a running emulator, for example after firebase emulators:start --only firestore.
+ */
+public class FirestorePushStoreEmulatorTest {
+    private Firestore firestore;
+    private FirestorePushStore store;
+
+    @Before
+    public void connect() {
+        String host = System.getenv("FIRESTORE_EMULATOR_HOST");
+        assumeTrue(host != null && !host.isEmpty());
+        firestore = FirestoreOptions.newBuilder().setProjectId("push-dispatcher-test").build().getService();
+        store = new FirestorePushStore(firestore);
+    }
+
+    @After
+    public void close() throws Exception {
+        if (firestore != null) {
+            firestore.close();
+        }
+    }
+
+    @Test
+    public void usersReadWithNameAndToken() throws Exception {
+        putUser("alice", "Alice", "token-alice");
+        putUser("bob", "Bob", null);
+
+        Map<String, PushStore.User> users = store.getUsers(Arrays.asList("alice", "bob", "nobody"));
+
+        assertEquals(2, users.size());
+        assertEquals("token-alice", users.get("alice").token);
+        assertEquals("Bob", users.get("bob").name);
+        assertNull(users.get("bob").token);
+    }
+
+    @Test
+    public void rejectedToken_removedUnlessReplaced() throws Exception {
+        putUser("carol", "Carol", "stale-token");
+        putUser("dave", "Dave", "fresh-token");
+
+        store.removeToken("carol", "stale-token");
+        store.removeToken("dave", "stale-token");
+
+        Map<String, PushStore.User> users = store.getUsers(Arrays.asList("carol", "dave"));
+        assertNull(users.get("carol").token);
+        assertEquals("fresh-token", users.get("dave").token);
+    }
+
+    private void putUser(String userId, String name, String token) throws Exception {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put(FirestorePushStore.KEY_NAME, name);
+        if (token != null) {
+            fields.put(FirestorePushStore.KEY_FCM_TOKEN, token);
+        }
+        fields.put("image", "large avatar that the store never reads");
+        firestore.collection(FirestorePushStore.COLLECTION_USERS).document(userId).set(fields).get();
+    }
+}
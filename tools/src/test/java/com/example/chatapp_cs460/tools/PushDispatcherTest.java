@@ -0,0 +1,258 @@
+/**
+ * Push dispatcher test class
+ */
+package com.example.chatapp_cs460.tools;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonParser;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.*;
+
+/**
+ * Runs the dispatcher against an in-memory user store and a scripted push sender, checking how
+ * messages are grouped per recipient, how often users are read, and how failed and rejected
+ * pushes are handled.
+ */
+public class PushDispatcherTest {
+
+    @Test
+    public void messagesOfAWindow_groupedIntoOnePushPerRecipient() {
+        FakeStore store = new FakeStore();
+        store.users.put("alice", new PushStore.User("Alice", "token-alice"));
+        store.users.put("bob", new PushStore.User("Bob", "token-bob"));
+        store.users.put("carol", new PushStore.User("Carol", "token-carol"));
+        FakeSender sender = new FakeSender();
+        PushDispatcher dispatcher = new PushDispatcher(store, sender, 60000, 0);
+
+        dispatcher.enqueue("m1", "alice", "bob", "Hi", 1);
+        dispatcher.enqueue("m2", "alice", "bob", "Are you there?", 2);
+        dispatcher.enqueue("m3", "carol", "bob", null, 3);
+        dispatcher.enqueue("m4", "bob", "alice", "Yes", 4);
+        dispatcher.flush();
+
+        assertEquals(1, sender.batches.size());
+        List<PushMessage> pushes = sender.batches.get(0);
+        assertEquals(2, pushes.size());
+        PushMessage toBob = pushes.get(0);
+        assertEquals("token-bob", toBob.token);
+        assertEquals("3", toBob.data.get(PushDispatcher.DATA_COUNT));
+        JsonArray messages = JsonParser.parseString(toBob.data.get(PushDispatcher.DATA_MESSAGES)).getAsJsonArray();
+        assertEquals(3, messages.size());
+        assertEquals("Alice", messages.get(0).getAsJsonObject().get("senderName").getAsString());
+        assertEquals("Are you there?", messages.get(1).getAsJsonObject().get("message").getAsString());
+        // Encrypted messages travel without their text
+        assertFalse(messages.get(2).getAsJsonObject().has("message"));
+        assertEquals(2, dispatcher.sentCount.get());
+        // Every user of the window was read in one request
+        assertEquals(1, store.reads);
+    }
+
+    @Test
+    public void unknownSender_sentWithoutName() {
+        FakeStore store = new FakeStore();
+        store.users.put("bob", new PushStore.User("Bob", "token-bob"));
+        FakeSender sender = new FakeSender();
+        PushDispatcher dispatcher = new PushDispatcher(store, sender, 60000, 0);
+
+        dispatcher.enqueue("m1", "deleted", "bob", "Hi", 1);
+        dispatcher.flush();
+
+        JsonArray messages = JsonParser.parseString(sender.batches.get(0).get(0).data
+                .get(PushDispatcher.DATA_MESSAGES)).getAsJsonArray();
+        assertFalse(messages.get(0).getAsJsonObject().has("senderName"));
+    }
+
+    @Test
+    public void cachedUsers_notReadAgain() {
+        FakeStore store = new FakeStore();
+        store.users.put("alice", new PushStore.User("Alice", "token-alice"));
+        store.users.put("bob", new PushStore.User("Bob", "token-bob"));
+        PushDispatcher dispatcher = new PushDispatcher(store, new FakeSender(), 60000, 0);
+
+        dispatcher.enqueue("m1", "alice", "bob", "One", 1);
+        dispatcher.flush();
+        dispatcher.enqueue("m2", "alice", "bob", "Two", 2);
+        dispatcher.flush();
+
+        assertEquals(1, store.reads);
+        assertEquals(2, dispatcher.sentCount.get());
+    }
+
+    @Test
+    public void recipientsWithoutToken_andOwnMessages_areSkipped() {
+        FakeStore store = new FakeStore();
+        store.users.put("alice", new PushStore.User("Alice", null));
+        FakeSender sender = new FakeSender();
+        PushDispatcher dispatcher = new PushDispatcher(store, sender, 60000, 0);
+
+        dispatcher.enqueue("m1", "bob", "alice", "Hi", 1);
+        dispatcher.enqueue("m2", "alice", "alice", "Note to self", 2);
+        dispatcher.flush();
+
+        assertTrue(sender.batches.isEmpty());
+    }
+
+    @Test
+    public void temporaryFailures_retriedUntilSent() throws InterruptedException {
+        FakeStore store = new FakeStore();
+        store.users.put("alice", new PushStore.User("Alice", "token-alice"));
+        store.users.put("bob", new PushStore.User("Bob", "token-bob"));
+        FakeSender sender = new FakeSender();
+        sender.script.add(new IOException("Connection reset"));
+        sender.script.add(Arrays.asList(PushSender.Result.SENT, PushSender.Result.RETRY));
+        PushDispatcher dispatcher = new PushDispatcher(store, sender, 60000, 0);
+
+        dispatcher.enqueue("m1", "alice", "bob", "Hi", 1);
+        dispatcher.enqueue("m2", "bob", "alice", "Hello", 2);
+        dispatcher.flush();
+        // Retries run on the scheduler
+        for (int i = 0; i < 100 && dispatcher.sentCount.get() < 2; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(3, sender.batches.size());
+        assertEquals(1, sender.batches.get(2).size());
+        assertEquals("alice", sender.batches.get(2).get(0).recipientId);
+        assertEquals(2, dispatcher.sentCount.get());
+        assertEquals(0, dispatcher.droppedCount.get());
+    }
+
+    @Test
+    public void persistentFailures_droppedAfterMaxAttempts() throws InterruptedException {
+        FakeStore store = new FakeStore();
+        store.users.put("bob", new PushStore.User("Bob", "token-bob"));
+        FakeSender sender = new FakeSender();
+        for (int i = 0; i < PushDispatcher.MAX_ATTEMPTS; i++) {
+            sender.script.add(Arrays.asList(PushSender.Result.RETRY));
+        }
+        PushDispatcher dispatcher = new PushDispatcher(store, sender, 60000, 0);
+
+        dispatcher.enqueue("m1", "alice", "bob", "Hi", 1);
+        dispatcher.flush();
+        for (int i = 0; i < 100 && dispatcher.droppedCount.get() == 0; i++) {
+            Thread.sleep(10);
+        }
+
+        assertEquals(PushDispatcher.MAX_ATTEMPTS, sender.batches.size());
+        assertEquals(1, dispatcher.droppedCount.get());
+    }
+
+    @Test
+    public void rejectedToken_removedFromStoreAndCache() {
+        FakeStore store = new FakeStore();
+        store.users.put("bob", new PushStore.User("Bob", "stale-token"));
+        FakeSender sender = new FakeSender();
+        sender.script.add(Arrays.asList(PushSender.Result.INVALID_TOKEN));
+        PushDispatcher dispatcher = new PushDispatcher(store, sender, 60000, 0);
+
+        dispatcher.enqueue("m1", "alice", "bob", "Hi", 1);
+        dispatcher.flush();
+        assertEquals(Arrays.asList("bob:stale-token"), store.removedTokens);
+        assertEquals(1, dispatcher.invalidTokenCount.get());
+
+        // The cached user has no token any more, so nothing is sent to it
+        dispatcher.enqueue("m2", "alice", "bob", "Hi again", 2);
+        dispatcher.flush();
+        assertEquals(1, sender.batches.size());
+    }
+
+    @Test
+    public void largeWindows_splitIntoBatchesOfTheSenderLimit() {
+        FakeStore store = new FakeStore();
+        FakeSender sender = new FakeSender();
+        PushDispatcher dispatcher = new PushDispatcher(store, sender, 60000, 0);
+        int recipients = PushSender.MAX_BATCH_SIZE + 20;
+        for (int i = 0; i < recipients; i++) {
+            store.users.put("user" + i, new PushStore.User("User " + i, "token" + i));
+            dispatcher.enqueue("m" + i, "sender", "user" + i, "Hi", i);
+        }
+        dispatcher.flush();
+
+        assertEquals(2, sender.batches.size());
+        assertEquals(PushSender.MAX_BATCH_SIZE, sender.batches.get(0).size());
+        assertEquals(20, sender.batches.get(1).size());
+        assertEquals(recipients, dispatcher.sentCount.get());
+    }
+
+    @Test
+    public void window_flushedByTheScheduler() throws InterruptedException {
+        FakeStore store = new FakeStore();
+        store.users.put("bob", new PushStore.User("Bob", "token-bob"));
+        FakeSender sender = new FakeSender();
+        PushDispatcher dispatcher = new PushDispatcher(store, sender, 20, 0);
+
+        dispatcher.enqueue("m1", "alice", "bob", "Hi", 1);
+        dispatcher.enqueue("m2", "alice", "bob", "Hi again", 2);
+        for (int i = 0; i < 100 && dispatcher.sentCount.get() == 0; i++) {
+            Thread.sleep(10);
+        }
+        dispatcher.close();
+
+        assertEquals(1, dispatcher.sentCount.get());
+        assertEquals("2", sender.batches.get(0).get(0).data.get(PushDispatcher.DATA_COUNT));
+    }
+
+    /**
+     * User store held in memory, counting its reads.
+     */
+    private static class FakeStore implements PushStore {
+        final Map<String, User> users = new HashMap<>();
+        final List<String> removedTokens = new ArrayList<>();
+        int reads = 0;
+
+        @Override
+        public synchronized Map<String, User> getUsers(Collection<String> userIds) {
+            reads++;
+            Map<String, User> found = new HashMap<>();
+            for (String userId : userIds) {
+                if (users.containsKey(userId)) {
+                    found.put(userId, users.get(userId));
+                }
+            }
+            return found;
+        }
+
+        @Override
+        public synchronized void removeToken(String userId, String token) {
+            removedTokens.add(userId + ":" + token);
+        }
+    }
+
+    /**
+     * Push sender that records its batches and answers from a script, sending everything once
+     * the script is used up.
+     */
+    private static class FakeSender implements PushSender {
+        final List<List<PushMessage>> batches = new ArrayList<>();
+        final LinkedList<Object> script = new LinkedList<>();
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public synchronized List<Result> send(List<PushMessage> pushes) throws IOException {
+            batches.add(new ArrayList<>(pushes));
+            Object next = script.poll();
+            if (next instanceof IOException) {
+                throw (IOException) next;
+            }
+            if (next != null) {
+                return (List<Result>) next;
+            }
+            List<Result> results = new ArrayList<>();
+            for (int i = 0; i < pushes.size(); i++) {
+                results.add(Result.SENT);
+            }
+            return results;
+        }
+    }
+}